@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of fixed size byte arrays ("chunks") used to read HTTP response
+ * entities. Chunks are re-used across responses, and across DAO instances that
+ * use the same chunk size, so reading a response does not allocate a new
+ * growing array for every request.
+ *
+ * The pool is bounded, chunks released when the pool is full are left for the
+ * garbage collector.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class BufferPool {
+
+   static final int DEFAULT_CHUNK_SIZE = 8192;
+   static final int DEFAULT_MAX_POOLED = 256;
+
+   private static final Map<Integer, BufferPool> POOLS = new ConcurrentHashMap<>();
+
+   private final int _chunkSize;
+   private final int _maxPooled;
+   private final AtomicInteger _pooled = new AtomicInteger(0);
+   private final ConcurrentLinkedQueue<byte[]> _free = new ConcurrentLinkedQueue<>();
+
+   /**
+    * Constructor
+    *
+    * @param chunkSize int size, in bytes, of each chunk
+    * @param maxPooled int maximum number of idle chunks kept in the pool
+    */
+   private BufferPool(final int chunkSize, final int maxPooled) {
+      _chunkSize = chunkSize;
+      _maxPooled = maxPooled;
+
+      return;
+   }
+
+   /**
+    * Get the shared pool for the given chunk size
+    *
+    * @param chunkSize int size, in bytes, of each chunk
+    * @return BufferPool shared pool
+    */
+   static BufferPool getInstance(final int chunkSize) {
+      int size = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+
+      return POOLS.computeIfAbsent(size, k -> new BufferPool(k, DEFAULT_MAX_POOLED));
+   }
+
+   /**
+    * Get the size of the chunks managed by this pool
+    *
+    * @return int chunk size, in bytes
+    */
+   int getChunkSize() {
+      return _chunkSize;
+   }
+
+   /**
+    * Get a chunk from the pool, allocates a new chunk if the pool is empty
+    *
+    * @return byte[] chunk
+    */
+   byte[] acquire() {
+      byte[] chunk = _free.poll();
+
+      if (chunk != null) {
+         _pooled.decrementAndGet();
+      } else {
+         chunk = new byte[_chunkSize];
+      }
+
+      return chunk;
+   }
+
+   /**
+    * Return a chunk to the pool
+    *
+    * @param chunk byte[] chunk obtained from acquire()
+    */
+   void release(final byte[] chunk) {
+      if (chunk != null && chunk.length == _chunkSize) {
+         if (_pooled.incrementAndGet() <= _maxPooled) {
+            _free.offer(chunk);
+         } else {
+            _pooled.decrementAndGet();
+         }
+      }
+
+      return;
+   }
+}
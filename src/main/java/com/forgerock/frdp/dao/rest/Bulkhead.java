@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.simple.JSONObject;
+
+/**
+ * Bulkheads: limits of the requests in progress, for each operation type and
+ * for each tenant. A request needs a permit of its tenant (if it has one) and
+ * of its type, a request that does not get the permits within the wait time
+ * is rejected. A burst of one type (or one tenant) can not use the
+ * connections and the threads of the others.
+ *
+ * The tenant compartments are created when they are first used. At most
+ * MAX_TENANTS compartments are kept: when there are more, the compartments
+ * that have no requests in progress are evicted (their statistics are lost).
+ * A compartment is held from the acquire to the release of its permit, a
+ * held compartment is not evicted.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class Bulkhead {
+
+   /**
+    * Maximum number of tenant compartments, before the idle ones are evicted
+    */
+   static final int MAX_TENANTS = 1024;
+
+   private final long _waitMillis;
+   private final int _tenantLimit;
+   private final Map<String, Integer> _tenantLimits;
+   private final Map<OperationIF.TYPE, Compartment> _types = new EnumMap<>(OperationIF.TYPE.class);
+   private final Map<String, Compartment> _tenants = new ConcurrentHashMap<>();
+   private final AtomicLong _evictions = new AtomicLong(0L);
+
+   /**
+    * Constructor
+    *
+    * @param typeLimits Map limit of each operation type, a type without a
+    * limit is not limited
+    * @param tenantLimit int default limit of a tenant, 0 for no limit
+    * @param tenantLimits Map limits of specific tenants
+    * @param waitMillis long maximum wait for a permit, 0 to reject at once
+    */
+   Bulkhead(final Map<OperationIF.TYPE, Integer> typeLimits, final int tenantLimit,
+      final Map<String, Integer> tenantLimits, final long waitMillis) {
+      _waitMillis = Math.max(waitMillis, 0L);
+      _tenantLimit = tenantLimit;
+      _tenantLimits = tenantLimits;
+
+      for (Map.Entry<OperationIF.TYPE, Integer> entry : typeLimits.entrySet()) {
+         if (entry.getValue() > 0) {
+            _types.put(entry.getKey(), new Compartment(entry.getValue()));
+         }
+      }
+
+      return;
+   }
+
+   /**
+    * Acquire the permits of a request. If the request is not rejected, the
+    * permits must be released.
+    *
+    * @param type OperationIF.TYPE operation type
+    * @param tenant String tenant key, may be null
+    * @return String reason of the rejection, null if the permits are acquired
+    */
+   String acquire(final OperationIF.TYPE type, final String tenant) {
+      String reason = null;
+      Compartment typeCompartment = _types.get(type);
+      Compartment tenantCompartment = this.hold(tenant);
+
+      if (tenantCompartment != null && !tenantCompartment.acquire(_waitMillis)) {
+         reason = "tenant '" + tenant + "' has " + tenantCompartment._limit
+            + " requests in progress";
+
+         this.unhold(tenant);
+      } else if (typeCompartment != null && !typeCompartment.acquire(_waitMillis)) {
+         reason = type.toString() + " has " + typeCompartment._limit + " requests in progress";
+
+         if (tenantCompartment != null) {
+            tenantCompartment.release();
+            this.unhold(tenant);
+         }
+      }
+
+      return reason;
+   }
+
+   /**
+    * Release the permits of a request
+    *
+    * @param type OperationIF.TYPE operation type
+    * @param tenant String tenant key, may be null
+    */
+   void release(final OperationIF.TYPE type, final String tenant) {
+      Compartment typeCompartment = _types.get(type);
+      Compartment tenantCompartment = tenant == null ? null : _tenants.get(tenant);
+
+      if (typeCompartment != null) {
+         typeCompartment.release();
+      }
+
+      if (tenantCompartment != null) {
+         tenantCompartment.release(); // held, it is the acquired compartment
+         this.unhold(tenant);
+      }
+
+      return;
+   }
+
+   /**
+    * Get the bulkhead statistics: the limit, the requests in progress, the
+    * acquired and the rejected requests of each type and tenant
+    *
+    * @return JSONObject statistics
+    */
+   JSONObject getStats() {
+      JSONObject json = new JSONObject();
+      JSONObject jsonTypes = new JSONObject();
+      JSONObject jsonTenants = new JSONObject();
+
+      for (Map.Entry<OperationIF.TYPE, Compartment> entry : _types.entrySet()) {
+         jsonTypes.put(entry.getKey().toString(), entry.getValue().getStats());
+      }
+
+      for (Map.Entry<String, Compartment> entry : _tenants.entrySet()) {
+         jsonTenants.put(entry.getKey(), entry.getValue().getStats());
+      }
+
+      json.put("wait", _waitMillis);
+      json.put("types", jsonTypes);
+      json.put("tenants", jsonTenants);
+      json.put("tenantEvictions", _evictions.get());
+
+      return json;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Hold the compartment of a tenant, created when it is first used. A held
+    * compartment is not evicted, it must be released with unhold().
+    *
+    * @param tenant String tenant key, may be null
+    * @return Compartment compartment, null if the tenant is not limited
+    */
+   private Compartment hold(final String tenant) {
+      Compartment compartment = null;
+
+      if (tenant != null && _tenantLimits.getOrDefault(tenant, _tenantLimit) > 0) {
+         compartment = _tenants.compute(tenant, (key, value) -> {
+            Compartment held = value != null ? value
+               : new Compartment(_tenantLimits.getOrDefault(key, _tenantLimit));
+
+            held._holders++; // under the lock of the key
+            return held;
+         });
+
+         if (_tenants.size() > MAX_TENANTS) {
+            this.evict();
+         }
+      }
+
+      return compartment;
+   }
+
+   /**
+    * Release a compartment held by hold()
+    *
+    * @param tenant String tenant key
+    */
+   private void unhold(final String tenant) {
+      _tenants.computeIfPresent(tenant, (key, value) -> {
+         value._holders--;
+         return value;
+      });
+
+      return;
+   }
+
+   /**
+    * Evict the compartments that are not held, until there are at most
+    * MAX_TENANTS compartments
+    */
+   private void evict() {
+      for (String tenant : _tenants.keySet()) {
+         if (_tenants.size() <= MAX_TENANTS) {
+            break;
+         }
+
+         if (_tenants.computeIfPresent(tenant,
+            (key, value) -> value._holders == 0 ? null : value) == null) {
+            _evictions.incrementAndGet();
+         }
+      }
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE CLASSES ===============
+    */
+   /**
+    * Permits of a type or a tenant
+    */
+   private static final class Compartment {
+
+      private final int _limit;
+      private final Semaphore _permits;
+      private final AtomicLong _acquired = new AtomicLong(0L);
+      private final AtomicLong _rejected = new AtomicLong(0L);
+      private int _holders = 0; // updated under the map lock of the tenant
+
+      private Compartment(final int limit) {
+         _limit = limit;
+         _permits = new Semaphore(limit);
+      }
+
+      private boolean acquire(final long waitMillis) {
+         boolean acquired = _permits.tryAcquire();
+
+         if (!acquired && waitMillis > 0L) {
+            try {
+               acquired = _permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+               Thread.currentThread().interrupt();
+            }
+         }
+
+         if (acquired) {
+            _acquired.incrementAndGet();
+         } else {
+            _rejected.incrementAndGet();
+         }
+
+         return acquired;
+      }
+
+      private void release() {
+         _permits.release();
+
+         return;
+      }
+
+      private JSONObject getStats() {
+         JSONObject json = new JSONObject();
+
+         json.put("limit", _limit);
+         json.put("active", _limit - _permits.availablePermits());
+         json.put("acquired", _acquired.get());
+         json.put("rejected", _rejected.get());
+
+         return json;
+      }
+   }
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Map;
+import javax.ws.rs.core.MediaType;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * CBOR (RFC 8949) encoding of JSON values. Decoded values have the
+ * json-simple types: maps are JSONObject (non text keys are converted to
+ * text), arrays are JSONArray, integers are Long (Double if they overflow),
+ * floats are Double, byte strings are base64url text. Tags are ignored,
+ * their content is decoded. Indefinite length items are supported.
+ *
+ * Encoded doubles use 4 bytes when the value is exact as a float.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class CborCodec {
+
+   static final String TYPE_CBOR = "application/cbor";
+   static final MediaType MEDIA_TYPE = new MediaType("application", "cbor");
+
+   private static final int MAX_DEPTH = 512;
+   private static final int BREAK = 0xff;
+   private static final Object END = new Object();
+
+   private CborCodec() {
+   }
+
+   /**
+    * Check if the media type is CBOR: "application/cbor" or a "+cbor" suffix
+    *
+    * @param mediaType MediaType media type, may be null
+    * @return boolean true for CBOR
+    */
+   static boolean isCbor(final MediaType mediaType) {
+      return mediaType != null && "application".equalsIgnoreCase(mediaType.getType())
+         && ("cbor".equalsIgnoreCase(mediaType.getSubtype())
+         || mediaType.getSubtype().toLowerCase().endsWith("+cbor"));
+   }
+
+   /**
+    * Decode one CBOR item
+    *
+    * @param in InputStream encoded bytes
+    * @return Object decoded value
+    * @throws IOException truncated or invalid CBOR
+    */
+   static Object decode(final InputStream in) throws IOException {
+      Object value = decode(in, 0);
+
+      if (value == END) {
+         throw new IOException("Invalid CBOR: unexpected break");
+      }
+
+      return value;
+   }
+
+   /**
+    * Encode a value: Map, Collection, String, Number, Boolean or null, other
+    * values are encoded as text
+    *
+    * @param value Object value
+    * @return byte[] encoded bytes
+    */
+   static byte[] encode(final Object value) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+
+      encode(value, out);
+
+      return out.toByteArray();
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   private static Object decode(final InputStream in, final int depth) throws IOException {
+      int initial = 0;
+      int major = 0;
+      int info = 0;
+      boolean indefinite = false;
+      long length = 0L;
+      Object key = null;
+      Object item = null;
+      Object value = null;
+      JSONObject json = null;
+      JSONArray array = null;
+
+      if (depth > MAX_DEPTH) {
+         throw new IOException("Invalid CBOR: nesting is deeper than " + MAX_DEPTH);
+      }
+
+      initial = read(in);
+      major = initial >>> 5;
+      info = initial & 0x1f;
+
+      if (initial == BREAK) {
+         value = END;
+      } else if (major == 7) {
+         value = simple(in, info);
+      } else {
+         indefinite = info == 31;
+         length = indefinite ? 0L : argument(in, info);
+
+         if (indefinite && (major < 2 || major == 6)) {
+            throw new IOException("Invalid CBOR: indefinite length of major type " + major);
+         } else if (length < 0L && major >= 2 && major <= 5) {
+            throw new IOException("Invalid CBOR: length is too large");
+         }
+
+         switch (major) {
+            case 0:
+               value = length >= 0L ? (Number) length : (Number) unsigned(length);
+               break;
+            case 1:
+               value = length >= 0L ? (Number) (-1L - length) : (Number) (-1.0 - unsigned(length));
+               break;
+            case 2:
+               value = Base64.getUrlEncoder().withoutPadding()
+                  .encodeToString(bytes(in, major, indefinite ? -1L : length));
+               break;
+            case 3:
+               value = new String(bytes(in, major, indefinite ? -1L : length), StandardCharsets.UTF_8);
+               break;
+            case 4:
+               array = new JSONArray();
+
+               for (long i = 0L; indefinite || i < length; i++) {
+                  item = decode(in, depth + 1);
+
+                  if (item == END) {
+                     if (!indefinite) {
+                        throw new IOException("Invalid CBOR: unexpected break");
+                     }
+                     break;
+                  }
+
+                  array.add(item);
+               }
+
+               value = array;
+               break;
+            case 5:
+               json = new JSONObject();
+
+               for (long i = 0L; indefinite || i < length; i++) {
+                  key = decode(in, depth + 1);
+
+                  if (key == END) {
+                     if (!indefinite) {
+                        throw new IOException("Invalid CBOR: unexpected break");
+                     }
+                     break;
+                  }
+
+                  item = decode(in, depth + 1);
+
+                  if (item == END) {
+                     throw new IOException("Invalid CBOR: map without a value");
+                  }
+
+                  json.put(key instanceof String ? key : String.valueOf(key), item);
+               }
+
+               value = json;
+               break;
+            default: // 6, tag
+               value = decode(in, depth + 1);
+               break;
+         }
+      }
+
+      return value;
+   }
+
+   /**
+    * Decode a simple value or a float
+    *
+    * @param in InputStream input
+    * @param info int additional information
+    * @return Object Boolean, Double or null
+    * @throws IOException invalid simple value
+    */
+   private static Object simple(final InputStream in, final int info) throws IOException {
+      Object value = null;
+
+      switch (info) {
+         case 20:
+            value = Boolean.FALSE;
+            break;
+         case 21:
+            value = Boolean.TRUE;
+            break;
+         case 22: // null
+         case 23: // undefined
+            value = null;
+            break;
+         case 24:
+            read(in); // simple value, decoded as null
+            value = null;
+            break;
+         case 25:
+            value = half((int) argument(in, 25));
+            break;
+         case 26:
+            value = (double) Float.intBitsToFloat((int) argument(in, 26));
+            break;
+         case 27:
+            value = Double.longBitsToDouble(argument(in, 27));
+            break;
+         default:
+            if (info < 20) {
+               value = null; // unassigned simple value
+            } else {
+               throw new IOException("Invalid CBOR: simple value " + info);
+            }
+            break;
+      }
+
+      return value;
+   }
+
+   /**
+    * Read the argument of an item: the additional information, or the 1, 2,
+    * 4 or 8 bytes that follow
+    *
+    * @param in InputStream input
+    * @param info int additional information
+    * @return long argument, a negative value is an unsigned 64 bit value
+    * @throws IOException invalid additional information
+    */
+   private static long argument(final InputStream in, final int info) throws IOException {
+      int count = 0;
+      long value = 0L;
+
+      if (info < 24) {
+         value = info;
+      } else if (info <= 27) {
+         count = 1 << (info - 24);
+
+         for (int i = 0; i < count; i++) {
+            value = (value << 8) | read(in);
+         }
+      } else {
+         throw new IOException("Invalid CBOR: additional information " + info);
+      }
+
+      return value;
+   }
+
+   /**
+    * Read the bytes of a byte or text string, the chunks of an indefinite
+    * length string are concatenated
+    *
+    * @param in InputStream input
+    * @param major int major type
+    * @param length long length, -1 for indefinite length
+    * @return byte[] bytes
+    * @throws IOException truncated or invalid string
+    */
+   private static byte[] bytes(final InputStream in, final int major, final long length)
+      throws IOException {
+      int initial = 0;
+      long chunk = 0L;
+      byte[] bytes = null;
+      ByteArrayOutputStream out = null;
+
+      if (length >= 0L) {
+         if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Invalid CBOR: string is too long");
+         }
+
+         bytes = new byte[(int) length];
+
+         for (int pos = 0, count = 0; pos < bytes.length; pos += count) {
+            count = in.read(bytes, pos, bytes.length - pos);
+
+            if (count < 0) {
+               throw new EOFException("Truncated CBOR string");
+            }
+         }
+      } else {
+         out = new ByteArrayOutputStream();
+
+         while ((initial = read(in)) != BREAK) {
+            if (initial >>> 5 != major || (initial & 0x1f) == 31) {
+               throw new IOException("Invalid CBOR: string chunk");
+            }
+
+            chunk = argument(in, initial & 0x1f);
+
+            if (chunk < 0L) {
+               throw new IOException("Invalid CBOR: length is too large");
+            }
+
+            out.write(bytes(in, major, chunk));
+         }
+
+         bytes = out.toByteArray();
+      }
+
+      return bytes;
+   }
+
+   private static int read(final InputStream in) throws IOException {
+      int b = in.read();
+
+      if (b < 0) {
+         throw new EOFException("Truncated CBOR");
+      }
+
+      return b;
+   }
+
+   private static double unsigned(final long value) {
+      return (double) (value >>> 1) * 2.0 + (value & 1L);
+   }
+
+   private static double half(final int bits) {
+      int exponent = (bits >> 10) & 0x1f;
+      int mantissa = bits & 0x3ff;
+      double value = 0.0;
+
+      if (exponent == 0) {
+         value = mantissa * Math.pow(2, -24);
+      } else if (exponent == 31) {
+         value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+      } else {
+         value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+      }
+
+      return (bits & 0x8000) == 0 ? value : -value;
+   }
+
+   private static void encode(final Object value, final ByteArrayOutputStream out) {
+      byte[] bytes = null;
+      double d = 0.0;
+
+      if (value == null) {
+         out.write(0xf6);
+      } else if (value instanceof Boolean) {
+         out.write((Boolean) value ? 0xf5 : 0xf4);
+      } else if (value instanceof String) {
+         bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+         head(3, bytes.length, out);
+         out.write(bytes, 0, bytes.length);
+      } else if (value instanceof Long || value instanceof Integer
+         || value instanceof Short || value instanceof Byte) {
+         if (((Number) value).longValue() >= 0L) {
+            head(0, ((Number) value).longValue(), out);
+         } else {
+            head(1, -1L - ((Number) value).longValue(), out);
+         }
+      } else if (value instanceof Number) {
+         d = ((Number) value).doubleValue();
+
+         if ((double) (float) d == d || Double.isNaN(d)) {
+            out.write(0xfa);
+            write(Float.floatToIntBits((float) d), 4, out);
+         } else {
+            out.write(0xfb);
+            write(Double.doubleToLongBits(d), 8, out);
+         }
+      } else if (value instanceof Map) {
+         head(5, ((Map<?, ?>) value).size(), out);
+
+         for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            encode(String.valueOf(entry.getKey()), out);
+            encode(entry.getValue(), out);
+         }
+      } else if (value instanceof Collection) {
+         head(4, ((Collection<?>) value).size(), out);
+
+         for (Object item : (Collection<?>) value) {
+            encode(item, out);
+         }
+      } else {
+         encode(value.toString(), out);
+      }
+
+      return;
+   }
+
+   /**
+    * Write the initial byte and the argument, in the shortest form
+    *
+    * @param major int major type
+    * @param argument long argument, not negative
+    * @param out ByteArrayOutputStream output
+    */
+   private static void head(final int major, final long argument, final ByteArrayOutputStream out) {
+      if (argument < 24L) {
+         out.write((major << 5) | (int) argument);
+      } else if (argument <= 0xffL) {
+         out.write((major << 5) | 24);
+         write(argument, 1, out);
+      } else if (argument <= 0xffffL) {
+         out.write((major << 5) | 25);
+         write(argument, 2, out);
+      } else if (argument <= 0xffffffffL) {
+         out.write((major << 5) | 26);
+         write(argument, 4, out);
+      } else {
+         out.write((major << 5) | 27);
+         write(argument, 8, out);
+      }
+
+      return;
+   }
+
+   private static void write(final long value, final int count, final ByteArrayOutputStream out) {
+      for (int i = count - 1; i >= 0; i--) {
+         out.write((int) (value >>> (8 * i)) & 0xff);
+      }
+
+      return;
+   }
+}
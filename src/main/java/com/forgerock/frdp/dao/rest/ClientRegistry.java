@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import org.glassfish.jersey.client.ClientConfig;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Registry of shared Jersey clients. DAO instances with the same effective
+ * client configuration (and host, for per-host clients) share one client, its
+ * runtime and its connection pool, so creating a DAO does not create a new
+ * client.
+ *
+ * Clients are reference counted: each acquire() must be matched by a
+ * release(), the client is closed when the last reference is released.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class ClientRegistry {
+
+   private static final ClientRegistry INSTANCE = new ClientRegistry();
+
+   private final Map<String, Entry> _entries = new HashMap<>();
+   private final Map<Client, Entry> _clients = new IdentityHashMap<>();
+
+   /**
+    * Constructor
+    */
+   private ClientRegistry() {
+      return;
+   }
+
+   /**
+    * Get the shared registry
+    *
+    * @return ClientRegistry shared registry
+    */
+   static ClientRegistry getInstance() {
+      return INSTANCE;
+   }
+
+   /**
+    * Get the registry key of a client configuration, the sorted properties
+    *
+    * @param config ClientConfig client configuration
+    * @param host String host, "protocol://host:port", null for a client that
+    * is used for all the hosts
+    * @return String key
+    */
+   static String getKey(final ClientConfig config, final String host) {
+      return new TreeMap<>(config.getProperties()).toString()
+         + (host == null ? "" : " " + host);
+   }
+
+   /**
+    * Get a client for the key, the client is created if the key does not have
+    * a client. Increments the reference count.
+    *
+    * @param key String registry key, see getKey()
+    * @param config ClientConfig configuration of a new client
+    * @return Client shared client
+    */
+   Client acquire(final String key, final ClientConfig config) {
+      Entry entry = null;
+
+      synchronized (this) {
+         entry = _entries.get(key);
+
+         if (entry == null) {
+            entry = new Entry(key, ClientBuilder.newClient(config));
+            _entries.put(key, entry);
+            _clients.put(entry._client, entry);
+         }
+
+         entry._references++;
+      }
+
+      return entry._client;
+   }
+
+   /**
+    * Release a client, the client is closed when its reference count is zero.
+    * A client that is not in the registry is closed.
+    *
+    * @param client Client client from acquire()
+    */
+   void release(final Client client) {
+      boolean close = false;
+      Entry entry = null;
+
+      if (client != null) {
+         synchronized (this) {
+            entry = _clients.get(client);
+
+            if (entry == null) {
+               close = true;
+            } else if (--entry._references <= 0) {
+               _clients.remove(client);
+               _entries.remove(entry._key);
+               close = true;
+            }
+         }
+
+         if (close) {
+            client.close();
+         }
+      }
+
+      return;
+   }
+
+   /**
+    * Get the registry statistics
+    *
+    * @return JSONObject statistics, the clients and their reference count
+    */
+   synchronized JSONObject getStats() {
+      JSONObject json = new JSONObject();
+      JSONObject jsonClient = null;
+      JSONArray array = new JSONArray();
+
+      for (Entry entry : _entries.values()) {
+         jsonClient = new JSONObject();
+         jsonClient.put("key", entry._key);
+         jsonClient.put("references", entry._references);
+         array.add(jsonClient);
+      }
+
+      json.put("clients", array);
+
+      return json;
+   }
+
+   /*
+    * =============== PRIVATE CLASSES ===============
+    */
+   /**
+    * Shared client with its reference count, guarded by the registry
+    */
+   private static final class Entry {
+
+      private final String _key;
+      private final Client _client;
+      private int _references = 0;
+
+      private Entry(final String key, final Client client) {
+         _key = key;
+         _client = client;
+      }
+   }
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.dao.OperationIF;
+
+/**
+ * Interface for receiving the output of an operation that completes in the
+ * background.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public interface CompletionListenerIF {
+
+   /**
+    * Called when the operation has completed
+    *
+    * @param operInput OperationIF input operation
+    * @param operOutput OperationIF output operation
+    */
+   public void completed(OperationIF operInput, OperationIF operOutput);
+}
@@ -0,0 +1,955 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import org.json.simple.JSONObject;
+
+/**
+ * Persistent response cache: append-only segment files, memory mapped, with
+ * an in-memory index of the live records. Each record has the key, the
+ * validators of the response ("ETag", "Last-Modified"), the time it was
+ * stored and the value. A removed key is written as a tombstone record.
+ *
+ * <pre>
+ * record: magic(4) length(4) storedAt(8) flags(2) keyLength(2) etagLength(2)
+ *         lastModifiedLength(2) valueLength(4) key etag lastModified value crc(4)
+ * </pre>
+ *
+ * Segment files have a fixed size, a new segment is started when the active
+ * segment is full. When the total size is over the maximum, the oldest
+ * segment is dropped. The oldest segments with a low ratio of live records
+ * are compacted: their live records are appended to the active segment and
+ * the file is deleted. Compaction runs on a background thread, the lock of
+ * the cache is only held to move one record at a time: the READ that starts
+ * a segment does not wait for the compaction, the other callers are not
+ * blocked by the copy.
+ *
+ * A key can have variants: the key, a line feed and a suffix (the responses
+ * of different callers). Removing a key also removes its variants.
+ *
+ * The directory is used by one object: an exclusive lock of the "lock" file
+ * is taken when the cache is opened and released on close(). A directory
+ * that is locked (by this or another process) can not be opened.
+ *
+ * The index is saved to "index.dat" on close(). At startup the index file is
+ * used if it matches the segments, else the segments are scanned and the
+ * records are verified (crc), a torn record ends its segment.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class DiskCache {
+
+   static final char VARIANT = '\n';
+
+   private static final int MAGIC = 0x46524450;
+   private static final int INDEX_MAGIC = 0x46524449;
+   private static final int HEADER = 28;
+   private static final short TOMBSTONE = 1;
+   private static final String INDEX_FILE = "index.dat";
+   private static final String LOCK_FILE = "lock";
+   private static final String SEGMENT_PREFIX = "segment-";
+   private static final String SEGMENT_SUFFIX = ".dat";
+
+   private final String CLASS = this.getClass().getName();
+   private final Logger _logger = Logger.getLogger(CLASS);
+   private final File _dir;
+   private final int _segmentSize;
+   private final long _maxBytes;
+   private final double _compactRatio;
+   private final TreeMap<Integer, Segment> _segments = new TreeMap<>();
+   private final TreeMap<String, Location> _index = new TreeMap<>();
+   private Segment _active = null;
+   private FileChannel _lockChannel = null;
+   private FileLock _lock = null;
+   private final ExecutorService _compactor;
+   private boolean _compacting = false;
+   private long _stamp = 0L;
+   private long _hits = 0L;
+   private long _misses = 0L;
+   private long _compactions = 0L;
+   private long _dropped = 0L;
+
+   /**
+    * Constructor, opens the segments and loads the index
+    *
+    * @param dir File directory of the segment files, created if needed
+    * @param maxBytes long maximum size of the segment files
+    * @param segmentSize int size of a segment file
+    * @param compactRatio double live ratio under which a segment is compacted
+    * @throws IOException could not open the cache, or the directory is locked
+    */
+   DiskCache(final File dir, final long maxBytes, final int segmentSize,
+      final double compactRatio) throws IOException {
+      _dir = dir;
+      _segmentSize = Math.max(segmentSize, 64 * 1024);
+      _maxBytes = Math.max(maxBytes, 2L * _segmentSize);
+      _compactRatio = compactRatio;
+      _compactor = Executors.newSingleThreadExecutor(runnable -> {
+         Thread thread = new Thread(runnable, "RestDataAccess-compact");
+         thread.setDaemon(true);
+         return thread;
+      });
+
+      if (!_dir.isDirectory() && !_dir.mkdirs()) {
+         throw new IOException("Could not create directory: " + _dir.getPath());
+      }
+
+      this.lock();
+
+      try {
+         this.open();
+      } catch (IOException | RuntimeException ex) {
+         for (Segment segment : _segments.values()) {
+            segment.close();
+         }
+
+         this.unlock();
+         _compactor.shutdownNow();
+         throw ex;
+      }
+
+      return;
+   }
+
+   /**
+    * Get the entry of the key
+    *
+    * @param key String key
+    * @return Entry entry, null if the key is not cached
+    */
+   synchronized Entry get(final String key) {
+      Entry entry = null;
+      Location location = _index.get(key);
+
+      if (location == null) {
+         _misses++;
+      } else {
+         _hits++;
+         entry = this.read(location);
+      }
+
+      return entry;
+   }
+
+   /**
+    * Get the stamp, the number of removals. See put()
+    *
+    * @return long stamp
+    */
+   synchronized long stamp() {
+      return _stamp;
+   }
+
+   /**
+    * Store the value of the key, if no key was removed since the stamp and
+    * the cache is not closed
+    *
+    * @param key String key
+    * @param etag String "ETag" of the response, may be null
+    * @param lastModified String "Last-Modified" of the response, may be null
+    * @param value byte[] value
+    * @param stamp long stamp, from stamp(), before the value was loaded
+    */
+   synchronized void put(final String key, final String etag, final String lastModified,
+      final byte[] value, final long stamp) {
+      if (stamp == _stamp && _active != null) {
+         this.append(key, etag, lastModified, value, System.currentTimeMillis(), (short) 0);
+      }
+
+      return;
+   }
+
+   /**
+    * Set the stored time of the key to now, the response was revalidated.
+    * The time is not persisted.
+    *
+    * @param key String key
+    */
+   synchronized void touch(final String key) {
+      Location location = _index.get(key);
+
+      if (location != null) {
+         location._storedAt = System.currentTimeMillis();
+      }
+
+      return;
+   }
+
+   /**
+    * Remove the key and its variants, a tombstone record is written for each
+    *
+    * @param key String key
+    */
+   synchronized void remove(final String key) {
+      List<String> keys = new ArrayList<>(_index.subMap(key + VARIANT, key + (char) (VARIANT + 1))
+         .keySet());
+
+      _stamp++;
+
+      if (_index.containsKey(key)) {
+         keys.add(key);
+      }
+
+      for (String k : keys) {
+         this.append(k, null, null, new byte[0], System.currentTimeMillis(), TOMBSTONE);
+      }
+
+      return;
+   }
+
+   /**
+    * Compact the segments that have a low ratio of live records, oldest
+    * first, up to the first segment that does not. A tombstone that is not
+    * copied can only hide records of older segments, which are compacted.
+    * Runs on the calling thread, see startSegment() for the background
+    * compaction.
+    */
+   void compact() {
+      List<Segment> sealed = new ArrayList<>();
+
+      synchronized (this) {
+         for (Segment segment : _segments.values()) {
+            if (segment == _active
+               || (segment._end > 0 && (double) segment._live / segment._end >= _compactRatio)) {
+               break;
+            }
+            sealed.add(segment);
+         }
+      }
+
+      for (Segment segment : sealed) {
+         this.compact(segment);
+      }
+
+      return;
+   }
+
+   /**
+    * Save the index, the segment files are closed
+    */
+   synchronized void close() {
+      _compactor.shutdownNow(); // a running compaction stops at its next record
+
+      try {
+         this.saveIndex();
+      } catch (IOException ex) {
+         _logger.log(Level.WARNING, "close: could not save index: {0}", ex.getMessage());
+      }
+
+      for (Segment segment : _segments.values()) {
+         segment.close();
+      }
+
+      _segments.clear();
+      _index.clear();
+      _active = null;
+
+      this.unlock();
+
+      return;
+   }
+
+   /**
+    * Get the cache statistics
+    *
+    * @return JSONObject statistics
+    */
+   synchronized JSONObject getStats() {
+      long bytes = 0L;
+      long live = 0L;
+      JSONObject json = new JSONObject();
+
+      for (Segment segment : _segments.values()) {
+         bytes += segment._end;
+         live += segment._live;
+      }
+
+      json.put("directory", _dir.getPath());
+      json.put("segments", _segments.size());
+      json.put("bytes", bytes);
+      json.put("liveBytes", live);
+      json.put("entries", _index.size());
+      json.put("hits", _hits);
+      json.put("misses", _misses);
+      json.put("compactions", _compactions);
+      json.put("droppedSegments", _dropped);
+
+      return json;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Take the exclusive lock of the directory
+    *
+    * @throws IOException the directory is locked, or the lock file could not
+    * be opened
+    */
+   private void lock() throws IOException {
+      _lockChannel = FileChannel.open(new File(_dir, LOCK_FILE).toPath(),
+         StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+      try {
+         _lock = _lockChannel.tryLock();
+      } catch (OverlappingFileLockException ex) {
+         _lock = null; // held by another object of this JVM
+      }
+
+      if (_lock == null) {
+         _lockChannel.close();
+         _lockChannel = null;
+         throw new IOException("Directory is used by another cache: " + _dir.getPath());
+      }
+
+      return;
+   }
+
+   /**
+    * Release the lock of the directory
+    */
+   private void unlock() {
+      if (_lockChannel != null) {
+         try {
+            _lockChannel.close(); // releases the lock
+         } catch (IOException ex) {
+            _logger.log(Level.WARNING, "unlock: {0}", ex.getMessage());
+         }
+
+         _lockChannel = null;
+         _lock = null;
+      }
+
+      return;
+   }
+
+   /**
+    * Open the segment files, load the index file or scan the segments
+    *
+    * @throws IOException could not open a segment
+    */
+   private void open() throws IOException {
+      String name = null;
+      File[] files = _dir.listFiles();
+
+      if (files != null) {
+         for (File file : files) {
+            name = file.getName();
+
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+               try {
+                  _segments.put(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                     name.length() - SEGMENT_SUFFIX.length())), new Segment(file, false));
+               } catch (NumberFormatException ex) {
+                  _logger.log(Level.WARNING, "open: ignored file ''{0}''", name);
+               }
+            }
+         }
+      }
+
+      for (Map.Entry<Integer, Segment> entry : _segments.entrySet()) {
+         entry.getValue()._id = entry.getKey();
+      }
+
+      if (!this.loadIndex()) {
+         _index.clear();
+
+         for (Segment segment : _segments.values()) {
+            this.scan(segment);
+         }
+      }
+
+      if (_segments.isEmpty()) {
+         this.startSegment();
+      } else {
+         _active = _segments.lastEntry().getValue();
+      }
+
+      return;
+   }
+
+   /**
+    * Load the index file, if it matches the segments: the same segments, and
+    * no records after the end of each segment
+    *
+    * @return boolean true if the index was loaded
+    */
+   private boolean loadIndex() {
+      boolean loaded = false;
+      int count = 0;
+      int id = 0;
+      String key = null;
+      Segment segment = null;
+      Location location = null;
+      File file = new File(_dir, INDEX_FILE);
+
+      if (file.isFile()) {
+         try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() == INDEX_MAGIC) {
+               count = in.readInt();
+               loaded = count == _segments.size();
+
+               for (int i = 0; i < count && loaded; i++) {
+                  segment = _segments.get(in.readInt());
+
+                  if (segment == null) {
+                     loaded = false;
+                  } else {
+                     segment._end = in.readInt();
+                     loaded = segment._end <= segment._buffer.capacity() - 4
+                        && segment._buffer.getInt(segment._end) == 0;
+                  }
+               }
+
+               count = loaded ? in.readInt() : 0;
+
+               for (int i = 0; i < count; i++) {
+                  key = in.readUTF();
+                  id = in.readInt();
+                  segment = _segments.get(id);
+                  location = new Location(segment, in.readInt(), in.readInt(), in.readLong());
+
+                  if (segment == null) {
+                     loaded = false;
+                     break;
+                  }
+
+                  segment._live += location._length;
+                  _index.put(key, location);
+               }
+            }
+         } catch (IOException | RuntimeException ex) {
+            _logger.log(Level.WARNING, "loadIndex: {0}", ex.getMessage());
+            loaded = false;
+         }
+
+         if (!file.delete()) {
+            _logger.log(Level.WARNING, "loadIndex: could not delete ''{0}''", file.getPath());
+         }
+      }
+
+      if (!loaded) {
+         for (Segment s : _segments.values()) {
+            s._end = 0;
+            s._live = 0L;
+         }
+      }
+
+      return loaded;
+   }
+
+   /**
+    * Save the index file, written to a temporary file then renamed
+    *
+    * @throws IOException could not write the file
+    */
+   private void saveIndex() throws IOException {
+      File temp = new File(_dir, INDEX_FILE + ".tmp");
+
+      try (DataOutputStream out = new DataOutputStream(
+         new BufferedOutputStream(new FileOutputStream(temp)))) {
+         out.writeInt(INDEX_MAGIC);
+         out.writeInt(_segments.size());
+
+         for (Segment segment : _segments.values()) {
+            out.writeInt(segment._id);
+            out.writeInt(segment._end);
+         }
+
+         out.writeInt(_index.size());
+
+         for (Map.Entry<String, Location> entry : _index.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue()._segment._id);
+            out.writeInt(entry.getValue()._offset);
+            out.writeInt(entry.getValue()._length);
+            out.writeLong(entry.getValue()._storedAt);
+         }
+      }
+
+      Files.move(temp.toPath(), new File(_dir, INDEX_FILE).toPath(),
+         StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+      return;
+   }
+
+   /**
+    * Scan the records of a segment, add them to the index. A record that is
+    * not complete, or does not match its crc, ends the segment.
+    *
+    * @param segment Segment segment
+    */
+   private void scan(final Segment segment) {
+      int offset = 0;
+      int length = 0;
+      short flags = 0;
+      String key = null;
+      ByteBuffer buffer = segment._buffer;
+      Location previous = null;
+
+      while (offset <= buffer.capacity() - HEADER - 4 && buffer.getInt(offset) == MAGIC) {
+         length = buffer.getInt(offset + 4);
+
+         if (length < HEADER + 4 || offset + length > buffer.capacity()
+            || !this.isValid(buffer, offset, length)) {
+            break;
+         }
+
+         flags = buffer.getShort(offset + 16);
+         key = this.getString(buffer, offset + HEADER, buffer.getShort(offset + 18));
+         previous = _index.remove(key);
+
+         if (previous != null) {
+            previous._segment._live -= previous._length;
+         }
+
+         if (flags != TOMBSTONE) {
+            _index.put(key, new Location(segment, offset, length, buffer.getLong(offset + 8)));
+            segment._live += length;
+         }
+
+         offset += length;
+      }
+
+      segment._end = offset;
+
+      return;
+   }
+
+   /**
+    * Append a record to the active segment, a new segment is started if it
+    * is full. A record that is larger than a segment is not stored.
+    *
+    * @param key String key
+    * @param etag String etag, may be null
+    * @param lastModified String last modified, may be null
+    * @param value byte[] value
+    * @param storedAt long time the value was stored
+    * @param flags short record flags
+    */
+   private void append(final String key, final String etag, final String lastModified,
+      final byte[] value, final long storedAt, final short flags) {
+      int length = 0;
+      byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+      byte[] etagBytes = etag == null ? new byte[0] : etag.getBytes(StandardCharsets.UTF_8);
+      byte[] lmBytes = lastModified == null ? new byte[0] : lastModified.getBytes(StandardCharsets.UTF_8);
+
+      length = HEADER + keyBytes.length + etagBytes.length + lmBytes.length + value.length + 4;
+
+      if (keyBytes.length > Short.MAX_VALUE || etagBytes.length > Short.MAX_VALUE
+         || lmBytes.length > Short.MAX_VALUE || length > _segmentSize - 4) {
+         _logger.log(Level.FINE, "append: record too large for a segment: {0}", length);
+      } else if (_active._end + length > _segmentSize - 4) {
+         try {
+            this.startSegment();
+         } catch (IOException ex) {
+            _logger.log(Level.WARNING, "append: could not start segment: {0}", ex.getMessage());
+         }
+      }
+
+      if (length <= _segmentSize - 4 && _active._end + length <= _segmentSize - 4
+         && keyBytes.length <= Short.MAX_VALUE && etagBytes.length <= Short.MAX_VALUE
+         && lmBytes.length <= Short.MAX_VALUE) {
+         this.write(key, keyBytes, etagBytes, lmBytes, value, storedAt, flags, length);
+      }
+
+      return;
+   }
+
+   /**
+    * Write a record at the end of the active segment, updates the index
+    *
+    * @param key String key
+    * @param keyBytes byte[] key
+    * @param etagBytes byte[] etag
+    * @param lmBytes byte[] last modified
+    * @param value byte[] value
+    * @param storedAt long time the value was stored
+    * @param flags short record flags
+    * @param length int record length
+    */
+   private void write(final String key, final byte[] keyBytes, final byte[] etagBytes,
+      final byte[] lmBytes, final byte[] value, final long storedAt, final short flags,
+      final int length) {
+      int offset = 0;
+      ByteBuffer buffer = null;
+      CRC32 crc = new CRC32();
+      Location previous = null;
+
+      buffer = _active._buffer;
+      offset = _active._end;
+
+      buffer.putInt(offset, MAGIC);
+      buffer.putInt(offset + 4, length);
+      buffer.putLong(offset + 8, storedAt);
+      buffer.putShort(offset + 16, flags);
+      buffer.putShort(offset + 18, (short) keyBytes.length);
+      buffer.putShort(offset + 20, (short) etagBytes.length);
+      buffer.putShort(offset + 22, (short) lmBytes.length);
+      buffer.putInt(offset + 24, value.length);
+      buffer.position(offset + HEADER);
+      buffer.put(keyBytes).put(etagBytes).put(lmBytes).put(value);
+
+      crc.update(this.slice(buffer, offset + 8, length - 12));
+      buffer.putInt(offset + length - 4, (int) crc.getValue());
+      buffer.putInt(offset + length, 0); // end marker
+
+      _active._end = offset + length;
+
+      previous = _index.remove(key);
+
+      if (previous != null) {
+         previous._segment._live -= previous._length;
+      }
+
+      if (flags != TOMBSTONE) {
+         _index.put(key, new Location(_active, offset, length, storedAt));
+         _active._live += length;
+      }
+
+      return;
+   }
+
+   /**
+    * Read the entry of a record
+    *
+    * @param location Location location of the record
+    * @return Entry entry
+    */
+   private Entry read(final Location location) {
+      int offset = location._offset;
+      int keyLength = 0;
+      int etagLength = 0;
+      int lmLength = 0;
+      byte[] value = null;
+      ByteBuffer buffer = location._segment._buffer.duplicate(); // read by the compaction too
+
+      keyLength = buffer.getShort(offset + 18);
+      etagLength = buffer.getShort(offset + 20);
+      lmLength = buffer.getShort(offset + 22);
+      value = new byte[buffer.getInt(offset + 24)];
+
+      buffer.position(offset + HEADER + keyLength + etagLength + lmLength);
+      buffer.get(value);
+
+      return new Entry(
+         etagLength == 0 ? null : this.getString(buffer, offset + HEADER + keyLength, etagLength),
+         lmLength == 0 ? null : this.getString(buffer, offset + HEADER + keyLength + etagLength, lmLength),
+         location._storedAt, value);
+   }
+
+   /**
+    * Start a new active segment. Drops the oldest segments while the total
+    * size is over the maximum, starts a background compaction of the sealed
+    * segments (not while a compaction is in progress).
+    *
+    * @throws IOException could not create the segment file
+    */
+   private void startSegment() throws IOException {
+      int id = _segments.isEmpty() ? 0 : _segments.lastKey() + 1;
+      Segment segment = null;
+
+      while (!_segments.isEmpty() && (long) (_segments.size() + 1) * _segmentSize > _maxBytes) {
+         this.drop(_segments.firstEntry().getValue());
+      }
+
+      segment = new Segment(new File(_dir, SEGMENT_PREFIX + id + SEGMENT_SUFFIX), true);
+      segment._id = id;
+      _segments.put(id, segment);
+      _active = segment;
+
+      if (!_compacting) {
+         _compacting = true;
+
+         try {
+            _compactor.execute(() -> {
+               try {
+                  this.compact();
+               } finally {
+                  synchronized (this) {
+                     _compacting = false;
+                  }
+               }
+            });
+         } catch (RejectedExecutionException ex) {
+            _compacting = false; // closed
+         }
+      }
+
+      return;
+   }
+
+   /**
+    * Drop a segment, its records are removed from the index
+    *
+    * @param segment Segment segment
+    */
+   private void drop(final Segment segment) {
+      Iterator<Location> iter = _index.values().iterator();
+
+      while (iter.hasNext()) {
+         if (iter.next()._segment == segment) {
+            iter.remove();
+         }
+      }
+
+      _segments.remove(segment._id);
+      segment.delete();
+      _dropped++;
+
+      return;
+   }
+
+   /**
+    * Compact a sealed segment, its live records are appended to the active
+    * segment and the segment is deleted. The records are read without the
+    * lock (a sealed segment does not change), the lock is held to append one
+    * record. A record that was replaced or removed meanwhile is not copied.
+    * The segment is kept if a live record could not be appended.
+    *
+    * @param segment Segment sealed segment
+    */
+   private void compact(final Segment segment) {
+      boolean complete = true;
+      int offset = 0;
+      int end = 0;
+      int length = 0;
+      String key = null;
+      Entry entry = null;
+      Location location = null;
+      ByteBuffer buffer = segment._buffer.duplicate();
+
+      synchronized (this) {
+         end = segment._end;
+      }
+
+      while (offset < end && complete) {
+         length = buffer.getInt(offset + 4);
+
+         if (buffer.getShort(offset + 16) != TOMBSTONE) {
+            key = this.getString(buffer, offset + HEADER, buffer.getShort(offset + 18));
+            entry = this.read(new Location(segment, offset, length, 0L));
+
+            synchronized (this) {
+               location = _index.get(key);
+
+               if (_active == null || _segments.get(segment._id) != segment) {
+                  complete = false; // closed or dropped
+               } else if (location != null && location._segment == segment
+                  && location._offset == offset) {
+                  this.append(key, entry.getEtag(), entry.getLastModified(), entry.getValue(),
+                     location._storedAt, (short) 0);
+
+                  complete = _index.get(key) != location;
+               }
+            }
+         }
+
+         offset += length;
+      }
+
+      synchronized (this) {
+         if (complete && _segments.get(segment._id) == segment) {
+            _segments.remove(segment._id);
+            _compactions++;
+         } else {
+            complete = false;
+         }
+      }
+
+      if (complete) {
+         segment.delete();
+      }
+
+      return;
+   }
+
+   /**
+    * Check the crc of a record
+    *
+    * @param buffer ByteBuffer segment buffer
+    * @param offset int record offset
+    * @param length int record length
+    * @return boolean true if the crc matches
+    */
+   private boolean isValid(final ByteBuffer buffer, final int offset, final int length) {
+      CRC32 crc = new CRC32();
+
+      crc.update(this.slice(buffer, offset + 8, length - 12));
+
+      return (int) crc.getValue() == buffer.getInt(offset + length - 4);
+   }
+
+   /**
+    * Get a slice of the buffer
+    *
+    * @param buffer ByteBuffer buffer
+    * @param offset int offset
+    * @param length int length
+    * @return ByteBuffer slice
+    */
+   private ByteBuffer slice(final ByteBuffer buffer, final int offset, final int length) {
+      ByteBuffer slice = buffer.duplicate();
+
+      slice.limit(offset + length);
+      slice.position(offset);
+
+      return slice;
+   }
+
+   /**
+    * Get a UTF-8 string from the buffer
+    *
+    * @param buffer ByteBuffer buffer
+    * @param offset int offset
+    * @param length int length, in bytes
+    * @return String string
+    */
+   private String getString(final ByteBuffer buffer, final int offset, final int length) {
+      byte[] bytes = new byte[length];
+      ByteBuffer duplicate = buffer.duplicate();
+
+      duplicate.position(offset);
+      duplicate.get(bytes);
+
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   /*
+    * =============== PACKAGE CLASSES ===============
+    */
+   /**
+    * Cached response: validators, stored time and value
+    */
+   static final class Entry {
+
+      private final String _etag;
+      private final String _lastModified;
+      private final long _storedAt;
+      private final byte[] _value;
+
+      private Entry(final String etag, final String lastModified, final long storedAt,
+         final byte[] value) {
+         _etag = etag;
+         _lastModified = lastModified;
+         _storedAt = storedAt;
+         _value = value;
+      }
+
+      String getEtag() {
+         return _etag;
+      }
+
+      String getLastModified() {
+         return _lastModified;
+      }
+
+      long getStoredAt() {
+         return _storedAt;
+      }
+
+      byte[] getValue() {
+         return _value;
+      }
+   }
+
+   /*
+    * =============== PRIVATE CLASSES ===============
+    */
+   /**
+    * Index entry: segment, offset and length of the live record
+    */
+   private static final class Location {
+
+      private final Segment _segment;
+      private final int _offset;
+      private final int _length;
+      private long _storedAt;
+
+      private Location(final Segment segment, final int offset, final int length,
+         final long storedAt) {
+         _segment = segment;
+         _offset = offset;
+         _length = length;
+         _storedAt = storedAt;
+      }
+   }
+
+   /**
+    * Segment file, memory mapped
+    */
+   private final class Segment {
+
+      private final File _file;
+      private final RandomAccessFile _raf;
+      private final MappedByteBuffer _buffer;
+      private int _id = 0;
+      private int _end = 0;
+      private long _live = 0L;
+
+      private Segment(final File file, final boolean create) throws IOException {
+         _file = file;
+         _raf = new RandomAccessFile(file, "rw");
+
+         if (create || _raf.length() < _segmentSize) {
+            _raf.setLength(create ? _segmentSize : Math.max(_raf.length(), _segmentSize));
+         }
+
+         _buffer = _raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, _raf.length());
+      }
+
+      private void close() {
+         _buffer.force();
+
+         try {
+            _raf.close();
+         } catch (IOException ex) {
+            _logger.log(Level.WARNING, "close: {0}", ex.getMessage());
+         }
+      }
+
+      private void delete() {
+         try {
+            _raf.close(); // not forced, the file is deleted
+         } catch (IOException ex) {
+            _logger.log(Level.WARNING, "delete: {0}", ex.getMessage());
+         }
+
+         if (!_file.delete()) {
+            _logger.log(Level.WARNING, "delete: could not delete ''{0}''", _file.getPath());
+         }
+      }
+   }
+}
@@ -0,0 +1,438 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import com.forgerock.frdp.utils.JSON;
+import com.forgerock.frdp.utils.STR;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.ws.rs.core.HttpHeaders;
+import org.json.simple.JSONObject;
+
+/**
+ * The caches of the READ / SEARCH outputs: the off-heap document cache (READ
+ * of a document, without "headers" and "cookies") and the persistent
+ * response cache (READ and SEARCH, a variant for each caller identity). A
+ * CREATE, REPLACE or DELETE removes the document from both caches.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class DocumentCaches {
+
+   private final RestDataAccess _dao;
+   private final OffHeapCache _docCache;
+   private final DiskCache _diskCache;
+   private final long _diskCacheMaxAge;
+   private final boolean _diskCacheCredentials;
+
+   /**
+    * Constructor
+    *
+    * @param dao RestDataAccess data access object that sends the requests
+    * @param docCache OffHeapCache document cache, may be null
+    * @param diskCache DiskCache persistent cache, may be null
+    * @param diskCacheMaxAge long age of a persistent response, before it is
+    * revalidated
+    * @param diskCacheCredentials boolean cache the responses of operations
+    * with credentials
+    */
+   DocumentCaches(final RestDataAccess dao, final OffHeapCache docCache,
+      final DiskCache diskCache, final long diskCacheMaxAge, final boolean diskCacheCredentials) {
+      _dao = dao;
+      _docCache = docCache;
+      _diskCache = diskCache;
+      _diskCacheMaxAge = diskCacheMaxAge;
+      _diskCacheCredentials = diskCacheCredentials;
+
+      return;
+   }
+
+   /**
+    * Check if the output of an operation may be cached: a READ, or a SEARCH
+    * with the persistent cache. A projected operation ("fields") is not
+    * cached.
+    *
+    * @param operInput OperationIF input
+    * @return boolean true if the operation is read with read()
+    */
+   boolean isCacheable(final OperationIF operInput) {
+      return ((_docCache != null && operInput.getType() == OperationIF.TYPE.READ)
+         || (_diskCache != null && (operInput.getType() == OperationIF.TYPE.READ
+         || operInput.getType() == OperationIF.TYPE.SEARCH)))
+         && !operInput.getJSON().containsKey(RestDataAccess.ATTR_FIELDS);
+   }
+
+   /**
+    * Check if the response validators ("ETag", "Last-Modified") are needed
+    *
+    * @return boolean true if the persistent cache is enabled
+    */
+   boolean hasValidators() {
+      return _diskCache != null;
+   }
+
+   /**
+    * READ / SEARCH from the caches: the document cache (READ, without
+    * "headers" and "cookies"), then the persistent response cache. On a miss
+    * the operation is sent, a successful output is cached. A persistent
+    * response that is older than the maximum age is revalidated with a
+    * conditional request.
+    *
+    * @param operInput OperationIF READ or SEARCH input
+    * @return OperationIF output
+    */
+   OperationIF read(final OperationIF operInput) {
+      boolean identity = false;
+      long memStamp = 0L;
+      long diskStamp = 0L;
+      byte[] value = null;
+      String memKey = null;
+      String diskKey = null;
+      OperationIF operOutput = null;
+      DiskCache.Entry entry = null;
+
+      identity = this.hasIdentity(operInput.getJSON());
+
+      memKey = _docCache != null && operInput.getType() == OperationIF.TYPE.READ && !identity
+         ? this.getCacheKey(operInput) : null;
+
+      if (_diskCache != null && (_diskCacheCredentials || !this.hasCredentials(operInput.getJSON()))) {
+         diskKey = this.getResponseKey(operInput);
+
+         if (diskKey != null && identity) {
+            diskKey = diskKey + DiskCache.VARIANT + this.getIdentity(operInput.getJSON());
+         }
+      }
+
+      if (memKey != null && (value = _docCache.get(memKey)) != null) {
+         operOutput = this.getCachedOutput(operInput, value);
+
+         if (operOutput == null) {
+            _docCache.invalidate(memKey);
+         }
+      }
+
+      if (operOutput == null && diskKey != null && (entry = _diskCache.get(diskKey)) != null
+         && System.currentTimeMillis() - entry.getStoredAt() < _diskCacheMaxAge) {
+         operOutput = this.getCachedOutput(operInput, entry.getValue());
+
+         if (operOutput != null && memKey != null) {
+            _docCache.put(memKey, entry.getValue(), _docCache.stamp(memKey));
+         }
+      }
+
+      if (operOutput == null) {
+         memStamp = memKey != null ? _docCache.stamp(memKey) : 0L;
+         diskStamp = diskKey != null ? _diskCache.stamp() : 0L;
+
+         if (entry != null && (entry.getEtag() != null || entry.getLastModified() != null)) {
+            operOutput = _dao.submitRequest(this.getConditional(operInput, entry));
+
+            if (operOutput instanceof RestOperation
+               && ((RestOperation) operOutput).getHttpStatus() == 304) {
+               _diskCache.touch(diskKey);
+               operOutput = this.getCachedOutput(operInput, entry.getValue());
+               value = entry.getValue();
+            }
+         } else {
+            operOutput = _dao.submitRead(operInput);
+         }
+
+         if (value == null && operOutput != null && !operOutput.isError()
+            && operOutput.getState() == STATE.SUCCESS && operOutput.getJSON() != null) {
+            value = _dao.toJSONString(operOutput.getJSON()).getBytes(StandardCharsets.UTF_8);
+
+            if (diskKey != null && operOutput instanceof RestOperation) {
+               _diskCache.put(diskKey, ((RestOperation) operOutput).getEtag(),
+                  ((RestOperation) operOutput).getLastModified(), value, diskStamp);
+            }
+         }
+
+         if (memKey != null && value != null) {
+            _docCache.put(memKey, value, memStamp);
+         }
+      }
+
+      return operOutput;
+   }
+
+   /**
+    * Remove the document of a CREATE, REPLACE or DELETE from the caches
+    *
+    * @param operInput OperationIF input
+    */
+   void invalidate(final OperationIF operInput) {
+      String key = null;
+
+      switch (operInput.getType()) {
+         case CREATE:
+         case REPLACE:
+         case DELETE: {
+            key = this.getCacheKey(operInput);
+
+            if (key != null && _docCache != null) {
+               _docCache.invalidate(key);
+            }
+
+            if (key != null && _diskCache != null) {
+               _diskCache.remove(key);
+            }
+            break;
+         }
+         default: {
+            break;
+         }
+      }
+
+      return;
+   }
+
+   /**
+    * Get the cache statistics, the members of the data access statistics:
+    * "documentCache" and "diskCache"
+    *
+    * @return JSONObject statistics
+    */
+   JSONObject getStats() {
+      JSONObject json = new JSONObject();
+
+      if (_docCache != null) {
+         json.put("documentCache", _docCache.getStats());
+      }
+
+      if (_diskCache != null) {
+         json.put("diskCache", _diskCache.getStats());
+      }
+
+      return json;
+   }
+
+   /**
+    * Clear the document cache, close the persistent cache
+    */
+   void close() {
+      if (_docCache != null) {
+         _docCache.clear();
+      }
+
+      if (_diskCache != null) {
+         _diskCache.close();
+      }
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Get the document cache key of the operation: the "path" and "uid", or
+    * the "uri" (without the query) for dynamic URI operations
+    *
+    * @param operInput OperationIF input
+    * @return String key, null if the operation is not cacheable: no document,
+    * or a READ with "queryParams"
+    */
+   private String getCacheKey(final OperationIF operInput) {
+      int query = 0;
+      String key = null;
+      JSONObject jsonInput = operInput.getJSON();
+      JSONObject jsonParams = JSON.getObject(jsonInput, ConstantsIF.QUERY_PARAMS);
+
+      if (operInput.getType() != OperationIF.TYPE.READ
+         || jsonParams == null || jsonParams.isEmpty()) {
+         if (_dao.hasBaseTarget()) {
+            key = RestDataAccess.getDocumentKey(jsonInput, JSON.getString(jsonInput, ConstantsIF.UID));
+         } else {
+            key = JSON.getString(jsonInput, ConstantsIF.URI);
+            query = key == null ? -1 : key.indexOf('?');
+
+            if (query >= 0) {
+               key = operInput.getType() == OperationIF.TYPE.READ ? null : key.substring(0, query);
+            }
+         }
+      }
+
+      return key;
+   }
+
+   /**
+    * Check if the operation has "headers" or "cookies", they may carry the
+    * identity of the caller
+    *
+    * @param jsonInput JSONObject operation input
+    * @return boolean true if there are headers or cookies
+    */
+   private boolean hasIdentity(final JSONObject jsonInput) {
+      JSONObject jsonHeaders = JSON.getObject(jsonInput, ConstantsIF.HEADERS);
+      JSONObject jsonCookies = JSON.getObject(jsonInput, ConstantsIF.COOKIES);
+
+      return (jsonHeaders != null && !jsonHeaders.isEmpty())
+         || (jsonCookies != null && !jsonCookies.isEmpty());
+   }
+
+   /**
+    * Check if the operation has credentials: an "Authorization" header (see
+    * SlowRequestRecorder.isCredential) or "cookies"
+    *
+    * @param jsonInput JSONObject operation input
+    * @return boolean true if there are credentials
+    */
+   private boolean hasCredentials(final JSONObject jsonInput) {
+      boolean found = false;
+      JSONObject jsonHeaders = JSON.getObject(jsonInput, ConstantsIF.HEADERS);
+      JSONObject jsonCookies = JSON.getObject(jsonInput, ConstantsIF.COOKIES);
+
+      if (jsonCookies != null && !jsonCookies.isEmpty()) {
+         found = true;
+      } else if (jsonHeaders != null) {
+         for (Object name : jsonHeaders.keySet()) {
+            if (SlowRequestRecorder.isCredential(String.valueOf(name))) {
+               found = true;
+               break;
+            }
+         }
+      }
+
+      return found;
+   }
+
+   /**
+    * Get the identity of the caller: a hash (SHA-256, base64url) of the
+    * sorted "headers" and "cookies" of the operation
+    *
+    * @param jsonInput JSONObject operation input
+    * @return String identity
+    */
+   private String getIdentity(final JSONObject jsonInput) {
+      StringBuilder buf = new StringBuilder();
+      TreeMap<String, Object> sorted = new TreeMap<>();
+      JSONObject jsonHeaders = JSON.getObject(jsonInput, ConstantsIF.HEADERS);
+      JSONObject jsonCookies = JSON.getObject(jsonInput, ConstantsIF.COOKIES);
+      MessageDigest digest = null;
+
+      if (jsonHeaders != null) {
+         for (Object name : jsonHeaders.keySet()) {
+            sorted.put("h:" + String.valueOf(name).toLowerCase(), jsonHeaders.get(name));
+         }
+      }
+
+      if (jsonCookies != null) {
+         for (Object name : jsonCookies.keySet()) {
+            sorted.put("c:" + String.valueOf(name), jsonCookies.get(name));
+         }
+      }
+
+      for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+         buf.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+      }
+
+      try {
+         digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException ex) {
+         throw new IllegalStateException(ex); // required by the Java platform
+      }
+
+      return Base64.getUrlEncoder().withoutPadding()
+         .encodeToString(digest.digest(buf.toString().getBytes(StandardCharsets.UTF_8)));
+   }
+
+   /**
+    * Get the output of a cached value
+    *
+    * @param operInput OperationIF input
+    * @param value byte[] serialized output JSON
+    * @return OperationIF output, null if the value could not be parsed
+    */
+   private OperationIF getCachedOutput(final OperationIF operInput, final byte[] value) {
+      RestOperation operOutput = null;
+
+      try {
+         operOutput = new RestOperation(operInput.getType());
+         operOutput.setJSON(_dao.parseEntity(new String(value, StandardCharsets.UTF_8), null));
+         operOutput.setResponse(200, "OK");
+         operOutput.setError(false);
+         operOutput.setState(STATE.SUCCESS);
+         operOutput.setStatus("Found document (cached)");
+      } catch (Exception ex) {
+         operOutput = null;
+      }
+
+      return operOutput;
+   }
+
+   /**
+    * Get a copy of the operation with the conditional request headers of the
+    * cached response
+    *
+    * @param operInput OperationIF input
+    * @param entry DiskCache.Entry cached response
+    * @return OperationIF conditional operation
+    */
+   private OperationIF getConditional(final OperationIF operInput, final DiskCache.Entry entry) {
+      OperationIF operConditional = new Operation(operInput.getType());
+      JSONObject jsonInput = new JSONObject(operInput.getJSON());
+      JSONObject jsonHeaders = JSON.getObject(jsonInput, ConstantsIF.HEADERS);
+
+      jsonHeaders = jsonHeaders == null ? new JSONObject() : new JSONObject(jsonHeaders);
+
+      if (entry.getEtag() != null) {
+         jsonHeaders.put(HttpHeaders.IF_NONE_MATCH, entry.getEtag());
+      }
+
+      if (entry.getLastModified() != null) {
+         jsonHeaders.put(HttpHeaders.IF_MODIFIED_SINCE, entry.getLastModified());
+      }
+
+      jsonInput.put(ConstantsIF.HEADERS, jsonHeaders);
+      operConditional.setJSON(jsonInput);
+
+      return operConditional;
+   }
+
+   /**
+    * Get the persistent cache key of a READ / SEARCH: the document key, or the
+    * "path" / "uri", and the sorted "queryParams"
+    *
+    * @param operInput OperationIF input
+    * @return String key, null if a dynamic URI operation has no "uri"
+    */
+   private String getResponseKey(final OperationIF operInput) {
+      String key = null;
+      StringBuilder buf = new StringBuilder();
+      JSONObject jsonInput = operInput.getJSON();
+      JSONObject jsonParams = JSON.getObject(jsonInput, ConstantsIF.QUERY_PARAMS);
+
+      if (_dao.hasBaseTarget() && !STR.isEmpty(JSON.getString(jsonInput, ConstantsIF.UID))) {
+         key = RestDataAccess.getDocumentKey(jsonInput, JSON.getString(jsonInput, ConstantsIF.UID));
+      } else if (_dao.hasBaseTarget()) {
+         key = STR.isEmpty(JSON.getString(jsonInput, ConstantsIF.PATH))
+            ? "" : JSON.getString(jsonInput, ConstantsIF.PATH);
+      } else {
+         key = JSON.getString(jsonInput, ConstantsIF.URI);
+      }
+
+      if (key != null && jsonParams != null && !jsonParams.isEmpty()) {
+         buf.append(key);
+
+         for (Object name : new TreeMap<Object, Object>(jsonParams).keySet()) {
+            buf.append(buf.indexOf("?") < 0 ? "?" : "&").append(name).append("=")
+               .append(jsonParams.get(name));
+         }
+
+         key = buf.toString();
+      }
+
+      return key;
+   }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.client.WebTarget;
+import org.json.simple.JSONObject;
+
+/**
+ * A base target ("protocol://host:port/path") with request statistics: the
+ * number of outstanding requests, the average latency (exponentially
+ * weighted) and the number of consecutive failures.
+ *
+ * An endpoint can be ejected for a period of time, an ejected endpoint is not
+ * selected by the LoadBalancer. The average latency is reset when the
+ * endpoint is ejected: when the ejection time has passed the endpoint is
+ * judged on new samples, not on the latency that ejected it.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class Endpoint {
+
+   private static final double EWMA_WEIGHT = 0.2;
+
+   private final String _name;
+   private final WebTarget _target;
+   private final AtomicInteger _outstanding = new AtomicInteger(0);
+   private final AtomicInteger _failures = new AtomicInteger(0);
+   private final AtomicLong _requests = new AtomicLong(0L);
+   private final AtomicLong _errors = new AtomicLong(0L);
+   private final AtomicLong _ejections = new AtomicLong(0L);
+   private final AtomicLong _samples = new AtomicLong(0L);
+   private final AtomicLong _latency = new AtomicLong(Double.doubleToLongBits(0.0));
+   private volatile long _ejectedUntil = 0L;
+
+   /**
+    * Constructor
+    *
+    * @param name String endpoint name, "host:port"
+    * @param target WebTarget base target of the endpoint
+    */
+   Endpoint(final String name, final WebTarget target) {
+      _name = name;
+      _target = target;
+
+      return;
+   }
+
+   /**
+    * Get the endpoint name
+    *
+    * @return String name, "host:port"
+    */
+   String getName() {
+      return _name;
+   }
+
+   /**
+    * Get the base target
+    *
+    * @return WebTarget base target
+    */
+   WebTarget getTarget() {
+      return _target;
+   }
+
+   /**
+    * Get the number of requests in progress
+    *
+    * @return int outstanding requests
+    */
+   int getOutstanding() {
+      return _outstanding.get();
+   }
+
+   /**
+    * Get the average latency
+    *
+    * @return double latency, in milliseconds
+    */
+   double getLatency() {
+      return Double.longBitsToDouble(_latency.get());
+   }
+
+   /**
+    * Get the number of latency samples since the last ejection
+    *
+    * @return long samples
+    */
+   long getSamples() {
+      return _samples.get();
+   }
+
+   /**
+    * Get the number of requests
+    *
+    * @return long requests
+    */
+   long getRequests() {
+      return _requests.get();
+   }
+
+   /**
+    * Get the number of consecutive failures
+    *
+    * @return int consecutive failures
+    */
+   int getFailures() {
+      return _failures.get();
+   }
+
+   /**
+    * Check if the endpoint can be selected
+    *
+    * @param now long current time, System.nanoTime()
+    * @return boolean true if the endpoint is not ejected
+    */
+   boolean isAvailable(final long now) {
+      return _ejectedUntil == 0L || now - _ejectedUntil >= 0L;
+   }
+
+   /**
+    * Record the start of a request
+    *
+    * @return long start time, System.nanoTime()
+    */
+   long start() {
+      _outstanding.incrementAndGet();
+      _requests.incrementAndGet();
+
+      return System.nanoTime();
+   }
+
+   /**
+    * Record the end of a request
+    *
+    * @param start long start time, from start()
+    * @param failed boolean true if the request failed
+    * @return double latency of the request, in milliseconds
+    */
+   double finish(final long start, final boolean failed) {
+      double millis = (System.nanoTime() - start) / 1000000.0;
+
+      _outstanding.decrementAndGet();
+
+      this.record(millis, failed);
+
+      return millis;
+   }
+
+   /**
+    * Record the result of a request, or a health check
+    *
+    * @param millis double latency, in milliseconds
+    * @param failed boolean true if the request failed
+    */
+   void record(final double millis, final boolean failed) {
+      long bits = 0L;
+      double latency = 0.0;
+
+      do {
+         bits = _latency.get();
+         latency = Double.longBitsToDouble(bits);
+         latency = latency == 0.0 ? millis
+            : (EWMA_WEIGHT * millis) + ((1.0 - EWMA_WEIGHT) * latency);
+      } while (!_latency.compareAndSet(bits, Double.doubleToLongBits(latency)));
+
+      _samples.incrementAndGet();
+
+      if (failed) {
+         _errors.incrementAndGet();
+         _failures.incrementAndGet();
+      } else {
+         _failures.set(0);
+      }
+
+      return;
+   }
+
+   /**
+    * Eject the endpoint, the average latency and its samples are reset
+    *
+    * @param millis long ejection time, in milliseconds
+    */
+   void eject(final long millis) {
+      long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+
+      _ejectedUntil = until == 0L ? 1L : until;
+      _ejections.incrementAndGet();
+      _latency.set(Double.doubleToLongBits(0.0));
+      _samples.set(0L);
+
+      return;
+   }
+
+   /**
+    * Restore an ejected endpoint
+    */
+   void restore() {
+      _ejectedUntil = 0L;
+      _failures.set(0);
+
+      return;
+   }
+
+   /**
+    * Get the endpoint statistics
+    *
+    * @return JSONObject statistics
+    */
+   JSONObject getStats() {
+      JSONObject json = new JSONObject();
+
+      json.put("name", _name);
+      json.put("available", this.isAvailable(System.nanoTime()));
+      json.put("outstanding", _outstanding.get());
+      json.put("requests", _requests.get());
+      json.put("errors", _errors.get());
+      json.put("ejections", _ejections.get());
+      json.put("latency", this.getLatency());
+
+      return json;
+   }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded buffer for an HTTP response entity. The entity bytes are stored in
+ * chunks obtained from a BufferPool. The chunks are returned to the pool when
+ * the buffer is closed.
+ *
+ * If a maximum size is set, reading stops as soon as the limit is exceeded,
+ * the remaining bytes of the entity are not read and the buffer is flagged as
+ * an overflow. Without a maximum size, the limit is MAX_LENGTH: the entity is
+ * decoded to a String.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class EntityBuffer implements AutoCloseable {
+
+   /**
+    * Largest entity that can be buffered, the largest array / String
+    */
+   static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+   private final BufferPool _pool;
+   private final List<byte[]> _chunks = new ArrayList<>(4);
+   private int _length = 0;
+   private boolean _overflow = false;
+
+   /**
+    * Constructor
+    *
+    * @param pool BufferPool source of the chunks
+    */
+   private EntityBuffer(final BufferPool pool) {
+      _pool = pool;
+
+      return;
+   }
+
+   /**
+    * Read the input stream into a new buffer. The input stream is not closed.
+    *
+    * @param input InputStream entity stream, may be null
+    * @param pool BufferPool source of the chunks
+    * @param maxSize long maximum number of bytes, zero or less is MAX_LENGTH
+    * @return EntityBuffer buffer
+    * @throws IOException could not read the stream
+    */
+   static EntityBuffer read(final InputStream input, final BufferPool pool,
+      final long maxSize) throws IOException {
+      int count = 0;
+      int offset = 0;
+      long limit = getLimit(maxSize);
+      byte[] chunk = null;
+      EntityBuffer buffer = new EntityBuffer(pool);
+
+      if (input != null) {
+         try {
+            while (true) {
+               if (chunk == null || offset == chunk.length) {
+                  chunk = pool.acquire();
+                  offset = 0;
+                  buffer._chunks.add(chunk);
+               }
+
+               count = input.read(chunk, offset, chunk.length - offset);
+
+               if (count < 0) {
+                  break;
+               }
+
+               if (buffer._length + (long) count > limit) {
+                  buffer._overflow = true;
+                  break;
+               }
+
+               offset += count;
+               buffer._length += count;
+            }
+         } catch (IOException ex) {
+            buffer.close();
+            throw ex;
+         }
+      }
+
+      return buffer;
+   }
+
+   /**
+    * Get the maximum number of bytes of an entity
+    *
+    * @param maxSize long maximum size, zero or less is unlimited
+    * @return long limit, at most MAX_LENGTH
+    */
+   static long getLimit(final long maxSize) {
+      return maxSize > 0 ? Math.min(maxSize, MAX_LENGTH) : MAX_LENGTH;
+   }
+
+   /**
+    * Get the number of bytes in the buffer
+    *
+    * @return int length
+    */
+   int length() {
+      return _length;
+   }
+
+   /**
+    * Check if the entity exceeded the maximum size
+    *
+    * @return boolean true if the maximum size was exceeded
+    */
+   boolean isOverflow() {
+      return _overflow;
+   }
+
+   /**
+    * Get a stream over the buffered bytes, no bytes are copied
+    *
+    * @return InputStream stream
+    */
+   InputStream getInputStream() {
+      return new ChunkInputStream();
+   }
+
+   /**
+    * Decode the buffered bytes to a String
+    *
+    * @param charset Charset character set of the entity
+    * @return String decoded entity, empty if there are no bytes
+    * @throws IOException could not decode the bytes
+    */
+   String toString(final Charset charset) throws IOException {
+      int count = 0;
+      char[] chars = null;
+      StringBuilder buf = null;
+      String str = null;
+
+      if (_length == 0) {
+         str = "";
+      } else if (_length <= _chunks.get(0).length) {
+         str = new String(_chunks.get(0), 0, _length, charset);
+      } else {
+         buf = new StringBuilder(_length);
+         chars = new char[_pool.getChunkSize()];
+
+         try (Reader reader = new InputStreamReader(this.getInputStream(), charset)) {
+            while ((count = reader.read(chars)) >= 0) {
+               buf.append(chars, 0, count);
+            }
+         }
+
+         str = buf.toString();
+      }
+
+      return str;
+   }
+
+   /**
+    * Release the chunks back to the pool
+    */
+   @Override
+   public void close() {
+      for (byte[] chunk : _chunks) {
+         _pool.release(chunk);
+      }
+
+      _chunks.clear();
+      _length = 0;
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE CLASSES ===============
+    */
+   /**
+    * Input stream that reads across the chunks of the buffer
+    */
+   private final class ChunkInputStream extends InputStream {
+
+      private int _index = 0;
+      private int _offset = 0;
+      private int _remaining = _length;
+
+      @Override
+      public int read() throws IOException {
+         int value = -1;
+
+         if (_remaining > 0) {
+            this.advance();
+            value = _chunks.get(_index)[_offset++] & 0xFF;
+            _remaining--;
+         }
+
+         return value;
+      }
+
+      @Override
+      public int read(final byte[] bytes, final int off, final int len) throws IOException {
+         int count = -1;
+         int size = 0;
+         byte[] chunk = null;
+
+         if (len == 0) {
+            count = 0;
+         } else if (_remaining > 0) {
+            this.advance();
+            chunk = _chunks.get(_index);
+            size = Math.min(Math.min(len, chunk.length - _offset), _remaining);
+            System.arraycopy(chunk, _offset, bytes, off, size);
+            _offset += size;
+            _remaining -= size;
+            count = size;
+         }
+
+         return count;
+      }
+
+      @Override
+      public int available() {
+         return _remaining;
+      }
+
+      private void advance() {
+         if (_offset == _chunks.get(_index).length) {
+            _index++;
+            _offset = 0;
+         }
+         return;
+      }
+   }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.dao.OperationIF;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Records the HTTP exchanges of the operations to a file, one JSON object
+ * per line. A file name that ends with ".gz" is compressed.
+ *
+ * <pre>
+ * {
+ *   "time": 0,                         | epoch milliseconds
+ *   "type": "READ",                    | operation type
+ *   "input": { ... },                  | operation input JSON, masked
+ *   "method": "GET", "uri": "...",
+ *   "requestHeaders": { "name": [ "value" ] },
+ *   "status": 200, "reason": "OK",
+ *   "responseHeaders": { "name": [ "value" ] },
+ *   "entity": "...",                   | response entity, may be null
+ *   "encoding": "cbor",                | only if the entity was CBOR, the
+ *                                      | "entity" is the decoded JSON text
+ *   "timings": { ... }                 | see RequestTimer
+ * }
+ * </pre>
+ *
+ * The values of the credential headers are not recorded: the request
+ * headers, and the "headers" and "cookies" of the input (all the cookie
+ * values) are masked. The file is flushed by a background thread every
+ * second and on close(), the operations do not wait for the disk. See
+ * ExchangeReplay for the replay of a recording.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class ExchangeRecorder {
+
+   static final String TIME = "time";
+   static final String TYPE = "type";
+   static final String INPUT = "input";
+   static final String METHOD = "method";
+   static final String URI = "uri";
+   static final String REQUEST_HEADERS = "requestHeaders";
+   static final String STATUS = "status";
+   static final String REASON = "reason";
+   static final String RESPONSE_HEADERS = "responseHeaders";
+   static final String ENTITY = "entity";
+   static final String ENCODING = "encoding";
+   static final String ENCODING_CBOR = "cbor";
+   static final String TIMINGS = "timings";
+
+   private static final long FLUSH_MILLIS = 1000L;
+
+   private final String CLASS = this.getClass().getName();
+   private final Logger _logger = Logger.getLogger(CLASS);
+   private final String _file;
+   private final ScheduledExecutorService _flusher;
+   private Writer _writer = null;
+   private boolean _dirty = false;
+   private long _exchanges = 0L;
+   private long _errors = 0L;
+
+   /**
+    * Constructor, the file is created (or appended to, if not compressed)
+    *
+    * @param file String file name
+    * @throws IOException could not open the file
+    */
+   ExchangeRecorder(final String file) throws IOException {
+      OutputStream out = null;
+
+      _file = file;
+
+      if (file.endsWith(".gz")) {
+         out = new GZIPOutputStream(new FileOutputStream(file), true);
+      } else {
+         out = new FileOutputStream(file, true);
+      }
+
+      _writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+
+      _flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+         Thread thread = new Thread(runnable, "RestDataAccess-record");
+         thread.setDaemon(true);
+         return thread;
+      });
+      _flusher.scheduleWithFixedDelay(this::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+
+      return;
+   }
+
+   /**
+    * Record an exchange, the line is written to the buffer of the file
+    *
+    * @param operInput OperationIF input
+    * @param response Response response
+    * @param entity String response entity, may be null
+    * @param cbor boolean true if the entity was decoded from CBOR
+    * @param timer RequestTimer timer of the request
+    */
+   void record(final OperationIF operInput, final Response response, final String entity,
+      final boolean cbor, final RequestTimer timer) {
+      String line = null;
+      JSONObject json = new JSONObject();
+
+      json.put(TIME, System.currentTimeMillis());
+      json.put(TYPE, operInput.getType().toString());
+      json.put(INPUT, mask(operInput.getJSON()));
+      json.put(METHOD, timer.getMethod());
+      json.put(URI, timer.getUri() == null ? null : timer.getUri().toString());
+      json.put(REQUEST_HEADERS, toJSON(timer.getRequestHeaders()));
+      json.put(STATUS, response.getStatus());
+      json.put(REASON, response.getStatusInfo().getReasonPhrase());
+      json.put(RESPONSE_HEADERS, toJSON(response.getStringHeaders()));
+      json.put(ENTITY, entity);
+
+      if (cbor) {
+         json.put(ENCODING, ENCODING_CBOR);
+      }
+
+      json.put(TIMINGS, timer.toJSON());
+
+      line = json.toJSONString();
+
+      synchronized (this) {
+         if (_writer != null) {
+            try {
+               _writer.write(line);
+               _writer.write('\n');
+               _dirty = true;
+               _exchanges++;
+            } catch (IOException ex) {
+               _errors++;
+               _logger.log(Level.WARNING, "record: ''{0}'': {1}",
+                  new Object[]{_file, ex.getMessage()});
+            }
+         }
+      }
+
+      return;
+   }
+
+   /**
+    * Close the file
+    */
+   synchronized void close() {
+      _flusher.shutdownNow();
+
+      if (_writer != null) {
+         try {
+            _writer.close();
+         } catch (IOException ex) {
+            _logger.log(Level.WARNING, "close: ''{0}'': {1}",
+               new Object[]{_file, ex.getMessage()});
+         }
+
+         _writer = null;
+      }
+
+      return;
+   }
+
+   /**
+    * Get the recorder statistics
+    *
+    * @return JSONObject statistics
+    */
+   synchronized JSONObject getStats() {
+      JSONObject json = new JSONObject();
+
+      json.put("file", _file);
+      json.put("exchanges", _exchanges);
+      json.put("errors", _errors);
+
+      return json;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Flush the lines that were written since the last flush
+    */
+   private synchronized void flush() {
+      if (_writer != null && _dirty) {
+         try {
+            _writer.flush();
+            _dirty = false;
+         } catch (IOException ex) {
+            _errors++;
+            _logger.log(Level.WARNING, "flush: ''{0}'': {1}", new Object[]{_file, ex.getMessage()});
+         }
+      }
+
+      return;
+   }
+
+   /**
+    * Get a copy of the operation input with the credentials masked: the
+    * values of the credential "headers" and of all the "cookies"
+    *
+    * @param input JSONObject operation input, may be null
+    * @return JSONObject masked input, the input if it has no headers and
+    * cookies
+    */
+   private static JSONObject mask(final JSONObject input) {
+      JSONObject json = input;
+      JSONObject masked = null;
+      Object headers = input == null ? null : input.get(ConstantsIF.HEADERS);
+      Object cookies = input == null ? null : input.get(ConstantsIF.COOKIES);
+
+      if (headers instanceof Map || cookies instanceof Map) {
+         json = new JSONObject(input);
+
+         if (headers instanceof Map) {
+            masked = new JSONObject();
+
+            for (Map.Entry<?, ?> header : ((Map<?, ?>) headers).entrySet()) {
+               masked.put(header.getKey(),
+                  SlowRequestRecorder.isCredential(String.valueOf(header.getKey()))
+                  ? SlowRequestRecorder.MASK : header.getValue());
+            }
+
+            json.put(ConstantsIF.HEADERS, masked);
+         }
+
+         if (cookies instanceof Map) {
+            masked = new JSONObject();
+
+            for (Object name : ((Map<?, ?>) cookies).keySet()) {
+               masked.put(name, SlowRequestRecorder.MASK);
+            }
+
+            json.put(ConstantsIF.COOKIES, masked);
+         }
+      }
+
+      return json;
+   }
+
+   /**
+    * Get the headers as JSON, the values of credential headers are masked
+    *
+    * @param headers MultivaluedMap headers, may be null
+    * @return JSONObject headers, null if there are no headers
+    */
+   private static JSONObject toJSON(final MultivaluedMap<String, String> headers) {
+      JSONObject json = null;
+      JSONArray values = null;
+
+      if (headers != null) {
+         json = new JSONObject();
+
+         for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            values = new JSONArray();
+
+            if (SlowRequestRecorder.isCredential(header.getKey())) {
+               values.add(SlowRequestRecorder.MASK);
+            } else {
+               values.addAll(header.getValue());
+            }
+
+            json.put(header.getKey(), values);
+         }
+      }
+
+      return json;
+   }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import com.forgerock.frdp.utils.JSON;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Replay of a recording, see ExchangeRecorder. A client filter that aborts
+ * each request with the recorded response, no request is sent. Requests are
+ * matched on the method, path and query (not the host): the recorded
+ * exchanges of a request are replayed in order, the last one is repeated. A
+ * request that was not recorded gets a 501 response.
+ *
+ * The responses are returned as fast as possible, or after the recorded
+ * "firstByte" and "body" time. The entities are encoded when the recording
+ * is loaded, a CBOR entity is encoded again as CBOR.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class ExchangeReplay implements ClientRequestFilter {
+
+   static final String PROPERTY = ExchangeReplay.class.getName();
+
+   private final String _file;
+   private final boolean _original;
+   private final Map<String, Exchanges> _exchanges = new HashMap<>();
+   private final AtomicLong _replayed = new AtomicLong(0L);
+   private final AtomicLong _missed = new AtomicLong(0L);
+   private int _count = 0;
+
+   /**
+    * Constructor, loads the recording
+    *
+    * @param file String file name of the recording
+    * @param original boolean true to replay at the recorded timing
+    * @throws IOException could not read the recording
+    */
+   ExchangeReplay(final String file, final boolean original) throws IOException {
+      String key = null;
+      Exchanges exchanges = null;
+
+      _file = file;
+      _original = original;
+
+      for (JSONObject json : read(file)) {
+         key = getKey(JSON.getString(json, ExchangeRecorder.METHOD),
+            JSON.getString(json, ExchangeRecorder.URI) == null
+            ? null : URI.create(JSON.getString(json, ExchangeRecorder.URI)));
+         exchanges = _exchanges.get(key);
+
+         if (exchanges == null) {
+            exchanges = new Exchanges();
+            _exchanges.put(key, exchanges);
+         }
+
+         exchanges._list.add(json);
+         exchanges._entities.add(getEntity(json, file));
+         _count++;
+      }
+
+      return;
+   }
+
+   /**
+    * Abort the request with the recorded response
+    *
+    * @param requestContext ClientRequestContext request
+    * @throws IOException interrupted while waiting for the recorded time
+    */
+   @Override
+   public void filter(final ClientRequestContext requestContext) throws IOException {
+      long delay = 0L;
+      String name = null;
+      byte[] entity = null;
+      JSONObject json = null;
+      JSONObject jsonHeaders = null;
+      JSONObject jsonTimings = null;
+      Exchanges exchanges = null;
+      Response.ResponseBuilder builder = null;
+
+      exchanges = _exchanges.get(getKey(requestContext.getMethod(), requestContext.getUri()));
+
+      if (exchanges != null) {
+         synchronized (exchanges) {
+            json = exchanges._list.get(exchanges._next);
+            entity = exchanges._entities.get(exchanges._next);
+            exchanges._next = Math.min(exchanges._next + 1, exchanges._list.size() - 1);
+         }
+      }
+
+      if (json == null) {
+         _missed.incrementAndGet();
+         builder = Response.status(Response.Status.NOT_IMPLEMENTED)
+            .header(HttpHeaders.CONTENT_TYPE, "application/json")
+            .entity(new ByteArrayInputStream(("{\"error\":\"No recorded exchange: "
+               + requestContext.getMethod() + " " + requestContext.getUri().getRawPath()
+               + "\"}").getBytes(StandardCharsets.UTF_8)));
+      } else {
+         _replayed.incrementAndGet();
+         builder = Response.status(((Number) json.get(ExchangeRecorder.STATUS)).intValue(),
+            JSON.getString(json, ExchangeRecorder.REASON));
+         jsonHeaders = JSON.getObject(json, ExchangeRecorder.RESPONSE_HEADERS);
+
+         if (jsonHeaders != null) {
+            for (Object key : jsonHeaders.keySet()) {
+               name = (String) key;
+
+               if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)
+                  && !HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name)
+                  && !"Transfer-Encoding".equalsIgnoreCase(name)) {
+                  for (Object value : (JSONArray) jsonHeaders.get(key)) {
+                     builder = builder.header(name, value);
+                  }
+               }
+            }
+         }
+
+         if (entity != null) {
+            builder = builder.entity(new ByteArrayInputStream(entity));
+         }
+
+         jsonTimings = JSON.getObject(json, ExchangeRecorder.TIMINGS);
+
+         if (_original && jsonTimings != null) {
+            delay = Math.round(getMillis(jsonTimings, "firstByte") + getMillis(jsonTimings, "body"));
+         }
+      }
+
+      if (delay > 0L) {
+         try {
+            Thread.sleep(delay);
+         } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted replay: " + requestContext.getUri(), ex);
+         }
+      }
+
+      requestContext.abortWith(builder.build());
+
+      return;
+   }
+
+   /**
+    * Get the replay statistics
+    *
+    * @return JSONObject statistics
+    */
+   JSONObject getStats() {
+      JSONObject json = new JSONObject();
+
+      json.put("file", _file);
+      json.put("timing", _original ? "original" : "fast");
+      json.put("exchanges", _count);
+      json.put("replayed", _replayed.get());
+      json.put("missed", _missed.get());
+
+      return json;
+   }
+
+   /**
+    * Read the operations of a recording, in the recorded order
+    *
+    * @param file String file name of the recording
+    * @return List of OperationIF operations
+    * @throws IOException could not read the recording
+    */
+   static List<OperationIF> readOperations(final String file) throws IOException {
+      OperationIF.TYPE type = null;
+      OperationIF operation = null;
+      List<OperationIF> operations = new ArrayList<>();
+
+      for (JSONObject json : read(file)) {
+         type = OperationIF.TYPE.valueOf(JSON.getString(json, ExchangeRecorder.TYPE));
+
+         if (type == OperationIF.TYPE.READ
+            && "POST".equals(JSON.getString(json, ExchangeRecorder.METHOD))) {
+            operation = new ReadBatcher.MultiGet(); // multi-get in the body
+         } else {
+            operation = new Operation(type);
+         }
+
+         operation.setJSON(JSON.getObject(json, ExchangeRecorder.INPUT));
+         operations.add(operation);
+      }
+
+      return operations;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Read the exchanges of a recording, a ".gz" file is decompressed
+    *
+    * @param file String file name
+    * @return List of JSONObject exchanges
+    * @throws IOException could not read the file, or invalid JSON
+    */
+   private static List<JSONObject> read(final String file) throws IOException {
+      int number = 0;
+      String line = null;
+      InputStream in = null;
+      JSONParser parser = new JSONParser();
+      List<JSONObject> list = new ArrayList<>();
+
+      in = new FileInputStream(file);
+
+      if (file.endsWith(".gz")) {
+         in = new GZIPInputStream(in);
+      }
+
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+         while ((line = reader.readLine()) != null) {
+            number++;
+
+            if (!line.trim().isEmpty()) {
+               try {
+                  list.add((JSONObject) parser.parse(line));
+               } catch (ParseException | ClassCastException ex) {
+                  throw new IOException("Invalid exchange, '" + file + "' line " + number
+                     + ": " + ex.getMessage());
+               }
+            }
+         }
+      }
+
+      return list;
+   }
+
+   /**
+    * Get the bytes of a recorded entity: CBOR if the response was CBOR, else
+    * the UTF-8 text
+    *
+    * @param json JSONObject exchange
+    * @param file String file name, for the error message
+    * @return byte[] entity, null if there is no entity
+    * @throws IOException the CBOR entity is not valid JSON
+    */
+   private static byte[] getEntity(final JSONObject json, final String file) throws IOException {
+      byte[] bytes = null;
+      String entity = JSON.getString(json, ExchangeRecorder.ENTITY);
+
+      if (entity != null) {
+         if (ExchangeRecorder.ENCODING_CBOR.equals(JSON.getString(json, ExchangeRecorder.ENCODING))) {
+            try {
+               bytes = CborCodec.encode(new JSONParser().parse(entity));
+            } catch (ParseException ex) {
+               throw new IOException("Invalid CBOR entity, '" + file + "': " + ex.getMessage());
+            }
+         } else {
+            bytes = entity.getBytes(StandardCharsets.UTF_8);
+         }
+      }
+
+      return bytes;
+   }
+
+   /**
+    * Get the match key of a request: method, path and query
+    *
+    * @param method String HTTP method
+    * @param uri URI request URI
+    * @return String key
+    */
+   private static String getKey(final String method, final URI uri) {
+      return method + " " + (uri == null ? ""
+         : uri.getRawPath() + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery()));
+   }
+
+   /**
+    * Get a timing phase
+    *
+    * @param json JSONObject timings
+    * @param name String phase name
+    * @return double milliseconds, 0 if the phase is not recorded
+    */
+   private static double getMillis(final JSONObject json, final String name) {
+      Object value = json.get(name);
+
+      return value instanceof Number ? ((Number) value).doubleValue() : 0.0;
+   }
+
+   /*
+    * =============== PRIVATE CLASSES ===============
+    */
+   /**
+    * Recorded exchanges of a request, and the next one to replay
+    */
+   private static final class Exchanges {
+
+      private final List<JSONObject> _list = new ArrayList<>();
+      private final List<byte[]> _entities = new ArrayList<>();
+      private int _next = 0;
+   }
+}
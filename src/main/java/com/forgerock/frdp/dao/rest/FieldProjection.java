@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Projection of the "fields" of an operation: a tree of the object members
+ * that are kept. A field is a dotted path ("data.address.city"), the members
+ * of an object that are not on a path are removed, arrays are transparent
+ * (the projection applies to each element). A path that ends at an object
+ * keeps the whole object.
+ *
+ * The paths are relative to the document: the "uid" and "quantity" of the
+ * response are always kept, the paths of a SEARCH also apply to each of the
+ * "results" (with their "uid").
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class FieldProjection {
+
+   static final FieldProjection ALL = new FieldProjection();
+
+   private final Map<String, FieldProjection> _members;
+   private final String _paths;
+
+   /**
+    * Constructor, the projection that keeps everything
+    */
+   private FieldProjection() {
+      _members = null;
+      _paths = null;
+   }
+
+   /**
+    * Constructor, a projection without members
+    *
+    * @param paths String comma separated paths, may be null
+    */
+   private FieldProjection(final String paths) {
+      _members = new HashMap<>();
+      _paths = paths;
+   }
+
+   /**
+    * Get the projection of the "fields" attribute: a JSONArray of paths, or
+    * a comma separated String
+    *
+    * @param fields Object "fields" attribute, may be null
+    * @param search boolean true for a SEARCH, the paths also apply to the
+    * "results"
+    * @return FieldProjection projection, null if there are no fields
+    * @throws IllegalArgumentException the fields are not a String or an
+    * array of Strings
+    */
+   static FieldProjection getInstance(final Object fields, final boolean search) {
+      StringBuilder paths = new StringBuilder();
+      FieldProjection document = null;
+      FieldProjection projection = null;
+
+      if (fields instanceof String) {
+         for (String path : ((String) fields).split(",")) {
+            append(path, paths);
+         }
+      } else if (fields instanceof List) {
+         for (Object path : (List<?>) fields) {
+            if (!(path instanceof String)) {
+               throw new IllegalArgumentException("Attribute 'fields' has a value that is not a String: "
+                  + path);
+            }
+
+            append((String) path, paths);
+         }
+      } else if (fields != null) {
+         throw new IllegalArgumentException("Attribute 'fields' is not a String or an array: "
+            + fields.getClass().getSimpleName());
+      }
+
+      if (paths.length() > 0) {
+         document = new FieldProjection(null);
+         projection = new FieldProjection(paths.toString());
+
+         for (String path : projection._paths.split(",")) {
+            document.add(path);
+            projection.add(path);
+         }
+
+         document._members.put(ConstantsIF.UID, ALL);
+         projection._members.put(ConstantsIF.UID, ALL);
+         projection._members.put(RestDataAccess.QUANTITY, ALL);
+
+         if (search) {
+            projection._members.putIfAbsent(ConstantsIF.RESULTS, document);
+         }
+      }
+
+      return projection;
+   }
+
+   /**
+    * Get the projection of a member
+    *
+    * @param name String member name
+    * @return FieldProjection projection of the member, null if the member is
+    * not kept
+    */
+   FieldProjection get(final String name) {
+      return _members == null ? this : _members.get(name);
+   }
+
+   /**
+    * Check if the projection keeps everything
+    *
+    * @return boolean true if all the members are kept
+    */
+   boolean isAll() {
+      return _members == null;
+   }
+
+   /**
+    * Get the paths, comma separated, as they were provided
+    *
+    * @return String paths
+    */
+   String getPaths() {
+      return _paths;
+   }
+
+   /**
+    * Apply the projection to a parsed value, the objects are changed in place
+    *
+    * @param value Object parsed value
+    * @return Object the value
+    */
+   Object apply(final Object value) {
+      Iterator<? extends Map.Entry<?, ?>> iter = null;
+      Map.Entry<?, ?> entry = null;
+      FieldProjection member = null;
+
+      if (_members != null) {
+         if (value instanceof Map) {
+            iter = ((Map<?, ?>) value).entrySet().iterator();
+
+            while (iter.hasNext()) {
+               entry = iter.next();
+               member = _members.get(String.valueOf(entry.getKey()));
+
+               if (member == null) {
+                  iter.remove();
+               } else {
+                  member.apply(entry.getValue());
+               }
+            }
+         } else if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) {
+               this.apply(item);
+            }
+         }
+      }
+
+      return value;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Add a dotted path, a shorter path keeps the whole member
+    *
+    * @param path String path
+    */
+   private void add(final String path) {
+      int dot = path.indexOf('.');
+      String name = dot < 0 ? path : path.substring(0, dot);
+      FieldProjection member = _members.get(name);
+
+      if (dot < 0) {
+         _members.put(name, ALL);
+      } else if (member == null) {
+         member = new FieldProjection(null);
+         _members.put(name, member);
+         member.add(path.substring(dot + 1));
+      } else if (!member.isAll()) {
+         member.add(path.substring(dot + 1));
+      }
+
+      return;
+   }
+
+   private static void append(final String path, final StringBuilder paths) {
+      String trimmed = path.trim();
+
+      if (!trimmed.isEmpty()) {
+         paths.append(paths.length() > 0 ? "," : "").append(trimmed);
+      }
+
+      return;
+   }
+}
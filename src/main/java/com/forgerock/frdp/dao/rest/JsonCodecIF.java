@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.io.IOException;
+
+/**
+ * Interface for the JSON codec that parses the response entities and
+ * serializes the request bodies. Objects are parsed to JSONObject, arrays to
+ * JSONArray, integers to Long and decimals to Double, the same types as
+ * json-simple. Implementations must be thread safe and have a public
+ * constructor without arguments, see the "jsonCodec" parameter.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public interface JsonCodecIF {
+
+   /**
+    * Parse JSON text
+    *
+    * @param text String JSON text
+    * @return Object JSONObject, JSONArray, String, Long, Double, Boolean or
+    * null
+    * @throws Exception invalid JSON text
+    */
+   public Object parse(String text) throws Exception;
+
+   /**
+    * Write a value as JSON text: JSONObject (Map), JSONArray (Collection),
+    * String, Number, Boolean or null
+    *
+    * @param value Object value
+    * @param out Appendable output
+    * @throws IOException could not write to the output
+    */
+   public void write(Object value, Appendable out) throws IOException;
+}
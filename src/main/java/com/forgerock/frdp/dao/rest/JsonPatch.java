@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.util.Map;
+import java.util.Objects;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Computes the difference between two versions of a document, as a JSON
+ * Merge Patch (RFC 7386) or a JSON Patch (RFC 6902). Only the members that
+ * changed are in the patch, nested objects are compared member by member.
+ * Arrays are compared as a whole, a changed array is replaced.
+ *
+ * A merge patch can not set a member to null, null removes the member: a
+ * member that changed to null would be removed by the server. Use
+ * isMergeable() to check that the difference can be sent as a merge patch.
+ *
+ * <pre>
+ * previous: { "status": "new", "size": 10, "tags": [ "a" ] }
+ * current:  { "status": "done", "size": 10 }
+ * merge:    { "status": "done", "tags": null }
+ * json:     [ { "op": "replace", "path": "/status", "value": "done" },
+ *             { "op": "remove", "path": "/tags" } ]
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public final class JsonPatch {
+
+   public static final String TYPE_MERGE_PATCH = "application/merge-patch+json";
+   public static final String TYPE_JSON_PATCH = "application/json-patch+json";
+
+   /**
+    * Update modes of a REPLACE: full document (PUT), or a patch (PATCH)
+    */
+   static enum MODE {
+      PUT, MERGE_PATCH, JSON_PATCH
+   }
+
+   private JsonPatch() {
+   }
+
+   /**
+    * Get the JSON Merge Patch from the previous to the current document
+    *
+    * @param previous JSONObject previous document
+    * @param current JSONObject current document
+    * @return JSONObject merge patch, empty if nothing changed
+    */
+   public static JSONObject mergePatch(final JSONObject previous, final JSONObject current) {
+      Object before = null;
+      Object after = null;
+      JSONObject nested = null;
+      JSONObject patch = new JSONObject();
+
+      for (Object key : previous.keySet()) {
+         if (!current.containsKey(key)) {
+            patch.put(key, null);
+         }
+      }
+
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) current).entrySet()) {
+         before = previous.get(entry.getKey());
+         after = entry.getValue();
+
+         if (!previous.containsKey(entry.getKey())) {
+            patch.put(entry.getKey(), after);
+         } else if (before instanceof JSONObject && after instanceof JSONObject) {
+            nested = mergePatch((JSONObject) before, (JSONObject) after);
+
+            if (!nested.isEmpty()) {
+               patch.put(entry.getKey(), nested);
+            }
+         } else if (!Objects.equals(before, after)) {
+            patch.put(entry.getKey(), after);
+         }
+      }
+
+      return patch;
+   }
+
+   /**
+    * Check if the difference can be sent as a JSON Merge Patch: a null in
+    * the merge patch is a removal, a member that is set to a null value (or
+    * a new or changed object with a null member) can not be sent.
+    *
+    * @param previous JSONObject previous document
+    * @param current JSONObject current document
+    * @return boolean true if the merge patch does not have null values
+    */
+   public static boolean isMergeable(final JSONObject previous, final JSONObject current) {
+      boolean mergeable = true;
+      Object before = null;
+      Object after = null;
+
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) current).entrySet()) {
+         before = previous.get(entry.getKey());
+         after = entry.getValue();
+
+         if (before instanceof JSONObject && after instanceof JSONObject) {
+            mergeable = isMergeable((JSONObject) before, (JSONObject) after);
+         } else if (!previous.containsKey(entry.getKey()) || !Objects.equals(before, after)) {
+            mergeable = !hasNull(after);
+         }
+
+         if (!mergeable) {
+            break;
+         }
+      }
+
+      return mergeable;
+   }
+
+   /**
+    * Get the JSON Patch operations from the previous to the current document
+    *
+    * @param previous JSONObject previous document
+    * @param current JSONObject current document
+    * @return JSONArray patch operations, empty if nothing changed
+    */
+   public static JSONArray jsonPatch(final JSONObject previous, final JSONObject current) {
+      JSONArray patch = new JSONArray();
+
+      diff("", previous, current, patch);
+
+      return patch;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Add the operations of an object to the patch
+    *
+    * @param path String JSON Pointer of the object
+    * @param previous JSONObject previous object
+    * @param current JSONObject current object
+    * @param patch JSONArray operations
+    */
+   private static void diff(final String path, final JSONObject previous, final JSONObject current,
+      final JSONArray patch) {
+      String member = null;
+      Object before = null;
+      Object after = null;
+
+      for (Object key : previous.keySet()) {
+         if (!current.containsKey(key)) {
+            patch.add(operation("remove", path + "/" + escape(String.valueOf(key)), null, false));
+         }
+      }
+
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) current).entrySet()) {
+         member = path + "/" + escape(String.valueOf(entry.getKey()));
+         before = previous.get(entry.getKey());
+         after = entry.getValue();
+
+         if (!previous.containsKey(entry.getKey())) {
+            patch.add(operation("add", member, after, true));
+         } else if (before instanceof JSONObject && after instanceof JSONObject) {
+            diff(member, (JSONObject) before, (JSONObject) after, patch);
+         } else if (!Objects.equals(before, after)) {
+            patch.add(operation("replace", member, after, true));
+         }
+      }
+
+      return;
+   }
+
+   /**
+    * Check if a merge patch value has a null: the value, or a member of an
+    * object. Arrays are replaced as a whole, their items are values.
+    *
+    * @param value Object value
+    * @return boolean true if the value has a null
+    */
+   private static boolean hasNull(final Object value) {
+      boolean found = value == null;
+
+      if (value instanceof JSONObject) {
+         for (Object member : ((JSONObject) value).values()) {
+            if (hasNull(member)) {
+               found = true;
+               break;
+            }
+         }
+      }
+
+      return found;
+   }
+
+   private static JSONObject operation(final String op, final String path, final Object value,
+      final boolean hasValue) {
+      JSONObject json = new JSONObject();
+
+      json.put("op", op);
+      json.put("path", path);
+
+      if (hasValue) {
+         json.put("value", value);
+      }
+
+      return json;
+   }
+
+   /**
+    * Escape a member name for a JSON Pointer (RFC 6901)
+    *
+    * @param name String member name
+    * @return String escaped name
+    */
+   private static String escape(final String name) {
+      return name.indexOf('~') < 0 && name.indexOf('/') < 0
+         ? name : name.replace("~", "~0").replace("/", "~1");
+   }
+}
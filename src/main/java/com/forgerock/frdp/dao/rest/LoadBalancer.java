@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ws.rs.core.Response;
+import org.glassfish.jersey.client.ClientProperties;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Selects an Endpoint for each request. Strategies:
+ *
+ * <pre>
+ * ROUND_ROBIN       | endpoints are selected in turn
+ * LEAST_OUTSTANDING | the endpoint with the fewest requests in progress
+ * P2C               | power of two choices: two random endpoints, the one with
+ *                   | the fewest requests in progress (then lowest latency)
+ * </pre>
+ *
+ * Outlier ejection: an endpoint is ejected after a number of consecutive
+ * failures, or when its average latency exceeds a threshold. An ejected
+ * endpoint is not selected until the ejection time has passed, or an active
+ * health check succeeds. If all the endpoints are ejected, all are used. The
+ * ejection resets the average latency: a restored endpoint is ejected again
+ * for its latency only after MIN_LATENCY_SAMPLES new samples.
+ *
+ * Active health checks: each endpoint is checked with a HTTP GET at a fixed
+ * interval, a failed check ejects the endpoint.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class LoadBalancer {
+
+   /**
+    * Minimum number of samples (since the last ejection) before the average
+    * latency is used for ejection, the first requests include the connection
+    * setup
+    */
+   private static final long MIN_LATENCY_SAMPLES = 10L;
+
+   /**
+    * Load balancing strategies
+    */
+   static enum STRATEGY {
+      ROUND_ROBIN, LEAST_OUTSTANDING, P2C
+   }
+
+   private final String CLASS = this.getClass().getName();
+   private final Logger _logger = Logger.getLogger(CLASS);
+   private final List<Endpoint> _endpoints;
+   private final STRATEGY _strategy;
+   private final int _ejectFailures;
+   private final long _ejectLatency;
+   private final long _ejectTime;
+   private final AtomicInteger _next = new AtomicInteger(0);
+   private ScheduledExecutorService _checker = null;
+
+   /**
+    * Constructor
+    *
+    * @param endpoints List of Endpoint objects, at least one
+    * @param strategy STRATEGY selection strategy
+    * @param ejectFailures int consecutive failures that eject an endpoint,
+    * zero disables
+    * @param ejectLatency long average latency, in milliseconds, that ejects an
+    * endpoint, zero disables
+    * @param ejectTime long ejection time, in milliseconds
+    */
+   LoadBalancer(final List<Endpoint> endpoints, final STRATEGY strategy,
+      final int ejectFailures, final long ejectLatency, final long ejectTime) {
+      _endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+      _strategy = strategy;
+      _ejectFailures = ejectFailures;
+      _ejectLatency = ejectLatency;
+      _ejectTime = ejectTime;
+
+      return;
+   }
+
+   /**
+    * Start the active health checks
+    *
+    * @param path String path appended to each endpoint target, may be empty
+    * @param intervalMillis long interval between checks, in milliseconds
+    * @param timeoutMillis int connect and read timeout of a check
+    */
+   synchronized void startHealthChecks(final String path, final long intervalMillis,
+      final int timeoutMillis) {
+      if (_checker == null && intervalMillis > 0) {
+         _checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "RestDataAccess-health");
+            thread.setDaemon(true);
+            return thread;
+         });
+
+         _checker.scheduleWithFixedDelay(() -> this.check(path, timeoutMillis),
+            intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+      }
+
+      return;
+   }
+
+   /**
+    * Stop the active health checks
+    */
+   synchronized void close() {
+      if (_checker != null) {
+         _checker.shutdownNow();
+         _checker = null;
+      }
+
+      return;
+   }
+
+   /**
+    * Get the endpoints
+    *
+    * @return List of Endpoint objects
+    */
+   List<Endpoint> getEndpoints() {
+      return _endpoints;
+   }
+
+   /**
+    * Select an endpoint
+    *
+    * @return Endpoint endpoint
+    */
+   Endpoint select() {
+      Endpoint endpoint = null;
+
+      if (_endpoints.size() == 1) {
+         endpoint = _endpoints.get(0); // nothing to balance
+      } else {
+         endpoint = this.select(this.getAvailable());
+      }
+
+      return endpoint;
+   }
+
+   /**
+    * Record the end of a request and eject the endpoint if it is an outlier
+    *
+    * @param endpoint Endpoint endpoint used by the request
+    * @param start long start time, from Endpoint.start()
+    * @param failed boolean true if the request failed
+    */
+   void finish(final Endpoint endpoint, final long start, final boolean failed) {
+      endpoint.finish(start, failed);
+
+      this.checkOutlier(endpoint);
+
+      return;
+   }
+
+   /**
+    * Get the statistics of the endpoints
+    *
+    * @return JSONObject statistics
+    */
+   JSONObject getStats() {
+      JSONObject json = new JSONObject();
+      JSONArray array = new JSONArray();
+
+      for (Endpoint e : _endpoints) {
+         array.add(e.getStats());
+      }
+
+      json.put("strategy", _strategy.toString());
+      json.put("endpoints", array);
+
+      return json;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Get the endpoints that are not ejected, all the endpoints if they are
+    * all ejected (fail open)
+    *
+    * @return List of Endpoint objects
+    */
+   private List<Endpoint> getAvailable() {
+      long now = System.nanoTime();
+      List<Endpoint> available = _endpoints;
+
+      for (Endpoint e : _endpoints) {
+         if (!e.isAvailable(now)) {
+            available = new ArrayList<>(_endpoints.size());
+            for (Endpoint a : _endpoints) {
+               if (a.isAvailable(now)) {
+                  available.add(a);
+               }
+            }
+            break;
+         }
+      }
+
+      if (available.isEmpty()) {
+         available = _endpoints;
+      }
+
+      return available;
+   }
+
+   /**
+    * Select an endpoint using the strategy
+    *
+    * @param available List of Endpoint objects, not empty
+    * @return Endpoint endpoint
+    */
+   private Endpoint select(final List<Endpoint> available) {
+      int size = available.size();
+      Endpoint endpoint = null;
+      Endpoint other = null;
+
+      switch (_strategy) {
+         case LEAST_OUTSTANDING: {
+            for (Endpoint e : available) {
+               if (endpoint == null || this.compare(e, endpoint) < 0) {
+                  endpoint = e;
+               }
+            }
+            break;
+         }
+         case P2C: {
+            endpoint = available.get(ThreadLocalRandom.current().nextInt(size));
+
+            if (size > 1) {
+               do {
+                  other = available.get(ThreadLocalRandom.current().nextInt(size));
+               } while (other == endpoint);
+
+               if (this.compare(other, endpoint) < 0) {
+                  endpoint = other;
+               }
+            }
+            break;
+         }
+         default: {
+            endpoint = available.get(Math.floorMod(_next.getAndIncrement(), size));
+            break;
+         }
+      }
+
+      return endpoint;
+   }
+
+   /**
+    * Compare two endpoints: fewest outstanding requests, then lowest latency
+    *
+    * @param a Endpoint first endpoint
+    * @param b Endpoint second endpoint
+    * @return int negative if "a" is preferred
+    */
+   private int compare(final Endpoint a, final Endpoint b) {
+      int result = Integer.compare(a.getOutstanding(), b.getOutstanding());
+
+      if (result == 0) {
+         result = Double.compare(a.getLatency(), b.getLatency());
+      }
+
+      return result;
+   }
+
+   /**
+    * Eject the endpoint if it has too many consecutive failures, or a high
+    * average latency
+    *
+    * @param endpoint Endpoint endpoint to check
+    */
+   private void checkOutlier(final Endpoint endpoint) {
+      final String METHOD = "checkOutlier";
+      double latency = endpoint.getLatency();
+
+      if (endpoint.isAvailable(System.nanoTime()) && _endpoints.size() > 1
+         && ((_ejectFailures > 0 && endpoint.getFailures() >= _ejectFailures)
+         || (_ejectLatency > 0 && endpoint.getSamples() >= MIN_LATENCY_SAMPLES
+         && latency > _ejectLatency))) {
+         endpoint.eject(_ejectTime);
+
+         _logger.log(Level.WARNING, "{0}: ejected ''{1}'', failures={2}, latency={3}",
+            new Object[]{METHOD, endpoint.getName(), endpoint.getFailures(), latency});
+      }
+
+      return;
+   }
+
+   /**
+    * Active health check of all the endpoints
+    *
+    * @param path String path appended to each endpoint target
+    * @param timeoutMillis int connect and read timeout
+    */
+   private void check(final String path, final int timeoutMillis) {
+      final String METHOD = "check";
+      boolean failed = false;
+      long start = 0L;
+      Response response = null;
+
+      for (Endpoint endpoint : _endpoints) {
+         start = System.nanoTime();
+
+         try {
+            response = (path == null || path.isEmpty()
+               ? endpoint.getTarget() : endpoint.getTarget().path(path))
+               .request()
+               .property(ClientProperties.CONNECT_TIMEOUT, timeoutMillis)
+               .property(ClientProperties.READ_TIMEOUT, timeoutMillis)
+               .get();
+            failed = response.getStatus() >= 500;
+            response.close();
+         } catch (RuntimeException ex) {
+            failed = true;
+         }
+
+         endpoint.record((System.nanoTime() - start) / 1000000.0, failed);
+
+         if (failed) {
+            if (endpoint.isAvailable(System.nanoTime()) && _endpoints.size() > 1) {
+               endpoint.eject(_ejectTime);
+
+               _logger.log(Level.WARNING, "{0}: health check failed, ejected ''{1}''",
+                  new Object[]{METHOD, endpoint.getName()});
+            }
+         } else if (!endpoint.isAvailable(System.nanoTime())
+            && (_ejectLatency <= 0 || endpoint.getLatency() <= _ejectLatency)) {
+            endpoint.restore();
+
+            _logger.log(Level.INFO, "{0}: health check passed, restored ''{1}''",
+               new Object[]{METHOD, endpoint.getName()});
+         }
+      }
+
+      return;
+   }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.json.simple.JSONObject;
+
+/**
+ * Off-heap cache of serialized documents. The values are stored in direct
+ * ByteBuffer slabs, divided into fixed size blocks, a value uses as many
+ * blocks as it needs. Only the keys and the block numbers are on the heap.
+ * Slabs are allocated when they are needed, up to the maximum size.
+ *
+ * The cache is divided into segments by the hash of the key, each segment
+ * has its own lock, slabs and LRU order. When a segment is full, its least
+ * recently used values are evicted. Values can have a time to live.
+ *
+ * A value that is loaded while the key is invalidated must not be stored:
+ * get the stamp() of the key before loading, put() only stores the value if
+ * the segment was not invalidated since.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class OffHeapCache {
+
+   private static final int MAX_SLAB_SIZE = 64 * 1024 * 1024;
+
+   private final int _blockSize;
+   private final long _ttlNanos;
+   private final Segment[] _segments;
+
+   /**
+    * Constructor
+    *
+    * @param maxBytes long maximum size of the values, in bytes
+    * @param blockSize int size of a block, in bytes
+    * @param segments int number of segments, rounded up to a power of two
+    * @param ttlMillis long time to live of a value, in milliseconds, 0 for no
+    * expiration
+    */
+   OffHeapCache(final long maxBytes, final int blockSize, final int segments,
+      final long ttlMillis) {
+      int count = 1;
+      long segmentBlocks = 0L;
+
+      while (count < segments && count < 1024) {
+         count <<= 1;
+      }
+
+      _blockSize = blockSize > 0 ? blockSize : 1024;
+      _ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis > 0 ? ttlMillis : 0L);
+      _segments = new Segment[count];
+
+      segmentBlocks = Math.max(1L, maxBytes / _blockSize / count);
+
+      for (int i = 0; i < count; i++) {
+         _segments[i] = new Segment((int) Math.min(segmentBlocks, Integer.MAX_VALUE));
+      }
+
+      return;
+   }
+
+   /**
+    * Get the value of the key
+    *
+    * @param key String key
+    * @return byte[] value, null if the key is not cached or expired
+    */
+   byte[] get(final String key) {
+      return this.getSegment(key).get(key);
+   }
+
+   /**
+    * Get the stamp of the key, the number of invalidations of its segment
+    *
+    * @param key String key
+    * @return long stamp
+    */
+   long stamp(final String key) {
+      return this.getSegment(key).stamp();
+   }
+
+   /**
+    * Store the value of the key, if the segment of the key was not
+    * invalidated since the stamp. A value that is larger than the segment is
+    * not stored.
+    *
+    * @param key String key
+    * @param value byte[] value
+    * @param stamp long stamp of the key, from stamp(), before the value was
+    * loaded
+    */
+   void put(final String key, final byte[] value, final long stamp) {
+      this.getSegment(key).put(key, value, stamp);
+
+      return;
+   }
+
+   /**
+    * Remove the key, increments the stamp of its segment
+    *
+    * @param key String key
+    */
+   void invalidate(final String key) {
+      this.getSegment(key).invalidate(key);
+
+      return;
+   }
+
+   /**
+    * Remove all the values, the slabs are released
+    */
+   void clear() {
+      for (Segment segment : _segments) {
+         segment.clear();
+      }
+
+      return;
+   }
+
+   /**
+    * Get the cache statistics
+    *
+    * @return JSONObject statistics
+    */
+   JSONObject getStats() {
+      long entries = 0L;
+      long bytes = 0L;
+      long allocated = 0L;
+      long capacity = 0L;
+      long hits = 0L;
+      long misses = 0L;
+      long evictions = 0L;
+      long expirations = 0L;
+      JSONObject json = new JSONObject();
+
+      for (Segment segment : _segments) {
+         synchronized (segment) {
+            entries += segment._entries.size();
+            bytes += segment._bytes;
+            allocated += (long) segment._allocated * _blockSize;
+            capacity += (long) segment._maxBlocks * _blockSize;
+            hits += segment._hits;
+            misses += segment._misses;
+            evictions += segment._evictions;
+            expirations += segment._expirations;
+         }
+      }
+
+      json.put("capacity", capacity);
+      json.put("allocated", allocated);
+      json.put("bytes", bytes);
+      json.put("entries", entries);
+      json.put("hits", hits);
+      json.put("misses", misses);
+      json.put("evictions", evictions);
+      json.put("expirations", expirations);
+
+      return json;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Get the segment of the key
+    *
+    * @param key String key
+    * @return Segment segment
+    */
+   private Segment getSegment(final String key) {
+      int hash = key.hashCode();
+
+      return _segments[(hash ^ (hash >>> 16)) & (_segments.length - 1)];
+   }
+
+   /*
+    * =============== PRIVATE CLASSES ===============
+    */
+   /**
+    * Cached value: the blocks, in order, and the length
+    */
+   private static final class Entry {
+
+      private final int[] _blocks;
+      private final int _length;
+      private final long _expires;
+
+      private Entry(final int[] blocks, final int length, final long expires) {
+         _blocks = blocks;
+         _length = length;
+         _expires = expires;
+      }
+   }
+
+   /**
+    * Segment of the cache, guarded by its own lock
+    */
+   private final class Segment {
+
+      private final int _maxBlocks;
+      private final int _slabBlocks;
+      private final List<ByteBuffer> _slabs = new ArrayList<>();
+      private final Map<String, Entry> _entries = new LinkedHashMap<>(16, 0.75f, true);
+      private int[] _free = new int[0];
+      private int _freeCount = 0;
+      private int _allocated = 0;
+      private long _bytes = 0L;
+      private long _stamp = 0L;
+      private long _hits = 0L;
+      private long _misses = 0L;
+      private long _evictions = 0L;
+      private long _expirations = 0L;
+
+      private Segment(final int maxBlocks) {
+         _maxBlocks = maxBlocks;
+         _slabBlocks = Math.max(1, Math.min(maxBlocks, MAX_SLAB_SIZE / _blockSize));
+      }
+
+      private synchronized byte[] get(final String key) {
+         int offset = 0;
+         int length = 0;
+         int block = 0;
+         byte[] value = null;
+         ByteBuffer slab = null;
+         Entry entry = _entries.get(key);
+
+         if (entry != null && _ttlNanos > 0L && System.nanoTime() - entry._expires >= 0L) {
+            _entries.remove(key);
+            this.release(entry);
+            _expirations++;
+            entry = null;
+         }
+
+         if (entry == null) {
+            _misses++;
+         } else {
+            _hits++;
+            value = new byte[entry._length];
+
+            for (int i = 0; i < entry._blocks.length; i++) {
+               block = entry._blocks[i];
+               length = Math.min(_blockSize, entry._length - offset);
+               slab = _slabs.get(block / _slabBlocks);
+               slab.position((block % _slabBlocks) * _blockSize);
+               slab.get(value, offset, length);
+               offset += length;
+            }
+         }
+
+         return value;
+      }
+
+      private synchronized long stamp() {
+         return _stamp;
+      }
+
+      private synchronized void put(final String key, final byte[] value, final long stamp) {
+         int needed = Math.max(1, (value.length + _blockSize - 1) / _blockSize);
+         int offset = 0;
+         int length = 0;
+         int[] blocks = null;
+         ByteBuffer slab = null;
+         Entry entry = null;
+         Iterator<Entry> iter = null;
+
+         if (stamp == _stamp && needed <= _maxBlocks) {
+            entry = _entries.remove(key);
+
+            if (entry != null) {
+               this.release(entry);
+            }
+
+            iter = _entries.values().iterator();
+
+            while (_freeCount + (_maxBlocks - _allocated) < needed && iter.hasNext()) {
+               entry = iter.next();
+               iter.remove();
+               this.release(entry);
+               _evictions++;
+            }
+
+            blocks = new int[needed];
+
+            for (int i = 0; i < needed; i++) {
+               if (_freeCount == 0) {
+                  this.allocate();
+               }
+
+               blocks[i] = _free[--_freeCount];
+               length = Math.min(_blockSize, value.length - offset);
+               slab = _slabs.get(blocks[i] / _slabBlocks);
+               slab.position((blocks[i] % _slabBlocks) * _blockSize);
+               slab.put(value, offset, length);
+               offset += length;
+            }
+
+            _entries.put(key, new Entry(blocks, value.length,
+               _ttlNanos > 0L ? System.nanoTime() + _ttlNanos : 0L));
+            _bytes += value.length;
+         }
+
+         return;
+      }
+
+      private synchronized void invalidate(final String key) {
+         Entry entry = _entries.remove(key);
+
+         if (entry != null) {
+            this.release(entry);
+         }
+
+         _stamp++;
+
+         return;
+      }
+
+      private synchronized void clear() {
+         _entries.clear();
+         _slabs.clear();
+         _free = new int[0];
+         _freeCount = 0;
+         _allocated = 0;
+         _bytes = 0L;
+         _stamp++;
+
+         return;
+      }
+
+      /**
+       * Allocate the next slab, its blocks are added to the free list
+       */
+      private void allocate() {
+         int blocks = Math.min(_slabBlocks, _maxBlocks - _allocated);
+
+         _slabs.add(ByteBuffer.allocateDirect(blocks * _blockSize));
+         _free = Arrays.copyOf(_free, _allocated + blocks);
+
+         for (int i = blocks - 1; i >= 0; i--) {
+            _free[_freeCount++] = _allocated + i;
+         }
+
+         _allocated += blocks;
+
+         return;
+      }
+
+      /**
+       * Return the blocks of the entry to the free list
+       *
+       * @param entry Entry removed entry
+       */
+      private void release(final Entry entry) {
+         for (int block : entry._blocks) {
+            _free[_freeCount++] = block;
+         }
+
+         _bytes -= entry._length;
+
+         return;
+      }
+   }
+}
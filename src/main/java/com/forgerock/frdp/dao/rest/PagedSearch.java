@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ws.rs.client.WebTarget;
+import org.glassfish.jersey.client.ClientProperties;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * SEARCH operations that span several requests: all the pages of a paged
+ * SEARCH ("pageMode"), and the scatter-gather SEARCH of the shards. The
+ * "results" of the requests are merged. The "quantity" of a paged SEARCH is
+ * the total of the last page ("totalPagedResults"), if the server returns
+ * it, else the "quantity" values of the pages are added. The "quantity"
+ * values of the shards are added.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class PagedSearch {
+
+   private final String CLASS = this.getClass().getName();
+   private final Logger _logger = Logger.getLogger(CLASS);
+   private final RestDataAccess _dao;
+   private final SearchPages.MODE _pageMode;
+   private final int _pageSize;
+   private final int _pagePrefetch;
+   private final String _pageOffsetParam;
+   private final String _pageLimitParam;
+   private final long _scatterDeadline;
+   private final boolean _scatterPartial;
+
+   /**
+    * Constructor
+    *
+    * @param dao RestDataAccess data access object that submits the requests
+    * @param pageMode SearchPages.MODE pagination mode
+    * @param pageSize int number of results per page (OFFSET mode)
+    * @param pageOffsetParam String name of the offset query parameter
+    * @param pageLimitParam String name of the limit query parameter
+    * @param pagePrefetch int number of pages requested ahead
+    * @param scatterDeadline long maximum time of a scatter-gather SEARCH, 0
+    * for no deadline
+    * @param scatterPartial boolean return the results of the shards that
+    * responded, if a shard fails
+    */
+   PagedSearch(final RestDataAccess dao, final SearchPages.MODE pageMode, final int pageSize,
+      final String pageOffsetParam, final String pageLimitParam, final int pagePrefetch,
+      final long scatterDeadline, final boolean scatterPartial) {
+      _dao = dao;
+      _pageMode = pageMode;
+      _pageSize = pageSize;
+      _pageOffsetParam = pageOffsetParam;
+      _pageLimitParam = pageLimitParam;
+      _pagePrefetch = pagePrefetch;
+      _scatterDeadline = scatterDeadline;
+      _scatterPartial = scatterPartial;
+
+      return;
+   }
+
+   /**
+    * Get the pagination mode
+    *
+    * @return SearchPages.MODE mode
+    */
+   SearchPages.MODE getMode() {
+      return _pageMode;
+   }
+
+   /**
+    * Iterate the pages of a SEARCH operation, the first page(s) are
+    * requested
+    *
+    * @param operInput OperationIF SEARCH operation
+    * @param endpoint Endpoint endpoint of the pages, null if there is a single
+    * base target or dynamic URIs are used
+    * @param base WebTarget base target, of the endpoint if there is one
+    * @return SearchPages page iterator
+    */
+   SearchPages pages(final OperationIF operInput, final Endpoint endpoint, final WebTarget base) {
+      return this.pages(operInput, endpoint, base, 0L);
+   }
+
+   /**
+    * Follow all the pages of a SEARCH operation. The "results" of the pages
+    * are merged. If a page fails, the output of that page is returned.
+    *
+    * @param operInput OperationIF SEARCH operation
+    * @param endpoint Endpoint endpoint of the pages, null if there is a single
+    * base target or dynamic URIs are used
+    * @param base WebTarget base target, of the endpoint if there is one
+    * @return OperationIF output
+    */
+   OperationIF searchAll(final OperationIF operInput, final Endpoint endpoint,
+      final WebTarget base) {
+      return this.collect(operInput, this.pages(operInput, endpoint, base, 0L));
+   }
+
+   /**
+    * Scatter-gather SEARCH: the operation is sent to all the shards in
+    * parallel, the "results" are merged and the "quantity" values are added.
+    * Waits for the slowest shard, or the deadline. If a shard fails or misses
+    * the deadline, the output of the shards that responded is returned with a
+    * WARNING state ("scatterPartial"), else the SEARCH fails.
+    *
+    * @param operInput OperationIF SEARCH operation
+    * @param endpoints List of Endpoint objects, the shards
+    * @return OperationIF output
+    */
+   OperationIF scatter(final OperationIF operInput, final List<Endpoint> endpoints) {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      int responded = 0;
+      long quantity = 0L;
+      long deadline = 0L;
+      OperationIF page = null;
+      OperationIF failure = null;
+      OperationIF operOutput = null;
+      JSONArray results = new JSONArray();
+      JSONObject jsonOutput = null;
+      List<CompletableFuture<OperationIF>> futures = new ArrayList<>(endpoints.size());
+
+      _logger.entering(CLASS, METHOD);
+
+      if (_scatterDeadline > 0) {
+         deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(_scatterDeadline);
+      }
+
+      for (Endpoint endpoint : endpoints) {
+         final long shardDeadline = deadline;
+         final CompletableFuture<OperationIF> future = new CompletableFuture<>();
+
+         _dao.getExecutor().execute(() -> this.send(operInput, endpoint, shardDeadline, future));
+         futures.add(future);
+      }
+
+      try {
+         if (_scatterDeadline > 0) {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+               .get(_scatterDeadline, TimeUnit.MILLISECONDS);
+         } else {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+         }
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+      } catch (ExecutionException | TimeoutException ex) {
+         // checked for each shard below
+      }
+
+      for (int i = 0; i < futures.size(); i++) {
+         page = null;
+
+         if (futures.get(i).isDone() && !futures.get(i).isCompletedExceptionally()) {
+            page = futures.get(i).join();
+         } else {
+            futures.get(i).cancel(false);
+         }
+
+         if (page == null || page.isError()) {
+            if (failure == null) {
+               failure = page != null ? page : this.getFailure(operInput,
+                  endpoints.get(i), futures.get(i));
+            }
+            continue;
+         }
+
+         responded++;
+         jsonOutput = page.getJSON();
+
+         if (jsonOutput != null && jsonOutput.get(ConstantsIF.RESULTS) instanceof JSONArray) {
+            results.addAll((JSONArray) jsonOutput.get(ConstantsIF.RESULTS));
+         }
+
+         if (jsonOutput != null && jsonOutput.get(RestDataAccess.QUANTITY) instanceof Number) {
+            quantity += ((Number) jsonOutput.get(RestDataAccess.QUANTITY)).longValue();
+         } else {
+            quantity += SearchPages.getResultCount(page);
+         }
+      }
+
+      if (failure == null) {
+         operOutput = new RestOperation(operInput.getType());
+         operOutput.setState(STATE.SUCCESS);
+         operOutput.setStatus("Found document");
+      } else if (_scatterPartial && responded > 0) {
+         operOutput = new RestOperation(operInput.getType());
+         operOutput.setState(STATE.WARNING);
+         operOutput.setStatus(RestDataAccess.STATUS_PARTIAL_RESULTS + ": " + responded + " of "
+            + endpoints.size() + " shards responded, " + failure.getStatus());
+      } else {
+         operOutput = failure;
+      }
+
+      if (!operOutput.isError()) {
+         jsonOutput = new JSONObject();
+         jsonOutput.put(RestDataAccess.QUANTITY, quantity);
+         jsonOutput.put(ConstantsIF.RESULTS, results);
+         operOutput.setJSON(jsonOutput);
+      }
+
+      _logger.exiting(CLASS, METHOD);
+
+      return operOutput;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Iterate the pages of a SEARCH operation, the first page(s) are
+    * requested
+    *
+    * @param operInput OperationIF SEARCH operation
+    * @param endpoint Endpoint endpoint of the pages, may be null
+    * @param base WebTarget base target, of the endpoint if there is one
+    * @param deadline long deadline, System.nanoTime(), 0 for no deadline
+    * @return SearchPages page iterator
+    */
+   private SearchPages pages(final OperationIF operInput, final Endpoint endpoint,
+      final WebTarget base, final long deadline) {
+      return new SearchPages(_dao, operInput, _dao.getTarget(operInput.getJSON(), base),
+         endpoint, _pageMode, _pageSize, _pageOffsetParam, _pageLimitParam, _pagePrefetch,
+         deadline, _dao.getExecutor());
+   }
+
+   /**
+    * Iterate the pages of a SEARCH operation, the "results" of the pages are
+    * merged. The "quantity" is the total of the last page, if the server
+    * returns it, else the "quantity" values of the pages are added. If a
+    * page fails, the output of that page is returned. The pages are closed.
+    *
+    * @param operInput OperationIF SEARCH operation
+    * @param iterator SearchPages pages of the operation
+    * @return OperationIF output
+    */
+   private OperationIF collect(final OperationIF operInput, final SearchPages iterator) {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      long quantity = 0L;
+      long total = -1L;
+      OperationIF page = null;
+      OperationIF operOutput = null;
+      JSONArray results = new JSONArray();
+      JSONObject jsonOutput = null;
+
+      _logger.entering(CLASS, METHOD);
+
+      try (SearchPages pages = iterator) {
+         while (pages.hasNext()) {
+            page = pages.next();
+
+            if (page.isError()) {
+               operOutput = page;
+               break;
+            }
+
+            jsonOutput = page.getJSON();
+
+            if (jsonOutput != null && jsonOutput.get(ConstantsIF.RESULTS) instanceof JSONArray) {
+               results.addAll((JSONArray) jsonOutput.get(ConstantsIF.RESULTS));
+            }
+
+            if (jsonOutput != null && jsonOutput.get(RestDataAccess.QUANTITY) instanceof Number) {
+               quantity += ((Number) jsonOutput.get(RestDataAccess.QUANTITY)).longValue();
+            } else {
+               quantity += SearchPages.getResultCount(page);
+            }
+
+            total = SearchPages.getTotal(page);
+            operOutput = page;
+         }
+      } catch (Exception ex) {
+         operOutput = new RestOperation(operInput.getType());
+         operOutput.setError(true);
+         operOutput.setState(STATE.FAILED);
+         operOutput.setStatus(ex.getMessage());
+      }
+
+      if (operOutput == null) {
+         operOutput = new RestOperation(operInput.getType());
+         operOutput.setState(STATE.SUCCESS);
+         operOutput.setStatus("Found document");
+      }
+
+      if (!operOutput.isError()) {
+         jsonOutput = new JSONObject();
+         jsonOutput.put(RestDataAccess.QUANTITY, total >= 0L ? total : quantity);
+         jsonOutput.put(ConstantsIF.RESULTS, results);
+         operOutput.setJSON(jsonOutput);
+      }
+
+      _logger.exiting(CLASS, METHOD);
+
+      return operOutput;
+   }
+
+   /**
+    * Send the SEARCH to a shard, all the pages in "pageMode", and complete
+    * the future with the output. With a deadline, the connect and read
+    * timeouts of each request are the time left, no page is requested after
+    * the deadline. The pages are closed if the future is cancelled.
+    *
+    * @param operInput OperationIF SEARCH operation
+    * @param endpoint Endpoint shard
+    * @param deadline long deadline, System.nanoTime(), 0 for no deadline
+    * @param future CompletableFuture output of the shard
+    */
+   private void send(final OperationIF operInput, final Endpoint endpoint,
+      final long deadline, final CompletableFuture<OperationIF> future) {
+      int timeout = 0;
+      WebTarget base = endpoint.getTarget();
+
+      try {
+         if (future.isDone()) {
+            _logger.log(Level.FINE, "Shard ''{0}'': cancelled before it was sent",
+               endpoint.getName());
+         } else if (_pageMode == SearchPages.MODE.NONE) {
+            if (deadline != 0L) {
+               timeout = (int) Math.max(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()), 1L);
+               base = base.path("") // a copy, the timeouts are not set on the shard target
+                  .property(ClientProperties.CONNECT_TIMEOUT, timeout)
+                  .property(ClientProperties.READ_TIMEOUT, timeout);
+            }
+
+            future.complete(_dao.submitRequest(operInput,
+               _dao.getTarget(operInput.getJSON(), base), endpoint));
+         } else {
+            final SearchPages pages = this.pages(operInput, endpoint, base, deadline);
+
+            future.whenComplete((output, ex) -> pages.close());
+            future.complete(this.collect(operInput, pages));
+         }
+      } catch (RuntimeException ex) {
+         future.completeExceptionally(ex);
+      }
+
+      return;
+   }
+
+   /**
+    * Get the output for a shard that did not respond
+    *
+    * @param operInput OperationIF SEARCH operation
+    * @param endpoint Endpoint shard
+    * @param future CompletableFuture request of the shard
+    * @return OperationIF failed output
+    */
+   private OperationIF getFailure(final OperationIF operInput,
+      final Endpoint endpoint, final CompletableFuture<OperationIF> future) {
+      String msg = null;
+      OperationIF operOutput = new RestOperation(operInput.getType());
+
+      if (future.isCancelled() || !future.isDone()) {
+         msg = "deadline of " + _scatterDeadline + " ms exceeded";
+      } else {
+         try {
+            future.join();
+         } catch (CompletionException | CancellationException ex) {
+            msg = ex.getCause() != null ? ex.getCause().getMessage() : ex.getMessage();
+         }
+      }
+
+      operOutput.setError(true);
+      operOutput.setState(STATE.ERROR);
+      operOutput.setStatus("Shard '" + endpoint.getName() + "': " + msg);
+      operOutput.setJSON(new JSONObject());
+
+      return operOutput;
+   }
+}
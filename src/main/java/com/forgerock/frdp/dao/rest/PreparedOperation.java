@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import com.forgerock.frdp.utils.JSON;
+import com.forgerock.frdp.utils.STR;
+import java.util.ArrayList;
+import java.util.List;
+import javax.ws.rs.client.Invocation.Builder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import org.json.simple.JSONObject;
+
+/**
+ * Prepared operation, the fixed parts of a request are resolved once from a
+ * template operation: the operation type, the "headers" (with the accept and
+ * content types), the "cookies", the "queryParams", the "fields" and the
+ * "path" (static base target) or the "uri" (dynamic full target). Each execution only
+ * provides the variable parts: "uid", "path" and the body.
+ *
+ * <pre>
+ * PreparedOperation read = dao.prepare(template); // READ, with headers ...
+ * OperationIF output = read.execute("uid1");
+ * </pre>
+ *
+ * Prepared operations are sent directly: they are not queued (write-behind)
+ * or batched (readBatch), and a SEARCH is not paged or scattered. The load
+ * balancing, sharding and read / write splitting are applied.
+ *
+ * A prepared operation is immutable and can be used by concurrent threads.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class PreparedOperation {
+
+   private final RestDataAccess _dao;
+   private final OperationIF.TYPE _type;
+   private final String _path;
+   private final String _uri;
+   private final MediaType _contentType;
+   private final Object _fields;
+   private final String[] _headerNames;
+   private final String[] _headerValues;
+   private final String[] _queryNames;
+   private final String[] _queryValues;
+
+   /**
+    * Constructor, resolves the template
+    *
+    * @param dao RestDataAccess data access object
+    * @param operTemplate OperationIF template operation
+    */
+   PreparedOperation(final RestDataAccess dao, final OperationIF operTemplate) {
+      String name = null;
+      String value = null;
+      String uri = null;
+      MediaType acceptType = null;
+      MediaType contentType = null;
+      JSONObject jsonTemplate = operTemplate.getJSON();
+      JSONObject jsonHeaders = null;
+      JSONObject jsonCookies = null;
+      JSONObject jsonParams = null;
+      StringBuilder cookies = new StringBuilder();
+      List<String> names = new ArrayList<>();
+      List<String> values = new ArrayList<>();
+
+      _dao = dao;
+      _type = operTemplate.getType();
+
+      jsonHeaders = JSON.getObject(jsonTemplate, ConstantsIF.HEADERS);
+
+      if (jsonHeaders != null) {
+         for (Object o : jsonHeaders.keySet()) {
+            if (o instanceof String && !STR.isEmpty((String) o)) {
+               name = (String) o;
+               value = JSON.getString(jsonHeaders, name);
+
+               if (!STR.isEmpty(value)) {
+                  switch (name) {
+                     case ConstantsIF.HDR_ACCEPT: {
+                        acceptType = dao.getMediaType(value, true);
+                        break;
+                     }
+                     case ConstantsIF.HDR_CONTENT_TYPE: {
+                        contentType = dao.getMediaType(value, false);
+                        break;
+                     }
+                     default: {
+                        names.add(name);
+                        values.add(value);
+                        break;
+                     }
+                  }
+               }
+            }
+         }
+      }
+
+      jsonCookies = JSON.getObject(jsonTemplate, ConstantsIF.COOKIES);
+
+      if (jsonCookies != null) {
+         for (Object o : jsonCookies.keySet()) {
+            if (o instanceof String && !STR.isEmpty((String) o)) {
+               name = (String) o;
+               value = JSON.getString(jsonCookies, name);
+
+               if (!STR.isEmpty(value)) {
+                  cookies.append(cookies.length() > 0 ? "; " : "")
+                     .append(name).append("=").append(value);
+               }
+            }
+         }
+      }
+
+      if (cookies.length() > 0) {
+         names.add(HttpHeaders.COOKIE);
+         values.add(cookies.toString());
+      }
+
+      names.add(HttpHeaders.ACCEPT);
+      values.add(acceptType == null ? getAccept(dao.getAcceptTypes()) : acceptType.toString());
+
+      _headerNames = names.toArray(new String[0]);
+      _headerValues = values.toArray(new String[0]);
+      _contentType = contentType; // null, negotiated by the data access object
+
+      names.clear();
+      values.clear();
+
+      jsonParams = JSON.getObject(jsonTemplate, ConstantsIF.QUERY_PARAMS);
+
+      if (jsonParams != null) {
+         for (Object o : jsonParams.keySet()) {
+            if (o instanceof String && !STR.isEmpty((String) o)) {
+               name = (String) o;
+               value = JSON.getString(jsonParams, name);
+
+               if (!STR.isEmpty(value)) {
+                  names.add(name);
+                  values.add(value);
+               }
+            }
+         }
+      }
+
+      _fields = jsonTemplate.get(RestDataAccess.ATTR_FIELDS); // sent by the data access object
+
+      _queryNames = names.toArray(new String[0]);
+      _queryValues = values.toArray(new String[0]);
+
+      _path = JSON.getString(jsonTemplate, ConstantsIF.PATH);
+
+      uri = JSON.getString(jsonTemplate, ConstantsIF.URI);
+      _uri = uri == null || uri.endsWith("/") ? uri : uri + "/";
+
+      return;
+   }
+
+   /**
+    * Get the operation type
+    *
+    * @return OperationIF.TYPE type
+    */
+   public OperationIF.TYPE getType() {
+      return _type;
+   }
+
+   /**
+    * Execute the operation without a body: READ, DELETE, SEARCH
+    *
+    * @param uid String document uid, may be null
+    * @return OperationIF output
+    */
+   public OperationIF execute(final String uid) {
+      return this.execute(null, uid, null);
+   }
+
+   /**
+    * Execute the operation
+    *
+    * @param uid String document uid, may be null
+    * @param data JSONObject body of a CREATE / REPLACE: the "data", or the
+    * "form" if the template content type is url encoded
+    * @return OperationIF output
+    */
+   public OperationIF execute(final String uid, final JSONObject data) {
+      return this.execute(null, uid, data);
+   }
+
+   /**
+    * Execute the operation
+    *
+    * @param path String path appended to the template "path", static base
+    * target only, may be null
+    * @param uid String document uid, may be null
+    * @param data JSONObject body of a CREATE / REPLACE, may be null
+    * @return OperationIF output
+    */
+   public OperationIF execute(final String path, final String uid, final JSONObject data) {
+      OperationIF operInput = new Operation(_type);
+      JSONObject jsonInput = new JSONObject();
+
+      if (_uri != null) {
+         jsonInput.put(ConstantsIF.URI, STR.isEmpty(uid) ? _uri : _uri + uid);
+      } else {
+         if (!STR.isEmpty(uid)) {
+            jsonInput.put(ConstantsIF.UID, uid);
+         }
+
+         if (!STR.isEmpty(path)) {
+            jsonInput.put(ConstantsIF.PATH, STR.isEmpty(_path) ? path : _path + "/" + path);
+         } else if (!STR.isEmpty(_path)) {
+            jsonInput.put(ConstantsIF.PATH, _path);
+         }
+      }
+
+      if (_fields != null) {
+         jsonInput.put(RestDataAccess.ATTR_FIELDS, _fields);
+      }
+
+      if (data != null) {
+         jsonInput.put(_contentType == MediaType.APPLICATION_FORM_URLENCODED_TYPE
+            ? ConstantsIF.FORM : ConstantsIF.DATA, data);
+      }
+
+      operInput.setJSON(jsonInput);
+
+      return _dao.execute(this, operInput);
+   }
+
+   /*
+    * =============== PACKAGE METHODS ===============
+    */
+   /**
+    * Send the operation to the target, the query parameters and the headers
+    * are added without reading the JSON input.
+    *
+    * @param operInput OperationIF input, "uid", "path" / "uri" and the body
+    * @param target WebTarget target, without the query parameters
+    * @param endpoint Endpoint endpoint of the target, may be null
+    * @return OperationIF output
+    */
+   OperationIF send(final OperationIF operInput, final WebTarget target, final Endpoint endpoint) {
+      WebTarget request = target;
+      Builder builder = null;
+
+      for (int i = 0; i < _queryNames.length; i++) {
+         request = request.queryParam(_queryNames[i], _queryValues[i]);
+      }
+
+      builder = request.request();
+
+      for (int i = 0; i < _headerNames.length; i++) {
+         builder = builder.header(_headerNames[i], _headerValues[i]);
+      }
+
+      return _dao.send(operInput, request.getUri(), builder, _contentType, endpoint);
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Get the "Accept" header value of the default types
+    *
+    * @param types MediaType[] accepted types
+    * @return String header value
+    */
+   private static String getAccept(final MediaType[] types) {
+      StringBuilder buf = new StringBuilder();
+
+      for (MediaType type : types) {
+         buf.append(buf.length() > 0 ? ", " : "").append(type.toString());
+      }
+
+      return buf.toString();
+   }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.json.simple.JSONObject;
+
+/**
+ * Micro-batching of READ operations. Operations with the same batch key that
+ * arrive within the batch window are collected, up to the maximum batch size,
+ * and loaded with one call of the loader. Each caller waits for the output of
+ * its own operation.
+ *
+ * A batch is sent when the window has passed since its first operation, or
+ * when it is full. The loader runs on the executor, the window timers run on
+ * a single daemon thread.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class ReadBatcher {
+
+   /**
+    * Batch request shapes: multi-get with the uid values in a query
+    * parameter, or in the body of a POST; parallel single GET requests
+    */
+   static enum MODE {
+      NONE, QUERY, BODY, PARALLEL
+   }
+
+   private final int _maxSize;
+   private final long _windowMillis;
+   private final Function<List<OperationIF>, List<OperationIF>> _loader;
+   private final ExecutorService _executor;
+   private final ScheduledExecutorService _timer;
+   private final Object _lock = new Object();
+   private final Map<String, Batch> _open = new HashMap<>();
+
+   /**
+    * Constructor
+    *
+    * @param maxSize int maximum number of operations in a batch
+    * @param windowMillis long batch window, in milliseconds
+    * @param loader Function loads a batch, returns the outputs in the same
+    * order as the operations
+    * @param executor ExecutorService runs the loader
+    */
+   ReadBatcher(final int maxSize, final long windowMillis,
+      final Function<List<OperationIF>, List<OperationIF>> loader,
+      final ExecutorService executor) {
+      _maxSize = maxSize > 1 ? maxSize : 2;
+      _windowMillis = windowMillis > 0 ? windowMillis : 0L;
+      _loader = loader;
+      _executor = executor;
+      _timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+         Thread thread = new Thread(runnable, "RestDataAccess-batch");
+         thread.setDaemon(true);
+         return thread;
+      });
+
+      return;
+   }
+
+   /**
+    * Add a READ operation to the batch for the key and wait for its output
+    *
+    * @param key String batch key, operations with the same key are batched
+    * @param operInput OperationIF READ operation
+    * @return OperationIF output
+    */
+   OperationIF read(final String key, final OperationIF operInput) {
+      boolean full = false;
+      boolean first = false;
+      Batch batch = null;
+      CompletableFuture<OperationIF> future = new CompletableFuture<>();
+
+      synchronized (_lock) {
+         batch = _open.get(key);
+
+         if (batch == null) {
+            batch = new Batch(key);
+            _open.put(key, batch);
+            first = true;
+         }
+
+         batch._inputs.add(operInput);
+         batch._outputs.add(future);
+
+         if (batch._inputs.size() >= _maxSize) {
+            _open.remove(key);
+            full = true;
+         }
+      }
+
+      if (full) {
+         this.dispatch(batch);
+      } else if (first) {
+         final Batch timed = batch;
+
+         _timer.schedule(() -> this.expire(timed), _windowMillis, TimeUnit.MILLISECONDS);
+      }
+
+      return future.join();
+   }
+
+   /**
+    * Stop the window timer, open batches are sent
+    */
+   void close() {
+      List<Batch> batches = null;
+
+      synchronized (_lock) {
+         batches = new ArrayList<>(_open.values());
+         _open.clear();
+      }
+
+      for (Batch batch : batches) {
+         this.dispatch(batch);
+      }
+
+      _timer.shutdownNow();
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * The window of the batch has passed, send it if it is still open
+    *
+    * @param batch Batch batch
+    */
+   private void expire(final Batch batch) {
+      boolean open = false;
+
+      synchronized (_lock) {
+         open = _open.remove(batch._key, batch);
+      }
+
+      if (open) {
+         this.dispatch(batch);
+      }
+
+      return;
+   }
+
+   /**
+    * Load the batch on the executor, complete the outputs
+    *
+    * @param batch Batch batch, no longer open
+    */
+   private void dispatch(final Batch batch) {
+      try {
+         _executor.execute(() -> this.load(batch));
+      } catch (RuntimeException ex) {
+         this.load(batch); // executor is shut down
+      }
+
+      return;
+   }
+
+   /**
+    * Load the batch, complete the outputs
+    *
+    * @param batch Batch batch
+    */
+   private void load(final Batch batch) {
+      List<OperationIF> outputs = null;
+      OperationIF output = null;
+
+      try {
+         outputs = _loader.apply(batch._inputs);
+
+         for (int i = 0; i < batch._outputs.size(); i++) {
+            batch._outputs.get(i).complete(outputs.get(i));
+         }
+      } catch (RuntimeException ex) {
+         for (int i = 0; i < batch._outputs.size(); i++) {
+            output = new RestOperation(OperationIF.TYPE.READ);
+            output.setError(true);
+            output.setState(STATE.ERROR);
+            output.setStatus("Batch READ failed: " + ex.getMessage());
+            output.setJSON(new JSONObject());
+            batch._outputs.get(i).complete(output);
+         }
+      }
+
+      return;
+   }
+
+   /*
+    * =============== PACKAGE CLASSES ===============
+    */
+   /**
+    * READ operation of a multi-get request with the uid values in the "data"
+    * body (BODY mode). It is sent as a HTTP POST, it is a READ for the
+    * bulkheads, the logs and the caches.
+    */
+   static final class MultiGet extends Operation {
+
+      MultiGet() {
+         super(OperationIF.TYPE.READ);
+      }
+   }
+
+   /*
+    * =============== PRIVATE CLASSES ===============
+    */
+   /**
+    * Operations collected for a batch key, with their pending outputs
+    */
+   private static final class Batch {
+
+      private final String _key;
+      private final List<OperationIF> _inputs = new ArrayList<>();
+      private final List<CompletableFuture<OperationIF>> _outputs = new ArrayList<>();
+
+      private Batch(final String key) {
+         _key = key;
+      }
+   }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import org.json.simple.JSONObject;
+
+/**
+ * Cache of the permanent redirects (301, 308): the request URI and its final
+ * location. The cache is bounded, the least recently used URI is evicted.
+ *
+ * A request is sent to another location by setting the PROPERTY of the
+ * request, see Filter. The credential headers are not sent to another
+ * origin (scheme, host and port).
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class RedirectCache {
+
+   static final String PROPERTY = RedirectCache.class.getName();
+
+   private final int _capacity;
+   private final Map<URI, URI> _locations;
+   private final AtomicLong _followed = new AtomicLong(0L);
+   private final AtomicLong _hits = new AtomicLong(0L);
+   private final AtomicLong _evictions = new AtomicLong(0L);
+
+   /**
+    * Constructor
+    *
+    * @param capacity int maximum number of URIs, 0 to not cache redirects
+    */
+   RedirectCache(final int capacity) {
+      _capacity = Math.max(capacity, 0);
+      _locations = new LinkedHashMap<URI, URI>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(final Map.Entry<URI, URI> eldest) {
+            boolean remove = this.size() > _capacity;
+
+            if (remove) {
+               _evictions.incrementAndGet();
+            }
+
+            return remove;
+         }
+      };
+
+      return;
+   }
+
+   /**
+    * Get the cached location of a URI
+    *
+    * @param uri URI request URI
+    * @return URI location, null if the URI is not cached
+    */
+   URI get(final URI uri) {
+      URI location = null;
+
+      synchronized (_locations) {
+         location = _locations.get(uri);
+      }
+
+      if (location != null) {
+         _hits.incrementAndGet();
+      }
+
+      return location;
+   }
+
+   /**
+    * Cache a permanent redirect
+    *
+    * @param uri URI request URI
+    * @param location URI final location
+    */
+   void put(final URI uri, final URI location) {
+      if (_capacity > 0 && !uri.equals(location)) {
+         synchronized (_locations) {
+            _locations.put(uri, location);
+         }
+      }
+
+      return;
+   }
+
+   /**
+    * Remove a URI, its location is no longer valid
+    *
+    * @param uri URI request URI
+    */
+   void remove(final URI uri) {
+      synchronized (_locations) {
+         _locations.remove(uri);
+      }
+
+      return;
+   }
+
+   /**
+    * Count a redirect that was followed
+    */
+   void followed() {
+      _followed.incrementAndGet();
+
+      return;
+   }
+
+   /**
+    * Get the redirect statistics
+    *
+    * @return JSONObject statistics
+    */
+   JSONObject getStats() {
+      JSONObject json = new JSONObject();
+
+      synchronized (_locations) {
+         json.put("size", _locations.size());
+      }
+
+      json.put("capacity", _capacity);
+      json.put("followed", _followed.get());
+      json.put("hits", _hits.get());
+      json.put("evictions", _evictions.get());
+
+      return json;
+   }
+
+   /*
+    * =============== PACKAGE CLASSES ===============
+    */
+   /**
+    * Client filter, sends the requests that have a location property to the
+    * location. Runs before the other filters: they see the location.
+    */
+   @Priority(Priorities.AUTHENTICATION)
+   static final class Filter implements ClientRequestFilter {
+
+      @Override
+      public void filter(final ClientRequestContext requestContext) throws IOException {
+         URI uri = null;
+         List<String> names = null;
+         Object location = requestContext.getProperty(PROPERTY);
+
+         if (location instanceof URI) {
+            uri = requestContext.getUri();
+
+            if (!Objects.equals(uri.getScheme(), ((URI) location).getScheme())
+               || !Objects.equals(uri.getHost(), ((URI) location).getHost())
+               || uri.getPort() != ((URI) location).getPort()) {
+               names = new ArrayList<>(requestContext.getHeaders().keySet());
+
+               for (String name : names) {
+                  if (SlowRequestRecorder.isCredential(name)) {
+                     requestContext.getHeaders().remove(name);
+                  }
+               }
+            }
+
+            requestContext.setUri((URI) location);
+         }
+
+         return;
+      }
+   }
+}
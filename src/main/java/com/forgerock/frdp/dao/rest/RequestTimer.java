@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.io.IOException;
+import java.net.URI;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.core.MultivaluedMap;
+import org.json.simple.JSONObject;
+
+/**
+ * Timing of the phases of a single HTTP request, in milliseconds:
+ *
+ * <pre>
+ * request   | building the request, until the client filters run
+ * firstByte | the connector: connection (pool, DNS, connect, TLS), sending
+ *           | the request, until the response headers are received
+ * body      | reading the response entity
+ * parse     | parsing the entity and building the output
+ * total     | all the phases
+ * </pre>
+ *
+ * The default connector (HttpURLConnection) does not report the connection
+ * events, the connection setup is included in "firstByte". When the request
+ * is sent again (redirect, retry) the timer is restarted: the phases are those
+ * of the last attempt, "total" includes all the attempts. The timer is set
+ * as a request property, the Filter records the client side phase marks and
+ * keeps the method, URI and headers of the request for the slow request
+ * recorder.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class RequestTimer {
+
+   static final String PROPERTY = RequestTimer.class.getName();
+
+   private final long _start = System.nanoTime();
+   private volatile long _attempt = _start;
+   private volatile int _attempts = 1;
+   private volatile long _sent = 0L;
+   private volatile long _received = 0L;
+   private volatile long _read = 0L;
+   private volatile long _parsed = 0L;
+   private volatile String _method = null;
+   private volatile URI _uri = null;
+   private volatile MultivaluedMap<String, String> _requestHeaders = null;
+   private volatile MultivaluedMap<String, String> _responseHeaders = null;
+
+   /**
+    * Mark the end of the "request" phase
+    */
+   void sent() {
+      _sent = System.nanoTime();
+   }
+
+   /**
+    * Mark the end of the "firstByte" phase
+    */
+   void received() {
+      _received = System.nanoTime();
+   }
+
+   /**
+    * Mark the end of the "body" phase
+    */
+   void read() {
+      _read = System.nanoTime();
+   }
+
+   /**
+    * Mark the end of the "parse" phase
+    */
+   void parsed() {
+      _parsed = System.nanoTime();
+   }
+
+   /**
+    * Start a new attempt of the request, the phase marks are cleared
+    */
+   void restart() {
+      _attempt = System.nanoTime();
+      _attempts++;
+      _sent = 0L;
+      _received = 0L;
+      _read = 0L;
+      _parsed = 0L;
+      _responseHeaders = null;
+   }
+
+   /**
+    * Get the time since the timer was created
+    *
+    * @return long elapsed time, in nanoseconds
+    */
+   long getElapsed() {
+      return System.nanoTime() - _start;
+   }
+
+   /**
+    * Get the HTTP method of the request
+    *
+    * @return String method, null if the request was not sent
+    */
+   String getMethod() {
+      return _method;
+   }
+
+   /**
+    * Get the URI of the request
+    *
+    * @return URI request URI, null if the request was not sent
+    */
+   URI getUri() {
+      return _uri;
+   }
+
+   /**
+    * Get the headers of the request
+    *
+    * @return MultivaluedMap headers, null if the request was not sent
+    */
+   MultivaluedMap<String, String> getRequestHeaders() {
+      return _requestHeaders;
+   }
+
+   /**
+    * Get the headers of the response
+    *
+    * @return MultivaluedMap headers, null if there is no response
+    */
+   MultivaluedMap<String, String> getResponseHeaders() {
+      return _responseHeaders;
+   }
+
+   /**
+    * Get the phases of the last attempt, a phase that was not reached is not
+    * included. The number of attempts is included if there was more than one.
+    *
+    * @return JSONObject phases, in milliseconds
+    */
+   JSONObject toJSON() {
+      long end = System.nanoTime();
+      JSONObject json = new JSONObject();
+
+      if (_sent != 0L) {
+         json.put("request", millis(_attempt, _sent));
+
+         if (_received != 0L) {
+            json.put("firstByte", millis(_sent, _received));
+
+            if (_read != 0L) {
+               json.put("body", millis(_received, _read));
+
+               if (_parsed != 0L) {
+                  json.put("parse", millis(_read, _parsed));
+               }
+            }
+         }
+      }
+
+      json.put("total", millis(_start, end));
+
+      if (_attempts > 1) {
+         json.put("attempts", _attempts);
+      }
+
+      return json;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Get the milliseconds between two marks, microsecond precision
+    *
+    * @param from long start, nanoseconds
+    * @param to long end, nanoseconds
+    * @return double milliseconds
+    */
+   private static double millis(final long from, final long to) {
+      return Math.round((to - from) / 1000.0) / 1000.0;
+   }
+
+   /*
+    * =============== PACKAGE CLASSES ===============
+    */
+   /**
+    * Client filter, marks the end of the "request" and "firstByte" phases of
+    * the requests that have a timer property
+    */
+   static final class Filter implements ClientRequestFilter, ClientResponseFilter {
+
+      @Override
+      public void filter(final ClientRequestContext requestContext) throws IOException {
+         Object timer = requestContext.getProperty(PROPERTY);
+
+         if (timer instanceof RequestTimer) {
+            ((RequestTimer) timer)._method = requestContext.getMethod();
+            ((RequestTimer) timer)._uri = requestContext.getUri();
+            ((RequestTimer) timer)._requestHeaders = requestContext.getStringHeaders();
+            ((RequestTimer) timer).sent();
+         }
+
+         return;
+      }
+
+      @Override
+      public void filter(final ClientRequestContext requestContext,
+         final ClientResponseContext responseContext) throws IOException {
+         Object timer = requestContext.getProperty(PROPERTY);
+
+         if (timer instanceof RequestTimer) {
+            ((RequestTimer) timer)._responseHeaders = responseContext.getHeaders();
+            ((RequestTimer) timer).received();
+         }
+
+         return;
+      }
+   }
+}
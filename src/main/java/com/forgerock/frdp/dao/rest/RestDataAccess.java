@@ -11,26 +11,52 @@ import com.forgerock.frdp.dao.Operation;
 import com.forgerock.frdp.dao.OperationIF;
 import com.forgerock.frdp.utils.JSON;
 import com.forgerock.frdp.utils.STR;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InaccessibleObjectException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation.Builder;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Cookie;
 import javax.ws.rs.core.Form;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import org.glassfish.jersey.client.ClientConfig;
 import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.HttpUrlConnectorProvider;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 
 /**
  * Implements a REST / JSON service that uses the Data Access Object (DAO) to
@@ -85,6 +111,401 @@ import org.json.simple.parser.JSONParser;
  * }
  * </pre>
  *
+ * Optional parameters, for both modes:
+ *
+ * <pre>
+ * maxEntitySize  | maximum size, in bytes, of a response entity (default: no
+ *                | limit, an entity is at most 2 GB)
+ * bufferSize     | size, in bytes, of the pooled buffers used to read entities
+ * statusMaxChars | maximum characters of the entity in status messages (default: 1024)
+ * </pre>
+ *
+ * Optional parameters, paged SEARCH:
+ *
+ * <pre>
+ * pageMode        | "none" (default), "offset" or "link" (Link: rel=next header)
+ * pageSize        | results per page, "offset" mode (default: 100)
+ * pageOffsetParam | name of the offset query parameter (default: "_offset")
+ * pageLimitParam  | name of the limit query parameter (default: "_limit")
+ * pagePrefetch    | number of pages requested ahead of the caller (default: 1)
+ * </pre>
+ *
+ * When "pageMode" is set, a SEARCH operation follows all the pages and
+ * returns the merged "results" and the total "quantity": the
+ * "totalPagedResults" of the last page, else the sum of the pages. A
+ * relative "next" link is resolved against the URI of the page. Use the
+ * search() method to iterate the pages.
+ *
+ * Optional parameters, write-behind for CREATE and REPLACE:
+ *
+ * <pre>
+ * writeBehind         | "true" to queue CREATE / REPLACE operations (default: false)
+ * writeBehindCapacity | maximum number of queued operations (default: 10000)
+ * writeBehindThreads  | number of sender threads (default: 4)
+ * writeBehindWindow   | milliseconds a REPLACE is held for merging (default: 50)
+ * </pre>
+ *
+ * With write-behind, execute() returns as soon as the CREATE / REPLACE
+ * operation is queued. Use execute(operation, listener) to receive the
+ * output of the request. Queued REPLACE operations for the same document are
+ * merged, the last one is sent. Use flush() to wait for the queue. A READ
+ * or DELETE of a document waits for its queued operations, which are sent
+ * at once. The caches are invalidated when a queued operation is sent.
+ *
+ * Optional parameters, load balancing (static base target only):
+ *
+ * <pre>
+ * hosts          | comma separated list of "host:port" (or "host", uses "port"),
+ *                | replaces the "host" parameter
+ * lbStrategy     | "round_robin" (default), "least_outstanding" or "p2c"
+ * healthPath     | path, appended to the base target, for active health checks
+ * healthInterval | milliseconds between health checks (default: 5000, 0 disables)
+ * healthTimeout  | connect and read timeout of a health check (default: 2000)
+ * ejectFailures  | consecutive failures that eject a host (default: 5, 0 disables)
+ * ejectLatency   | average latency, in milliseconds, that ejects a host (default: 0, disabled)
+ * ejectTime      | milliseconds a host stays ejected (default: 30000)
+ * </pre>
+ *
+ * A request that fails with a 5xx status, or without a HTTP response, is
+ * counted as a failure. Health checks only run when "healthPath" is set, a
+ * passing check restores an ejected host. Use getStatistics() to get the
+ * per-host statistics.
+ *
+ * Optional parameters, sharding by uid (static base target only):
+ *
+ * <pre>
+ * shards            | comma separated list of "host:port" (or "host", uses "port"),
+ *                   | replaces the "host" parameter, not used with "hosts"
+ * shardVirtualNodes | number of virtual nodes for each shard (default: 160)
+ * </pre>
+ *
+ * With "shards", operations are sent to the shard that owns the "uid" on a
+ * consistent hash ring. A CREATE without a "uid" gets a random "uid" (UUID),
+ * set in its JSON input, so that it is placed by the hash and the document
+ * can be read with the uid. Other operations without a "uid" are sent to
+ * the shards in turn. Adding or removing a shard, see addShard() and removeShard(),
+ * changes the owner of about 1/N of the uid values: documents are not moved,
+ * they must be copied to their new shard by the application.
+ *
+ * With "shards", a SEARCH operation is sent to all the shards in parallel
+ * (scatter-gather). The "results" are merged and the "quantity" values are
+ * added, in "pageMode" all the pages of each shard are read.
+ *
+ * <pre>
+ * scatterDeadline | milliseconds to wait for the shards (default: 0, no deadline)
+ * scatterPartial  | "true" to return the results of the shards that responded,
+ *                 | when a shard fails or misses the deadline (default: false)
+ * </pre>
+ *
+ * A partial result has the state WARNING and the status "Partial results:
+ * ...". Without "scatterPartial", a failed shard fails the SEARCH. With a
+ * deadline, the connect and read timeouts of each shard request, and of each
+ * page in "pageMode", are the time left: no page is requested after the
+ * deadline, and the request of a shard that missed the deadline is not left
+ * running.
+ *
+ * Optional parameters, read / write splitting (static base target only):
+ *
+ * <pre>
+ * replicas             | comma separated list of "host:port" (or "host", uses "port")
+ *                      | of the read replicas, "host" is the primary
+ * readYourWritesWindow | milliseconds a written uid is read from the primary
+ *                      | (default: 1000, 0 disables)
+ * </pre>
+ *
+ * With "replicas", CREATE, REPLACE and DELETE operations are sent to the
+ * primary. READ and SEARCH operations are sent to the replicas, using the
+ * load balancing parameters "lbStrategy", "healthPath", ... A READ of a uid
+ * written by this object within the window is sent to the primary. The
+ * parameters "hosts", "shards" and "replicas" can not be used together.
+ *
+ * Optional parameters, batching of READ operations (static base target only):
+ *
+ * <pre>
+ * readBatch       | "none" (default), "query", "body" or "parallel"
+ * readBatchSize   | maximum number of READ operations in a batch (default: 50)
+ * readBatchWindow | milliseconds a batch collects READ operations (default: 2)
+ * readBatchParam  | query parameter / body attribute for the uid values (default: "_ids")
+ * readBatchPath   | path, appended to the "path", of the "body" request (default: "_mget")
+ * readBatchKey    | attribute of each result that has the uid (default: "uid")
+ * </pre>
+ *
+ * Concurrent READ operations, with a "uid" and the same other attributes,
+ * are collected and sent as one multi-get request:
+ *
+ * <pre>
+ * query    | GET  .../path?_ids=uid1,uid2,...
+ * body     | POST .../path/_mget { "_ids": [ "uid1", "uid2", ... ] }
+ * parallel | a GET request for each uid, in parallel
+ * </pre>
+ *
+ * The response "results" are matched to the READ operations with the
+ * "readBatchKey" attribute. In "body" mode, a uid without a result is
+ * NOTEXIST. In "query" mode a uid without a result is read with a GET
+ * request: a collection that ignores the query parameter returns a page of
+ * its documents, not the requested ones. If the endpoint does not support the
+ * multi-get request (405 or 501, or a response with results that were not
+ * requested), parallel GET requests are used from then on. Other
+ * client errors (4xx) use parallel GET requests for that batch only. A server
+ * error (5xx), or a request that was not sent, is the output of all the READ
+ * operations of the batch.
+ *
+ * Optional parameters, dynamic full target only:
+ *
+ * <pre>
+ * targetCacheSize | maximum number of cached host targets (default: 64, 0 disables)
+ * hostClients     | "true" to use a client, and connection pool, for each host
+ *                 | (default: false)
+ * </pre>
+ *
+ * The target of each "protocol://host:port" is cached, the path of the "uri"
+ * is appended to it. The least recently used host is evicted.
+ *
+ * Optional parameters, client:
+ *
+ * <pre>
+ * sharedClient | "true" to share the client, and its connection pool, with the
+ *              | other objects that have the same client configuration (default: false)
+ * </pre>
+ *
+ * Shared clients are reference counted, the client is closed by the close()
+ * of the last object that uses it.
+ *
+ * Optional parameters, startup:
+ *
+ * <pre>
+ * lazyInit          | "true" to initialize the object (client, targets, ...) on
+ *                   | first use, not in the constructor (default: false)
+ * warmUpConnections | connections opened to each host by warmUp() (default: 1)
+ * warmUpPath        | path, appended to each host target, requested by warmUp()
+ *                   | (default: "healthPath", or the base target)
+ * warmUpTimeout     | connect and read timeout of a warm-up request (default: 5000)
+ * </pre>
+ *
+ * warmUp() resolves the host names and sends concurrent HEAD requests to each
+ * host of the static base target (all the "hosts", "shards" and "replicas"),
+ * the connections, with their TLS sessions, are kept alive for the first
+ * operations. The JVM property "http.maxConnections" (default: 5) limits the
+ * idle connections that are kept for each host.
+ *
+ * Optional parameters, tracing:
+ *
+ * <pre>
+ * timings       | "true" to add the timings of the HTTP request to the output,
+ *               | see RestOperation.getTimings() (default: false)
+ * traceGenerate | "true" to start a new trace for operations without a
+ *               | "traceparent" (default: false)
+ * </pre>
+ *
+ * The timings object has the phases of the request, in milliseconds:
+ * "request", "firstByte" (connection and server time), "body", "parse" and
+ * "total". The phases are those of the last attempt, when the request is
+ * sent again (redirect, 415 or rejected PATCH) "attempts" is the number of
+ * requests and "total" includes all of them. The connection setup is not
+ * reported separately by the default connector.
+ *
+ * An operation can have the W3C trace context of the caller, the
+ * "traceparent" and "tracestate" attributes. The HTTP request has a child
+ * "traceparent" header, same trace id and a new parent id, and the caller
+ * "tracestate". The "traceparent" that was sent is returned by
+ * RestOperation.getTraceParent(). The timings and the trace context are not
+ * added to the output JSON, they can not clash with the document.
+ *
+ * Optional parameters, slow request recorder:
+ *
+ * <pre>
+ * slowThreshold  | milliseconds, requests that take longer are recorded (default: 0, disabled)
+ * slowSampleRate | rate, 0.0 to 1.0, of the faster requests that are recorded (default: 0.0)
+ * slowCapacity   | maximum number of recorded requests, the oldest is replaced (default: 100)
+ * slowMaxChars   | maximum characters of the recorded headers and bodies (default: 512)
+ * slowJmxName    | registers the recorder as the JMX MBean
+ *                | "com.forgerock.frdp.dao.rest:type=SlowRequests,name=" + quoted value
+ * </pre>
+ *
+ * Each recorded request has the operation type, the method and URI, the
+ * status, the timings and the truncated headers and bodies, see
+ * getSlowRequests(). Credential headers are masked.
+ *
+ * Optional parameters, document cache:
+ *
+ * <pre>
+ * docCacheSize      | maximum size of the cached documents, in bytes, a "k", "m" or
+ *                   | "g" suffix can be used (default: 0, disabled)
+ * docCacheBlockSize | size of the cache blocks, in bytes (default: 1024)
+ * docCacheSegments  | number of cache segments, each has its own lock (default: 16)
+ * docCacheTtl       | milliseconds a document is cached (default: 0, no expiration)
+ * </pre>
+ *
+ * The output of a successful READ is serialized and cached off-heap, in
+ * direct memory, the least recently used documents are evicted. A cached
+ * document is parsed into a new output for each hit. CREATE (with a "uid"),
+ * REPLACE and DELETE operations invalidate the document, before they are
+ * sent and when they complete. READ operations with "queryParams" are not
+ * cached. READ operations with "headers" or "cookies" are not cached: they
+ * may carry the identity of the caller (owner, session, token) and the
+ * cached document would be served to other callers. The JVM option
+ * -XX:MaxDirectMemorySize must allow the cache size.
+ *
+ * Optional parameters, persistent response cache:
+ *
+ * <pre>
+ * diskCacheDir          | directory of the cache files, enables the cache
+ * diskCacheSize         | maximum size of the cache files (default: 1g), the oldest
+ *                       | segment file is dropped, a "k", "m" or "g" suffix can be used
+ * diskCacheSegmentSize  | size of a segment file (default: 64m)
+ * diskCacheMaxAge       | milliseconds a response is used without revalidation
+ *                       | (default: 60000)
+ * diskCacheCompactRatio | live ratio under which a segment is compacted (default: 0.5)
+ * diskCacheCredentials  | "true": also cache the responses of requests with credentials
+ *                       | ("Authorization" header, cookies), default is "false"
+ * </pre>
+ *
+ * The output of successful READ and SEARCH operations is appended to memory
+ * mapped segment files, with the "ETag" and "Last-Modified" of the
+ * response. The index is saved on close() and loaded at startup, a
+ * restarted object serves the cached responses. An older response is
+ * revalidated with a conditional request ("If-None-Match",
+ * "If-Modified-Since"), a 304 response renews it. Writes remove the cached
+ * READ of the document, cached SEARCH responses are only renewed by
+ * revalidation. With "docCacheSize", the memory cache is checked first.
+ *
+ * The response of an operation with "headers" or "cookies" is cached for
+ * the same headers and cookies only: the key has a hash of them, other
+ * callers do not get the response. Responses of requests with credentials
+ * are only written to disk with "diskCacheCredentials".
+ *
+ * A cache directory is used by one object at a time, it is locked until
+ * close(). If the directory is locked (by another object or process), or
+ * can not be opened, the object is created without the persistent cache
+ * and a warning is logged.
+ *
+ * Optional parameters, record and replay:
+ *
+ * <pre>
+ * recordFile   | file of the recorded HTTP exchanges, one JSON object per line,
+ *              | compressed if the name ends with ".gz"
+ * replayFile   | recording that is replayed, no request is sent
+ * replayTiming | "fast" (default) or "original": the recorded response time
+ * </pre>
+ *
+ * A recording has the operation input, the request (method, URI, headers)
+ * and the response (status, headers, entity, timings) of each exchange.
+ * Replay a recorded workload: getRecordedOperations() reads the operations,
+ * execute them with a "replayFile" object to measure the DAO without the
+ * network.
+ *
+ * Optional parameters, JSON codec:
+ *
+ * <pre>
+ * jsonCodec | "simple" (default, json-simple), "streaming" (single pass
+ *           | parser and writer) or the name of a JsonCodecIF class
+ * </pre>
+ *
+ * The codec parses the response entities and serializes the request "data"
+ * and the cached documents. The parsed values are JSONObject / JSONArray.
+ *
+ * Optional parameters, binary format:
+ *
+ * <pre>
+ * binaryFormat | "none" (default) or "cbor": accept CBOR responses
+ * </pre>
+ *
+ * With "cbor", requests accept "application/cbor" before JSON and CBOR
+ * responses are decoded to the same JSONObject / JSONArray values. After the
+ * server returned CBOR, the "data" bodies are sent as CBOR, a 415 response
+ * to a CBOR body switches the bodies back to JSON. An operation with an
+ * "accept" or "content-type" header uses that type, an unsupported
+ * "content-type" is replaced by JSON.
+ *
+ * Optional parameters, field projection:
+ *
+ * <pre>
+ * fieldsParam | name of the query parameter that sends the "fields" to the
+ *             | server, e.g. "_fields", default: the fields are not sent
+ * </pre>
+ *
+ * A READ or SEARCH operation can have a "fields" attribute: an array of
+ * dotted paths (or a comma separated String) of the document members that
+ * are needed. The response is projected while it is parsed (with the
+ * "streaming" codec the other members are skipped, no values are built),
+ * the "uid" and "quantity" are kept and the paths of a SEARCH apply to each
+ * of the "results". Operations with "fields" are not cached or batched.
+ *
+ * <pre>
+ * JSON input: { "uid": "...", "fields": [ "data.name", "data.address.city" ] }
+ * </pre>
+ *
+ * Optional parameters, partial updates:
+ *
+ * <pre>
+ * updateMode    | "put" (default), "merge-patch" (RFC 7386) or "json-patch"
+ *               | (RFC 6902)
+ * patchOverride | "true": send the PATCH as a POST with the header
+ *               | "X-HTTP-Method-Override: PATCH", default is "false"
+ * </pre>
+ *
+ * With a patch mode, a REPLACE that has the "previous" version of the
+ * "data" is sent as a PATCH of the difference, see JsonPatch. Nothing is
+ * sent if the data did not change. A difference that sets a member to null
+ * can not be a merge patch (null removes the member), it is sent as a PUT
+ * of the "data". If the server rejects the PATCH (405,
+ * 415 or 501), or the connector can not send it, the REPLACE is sent as a
+ * PUT of the "data" and later updates use PUT. The default connector
+ * (HttpURLConnection) can only send a PATCH on Java 9+ if "java.net" is
+ * opened to Jersey: "--add-opens java.base/java.net=ALL-UNNAMED", or use
+ * "patchOverride" with a server that supports the header.
+ *
+ * <pre>
+ * JSON input: { "uid": "...", "data": { ... }, "previous": { ... } }
+ * </pre>
+ *
+ * Optional parameters, redirects:
+ *
+ * <pre>
+ * followRedirects   | "true": follow the 301, 302, 307 and 308 responses,
+ *                   | default is "false" (the 3xx response is returned)
+ * redirectMaxHops   | maximum redirects of a request, default is 5
+ * redirectCacheSize | maximum cached permanent redirects, default is 256
+ * </pre>
+ *
+ * A 307 / 308 is followed with the same method and body, a 301 / 302 is
+ * followed for all the operations except CREATE (a client would change the
+ * POST to a GET). The final location of a permanent redirect (301, 308) is
+ * cached, later requests to the URI are sent to the location. A cached
+ * location that returns 404 or 410 is removed and the request is sent to the
+ * URI. The credential headers are not sent to another origin.
+ *
+ * Optional parameters, bulkheads:
+ *
+ * <pre>
+ * bulkheads           | comma separated "type:limit", maximum requests in
+ *                     | progress of an operation type ("search:4,read:64")
+ * bulkheadTenantLimit | maximum requests in progress of a tenant, default
+ *                     | is 0 (no limit)
+ * bulkheadTenants     | comma separated "tenant:limit", the limits of
+ *                     | specific tenants
+ * bulkheadWait        | maximum wait for a permit (milliseconds), default
+ *                     | is 0 (reject at once)
+ * </pre>
+ *
+ * The tenant of an operation is the "tenant" attribute of the JSON input. A
+ * request that is over the limit of its type or its tenant is not sent, the
+ * output has the ERROR state and the "Bulkhead full" status. A burst of
+ * SEARCH operations, or of one tenant, can not use all the connections and
+ * threads. The connections of the HttpURLConnection connector are kept in a
+ * JVM wide pool ("http.maxConnections" per host): the limits must leave
+ * room for the other types. At most 1024 tenant compartments are kept, the
+ * idle ones are evicted ("tenantEvictions" of the "bulkheads" statistics).
+ *
+ * <pre>
+ * JSON input: { "uid": "...", "tenant": "batch" }
+ * </pre>
+ *
+ * Operations that are executed many times with the same shape can be
+ * prepared, see prepare(). The "headers", "cookies", "queryParams" and the
+ * "path" / "uri" of the template are resolved once, each execution of the
+ * PreparedOperation only provides the "uid", "path" and the body.
+ *
  * @author Scott Fehrman, ForgeRock, Inc.
  */
 public class RestDataAccess extends DataAccess {
@@ -93,18 +514,140 @@ public class RestDataAccess extends DataAccess {
    public static final String PARAM_HOST = "host";
    public static final String PARAM_PORT = "port";
    public static final String PARAM_PATH = "path";
+   public static final String PARAM_MAX_ENTITY_SIZE = "maxEntitySize";
+   public static final String PARAM_BUFFER_SIZE = "bufferSize";
+   public static final String PARAM_STATUS_MAX_CHARS = "statusMaxChars";
+   public static final String PARAM_PAGE_MODE = "pageMode";
+   public static final String PARAM_PAGE_SIZE = "pageSize";
+   public static final String PARAM_PAGE_OFFSET = "pageOffsetParam";
+   public static final String PARAM_PAGE_LIMIT = "pageLimitParam";
+   public static final String PARAM_PAGE_PREFETCH = "pagePrefetch";
+   public static final String PARAM_WRITE_BEHIND = "writeBehind";
+   public static final String PARAM_WRITE_BEHIND_CAPACITY = "writeBehindCapacity";
+   public static final String PARAM_WRITE_BEHIND_THREADS = "writeBehindThreads";
+   public static final String PARAM_WRITE_BEHIND_WINDOW = "writeBehindWindow";
+   public static final String PARAM_HOSTS = "hosts";
+   public static final String PARAM_LB_STRATEGY = "lbStrategy";
+   public static final String PARAM_HEALTH_PATH = "healthPath";
+   public static final String PARAM_HEALTH_INTERVAL = "healthInterval";
+   public static final String PARAM_HEALTH_TIMEOUT = "healthTimeout";
+   public static final String PARAM_EJECT_FAILURES = "ejectFailures";
+   public static final String PARAM_EJECT_LATENCY = "ejectLatency";
+   public static final String PARAM_EJECT_TIME = "ejectTime";
+   public static final String PARAM_SHARDS = "shards";
+   public static final String PARAM_SHARD_VNODES = "shardVirtualNodes";
+   public static final String PARAM_SCATTER_DEADLINE = "scatterDeadline";
+   public static final String PARAM_SCATTER_PARTIAL = "scatterPartial";
+   public static final String PARAM_REPLICAS = "replicas";
+   public static final String PARAM_READ_YOUR_WRITES = "readYourWritesWindow";
+   public static final String PARAM_READ_BATCH = "readBatch";
+   public static final String PARAM_READ_BATCH_SIZE = "readBatchSize";
+   public static final String PARAM_READ_BATCH_WINDOW = "readBatchWindow";
+   public static final String PARAM_READ_BATCH_PARAM = "readBatchParam";
+   public static final String PARAM_READ_BATCH_PATH = "readBatchPath";
+   public static final String PARAM_READ_BATCH_KEY = "readBatchKey";
+   public static final String PARAM_TARGET_CACHE_SIZE = "targetCacheSize";
+   public static final String PARAM_HOST_CLIENTS = "hostClients";
+   public static final String PARAM_SHARED_CLIENT = "sharedClient";
+   public static final String PARAM_LAZY_INIT = "lazyInit";
+   public static final String PARAM_WARM_UP_CONNECTIONS = "warmUpConnections";
+   public static final String PARAM_WARM_UP_PATH = "warmUpPath";
+   public static final String PARAM_WARM_UP_TIMEOUT = "warmUpTimeout";
+   public static final String PARAM_TIMINGS = "timings";
+   public static final String PARAM_TRACE_GENERATE = "traceGenerate";
+   public static final String PARAM_SLOW_THRESHOLD = "slowThreshold";
+   public static final String PARAM_SLOW_SAMPLE_RATE = "slowSampleRate";
+   public static final String PARAM_SLOW_CAPACITY = "slowCapacity";
+   public static final String PARAM_SLOW_MAX_CHARS = "slowMaxChars";
+   public static final String PARAM_SLOW_JMX_NAME = "slowJmxName";
+   public static final String PARAM_DOC_CACHE_SIZE = "docCacheSize";
+   public static final String PARAM_DOC_CACHE_BLOCK_SIZE = "docCacheBlockSize";
+   public static final String PARAM_DOC_CACHE_SEGMENTS = "docCacheSegments";
+   public static final String PARAM_DOC_CACHE_TTL = "docCacheTtl";
+   public static final String PARAM_DISK_CACHE_DIR = "diskCacheDir";
+   public static final String PARAM_DISK_CACHE_SIZE = "diskCacheSize";
+   public static final String PARAM_DISK_CACHE_SEGMENT_SIZE = "diskCacheSegmentSize";
+   public static final String PARAM_DISK_CACHE_MAX_AGE = "diskCacheMaxAge";
+   public static final String PARAM_DISK_CACHE_COMPACT = "diskCacheCompactRatio";
+   public static final String PARAM_DISK_CACHE_CREDENTIALS = "diskCacheCredentials";
+   public static final String PARAM_RECORD_FILE = "recordFile";
+   public static final String PARAM_REPLAY_FILE = "replayFile";
+   public static final String PARAM_REPLAY_TIMING = "replayTiming";
+   public static final String PARAM_JSON_CODEC = "jsonCodec";
+   public static final String PARAM_BINARY_FORMAT = "binaryFormat";
+   public static final String PARAM_FIELDS_PARAM = "fieldsParam";
+   public static final String PARAM_UPDATE_MODE = "updateMode";
+   public static final String PARAM_PATCH_OVERRIDE = "patchOverride";
+   public static final String PARAM_FOLLOW_REDIRECTS = "followRedirects";
+   public static final String PARAM_REDIRECT_MAX_HOPS = "redirectMaxHops";
+   public static final String PARAM_REDIRECT_CACHE_SIZE = "redirectCacheSize";
+   public static final String PARAM_BULKHEADS = "bulkheads";
+   public static final String PARAM_BULKHEAD_TENANT_LIMIT = "bulkheadTenantLimit";
+   public static final String PARAM_BULKHEAD_TENANTS = "bulkheadTenants";
+   public static final String PARAM_BULKHEAD_WAIT = "bulkheadWait";
+   public static final String ATTR_TENANT = "tenant";
+   public static final String STATUS_BULKHEAD_FULL = "Bulkhead full";
+   public static final String ATTR_FIELDS = "fields";
+   public static final String ATTR_PREVIOUS = "previous";
+   public static final String STATUS_NO_CHANGES = "No changes";
+   public static final String ATTR_TRACE_PARENT = TraceContext.HDR_TRACE_PARENT;
+   public static final String ATTR_TRACE_STATE = TraceContext.HDR_TRACE_STATE;
+   public static final String STATUS_PARTIAL_RESULTS = "Partial results";
+   public static final String STATUS_ENTITY_TOO_LARGE = "Entity too large";
+   static final String QUANTITY = "quantity";
+   private static final String HDR_METHOD_OVERRIDE = "X-HTTP-Method-Override";
+   private static final MediaType[] ACCEPT_JSON = {MediaType.APPLICATION_JSON_TYPE};
+   private static final MediaType[] ACCEPT_CBOR = {CborCodec.MEDIA_TYPE,
+      MediaType.valueOf(ConstantsIF.TYPE_JSON + ";q=0.9")};
 
    private boolean _haveBaseTarget = false;
+   private volatile boolean _initialized = false;
+   private int _statusMaxChars = 1024;
+   private long _maxEntitySize = 0L;
    private final String CLASS = this.getClass().getName();
+   private BufferPool _bufferPool = null;
    private Client _client = null;
+   private boolean _sharedClient = false;
+   private boolean _timings = false;
+   private boolean _traceGenerate = false;
+   private SlowRequestRecorder _slowRequests = null;
+   private ObjectName _slowRequestsName = null;
+   private DocumentCaches _caches = null;
+   private ExchangeRecorder _recorder = null;
+   private ExchangeReplay _replay = null;
    private WebTarget _target = null;
-   private JSONParser _parser = null;
+   private TargetCache _targetCache = null;
+   private ExecutorService _executor = null;
+   private Router _router = null;
+   private PagedSearch _search = null;
+   private WriteBehindQueue _writeBehind = null;
+   private ReadBatcher _readBatcher = null;
+   private ReadBatcher.MODE _readBatchMode = ReadBatcher.MODE.NONE;
+   private String _readBatchParam = null;
+   private String _readBatchPath = null;
+   private String _readBatchKey = null;
+   private volatile boolean _readBatchSupported = true;
+   private JsonCodecIF _codec = null;
+   private boolean _binaryFormat = false;
+   private String _fieldsParam = null;
+   private JsonPatch.MODE _updateMode = JsonPatch.MODE.PUT;
+   private boolean _patchOverride = false;
+   private volatile boolean _patchSupported = true;
+   private final AtomicLong _patches = new AtomicLong(0L);
+   private final AtomicLong _patchesUnchanged = new AtomicLong(0L);
+   private RedirectCache _redirects = null;
+   private int _redirectMaxHops = 5;
+   private Bulkhead _bulkhead = null;
+   private volatile int _cborBodies = 0; // 0 unknown, 1 supported, -1 not supported
+   private final ThreadLocal<StringBuilder> _jsonBuffer = ThreadLocal.withInitial(StringBuilder::new);
 
    /**
     * Constructor, creates object with a static base target URI.
     *
     * The parameters must include connection information for the URI:
-    * "protocol", "host", "port", "path"
+    * "protocol", "host" (or "hosts" / "shards"), "port", "path". If none of these are provided, the
+    * object is created for dynamic URI operations and the remaining parameters
+    * are used as options.
     *
     * @param params Map<String, String> configuration parameters
     * @throws Exception
@@ -117,10 +660,20 @@ public class RestDataAccess extends DataAccess {
       _logger.entering(CLASS, METHOD);
 
       if (params != null && !params.isEmpty()) {
-         _haveBaseTarget = true;
+         _haveBaseTarget = params.containsKey(PARAM_PROTOCOL)
+            || params.containsKey(PARAM_HOST)
+            || params.containsKey(PARAM_HOSTS)
+            || params.containsKey(PARAM_SHARDS)
+            || params.containsKey(PARAM_PORT)
+            || params.containsKey(PARAM_PATH);
       }
 
-      this.init();
+      if (Boolean.parseBoolean(this.getParamString(PARAM_LAZY_INIT, "false"))) {
+         this.setState(STATE.NEW);
+         this.setStatus("Initialization deferred, '" + PARAM_LAZY_INIT + "' is true");
+      } else {
+         this.initialize();
+      }
 
       _logger.exiting(CLASS, METHOD);
 
@@ -141,7 +694,7 @@ public class RestDataAccess extends DataAccess {
 
       _logger.entering(CLASS, METHOD);
 
-      this.init();
+      this.initialize();
 
       _logger.exiting(CLASS, METHOD);
 
@@ -159,7 +712,8 @@ public class RestDataAccess extends DataAccess {
    /**
     * Validate the OperationIF object, overrides superclass method.
     *
-    * Checks for "uri" JSON attribute if base target is false
+    * Checks for "uri" JSON attribute if base target is false, and the
+    * "fields" attribute
     *
     * @param oper the OperationIF object
     * @throws Exception could not validate the operation
@@ -174,6 +728,8 @@ public class RestDataAccess extends DataAccess {
 
       super.validate(oper);
 
+      this.checkFields(oper.getJSON());
+
       if (!_haveBaseTarget) {
          json = oper.getJSON();
          uri = JSON.getString(json, ConstantsIF.URI);
@@ -192,20 +748,45 @@ public class RestDataAccess extends DataAccess {
    /**
     * Execute the HTTP REST operation
     *
+    * If a HTTP response was received, the output object is a RestOperation
+    * which provides the HTTP status code and reason phrase.
+    *
     * @param operInput OperationIF input object
     * @return OperationIF output object
     */
    @Override
    public final OperationIF execute(final OperationIF operInput) {
+      return this.execute(operInput, null);
+   }
+
+   /**
+    * Execute the HTTP REST operation, the listener receives the output.
+    *
+    * With write-behind enabled, CREATE and REPLACE operations are queued: the
+    * returned output only reports that the operation was queued, the listener
+    * receives the output of the HTTP request when it is sent. Other operations
+    * are executed and the listener is called before this method returns.
+    *
+    * @param operInput OperationIF input object
+    * @param listener CompletionListenerIF receives the output, may be null
+    * @return OperationIF output object
+    */
+   public final OperationIF execute(final OperationIF operInput,
+      final CompletionListenerIF listener) {
       boolean error = false;
+      boolean queued = false;
       String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      String batchKey = null;
       StringBuilder msg = new StringBuilder(CLASS + ":" + METHOD + ": ");
       OperationIF operOutput = null;
+      Endpoint endpoint = null;
 
       _logger.entering(CLASS, METHOD);
 
       try {
+         this.initialize();
          this.validate(operInput);
+         this.assignUid(operInput);
       } catch (Exception ex) {
          error = true;
          msg.append(ex.getMessage());
@@ -221,12 +802,46 @@ public class RestDataAccess extends DataAccess {
       }
 
       if (!error) {
-         operOutput = this.submitRequest(operInput);
+         queued = _writeBehind != null
+            && (operInput.getType() == OperationIF.TYPE.CREATE
+            || operInput.getType() == OperationIF.TYPE.REPLACE);
+
+         if (!queued && _caches != null) {
+            _caches.invalidate(operInput); // a queued write invalidates when it is sent
+         }
+
+         if (_writeBehind != null && (operInput.getType() == OperationIF.TYPE.READ
+            || operInput.getType() == OperationIF.TYPE.DELETE)) {
+            this.flushWrites(operInput);
+         }
+
+         if (queued) {
+            operOutput = this.enqueue(operInput, listener);
+         } else if (operInput.getType() == OperationIF.TYPE.SEARCH
+            && _router != null && _router.getShards() != null) {
+            operOutput = _search.scatter(operInput, _router.getShards().getEndpoints());
+         } else if (operInput.getType() == OperationIF.TYPE.SEARCH
+            && _search.getMode() != SearchPages.MODE.NONE) {
+            endpoint = this.getEndpoint(operInput);
+            operOutput = _search.searchAll(operInput, endpoint,
+               endpoint != null ? endpoint.getTarget() : _target);
+         } else if (_caches != null && _caches.isCacheable(operInput)) {
+            operOutput = _caches.read(operInput);
+         } else if (_readBatcher != null && operInput.getType() == OperationIF.TYPE.READ
+            && (batchKey = this.getBatchKey(operInput)) != null) {
+            operOutput = _readBatcher.read(batchKey, operInput);
+         } else {
+            operOutput = this.submitRequest(operInput);
+         }
       } else {
          _logger.log(Level.WARNING,
             operOutput == null ? "dataOutput is null" : operOutput.getStatus());
       }
 
+      if (listener != null && !(queued && !operOutput.isError())) {
+         listener.completed(operInput, operOutput);
+      }
+
       _logger.exiting(CLASS, METHOD);
 
       return operOutput;
@@ -241,8 +856,51 @@ public class RestDataAccess extends DataAccess {
 
       _logger.entering(CLASS, METHOD);
 
-      if (_client != null) {
-         _client.close();
+      if (_writeBehind != null) {
+         _writeBehind.close();
+      }
+
+      if (_readBatcher != null) {
+         _readBatcher.close();
+      }
+
+      if (_router != null) {
+         _router.close();
+      }
+
+      if (_slowRequestsName != null) {
+         try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(_slowRequestsName);
+         } catch (JMException ex) {
+            _logger.log(Level.WARNING, "{0}: {1}", new Object[]{METHOD, ex.getMessage()});
+         }
+         _slowRequestsName = null;
+      }
+
+      synchronized (this) {
+         if (_executor != null) {
+            _executor.shutdownNow();
+            _executor = null;
+         }
+      }
+
+      if (_targetCache != null) {
+         _targetCache.close();
+      }
+
+      if (_caches != null) {
+         _caches.close();
+      }
+
+      if (_recorder != null) {
+         _recorder.close();
+      }
+
+      synchronized (this) {
+         if (_client != null) {
+            ClientRegistry.getInstance().release(_client);
+            _client = null;
+         }
       }
 
       _logger.exiting(CLASS, METHOD);
@@ -250,583 +908,1932 @@ public class RestDataAccess extends DataAccess {
       return;
    }
 
-   /*
-    * =============== PRIVATE METHODS ===============
+   /**
+    * Wait until all the write-behind operations, queued before and during
+    * the call, have been sent. Queued REPLACE operations are sent without
+    * waiting for the end of their merge window.
+    *
+    * @throws Exception interrupted while waiting
     */
+   public void flush() throws Exception {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+
+      _logger.entering(CLASS, METHOD);
+
+      if (_writeBehind != null) {
+         _writeBehind.flush();
+      }
+
+      _logger.exiting(CLASS, METHOD);
+
+      return;
+   }
+
    /**
-    * Process HTTP Request
+    * Get the statistics: the hosts of the load balancer and the write-behind
+    * queue, if they are enabled.
     *
     * <pre>
-    * JSON input:
     * {
-    *   "uid": "...", // optional for: READ, REPLACE, DELETE
-    *   "data | form": { // required for: CREATE, REPLACE
-    *      "attr": "value",
-    *      ...
+    *   "loadBalancer": {
+    *     "strategy": "P2C",
+    *     "endpoints": [
+    *       { "name": "host:port", "available": true, "outstanding": 0,
+    *         "requests": 0, "errors": 0, "ejections": 0, "latency": 0.0 }
+    *     ]
     *   },
-    *   "cookies": {
-    *     "name": "value"
+    *   "shards": [
+    *     { "name": "host:port", ... }
+    *   ],
+    *   "primary": { "name": "host:port", ... },
+    *   "replicas": { "strategy": "...", "endpoints": [ ... ] },
+    *   "readYourWrites": 0,
+    *   "writeBehind": { "queued": 0, "capacity": 0, "coalesced": 0 },
+    *   "targets": {
+    *     "capacity": 64, "hits": 0, "misses": 0, "evictions": 0,
+    *     "hosts": [
+    *       { "host": "protocol://host:port", "requests": 0, "idle": 0 }
+    *     ]
     *   },
-    *   "headers": {
-    *     "Content-Type": "application/json",
-    *     "name": "value",
-    *     ...
+    *   "documentCache": {
+    *     "capacity": 0, "allocated": 0, "bytes": 0, "entries": 0,
+    *     "hits": 0, "misses": 0, "evictions": 0, "expirations": 0
     *   },
-    *   "queryParams": {
-    *     "name1": "value1",
-    *     "nameX": "valueX"
+    *   "diskCache": {
+    *     "directory": "...", "segments": 0, "bytes": 0, "liveBytes": 0,
+    *     "entries": 0, "hits": 0, "misses": 0, "compactions": 0,
+    *     "droppedSegments": 0
     *   },
-    *   "path": ".../...", // appended to base target (static base target only)
-    *   "uri": "protocol://host:port/..." // (dynamic full target only)
+    *   "recorder": { "file": "...", "exchanges": 0, "errors": 0 },
+    *   "replay": {
+    *     "file": "...", "timing": "fast", "exchanges": 0, "replayed": 0,
+    *     "missed": 0
+    *   },
+    *   "clients": {
+    *     "clients": [ { "key": "...", "references": 0 } ]
+    *   }
     * }
     * </pre>
     *
-    * @param operInput OperationIF input
-    * @return OperationIF output
+    * @return JSONObject statistics
     */
-   private OperationIF submitRequest(final OperationIF operInput) {
-      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
-      String msg = null;
-      String uid = null;
-      String path = null;
-      String name = null;
-      String value = null;
-      String uri = null;
-      OperationIF operOutput = null;
-      Builder builder = null;
-      Response response = null;
-      JSONObject jsonInput = null;
-      JSONObject jsonQueryParams = null;
-      JSONObject jsonHeaders = null;
-      JSONObject jsonData = null;
-      JSONObject jsonCookies = null;
-      MediaType acceptType = null;
-      MediaType contentType = null;
-      MultivaluedMap<String, Object> headers = null;
-      WebTarget target = null;
-      Form form = null;
-      OperationIF.TYPE oper = null;
-      List<Cookie> cookies = null;
+   public JSONObject getStatistics() {
+      JSONObject json = new JSONObject();
 
-      _logger.entering(CLASS, METHOD);
+      if (_router != null) {
+         json.putAll(_router.getStats());
+      }
 
-      oper = operInput.getType();
+      if (_writeBehind != null) {
+         json.put("writeBehind", _writeBehind.getStats());
+      }
 
-      jsonInput = operInput.getJSON();
+      if (_targetCache != null) {
+         json.put("targets", _targetCache.getStats());
+      }
 
-      if (_logger.isLoggable(DEBUG_LEVEL)) {
-         _logger.log(DEBUG_LEVEL, "json=''{0}''",
-            new Object[]{jsonInput != null ? jsonInput : NULL});
+      if (_caches != null) {
+         json.putAll(_caches.getStats());
       }
 
-      /*
-       * Set the "target"
-       * If flag "_haveBaseTarget" is true ...
-       *    _target exists with a base URI, process path options
-       * Else ...
-       *    _target will be null, need to create a target with "uri"
-       */
-      if (_haveBaseTarget) {
-         /*
-          * Get "path" - if "path" exists, append to target
-          * Get "uid" - if "uid" exists, append to target
-          */
-         if (jsonInput.containsKey(ConstantsIF.UID)) {
-            uid = JSON.getString(jsonInput, ConstantsIF.UID);
-         }
+      if (_recorder != null) {
+         json.put("recorder", _recorder.getStats());
+      }
 
-         if (jsonInput.containsKey(ConstantsIF.PATH)) {
-            path = JSON.getString(jsonInput, ConstantsIF.PATH);
-         }
+      if (_updateMode != JsonPatch.MODE.PUT) {
+         json.put("patch", this.getPatchStats());
+      }
 
-         if (path != null) {
-            if (uid != null) {
-               target = _target.path(path).path(uid);
-            } else {
-               target = _target.path(path);
-            }
-         } else if (uid != null) {
-            target = _target.path(uid);
-         } else {
-            target = _target;
-         }
-      } else {
-         uri = JSON.getString(jsonInput, ConstantsIF.URI);
+      if (_redirects != null) {
+         json.put("redirects", _redirects.getStats());
+      }
 
-         target = _client.target(uri);
+      if (_bulkhead != null) {
+         json.put("bulkheads", _bulkhead.getStats());
       }
 
-      /*
-       * Get the Query Parameters, add to the "target"
-       */
-      if (jsonInput.containsKey(ConstantsIF.QUERY_PARAMS)) {
-         jsonQueryParams = JSON.getObject(jsonInput, ConstantsIF.QUERY_PARAMS);
+      if (_replay != null) {
+         json.put("replay", _replay.getStats());
+      }
 
-         if (jsonQueryParams != null && !jsonQueryParams.isEmpty()) {
-            for (Object o : jsonQueryParams.keySet()) {
-               if (o != null && o instanceof String && !STR.isEmpty((String) o)) {
-                  name = (String) o;
-                  value = JSON.getString(jsonQueryParams, name);
+      if (_sharedClient) {
+         json.put("clients", ClientRegistry.getInstance().getStats());
+      }
 
-                  if (!STR.isEmpty(value)) {
-                     target = target.queryParam(name, value);
-                  }
-               }
-            }
-         }
+      return json;
+   }
+
+   /**
+    * Get the requests recorded by the slow request recorder, oldest first.
+    *
+    * <pre>
+    * {
+    *   "threshold": 0, "sampleRate": 0.0, "capacity": 100,
+    *   "slow": 0, "sampled": 0,
+    *   "entries": [
+    *     { "time": "...", "slow": true, "type": "READ", "method": "GET",
+    *       "uri": "...", "state": "SUCCESS", "httpStatus": 200,
+    *       "timings": { ... }, "requestHeaders": "...", "requestBody": "...",
+    *       "responseHeaders": "...", "responseBody": "..." }
+    *   ]
+    * }
+    * </pre>
+    *
+    * The "responseBody" is the truncated entity of the status message, it is
+    * null for a successful READ, SEARCH, REPLACE or DELETE.
+    *
+    * @return JSONObject recorded requests, empty if the recorder is not enabled
+    */
+   public JSONObject getSlowRequests() {
+      return _slowRequests == null ? new JSONObject() : _slowRequests.getStats();
+   }
+
+   /**
+    * Read the operations of a recording, see the "recordFile" parameter. The
+    * operations are in the recorded order, execute them with a "replayFile"
+    * object to replay the workload.
+    *
+    * @param file String file name of the recording
+    * @return List of OperationIF operations
+    * @throws Exception could not read the recording
+    */
+   public static List<OperationIF> getRecordedOperations(final String file) throws Exception {
+      if (STR.isEmpty(file)) {
+         throw new Exception("Recording file is empty");
       }
 
-      /*
-       * Get the "cookies" from the JSON input add to the cookie list
-       */
-      if (jsonInput.containsKey(ConstantsIF.COOKIES)) {
-         cookies = new LinkedList<>();
+      return ExchangeReplay.readOperations(file);
+   }
 
-         jsonCookies = JSON.getObject(jsonInput, ConstantsIF.COOKIES);
+   /**
+    * Add a shard, it owns about 1/N of the uid values on the consistent hash
+    * ring. Documents are not moved: the documents of the uid values that
+    * changed owner must be copied to the new shard by the application,
+    * they are not found until then.
+    *
+    * @param host String "host:port" (or "host", uses "port")
+    * @throws Exception sharding is not enabled or the shard exists
+    */
+   public void addShard(final String host) throws Exception {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
 
-         if (jsonCookies != null && !jsonCookies.isEmpty()) {
-            for (Object o : jsonCookies.keySet()) {
-               if (o != null && o instanceof String && !STR.isEmpty((String) o)) {
-                  name = (String) o;
-                  value = JSON.getString(jsonCookies, name);
+      _logger.entering(CLASS, METHOD);
 
-                  if (!STR.isEmpty(value)) {
-                     cookies.add(new Cookie(name, value));
-                  }
-               }
-            }
-         }
+      this.initialize();
+
+      if (_router == null) {
+         throw new Exception("Sharding is not enabled, parameter '"
+            + PARAM_SHARDS + "' is not set");
       }
 
-      // Get the "headers" from the JSON input
-      // - if "accept", set accept Type
-      // - if "content-type", set content Type
-      // - else add to header map
-      if (jsonInput.containsKey(ConstantsIF.HEADERS)) {
-         headers = new MultivaluedHashMap<String, Object>();
+      _router.addShard(this.getEndpoint(host));
 
-         jsonHeaders = JSON.getObject(jsonInput, ConstantsIF.HEADERS);
+      _logger.exiting(CLASS, METHOD);
 
-         if (jsonHeaders != null && !jsonHeaders.isEmpty()) {
-            for (Object o : jsonHeaders.keySet()) {
-               if (o != null && o instanceof String && !STR.isEmpty((String) o)) {
-                  name = (String) o;
-                  value = JSON.getString(jsonHeaders, name);
+      return;
+   }
 
-                  if (!STR.isEmpty(value)) {
-                     switch (name) {
-                        case ConstantsIF.HDR_ACCEPT: {
-                           switch (value) {
-                              case ConstantsIF.TYPE_JSON: {
-                                 acceptType = MediaType.APPLICATION_JSON_TYPE;
-                                 break;
-                              }
-                              case ConstantsIF.TYPE_URLENCODED: {
-                                 acceptType = MediaType.APPLICATION_FORM_URLENCODED_TYPE;
-                                 break;
-                              }
-                              case ConstantsIF.TYPE_WILDCARD: {
-                                 acceptType = MediaType.WILDCARD_TYPE;
-                                 break;
-                              }
-                           }
-                           break;
-                        }
-                        case ConstantsIF.HDR_CONTENT_TYPE: {
-                           switch (value) {
-                              case ConstantsIF.TYPE_JSON: {
-                                 contentType = MediaType.APPLICATION_JSON_TYPE;
-                                 break;
-                              }
-                              case ConstantsIF.TYPE_URLENCODED: {
-                                 contentType = MediaType.APPLICATION_FORM_URLENCODED_TYPE;
-                                 break;
-                              }
-                           }
-                           break;
-                        }
-                        default: {
-                           headers.add(name, value);
-                           break;
-                        }
-                     }
-                  }
-               }
-            }
-         }
-      }
+   /**
+    * Remove a shard, the uid values it owns are moved to the other shards.
+    * Documents are not moved: the documents of the removed shard must be
+    * copied to their new shards by the application. The last shard can not
+    * be removed.
+    *
+    * @param host String "host:port" (or "host", uses "port")
+    * @throws Exception sharding is not enabled or the shard can not be removed
+    */
+   public void removeShard(final String host) throws Exception {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
 
-      if (acceptType == null) {
-         acceptType = MediaType.APPLICATION_JSON_TYPE;
-      }
+      _logger.entering(CLASS, METHOD);
+
+      this.initialize();
 
-      if (contentType == null) {
-         contentType = MediaType.APPLICATION_JSON_TYPE;
+      if (_router == null) {
+         throw new Exception("Sharding is not enabled, parameter '"
+            + PARAM_SHARDS + "' is not set");
       }
 
-      /*
-       * Create the Request "builder", set the Headers and the Cookies
-       */
-      builder = target.request(acceptType);
+      _router.removeShard(this.getEndpoint(host).getName());
 
-      if (cookies != null && !cookies.isEmpty()) {
-         for (Cookie c : cookies) {
-            builder = builder.cookie(c);
-         }
-      }
+      _logger.exiting(CLASS, METHOD);
 
-      if (headers != null && !headers.isEmpty()) {
-         for (String key : headers.keySet()) {
-            if (!STR.isEmpty(key)) {
-               builder = builder.header(key, headers.getFirst(key));
-            }
-         }
+      return;
+   }
+
+   /**
+    * Iterate the pages of a SEARCH operation. Pages are requested using the
+    * "pageMode" parameter, while a page is consumed the next page(s) are
+    * requested in the background. The iterator should be closed when it is
+    * not fully consumed. With "shards", the pages of a single shard are
+    * returned.
+    *
+    * @param operInput OperationIF SEARCH operation
+    * @return SearchPages page iterator
+    * @throws Exception invalid operation
+    */
+   public SearchPages search(final OperationIF operInput) throws Exception {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      Endpoint endpoint = null;
+      SearchPages pages = null;
+
+      _logger.entering(CLASS, METHOD);
+
+      this.initialize();
+      this.validate(operInput);
+
+      if (operInput.getType() != OperationIF.TYPE.SEARCH) {
+         throw new Exception("Operation type must be '"
+            + OperationIF.TYPE.SEARCH.toString() + "'");
       }
 
-      /*
-       * execute "builder", based on operation type
-       */
-      switch (oper) {
-         case CREATE: {
-            if (contentType == MediaType.APPLICATION_JSON_TYPE) {
-               jsonData = JSON.getObject(jsonInput, ConstantsIF.DATA);
+      endpoint = this.getEndpoint(operInput);
 
-               if (jsonData != null) {
-                  response = builder.post(Entity.entity(jsonData.toString(), contentType));
-               } else {
-                  msg = oper.toString() + ": JSON input does not contain a 'data' object";
-               }
-            } else if (contentType == MediaType.APPLICATION_FORM_URLENCODED_TYPE) {
-               if (jsonInput.containsKey(ConstantsIF.FORM)) {
-                  form = this.getForm(jsonInput);
+      pages = _search.pages(operInput, endpoint, endpoint != null ? endpoint.getTarget() : _target);
 
-                  if (form != null) {
-                     response = builder.post(Entity.entity(form, contentType));
-                  } else {
-                     msg = oper.toString() + ": URL encoded form is null";
-                  }
-               } else {
-                  msg = oper.toString() + ": JSON input does not contain a 'form' object";
-               }
-            } else {
-               msg = oper.toString() + ": Undefined MediaType";
-            }
-            break;
-         }
-         case SEARCH:
-         case READ: {
-            response = builder.get();
-            break;
-         }
-         case REPLACE: {
-            if (contentType == MediaType.APPLICATION_JSON_TYPE) {
-               if (jsonInput.containsKey(ConstantsIF.DATA)) {
-                  jsonData = JSON.getObject(jsonInput, ConstantsIF.DATA);
+      _logger.exiting(CLASS, METHOD);
 
-                  if (jsonData != null && !jsonData.isEmpty()) {
-                     response = builder.put(Entity.entity(jsonData.toString(), contentType));
-                  } else {
-                     msg = oper.toString() + ": JSON 'data' is null or empty";
-                  }
-               } else {
-                  msg = oper.toString() + ": JSON input does not contain a 'data' object";
-               }
-            } else if (contentType == MediaType.APPLICATION_FORM_URLENCODED_TYPE) {
-               if (jsonInput.containsKey(ConstantsIF.FORM)) {
-                  form = this.getForm(jsonInput);
+      return pages;
+   }
 
-                  if (form != null) {
-                     response = builder.put(Entity.entity(form, contentType));
-                  } else {
-                     msg = oper.toString() + ": URL encoded form is null";
-                  }
-               } else {
-                  msg = oper.toString() + ": JSON input does not contain a 'form' object";
-               }
-            } else {
-               msg = oper.toString() + ": Undefined MediaType";
-            }
-            break;
-         }
+   /**
+    * Search-then-fan-out pipeline. The uid values returned by the SEARCH
+    * operation are expanded, using the template, into READ, REPLACE or
+    * DELETE operations. The operations are executed in parallel, the outputs
+    * are returned as they complete. The pipeline should be closed when it is
+    * not fully consumed.
+    *
+    * @param operSearch OperationIF SEARCH operation
+    * @param operTemplate OperationIF READ, REPLACE or DELETE template
+    * @param concurrency int maximum number of operations in progress
+    * @return SearchPipeline output iterator
+    * @throws Exception invalid operation
+    */
+   public SearchPipeline pipeline(final OperationIF operSearch,
+      final OperationIF operTemplate, final int concurrency) throws Exception {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      SearchPipeline pipeline = null;
+
+      _logger.entering(CLASS, METHOD);
+
+      this.initialize();
+
+      if (operTemplate == null) {
+         throw new Exception("Template operation is null");
+      }
+
+      switch (operTemplate.getType()) {
+         case READ:
+         case REPLACE:
          case DELETE: {
-            response = builder.delete();
             break;
          }
          default: {
-            msg = "Unsupported operation '" + oper.toString() + "'";
-            break;
+            throw new Exception("Template operation type not supported: "
+               + operTemplate.getType().toString());
          }
       }
 
-      if (msg == null) {
-         operOutput = this.getOperationFromResponse(response, operInput);
-      } else {
-         operOutput = new Operation(operInput.getType());
-         operOutput.setError(true);
-         operOutput.setState(STATE.FAILED);
-         operOutput.setStatus(msg);
+      if (!_haveBaseTarget && STR.isEmpty(JSON.getString(operTemplate.getJSON(), ConstantsIF.URI))) {
+         throw new Exception("No base target, required template attribute '"
+            + ConstantsIF.URI + "' is empty");
       }
 
+      pipeline = new SearchPipeline(this, this.search(operSearch), operTemplate,
+         concurrency, this.getExecutor());
+
       _logger.exiting(CLASS, METHOD);
 
-      return operOutput;
+      return pipeline;
    }
 
    /**
-    * Get HTTP Form from JSON object
+    * Warm up the connections of the static base target. The host names are
+    * resolved and "warmUpConnections" concurrent HEAD requests are sent to
+    * each host, the connections are kept alive. Any HTTP response counts as
+    * an opened connection. Initializes the object if "lazyInit" is true.
     *
-    * @param jsonInput JSONObject form data
-    * @return Form HTTP form
+    * @return int number of connections opened
+    * @throws Exception initialization failed
     */
-   private Form getForm(final JSONObject jsonInput) {
+   public int warmUp() throws Exception {
       String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
-      String name = null;
-      String value = null;
-      JSONObject jsonForm = null;
-      Form form = null;
+      int opened = 0;
+      int connections = 0;
+      int timeout = 0;
+      String path = null;
+      List<WebTarget> targets = null;
+      List<CompletableFuture<Boolean>> futures = new ArrayList<>();
 
       _logger.entering(CLASS, METHOD);
 
-      jsonForm = JSON.getObject(jsonInput, ConstantsIF.FORM);
+      this.initialize();
 
-      if (jsonForm != null && !jsonForm.isEmpty()) {
-         form = new Form();
-         for (Object o : jsonForm.keySet()) {
-            if (o != null && o instanceof String && !STR.isEmpty((String) o)) {
-               name = (String) o;
-               value = JSON.getString(jsonForm, name);
-               if (!STR.isEmpty(value)) {
-                  form.param(name, value);
-               }
-            }
+      connections = this.getParamInt(PARAM_WARM_UP_CONNECTIONS, 1);
+      timeout = this.getParamInt(PARAM_WARM_UP_TIMEOUT, 5000);
+      path = this.getParamString(PARAM_WARM_UP_PATH, this.getParam(PARAM_HEALTH_PATH));
+      targets = this.getWarmUpTargets();
+
+      for (WebTarget target : targets) {
+         try {
+            InetAddress.getAllByName(target.getUri().getHost());
+         } catch (UnknownHostException ex) {
+            _logger.log(Level.WARNING, "{0}: unknown host ''{1}''",
+               new Object[]{METHOD, target.getUri().getHost()});
+            continue;
+         }
+
+         final WebTarget warmTarget = STR.isEmpty(path) ? target : target.path(path);
+         final int warmTimeout = timeout;
+
+         for (int i = 0; i < connections; i++) {
+            futures.add(CompletableFuture.supplyAsync(
+               () -> this.warmUp(warmTarget, warmTimeout), this.getExecutor()));
+         }
+      }
+
+      for (CompletableFuture<Boolean> future : futures) {
+         if (future.join()) {
+            opened++;
          }
       }
 
+      _logger.log(Level.FINE, "{0}: opened {1} connections to {2} hosts",
+         new Object[]{METHOD, opened, targets.size()});
+
       _logger.exiting(CLASS, METHOD);
 
-      return form;
+      return opened;
    }
 
    /**
-    * Get Operation object from HTTP Response
+    * Prepare an operation, the headers, cookies, query parameters and the
+    * path (or uri) of the template are resolved once. The prepared operation
+    * is executed with the uid, path and body.
     *
-    * @param response Response object
-    * @param operInput OperationIF input
-    * @return OperationIF output
+    * @param operTemplate OperationIF template: CREATE, SEARCH, READ, REPLACE
+    * or DELETE
+    * @return PreparedOperation prepared operation
+    * @throws Exception invalid template
     */
-   private OperationIF getOperationFromResponse(final Response response, final OperationIF operInput) {
-      boolean error = false;
+   public PreparedOperation prepare(final OperationIF operTemplate) throws Exception {
       String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
-      String uriRequest = null;
-      String uriCreated = null;
-      String entity = null;
-      String value = null;
-      StringBuilder bldrStatus = null;
-      OperationIF operOutput = null;
-      JSONObject jsonInput = null;
-      JSONObject jsonOutput = null;
-      JSONObject jsonHeaders = null;
-      JSONObject jsonEntity = null;
+      PreparedOperation prepared = null;
 
       _logger.entering(CLASS, METHOD);
 
-      jsonOutput = new JSONObject();
+      this.initialize();
 
-      if (response == null) {
-         error = true;
+      if (operTemplate == null) {
+         throw new Exception("Template operation is null");
+      }
 
-         operOutput = new Operation(OperationIF.TYPE.NULL);
-         operOutput.setState(STATE.ERROR);
-         operOutput.setStatus(METHOD + ": input response is null");
+      switch (operTemplate.getType()) {
+         case CREATE:
+         case SEARCH:
+         case READ:
+         case REPLACE:
+         case DELETE: {
+            break;
+         }
+         default: {
+            throw new Exception("Template operation type not supported: "
+               + operTemplate.getType().toString());
+         }
+      }
 
-         _logger.log(Level.SEVERE, "input response is null");
-      } else {
-         if (operInput == null) {
-            error = true;
+      if (!_haveBaseTarget && STR.isEmpty(JSON.getString(operTemplate.getJSON(), ConstantsIF.URI))) {
+         throw new Exception("No base target, required template attribute '"
+            + ConstantsIF.URI + "' is empty");
+      }
 
-            operOutput = new Operation(OperationIF.TYPE.NULL);
-            operOutput.setError(error);
-            operOutput.setState(STATE.ERROR);
-            operOutput.setStatus(METHOD + ": input operation is null");
+      this.checkFields(operTemplate.getJSON());
 
-            _logger.log(Level.SEVERE, "input operation is null");
-         } else {
-            operOutput = new Operation(operInput.getType());
+      prepared = new PreparedOperation(this, operTemplate);
 
-            jsonInput = operInput.getJSON();
-            if (jsonInput != null && !jsonInput.isEmpty()) {
-               uriRequest = JSON.getString(jsonInput, ConstantsIF.URI);
-            }
-            if (STR.isEmpty(uriRequest)) {
-               uriRequest = NULL;
-            }
+      _logger.exiting(CLASS, METHOD);
+
+      return prepared;
+   }
+
+   /*
+    * =============== PACKAGE METHODS ===============
+    */
+   /**
+    * Execute a prepared operation, the input only has the "uid", "path" /
+    * "uri" and the body. The read-your-writes window is updated.
+    *
+    * @param prepared PreparedOperation prepared operation
+    * @param operInput OperationIF input
+    * @return OperationIF output
+    */
+   OperationIF execute(final PreparedOperation prepared, final OperationIF operInput) {
+      OperationIF operOutput = null;
+      Endpoint endpoint = null;
+
+      this.assignUid(operInput);
+
+      if (_writeBehind != null && (operInput.getType() == OperationIF.TYPE.READ
+         || operInput.getType() == OperationIF.TYPE.DELETE)) {
+         this.flushWrites(operInput);
+      }
+
+      if (_caches != null) {
+         _caches.invalidate(operInput);
+      }
+
+      endpoint = this.getEndpoint(operInput);
+
+      if (endpoint != null) {
+         operOutput = this.submitRequest(operInput, endpoint, prepared);
+      } else {
+         operOutput = prepared.send(operInput, this.getTarget(operInput.getJSON(), _target), null);
+      }
+
+      if (_router != null) {
+         _router.recordWrite(operInput, operOutput);
+      }
+
+      if (_caches != null) {
+         _caches.invalidate(operInput);
+      }
+
+      return operOutput;
+   }
+
+   /**
+    * Check if the object uses a static base target
+    *
+    * @return boolean true if there is a base target
+    */
+   boolean hasBaseTarget() {
+      return _haveBaseTarget;
+   }
+
+   /**
+    * Get the executor used for background requests, created when first used.
+    * The threads are daemon threads.
+    *
+    * @return ExecutorService executor
+    */
+   synchronized ExecutorService getExecutor() {
+      if (_executor == null) {
+         final AtomicInteger count = new AtomicInteger(0);
+
+         _executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable,
+               "RestDataAccess-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         });
+      }
+
+      return _executor;
+   }
+
+   /**
+    * Get a "target" for a full URI, uses the cached host target if the cache
+    * is enabled
+    *
+    * @param uri String full URI
+    * @return WebTarget target
+    */
+   WebTarget getTarget(final String uri) {
+      return _targetCache != null ? _targetCache.get(uri) : _client.target(uri);
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Add a CREATE / REPLACE operation to the write-behind queue. REPLACE
+    * operations are merged using the document target: "path" and "uid" for a
+    * base target, else the "uri".
+    *
+    * @param operInput OperationIF CREATE or REPLACE operation
+    * @param listener CompletionListenerIF receives the output, may be null
+    * @return OperationIF output, SUCCESS if the operation was queued
+    */
+   private OperationIF enqueue(final OperationIF operInput,
+      final CompletionListenerIF listener) {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      OperationIF operOutput = new RestOperation(operInput.getType());
+
+      _logger.entering(CLASS, METHOD);
+
+      if (_writeBehind.enqueue(operInput, this.getWriteKey(operInput.getJSON()), listener)) {
+         operOutput.setState(STATE.SUCCESS);
+         operOutput.setStatus("Queued for write-behind");
+      } else {
+         operOutput.setError(true);
+         operOutput.setState(STATE.FAILED);
+         operOutput.setStatus("Write-behind queue is full or closed");
+      }
+
+      operOutput.setJSON(new JSONObject());
+
+      _logger.exiting(CLASS, METHOD);
+
+      return operOutput;
+   }
+
+   /**
+    * Set a random "uid" (UUID) in a sharded CREATE operation that does not
+    * have one. The CREATE is placed on the shard that owns the uid, where
+    * the READ, REPLACE and DELETE operations of the uid are sent.
+    *
+    * @param operInput OperationIF operation input
+    */
+   private void assignUid(final OperationIF operInput) {
+      if (operInput.getType() == OperationIF.TYPE.CREATE
+         && _router != null && _router.getShards() != null
+         && STR.isEmpty(JSON.getString(operInput.getJSON(), ConstantsIF.UID))) {
+         operInput.getJSON().put(ConstantsIF.UID, UUID.randomUUID().toString());
+      }
+
+      return;
+   }
+
+   /**
+    * Wait for the queued writes of the document of a READ or DELETE
+    * operation, they are sent without waiting for the flush window. The
+    * read does not get a stale copy, the delete is not overwritten.
+    *
+    * @param operInput OperationIF READ or DELETE operation
+    */
+   private void flushWrites(final OperationIF operInput) {
+      String key = this.getWriteKey(operInput.getJSON());
+
+      if (key != null) {
+         try {
+            _writeBehind.flush(key);
+         } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
          }
       }
 
-      if (!error && response != null && operInput != null) {
-         entity = response.readEntity(String.class);
+      return;
+   }
 
-         if (!STR.isEmpty(entity)) {
-            try {
-               jsonEntity = this.parseEntity(entity);
-               jsonOutput = jsonEntity;
-            } catch (Exception ex) {
-               jsonEntity = null;
-            }
+   /**
+    * Get the write-behind key of a document: "path" and "uid" for a base
+    * target, else the "uri"
+    *
+    * @param jsonInput JSONObject operation input
+    * @return String document key, null if there is no "uid" / "uri"
+    */
+   private String getWriteKey(final JSONObject jsonInput) {
+      String key = null;
+
+      if (_haveBaseTarget) {
+         key = getDocumentKey(jsonInput, JSON.getString(jsonInput, ConstantsIF.UID));
+      } else {
+         key = JSON.getString(jsonInput, ConstantsIF.URI);
+      }
+
+      return STR.isEmpty(key) ? null : key;
+   }
+
+   /**
+    * Get the batch key of a READ operation: the JSON input without the
+    * "uid", and the shard that owns the uid. READ operations with the same
+    * key can be sent in one multi-get request, a projected READ ("fields") is
+    * not batched.
+    *
+    * @param operInput OperationIF READ operation
+    * @return String batch key, null if the operation can not be batched
+    */
+   private String getBatchKey(final OperationIF operInput) {
+      String key = null;
+      String uid = null;
+      JSONObject jsonInput = operInput.getJSON();
+      JSONObject jsonOther = null;
+
+      uid = JSON.getString(jsonInput, ConstantsIF.UID);
+
+      if (_haveBaseTarget && !STR.isEmpty(uid) && !jsonInput.containsKey(ATTR_FIELDS)
+         && (_router == null || !_router.isRecentWrite(getDocumentKey(jsonInput, uid)))) {
+         jsonOther = new JSONObject(jsonInput);
+         jsonOther.remove(ConstantsIF.UID);
+
+         key = jsonOther.toString();
+
+         if (_router != null && _router.getShards() != null) {
+            key = _router.getShards().get(uid).getName() + " " + key;
          }
+      }
 
-         bldrStatus = new StringBuilder();
-         bldrStatus.append(response.getStatus());
-         bldrStatus.append(", ");
-         bldrStatus.append(response.getStatusInfo().toString());
-         bldrStatus.append(", Entity='");
-         bldrStatus.append(entity == null ? NULL : entity);
-         bldrStatus.append("'");
+      return key;
+   }
 
-         switch (operInput.getType()) {
-            case CREATE: // HTTP POST
-            {
-               switch (response.getStatus()) {
-                  case 200: // OK
-                  case 201: // CREATED
-                  {
-                     operOutput.setState(STATE.SUCCESS);
-                     operOutput.setStatus("Response: "
-                        + bldrStatus.toString());
+   /**
+    * Load a batch of READ operations, that have the same batch key, with one
+    * multi-get request. Uses parallel GET requests for a single operation, in
+    * "parallel" mode, or if the multi-get request is not supported. The uid
+    * values missing from a "query" response are read with GET requests.
+    *
+    * @param inputs List of OperationIF READ operations
+    * @return List of OperationIF outputs, in the same order
+    */
+   private List<OperationIF> readBatch(final List<OperationIF> inputs) {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      boolean ignored = false;
+      int status = 0;
+      String uid = null;
+      String key = null;
+      String path = null;
+      Object results = null;
+      Set<String> uids = new LinkedHashSet<>();
+      Map<String, JSONObject> found = new HashMap<>();
+      List<OperationIF> outputs = null;
+      List<OperationIF> missing = null;
+      List<OperationIF> fetched = null;
+      OperationIF operBatch = null;
+      OperationIF operOutput = null;
+      Endpoint endpoint = null;
+      JSONObject jsonBatch = null;
+      JSONObject jsonParams = null;
+      JSONObject jsonData = null;
+      JSONArray array = null;
 
-                     try {
-                        uriCreated = this.getURIFromResponse(response);
-                     } catch (Exception ex) {
-                        error = true;
-                        operOutput.setError(error);
-                        operOutput.setState(STATE.ERROR);
-                        operOutput.setStatus("Could not get URI from Response: "
-                           + ex.getMessage());
-                     }
+      _logger.entering(CLASS, METHOD);
 
-                     if (!STR.isEmpty(uriCreated)) {
-                        jsonOutput.put(ConstantsIF.URI, uriCreated);
-                     }
-                     break;
-                  }
-                  case 302: // FOUND (REDIRECT)
-                  {
-                     jsonHeaders = new JSONObject();
+      if (inputs.size() > 1 && _readBatchMode != ReadBatcher.MODE.PARALLEL
+         && _readBatchSupported) {
+         for (OperationIF input : inputs) {
+            uids.add(JSON.getString(input.getJSON(), ConstantsIF.UID));
+         }
 
-                     for (String s : response.getHeaders().keySet()) {
-                        if (!STR.isEmpty(s)) {
-                           value = response.getHeaderString(s);
-                           if (!STR.isEmpty(value)) {
-                              jsonHeaders.put(s, value);
-                           }
-                        }
-                     }
+         jsonBatch = new JSONObject(inputs.get(0).getJSON());
+         jsonBatch.remove(ConstantsIF.UID);
 
-                     jsonOutput.put(ConstantsIF.HEADERS, jsonHeaders);
+         if (_readBatchMode == ReadBatcher.MODE.BODY) {
+            path = JSON.getString(jsonBatch, ConstantsIF.PATH);
+            array = new JSONArray();
+            array.addAll(uids);
+            jsonData = new JSONObject();
+            jsonData.put(_readBatchParam, array);
 
-                     operOutput.setState(STATE.WARNING);
-                     operOutput.setStatus("Redirect: "
-                        + bldrStatus.toString());
-                     break;
-                  }
-                  case 400: // BAD REQUEST
-                  {
-                     error = true;
-                     operOutput.setError(error);
-                     operOutput.setState(STATE.FAILED);
-                     operOutput.setStatus("BAD REQUEST: "
-                        + bldrStatus.toString());
-                     break;
-                  }
-                  case 401: // UNAUTHORIZED
-                  {
-                     error = true;
-                     operOutput.setError(error);
-                     operOutput.setState(STATE.NOTAUTHORIZED);
-                     operOutput.setStatus("UNAUTHORIZED: "
-                        + bldrStatus.toString());
-                     break;
-                  }
-                  case 403: // FORBIDDEN
-                  {
-                     error = true;
-                     operOutput.setError(error);
-                     operOutput.setState(STATE.FAILED);
-                     operOutput.setStatus("FORBIDDEN: "
-                        + bldrStatus.toString());
-                     break;
-                  }
-                  case 404: // NOT FOUND
-                  {
-                     error = true;
-                     operOutput.setError(error);
-                     operOutput.setState(STATE.NOTEXIST);
-                     operOutput.setStatus("NOT FOUND: "
-                        + bldrStatus.toString());
-                     break;
-                  }
-                  default: {
-                     error = true;
-                     operOutput.setError(error);
-                     operOutput.setState(STATE.ERROR);
-                     operOutput.setStatus("Default: "
-                        + bldrStatus.toString());
-                     break;
-                  }
+            jsonBatch.put(ConstantsIF.PATH, STR.isEmpty(path) ? _readBatchPath
+               : path + "/" + _readBatchPath);
+            jsonBatch.put(ConstantsIF.DATA, jsonData);
+
+            operBatch = new ReadBatcher.MultiGet(); // POST
+         } else {
+            jsonParams = new JSONObject();
+
+            if (JSON.getObject(jsonBatch, ConstantsIF.QUERY_PARAMS) != null) {
+               jsonParams.putAll(JSON.getObject(jsonBatch, ConstantsIF.QUERY_PARAMS));
+            }
+
+            jsonParams.put(_readBatchParam, String.join(",", uids));
+            jsonBatch.put(ConstantsIF.QUERY_PARAMS, jsonParams);
+
+            operBatch = new Operation(OperationIF.TYPE.SEARCH); // GET
+         }
+
+         operBatch.setJSON(jsonBatch);
+
+         endpoint = this.getEndpoint(inputs.get(0));
+
+         if (endpoint != null) {
+            operOutput = this.submitRequest(operBatch, endpoint);
+         } else {
+            operOutput = this.submitRequest(operBatch,
+               this.getTarget(operBatch.getJSON(), _target));
+         }
+
+         results = operOutput.getJSON() == null ? null
+            : operOutput.getJSON().get(ConstantsIF.RESULTS);
+         status = operOutput instanceof RestOperation
+            ? ((RestOperation) operOutput).getHttpStatus() : 0;
+
+         if (!operOutput.isError() && results instanceof JSONArray) {
+            for (Object o : (JSONArray) results) {
+               key = o instanceof JSONObject && ((JSONObject) o).get(_readBatchKey) != null
+                  ? ((JSONObject) o).get(_readBatchKey).toString() : null;
+
+               if (key != null && uids.contains(key)) {
+                  found.put(key, (JSONObject) o);
+               } else {
+                  ignored = true; // not requested, the uid values were ignored
                }
+            }
+         }
 
-               break;
+         if (ignored || status == 405 || status == 501) {
+            _readBatchSupported = false;
+
+            _logger.log(Level.WARNING, "{0}: multi-get is not supported, using parallel requests: {1}",
+               new Object[]{METHOD, ignored ? "results were not requested" : operOutput.getStatus()});
+         } else if (!operOutput.isError() && results instanceof JSONArray) {
+            outputs = new ArrayList<>(inputs.size());
+            missing = new ArrayList<>();
+
+            for (OperationIF input : inputs) {
+               uid = JSON.getString(input.getJSON(), ConstantsIF.UID);
+
+               if (found.containsKey(uid) || _readBatchMode == ReadBatcher.MODE.BODY) {
+                  outputs.add(this.getBatchOutput(uid, found.get(uid), operOutput));
+               } else {
+                  outputs.add(null); // read with a GET request
+                  missing.add(input);
+               }
             }
-            case READ: // HTTP GET
-            case SEARCH: // HTTP GET
-            {
-               if (!STR.isEmpty(entity)) {
-                  try {
-                     jsonOutput = this.parseEntity(entity);
-                  } catch (Exception ex) {
-                     error = true;
-                     operOutput.setError(error);
-                     operOutput.setState(STATE.WARNING);
-                     operOutput.setStatus("Could not parse response: "
-                        + ex.getMessage());
+
+            if (!missing.isEmpty()) {
+               fetched = this.readParallel(missing);
+
+               for (int i = 0, j = 0; i < outputs.size(); i++) {
+                  if (outputs.get(i) == null) {
+                     outputs.set(i, fetched.get(j++));
                   }
                }
-               if (!error) {
-                  switch (response.getStatus()) {
-                     case 200: // OK
-                     {
-                        operOutput.setError(false);
-                        operOutput.setState(STATE.SUCCESS);
-                        operOutput.setStatus("Found document");
-                        break;
-                     }
-                     case 302: // FOUND (REDIRECT)
-                     {
-                        jsonHeaders = new JSONObject();
+            }
+         } else if (operOutput.isError() && (status == 0 || status >= 500)) {
+            outputs = new ArrayList<>(inputs.size());
 
-                        for (String s : response.getHeaders().keySet()) {
-                           if (!STR.isEmpty(s)) {
-                              value = response.getHeaderString(s);
-                              if (!STR.isEmpty(value)) {
-                                 jsonHeaders.put(s, value);
-                              }
-                           }
-                        }
+            for (int i = 0; i < inputs.size(); i++) {
+               outputs.add(this.getBatchError(operOutput));
+            }
+         }
+      }
 
-                        jsonOutput.put(ConstantsIF.HEADERS, jsonHeaders);
+      if (outputs == null) {
+         outputs = this.readParallel(inputs);
+      }
 
-                        operOutput.setState(STATE.WARNING);
-                        operOutput.setStatus("Redirect: "
-                           + bldrStatus.toString());
-                        break;
-                     }
-                     case 400: // BAD REQUEST
+      _logger.exiting(CLASS, METHOD);
+
+      return outputs;
+   }
+
+   /**
+    * Get the output of a READ operation from the multi-get response
+    *
+    * @param uid String document uid
+    * @param jsonResult JSONObject result for the uid, null if not found
+    * @param operBatch OperationIF output of the multi-get request
+    * @return OperationIF output
+    */
+   private OperationIF getBatchOutput(final String uid, final JSONObject jsonResult,
+      final OperationIF operBatch) {
+      RestOperation operOutput = new RestOperation(OperationIF.TYPE.READ);
+
+      if (jsonResult != null) {
+         if (operBatch instanceof RestOperation) {
+            operOutput.setResponse(((RestOperation) operBatch).getHttpStatus(),
+               ((RestOperation) operBatch).getHttpReason());
+         }
+         operOutput.setState(STATE.SUCCESS);
+         operOutput.setStatus("Found document");
+         operOutput.setJSON(new JSONObject(jsonResult));
+      } else {
+         operOutput.setError(true);
+         operOutput.setState(STATE.NOTEXIST);
+         operOutput.setStatus("NOT FOUND: uid '" + uid + "' is not in the multi-get response");
+         operOutput.setJSON(new JSONObject());
+      }
+
+      return operOutput;
+   }
+
+   /**
+    * Get the output of a READ operation from a failed multi-get request
+    *
+    * @param operBatch OperationIF output of the multi-get request
+    * @return OperationIF output
+    */
+   private OperationIF getBatchError(final OperationIF operBatch) {
+      RestOperation operOutput = new RestOperation(OperationIF.TYPE.READ);
+
+      if (operBatch instanceof RestOperation) {
+         operOutput.setResponse(((RestOperation) operBatch).getHttpStatus(),
+            ((RestOperation) operBatch).getHttpReason());
+      }
+
+      operOutput.setError(true);
+      operOutput.setState(operBatch.getState());
+      operOutput.setStatus("Multi-get failed: " + operBatch.getStatus());
+      operOutput.setJSON(new JSONObject());
+
+      return operOutput;
+   }
+
+   /**
+    * Send a GET request for each READ operation, in parallel
+    *
+    * @param inputs List of OperationIF READ operations
+    * @return List of OperationIF outputs, in the same order
+    */
+   private List<OperationIF> readParallel(final List<OperationIF> inputs) {
+      List<OperationIF> outputs = new ArrayList<>(inputs.size());
+      List<CompletableFuture<OperationIF>> futures = new ArrayList<>(inputs.size());
+
+      for (int i = 1; i < inputs.size(); i++) {
+         final OperationIF input = inputs.get(i);
+
+         futures.add(CompletableFuture.supplyAsync(() -> this.submitRequest(input),
+            this.getExecutor()));
+      }
+
+      outputs.add(this.submitRequest(inputs.get(0))); // on this thread
+
+      for (CompletableFuture<OperationIF> future : futures) {
+         outputs.add(future.join());
+      }
+
+      return outputs;
+   }
+
+   /**
+    * Process HTTP Request
+    *
+    * <pre>
+    * JSON input:
+    * {
+    *   "uid": "...", // optional for: READ, REPLACE, DELETE
+    *   "data | form": { // required for: CREATE, REPLACE
+    *      "attr": "value",
+    *      ...
+    *   },
+    *   "cookies": {
+    *     "name": "value"
+    *   },
+    *   "headers": {
+    *     "Content-Type": "application/json",
+    *     "name": "value",
+    *     ...
+    *   },
+    *   "queryParams": {
+    *     "name1": "value1",
+    *     "nameX": "valueX"
+    *   },
+    *   "path": ".../...", // appended to base target (static base target only)
+    *   "uri": "protocol://host:port/..." // (dynamic full target only)
+    * }
+    * </pre>
+    *
+    * @param operInput OperationIF input
+    * @return OperationIF output
+    */
+   OperationIF submitRequest(final OperationIF operInput) {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      OperationIF operOutput = null;
+      JSONObject jsonInput = null;
+      Endpoint endpoint = null;
+
+      _logger.entering(CLASS, METHOD);
+
+      jsonInput = operInput.getJSON();
+
+      if (_logger.isLoggable(DEBUG_LEVEL)) {
+         _logger.log(DEBUG_LEVEL, "json=''{0}''",
+            new Object[]{jsonInput != null ? jsonInput : NULL});
+      }
+
+      endpoint = this.getEndpoint(operInput);
+
+      if (endpoint != null) {
+         operOutput = this.submitRequest(operInput, endpoint);
+      } else {
+         operOutput = this.submitRequest(operInput, this.getTarget(jsonInput, _target));
+      }
+
+      if (_router != null) {
+         _router.recordWrite(operInput, operOutput);
+      }
+
+      if (_caches != null) {
+         _caches.invalidate(operInput);
+      }
+
+      _logger.exiting(CLASS, METHOD);
+
+      return operOutput;
+   }
+
+   /**
+    * Process HTTP Request, using a load balanced, shard or replica endpoint. The
+    * latency and the result of the request are recorded for the endpoint.
+    *
+    * @param operInput OperationIF input
+    * @param endpoint Endpoint selected endpoint
+    * @return OperationIF output
+    */
+   private OperationIF submitRequest(final OperationIF operInput, final Endpoint endpoint) {
+      return this.submitRequest(operInput, endpoint, null);
+   }
+
+   /**
+    * Process HTTP Request, using an endpoint and a prepared operation
+    *
+    * @param operInput OperationIF input
+    * @param endpoint Endpoint selected endpoint
+    * @param prepared PreparedOperation prepared operation, may be null
+    * @return OperationIF output
+    */
+   private OperationIF submitRequest(final OperationIF operInput, final Endpoint endpoint,
+      final PreparedOperation prepared) {
+      WebTarget target = this.getTarget(operInput.getJSON(), endpoint.getTarget());
+
+      return prepared != null ? prepared.send(operInput, target, endpoint)
+         : this.submitRequest(operInput, target, endpoint);
+   }
+
+   /**
+    * Get the endpoint for the operation, selected by the router
+    *
+    * @param operInput OperationIF operation input
+    * @return Endpoint endpoint, null if there is a single base target or
+    * dynamic URIs are used
+    */
+   private Endpoint getEndpoint(final OperationIF operInput) {
+      return _router != null ? _router.select(operInput) : null;
+   }
+
+   /**
+    * Get the key of a document for a base target: "path/uid"
+    *
+    * @param jsonInput JSONObject operation input, for the "path"
+    * @param uid String document uid
+    * @return String key, null if the uid is empty
+    */
+   static String getDocumentKey(final JSONObject jsonInput, final String uid) {
+      return STR.isEmpty(uid) ? null
+         : JSON.getString(jsonInput, ConstantsIF.PATH) + "/" + uid;
+   }
+
+   /**
+    * Send a READ / SEARCH that is not in the caches: a READ is added to a
+    * multi-get batch if it can be batched
+    *
+    * @param operInput OperationIF READ or SEARCH input
+    * @return OperationIF output
+    */
+   OperationIF submitRead(final OperationIF operInput) {
+      String batchKey = null;
+      OperationIF operOutput = null;
+
+      if (_readBatcher != null && (batchKey = this.getBatchKey(operInput)) != null) {
+         operOutput = _readBatcher.read(batchKey, operInput);
+      } else {
+         operOutput = this.submitRequest(operInput);
+      }
+
+      return operOutput;
+   }
+
+   /**
+    * Get the "target" for the JSON input, using the base target of an
+    * endpoint
+    *
+    * @param jsonInput JSONObject operation input
+    * @param base WebTarget base target, null for dynamic URI operations
+    * @return WebTarget target
+    */
+   WebTarget getTarget(final JSONObject jsonInput, final WebTarget base) {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      String uid = null;
+      String path = null;
+      String name = null;
+      String value = null;
+      String uri = null;
+      JSONObject jsonQueryParams = null;
+      FieldProjection fields = null;
+      WebTarget target = null;
+
+      _logger.entering(CLASS, METHOD);
+
+      /*
+       * Set the "target"
+       * If flag "_haveBaseTarget" is true ...
+       *    _target exists with a base URI, process path options
+       * Else ...
+       *    _target will be null, need to create a target with "uri"
+       */
+      if (_haveBaseTarget) {
+         /*
+          * Get "path" - if "path" exists, append to target
+          * Get "uid" - if "uid" exists, append to target
+          */
+         if (jsonInput.containsKey(ConstantsIF.UID)) {
+            uid = JSON.getString(jsonInput, ConstantsIF.UID);
+         }
+
+         if (jsonInput.containsKey(ConstantsIF.PATH)) {
+            path = JSON.getString(jsonInput, ConstantsIF.PATH);
+         }
+
+         if (path != null) {
+            if (uid != null) {
+               target = base.path(path).path(uid);
+            } else {
+               target = base.path(path);
+            }
+         } else if (uid != null) {
+            target = base.path(uid);
+         } else {
+            target = base;
+         }
+      } else {
+         uri = JSON.getString(jsonInput, ConstantsIF.URI);
+
+         target = this.getTarget(uri);
+      }
+
+      /*
+       * Get the Query Parameters, add to the "target"
+       */
+      if (jsonInput.containsKey(ConstantsIF.QUERY_PARAMS)) {
+         jsonQueryParams = JSON.getObject(jsonInput, ConstantsIF.QUERY_PARAMS);
+
+         if (jsonQueryParams != null && !jsonQueryParams.isEmpty()) {
+            for (Object o : jsonQueryParams.keySet()) {
+               if (o != null && o instanceof String && !STR.isEmpty((String) o)) {
+                  name = (String) o;
+                  value = JSON.getString(jsonQueryParams, name);
+
+                  if (!STR.isEmpty(value)) {
+                     target = target.queryParam(name, value);
+                  }
+               }
+            }
+         }
+      }
+
+      if (_fieldsParam != null && jsonInput.containsKey(ATTR_FIELDS)) {
+         fields = this.getFields(jsonInput, false);
+
+         if (fields != null) {
+            target = target.queryParam(_fieldsParam, fields.getPaths());
+         }
+      }
+
+      _logger.exiting(CLASS, METHOD);
+
+      return target;
+   }
+
+   /**
+    * Process HTTP Request, using the provided "target"
+    *
+    * @param operInput OperationIF input
+    * @param target WebTarget request target, includes query parameters
+    * @return OperationIF output
+    */
+   OperationIF submitRequest(final OperationIF operInput, final WebTarget target) {
+      return this.submitRequest(operInput, target, null);
+   }
+
+   /**
+    * Process HTTP Request, using the provided "target" of an endpoint (a page
+    * of a SEARCH). The latency and the result of the request are recorded for
+    * the endpoint.
+    *
+    * @param operInput OperationIF input
+    * @param target WebTarget request target, includes query parameters
+    * @param endpoint Endpoint endpoint of the target, null if there is a
+    * single base target or dynamic URIs are used
+    * @return OperationIF output
+    */
+   OperationIF submitRequest(final OperationIF operInput, final WebTarget target,
+      final Endpoint endpoint) {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      String name = null;
+      String value = null;
+      OperationIF operOutput = null;
+      Builder builder = null;
+      JSONObject jsonInput = null;
+      JSONObject jsonHeaders = null;
+      JSONObject jsonCookies = null;
+      MediaType acceptType = null;
+      MediaType contentType = null;
+      MultivaluedMap<String, Object> headers = null;
+      List<Cookie> cookies = null;
+
+      _logger.entering(CLASS, METHOD);
+
+      jsonInput = operInput.getJSON();
+
+      /*
+       * Get the "cookies" from the JSON input add to the cookie list
+       */
+      if (jsonInput.containsKey(ConstantsIF.COOKIES)) {
+         cookies = new LinkedList<>();
+
+         jsonCookies = JSON.getObject(jsonInput, ConstantsIF.COOKIES);
+
+         if (jsonCookies != null && !jsonCookies.isEmpty()) {
+            for (Object o : jsonCookies.keySet()) {
+               if (o != null && o instanceof String && !STR.isEmpty((String) o)) {
+                  name = (String) o;
+                  value = JSON.getString(jsonCookies, name);
+
+                  if (!STR.isEmpty(value)) {
+                     cookies.add(new Cookie(name, value));
+                  }
+               }
+            }
+         }
+      }
+
+      // Get the "headers" from the JSON input
+      // - if "accept", set accept Type
+      // - if "content-type", set content Type
+      // - else add to header map
+      if (jsonInput.containsKey(ConstantsIF.HEADERS)) {
+         headers = new MultivaluedHashMap<String, Object>();
+
+         jsonHeaders = JSON.getObject(jsonInput, ConstantsIF.HEADERS);
+
+         if (jsonHeaders != null && !jsonHeaders.isEmpty()) {
+            for (Object o : jsonHeaders.keySet()) {
+               if (o != null && o instanceof String && !STR.isEmpty((String) o)) {
+                  name = (String) o;
+                  value = JSON.getString(jsonHeaders, name);
+
+                  if (!STR.isEmpty(value)) {
+                     switch (name) {
+                        case ConstantsIF.HDR_ACCEPT: {
+                           acceptType = getMediaType(value, true);
+                           break;
+                        }
+                        case ConstantsIF.HDR_CONTENT_TYPE: {
+                           contentType = getMediaType(value, false);
+                           break;
+                        }
+                        default: {
+                           headers.add(name, value);
+                           break;
+                        }
+                     }
+                  }
+               }
+            }
+         }
+      }
+
+      /*
+       * Create the Request "builder", set the Headers and the Cookies. Without
+       * an "accept" header, the default types are accepted, see
+       * getAcceptTypes(). Without a "content-type", the body type is
+       * negotiated by send().
+       */
+      builder = acceptType == null ? target.request(this.getAcceptTypes()) : target.request(acceptType);
+
+      if (cookies != null && !cookies.isEmpty()) {
+         for (Cookie c : cookies) {
+            builder = builder.cookie(c);
+         }
+      }
+
+      if (headers != null && !headers.isEmpty()) {
+         for (String key : headers.keySet()) {
+            if (!STR.isEmpty(key)) {
+               builder = builder.header(key, headers.getFirst(key));
+            }
+         }
+      }
+
+      operOutput = this.send(operInput, target.getUri(), builder, contentType, endpoint);
+
+      _logger.exiting(CLASS, METHOD);
+
+      return operOutput;
+   }
+
+   /**
+    * Send the HTTP Request, within the bulkheads of the operation type and
+    * the tenant. A request over a limit is not sent. The latency and the
+    * result of the request are recorded for the endpoint, from the time the
+    * bulkhead permit is acquired.
+    *
+    * @param operInput OperationIF input
+    * @param uri URI request URI, with the query parameters
+    * @param request Builder request builder, with the headers and cookies
+    * @param contentType MediaType content type of the body, null to negotiate
+    * @param endpoint Endpoint endpoint of the request, may be null
+    * @return OperationIF output
+    */
+   OperationIF send(final OperationIF operInput, final URI uri, final Builder request,
+      final MediaType contentType, final Endpoint endpoint) {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      String rejected = null;
+      String tenant = null;
+      OperationIF operOutput = null;
+
+      _logger.entering(CLASS, METHOD);
+
+      if (_bulkhead == null) {
+         operOutput = this.exchange(operInput, uri, request, contentType, endpoint);
+      } else {
+         tenant = JSON.getString(operInput.getJSON(), ATTR_TENANT);
+         rejected = _bulkhead.acquire(operInput.getType(), tenant);
+
+         if (rejected == null) {
+            try {
+               operOutput = this.exchange(operInput, uri, request, contentType, endpoint);
+            } finally {
+               _bulkhead.release(operInput.getType(), tenant);
+            }
+         } else {
+            operOutput = new Operation(operInput.getType());
+            operOutput.setError(true);
+            operOutput.setState(STATE.ERROR);
+            operOutput.setStatus(STATUS_BULKHEAD_FULL + ": " + rejected);
+            operOutput.setJSON(new JSONObject());
+
+            _logger.log(Level.FINE, "{0}: {1}", new Object[]{METHOD, operOutput.getStatus()});
+         }
+      }
+
+      _logger.exiting(CLASS, METHOD);
+
+      return operOutput;
+   }
+
+   /**
+    * Exchange the HTTP Request and Response, the latency and the result of
+    * the request are recorded for the endpoint
+    *
+    * @param operInput OperationIF input
+    * @param uri URI request URI, with the query parameters
+    * @param request Builder request builder, with the headers and cookies
+    * @param contentType MediaType content type of the body, null to negotiate
+    * @param endpoint Endpoint endpoint of the request, may be null
+    * @return OperationIF output
+    */
+   private OperationIF exchange(final OperationIF operInput, final URI uri, final Builder request,
+      final MediaType contentType, final Endpoint endpoint) {
+      long start = 0L;
+      OperationIF operOutput = null;
+
+      if (endpoint == null) {
+         operOutput = this.exchange(operInput, uri, request, contentType);
+      } else {
+         start = endpoint.start();
+
+         try {
+            operOutput = this.exchange(operInput, uri, request, contentType);
+         } finally {
+            _router.finish(endpoint, start, operOutput);
+         }
+      }
+
+      return operOutput;
+   }
+
+   /**
+    * Exchange the HTTP Request and Response, the method is based on the
+    * operation type. The body of a CREATE / REPLACE is the "data" or the
+    * "form" of the input. A multi-get READ (ReadBatcher.MultiGet) is a POST
+    * of the "data".
+    *
+    * A negotiated "data" body is sent as CBOR when the server returned CBOR
+    * ("binaryFormat"), a 415 response disables CBOR bodies and the request is
+    * sent again as JSON. A REPLACE with the "previous" data is sent as a
+    * PATCH ("updateMode"), a rejected PATCH is sent again as a PUT.
+    *
+    * Redirects are followed ("followRedirects"): the request is sent again,
+    * to the location, see RedirectCache.
+    *
+    * @param operInput OperationIF input
+    * @param uri URI request URI, with the query parameters
+    * @param request Builder request builder, with the headers and cookies
+    * @param contentType MediaType content type of the body, null to negotiate
+    * @return OperationIF output
+    */
+   private OperationIF exchange(final OperationIF operInput, final URI uri, final Builder request,
+      final MediaType contentType) {
+      boolean retry = false;
+      boolean permanent = true;
+      int hops = 0;
+      int status = 0;
+      boolean patched = false;
+      boolean unchanged = false;
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      String msg = null;
+      String traceparent = null;
+      String tracestate = null;
+      OperationIF operOutput = null;
+      Response response = null;
+      JSONObject jsonInput = null;
+      JSONObject jsonData = null;
+      Object patch = null;
+      Form form = null;
+      Builder builder = request;
+      RequestTimer timer = null;
+      MediaType bodyType = null;
+      URI current = uri;
+      URI location = null;
+      URI cached = null;
+      URI next = null;
+      OperationIF.TYPE oper = null;
+
+      _logger.entering(CLASS, METHOD);
+
+      oper = operInput.getType();
+
+      if (_redirects != null) {
+         location = _redirects.get(uri);
+
+         if (location != null) {
+            cached = uri;
+            current = location;
+            builder = builder.property(RedirectCache.PROPERTY, location);
+         }
+      }
+
+      jsonInput = operInput.getJSON();
+
+      if (_timings || _slowRequests != null || _recorder != null) {
+         timer = new RequestTimer();
+         builder = builder.property(RequestTimer.PROPERTY, timer);
+      }
+
+      /*
+       * Trace context: child of the caller "traceparent", or a new trace
+       */
+      traceparent = JSON.getString(jsonInput, ATTR_TRACE_PARENT);
+
+      if (!STR.isEmpty(traceparent)) {
+         traceparent = TraceContext.child(traceparent);
+         tracestate = traceparent == null ? null : JSON.getString(jsonInput, ATTR_TRACE_STATE);
+      }
+
+      if (traceparent == null && _traceGenerate) {
+         traceparent = TraceContext.generate();
+      }
+
+      if (traceparent != null) {
+         builder = builder.header(TraceContext.HDR_TRACE_PARENT, traceparent);
+
+         if (!STR.isEmpty(tracestate)) {
+            builder = builder.header(TraceContext.HDR_TRACE_STATE, tracestate);
+         }
+      }
+
+      /*
+       * execute "builder", based on operation type
+       */
+      do {
+         if (retry && timer != null) {
+            timer.restart(); // phases of this attempt
+         }
+
+         bodyType = contentType == null ? this.getBodyType() : contentType;
+         retry = false;
+         patched = false;
+
+         switch (oper) {
+            case CREATE: {
+               if (isDocumentType(bodyType)) {
+                  jsonData = JSON.getObject(jsonInput, ConstantsIF.DATA);
+
+                  if (jsonData != null) {
+                     response = builder.post(this.getEntity(jsonData, bodyType));
+                  } else {
+                     msg = oper.toString() + ": JSON input does not contain a 'data' object";
+                  }
+               } else if (bodyType == MediaType.APPLICATION_FORM_URLENCODED_TYPE) {
+                  if (jsonInput.containsKey(ConstantsIF.FORM)) {
+                     form = this.getForm(jsonInput);
+
+                     if (form != null) {
+                        response = builder.post(Entity.entity(form, bodyType));
+                     } else {
+                        msg = oper.toString() + ": URL encoded form is null";
+                     }
+                  } else {
+                     msg = oper.toString() + ": JSON input does not contain a 'form' object";
+                  }
+               } else {
+                  msg = oper.toString() + ": Undefined MediaType";
+               }
+               break;
+            }
+            case SEARCH:
+            case READ: {
+               if (operInput instanceof ReadBatcher.MultiGet) {
+                  response = builder.post(this.getEntity(JSON.getObject(jsonInput,
+                     ConstantsIF.DATA), isDocumentType(bodyType) ? bodyType
+                     : MediaType.APPLICATION_JSON_TYPE));
+               } else {
+                  response = builder.get();
+               }
+               break;
+            }
+            case REPLACE: {
+               if (isDocumentType(bodyType)) {
+                  if (jsonInput.containsKey(ConstantsIF.DATA)) {
+                     jsonData = JSON.getObject(jsonInput, ConstantsIF.DATA);
+
+                     if (jsonData != null && !jsonData.isEmpty() && this.isPatch(jsonInput)) {
+                        patch = this.getPatch((JSONObject) jsonInput.get(ATTR_PREVIOUS), jsonData);
+
+                        if (patch == null) {
+                           unchanged = true;
+                        } else {
+                           patched = true;
+                           response = this.patch(builder, patch);
+                           retry = response == null; // the connector can not send a PATCH
+                        }
+                     } else if (jsonData != null && !jsonData.isEmpty()) {
+                        response = builder.put(this.getEntity(jsonData, bodyType));
+                     } else {
+                        msg = oper.toString() + ": JSON 'data' is null or empty";
+                     }
+                  } else {
+                     msg = oper.toString() + ": JSON input does not contain a 'data' object";
+                  }
+               } else if (bodyType == MediaType.APPLICATION_FORM_URLENCODED_TYPE) {
+                  if (jsonInput.containsKey(ConstantsIF.FORM)) {
+                     form = this.getForm(jsonInput);
+
+                     if (form != null) {
+                        response = builder.put(Entity.entity(form, bodyType));
+                     } else {
+                        msg = oper.toString() + ": URL encoded form is null";
+                     }
+                  } else {
+                     msg = oper.toString() + ": JSON input does not contain a 'form' object";
+                  }
+               } else {
+                  msg = oper.toString() + ": Undefined MediaType";
+               }
+               break;
+            }
+            case DELETE: {
+               response = builder.delete();
+               break;
+            }
+            default: {
+               msg = "Unsupported operation '" + oper.toString() + "'";
+               break;
+            }
+         }
+
+         if (response != null && response.getStatus() == 415 && contentType == null
+            && bodyType == CborCodec.MEDIA_TYPE && !patched
+            && (oper == OperationIF.TYPE.CREATE || oper == OperationIF.TYPE.REPLACE
+            || operInput instanceof ReadBatcher.MultiGet)) {
+            /*
+             * The CBOR body was rejected, a 415 to a request without a body
+             * is not about CBOR
+             */
+            response.close();
+            response = null;
+            _cborBodies = -1;
+            retry = true;
+
+            _logger.log(Level.INFO, "{0}: CBOR body not supported, using JSON", METHOD);
+         } else if (response != null && patched && (response.getStatus() == 405
+            || response.getStatus() == 415 || response.getStatus() == 501)) {
+            _patchSupported = false;
+            retry = true;
+
+            _logger.log(Level.WARNING, "{0}: PATCH not supported, status {1}, using PUT",
+               new Object[]{METHOD, response.getStatus()});
+
+            response.close();
+            response = null;
+
+            if (_patchOverride) {
+               builder = builder.header(HDR_METHOD_OVERRIDE, null); // removes the header
+            }
+         } else if (response != null && _redirects != null) {
+            status = response.getStatus();
+
+            if (cached != null && (status == 404 || status == 410)) {
+               /*
+                * The cached location is gone, send the request to the URI
+                */
+               _redirects.remove(cached);
+               response.close();
+               response = null;
+               current = cached;
+               cached = null;
+               builder = builder.property(RedirectCache.PROPERTY, current == uri ? null : current);
+               retry = true;
+
+               _logger.log(Level.FINE, "{0}: cached redirect of ''{1}'' is gone, status {2}",
+                  new Object[]{METHOD, current, status});
+            } else if ((status == 307 || status == 308
+               || ((status == 301 || status == 302) && oper != OperationIF.TYPE.CREATE))
+               && response.getLocation() != null && hops < _redirectMaxHops) {
+               location = current.resolve(response.getLocation());
+
+               next = _redirects.get(location);
+
+               if (next != null) {
+                  cached = location; // skip the cached hop
+                  location = next;
+               }
+
+               if (status == 301 || status == 308) {
+                  _redirects.put(current, location);
+
+                  if (permanent) {
+                     _redirects.put(uri, location);
+                  }
+               } else {
+                  permanent = false;
+               }
+
+               _redirects.followed();
+               response.close();
+               response = null;
+               current = location;
+               builder = builder.property(RedirectCache.PROPERTY, location);
+               hops++;
+               retry = true;
+            }
+         }
+      } while (retry);
+
+      if (msg == null && unchanged) {
+         _patchesUnchanged.incrementAndGet();
+
+         operOutput = new Operation(operInput.getType());
+         operOutput.setState(STATE.SUCCESS);
+         operOutput.setStatus(STATUS_NO_CHANGES + ", the document was not sent");
+         operOutput.setJSON(new JSONObject());
+      } else if (msg == null) {
+         operOutput = this.getOperationFromResponse(response, operInput, current, timer);
+      } else {
+         operOutput = new Operation(operInput.getType());
+         operOutput.setError(true);
+         operOutput.setState(STATE.FAILED);
+         operOutput.setStatus(msg);
+         operOutput.setJSON(new JSONObject());
+      }
+
+      if (_slowRequests != null) {
+         _slowRequests.record(operInput, operOutput, timer);
+      }
+
+      if (operOutput instanceof RestOperation) {
+         if (_timings) {
+            ((RestOperation) operOutput).setTimings(timer.toJSON());
+         }
+
+         ((RestOperation) operOutput).setTraceParent(traceparent);
+      }
+
+      _logger.exiting(CLASS, METHOD);
+
+      return operOutput;
+   }
+
+   /**
+    * Get HTTP Form from JSON object
+    *
+    * @param jsonInput JSONObject form data
+    * @return Form HTTP form
+    */
+   private Form getForm(final JSONObject jsonInput) {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      String name = null;
+      String value = null;
+      JSONObject jsonForm = null;
+      Form form = null;
+
+      _logger.entering(CLASS, METHOD);
+
+      jsonForm = JSON.getObject(jsonInput, ConstantsIF.FORM);
+
+      if (jsonForm != null && !jsonForm.isEmpty()) {
+         form = new Form();
+         for (Object o : jsonForm.keySet()) {
+            if (o != null && o instanceof String && !STR.isEmpty((String) o)) {
+               name = (String) o;
+               value = JSON.getString(jsonForm, name);
+               if (!STR.isEmpty(value)) {
+                  form.param(name, value);
+               }
+            }
+         }
+      }
+
+      _logger.exiting(CLASS, METHOD);
+
+      return form;
+   }
+
+   /**
+    * Resolve a relative URI (RFC 3986) against the request URI. A reference
+    * that only has a query keeps the path of the request URI.
+    *
+    * @param base URI request URI
+    * @param reference URI absolute or relative URI
+    * @return URI absolute URI
+    */
+   private static URI resolve(final URI base, final URI reference) {
+      URI uri = null;
+
+      if (reference.isAbsolute() || base == null) {
+         uri = reference;
+      } else if (STR.isEmpty(reference.getRawPath()) && reference.getRawAuthority() == null
+         && reference.getRawQuery() != null) {
+         uri = URI.create(base.getScheme() + "://" + base.getRawAuthority()
+            + base.getRawPath() + "?" + reference.getRawQuery());
+      } else {
+         uri = base.resolve(reference);
+      }
+
+      return uri;
+   }
+
+   /**
+    * Get Operation object from HTTP Response
+    *
+    * @param response Response object
+    * @param operInput OperationIF input
+    * @param uri URI request URI, the location if the request was redirected
+    * @param timer RequestTimer request timer, may be null
+    * @return OperationIF output
+    */
+   private OperationIF getOperationFromResponse(final Response response, final OperationIF operInput,
+      final URI uri, final RequestTimer timer) {
+      boolean error = false;
+      boolean tooLarge = false;
+      boolean cbor = false;
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      String uriRequest = null;
+      String uriCreated = null;
+      String entity = null;
+      String value = null;
+      String parseError = null;
+      RestOperation operOutput = null;
+      JSONObject jsonInput = null;
+      JSONObject jsonOutput = null;
+      JSONObject jsonHeaders = null;
+      JSONObject jsonEntity = null;
+      FieldProjection fields = null;
+
+      _logger.entering(CLASS, METHOD);
+
+      jsonOutput = new JSONObject();
+
+      if (response == null) {
+         error = true;
+
+         operOutput = new RestOperation(OperationIF.TYPE.NULL);
+         operOutput.setState(STATE.ERROR);
+         operOutput.setStatus(METHOD + ": input response is null");
+
+         _logger.log(Level.SEVERE, "input response is null");
+      } else {
+         if (operInput == null) {
+            error = true;
+
+            operOutput = new RestOperation(OperationIF.TYPE.NULL);
+            operOutput.setError(error);
+            operOutput.setState(STATE.ERROR);
+            operOutput.setStatus(METHOD + ": input operation is null");
+
+            _logger.log(Level.SEVERE, "input operation is null");
+         } else {
+            operOutput = new RestOperation(operInput.getType());
+
+            jsonInput = operInput.getJSON();
+            if (jsonInput != null && !jsonInput.isEmpty()) {
+               uriRequest = JSON.getString(jsonInput, ConstantsIF.URI);
+               fields = this.getFields(jsonInput, operInput.getType() == OperationIF.TYPE.SEARCH);
+            }
+            if (STR.isEmpty(uriRequest)) {
+               uriRequest = NULL;
+            }
+         }
+      }
+
+      if (!error && response != null && operInput != null) {
+         /*
+          * Read the entity into pooled buffers, stop reading if the entity
+          * exceeds the maximum size. Check the Content-Length first, if the
+          * server declares the size, nothing needs to be read.
+          */
+         if (_maxEntitySize > 0 && response.getLength() > _maxEntitySize) {
+            tooLarge = true;
+         } else {
+            try (EntityBuffer buffer = this.readEntity(response)) {
+               if (buffer.isOverflow()) {
+                  tooLarge = true;
+               } else if (CborCodec.isCbor(response.getMediaType()) && buffer.length() > 0) {
+                  cbor = true;
+
+                  try {
+                     jsonEntity = this.toJSONObject(fields == null
+                        ? CborCodec.decode(buffer.getInputStream())
+                        : fields.apply(CborCodec.decode(buffer.getInputStream())));
+                  } catch (Exception ex) {
+                     parseError = ex.getMessage();
+                  }
+
+                  if (_cborBodies == 0) {
+                     _cborBodies = 1;
+                  }
+
+                  /*
+                   * the JSON text is only needed for the status of an error
+                   * and for the recording
+                   */
+                  if (jsonEntity != null && (response.getStatus() >= 300 || _recorder != null)) {
+                     entity = this.toJSONString(jsonEntity);
+                  }
+               } else {
+                  entity = buffer.toString(this.getCharset(response));
+               }
+
+               if (timer != null) {
+                  timer.read();
+               }
+            } catch (IOException ex) {
+               error = true;
+               operOutput.setError(error);
+               operOutput.setState(STATE.ERROR);
+               operOutput.setStatus("Could not read response entity: "
+                  + ex.getMessage());
+            }
+         }
+
+         if (tooLarge) {
+            response.close();
+
+            operOutput.setResponse(response.getStatus(),
+               response.getStatusInfo().getReasonPhrase());
+            operOutput.setError(true);
+            operOutput.setState(STATE.FAILED);
+            operOutput.setStatus(STATUS_ENTITY_TOO_LARGE + ": "
+               + response.getStatus() + ", exceeds maximum size of "
+               + EntityBuffer.getLimit(_maxEntitySize) + " bytes");
+
+            _logger.log(Level.WARNING, "{0}: {1}, maximum size={2}",
+               new Object[]{STATUS_ENTITY_TOO_LARGE, response.getStatus(),
+                  Long.toString(EntityBuffer.getLimit(_maxEntitySize))});
+         }
+      }
+
+      if (!error && !tooLarge && response != null && operInput != null) {
+         if (cbor) {
+            if (jsonEntity != null) {
+               jsonOutput = jsonEntity;
+            }
+         } else if (!STR.isEmpty(entity)) {
+            try {
+               jsonEntity = this.parseEntity(entity, fields);
+               jsonOutput = jsonEntity;
+            } catch (Exception ex) {
+               jsonEntity = null;
+               parseError = ex.getMessage();
+            }
+         }
+
+         operOutput.setResponse(response.getStatus(),
+            response.getStatusInfo().getReasonPhrase());
+
+         if (_caches != null && _caches.hasValidators()) {
+            operOutput.setValidators(response.getHeaderString(HttpHeaders.ETAG),
+               response.getHeaderString(HttpHeaders.LAST_MODIFIED));
+         }
+
+         if (_search.getMode() == SearchPages.MODE.LINK
+            && operInput.getType() == OperationIF.TYPE.SEARCH
+            && response.getLink("next") != null) {
+            operOutput.setNextLink(resolve(uri, response.getLink("next").getUri()).toString());
+         }
+
+         switch (operInput.getType()) {
+            case CREATE: // HTTP POST
+            {
+               switch (response.getStatus()) {
+                  case 200: // OK
+                  case 201: // CREATED
+                  {
+                     operOutput.setState(STATE.SUCCESS);
+                     operOutput.setResponseStatus("Response: ", entity, _statusMaxChars);
+
+                     try {
+                        uriCreated = this.getURIFromResponse(response);
+                     } catch (Exception ex) {
+                        error = true;
+                        operOutput.setError(error);
+                        operOutput.setState(STATE.ERROR);
+                        operOutput.setStatus("Could not get URI from Response: "
+                           + ex.getMessage());
+                     }
+
+                     if (!STR.isEmpty(uriCreated)) {
+                        jsonOutput.put(ConstantsIF.URI, uriCreated);
+                     }
+                     break;
+                  }
+                  case 302: // FOUND (REDIRECT)
+                  {
+                     jsonHeaders = new JSONObject();
+
+                     for (String s : response.getHeaders().keySet()) {
+                        if (!STR.isEmpty(s)) {
+                           value = response.getHeaderString(s);
+                           if (!STR.isEmpty(value)) {
+                              jsonHeaders.put(s, value);
+                           }
+                        }
+                     }
+
+                     jsonOutput.put(ConstantsIF.HEADERS, jsonHeaders);
+
+                     operOutput.setState(STATE.WARNING);
+                     operOutput.setResponseStatus("Redirect: ", entity, _statusMaxChars);
+                     break;
+                  }
+                  case 400: // BAD REQUEST
+                  {
+                     error = true;
+                     operOutput.setError(error);
+                     operOutput.setState(STATE.FAILED);
+                     operOutput.setResponseStatus("BAD REQUEST: ", entity, _statusMaxChars);
+                     break;
+                  }
+                  case 401: // UNAUTHORIZED
+                  {
+                     error = true;
+                     operOutput.setError(error);
+                     operOutput.setState(STATE.NOTAUTHORIZED);
+                     operOutput.setResponseStatus("UNAUTHORIZED: ", entity, _statusMaxChars);
+                     break;
+                  }
+                  case 403: // FORBIDDEN
+                  {
+                     error = true;
+                     operOutput.setError(error);
+                     operOutput.setState(STATE.FAILED);
+                     operOutput.setResponseStatus("FORBIDDEN: ", entity, _statusMaxChars);
+                     break;
+                  }
+                  case 404: // NOT FOUND
+                  {
+                     error = true;
+                     operOutput.setError(error);
+                     operOutput.setState(STATE.NOTEXIST);
+                     operOutput.setResponseStatus("NOT FOUND: ", entity, _statusMaxChars);
+                     break;
+                  }
+                  default: {
+                     error = true;
+                     operOutput.setError(error);
+                     operOutput.setState(STATE.ERROR);
+                     operOutput.setResponseStatus("Default: ", entity, _statusMaxChars);
+                     break;
+                  }
+               }
+
+               break;
+            }
+            case READ: // HTTP GET
+            case SEARCH: // HTTP GET
+            {
+               if (parseError != null) {
+                  error = true;
+                  operOutput.setError(error);
+                  operOutput.setState(STATE.WARNING);
+                  operOutput.setStatus("Could not parse response: " + parseError);
+               }
+               if (!error) {
+                  switch (response.getStatus()) {
+                     case 200: // OK
+                     {
+                        operOutput.setError(false);
+                        operOutput.setState(STATE.SUCCESS);
+                        operOutput.setStatus("Found document");
+                        break;
+                     }
+                     case 302: // FOUND (REDIRECT)
+                     {
+                        jsonHeaders = new JSONObject();
+
+                        for (String s : response.getHeaders().keySet()) {
+                           if (!STR.isEmpty(s)) {
+                              value = response.getHeaderString(s);
+                              if (!STR.isEmpty(value)) {
+                                 jsonHeaders.put(s, value);
+                              }
+                           }
+                        }
+
+                        jsonOutput.put(ConstantsIF.HEADERS, jsonHeaders);
+
+                        operOutput.setState(STATE.WARNING);
+                        operOutput.setResponseStatus("Redirect: ", entity, _statusMaxChars);
+                        break;
+                     }
+                     case 400: // BAD REQUEST
                      {
                         error = true;
                         operOutput.setError(error);
                         operOutput.setState(STATE.FAILED);
-                        operOutput.setStatus("BAD REQUEST: "
-                           + bldrStatus.toString());
+                        operOutput.setResponseStatus("BAD REQUEST: ", entity, _statusMaxChars);
                         break;
                      }
                      case 401: // UNAUTHORIZED
@@ -834,8 +2841,7 @@ public class RestDataAccess extends DataAccess {
                         error = true;
                         operOutput.setError(error);
                         operOutput.setState(STATE.NOTAUTHORIZED);
-                        operOutput.setStatus("UNAUTHORIZED: "
-                           + bldrStatus.toString());
+                        operOutput.setResponseStatus("UNAUTHORIZED: ", entity, _statusMaxChars);
                         break;
                      }
                      case 403: // FORBIDDEN
@@ -843,8 +2849,7 @@ public class RestDataAccess extends DataAccess {
                         error = true;
                         operOutput.setError(error);
                         operOutput.setState(STATE.FAILED);
-                        operOutput.setStatus("FORBIDDEN: "
-                           + bldrStatus.toString());
+                        operOutput.setResponseStatus("FORBIDDEN: ", entity, _statusMaxChars);
                         break;
                      }
                      case 404: // NOT FOUND
@@ -852,274 +2857,974 @@ public class RestDataAccess extends DataAccess {
                         error = true;
                         operOutput.setError(error);
                         operOutput.setState(STATE.NOTEXIST);
-                        operOutput.setStatus("NOT FOUND: "
-                           + bldrStatus.toString());
+                        operOutput.setResponseStatus("NOT FOUND: ", entity, _statusMaxChars);
                         break;
                      }
-                     default: {
-                        error = true;
-                        operOutput.setError(error);
-                        operOutput.setState(STATE.ERROR);
-                        operOutput.setStatus("Default Response: "
-                           + bldrStatus.toString());
-                        break;
+                     default: {
+                        error = true;
+                        operOutput.setError(error);
+                        operOutput.setState(STATE.ERROR);
+                        operOutput.setResponseStatus("Default Response: ", entity, _statusMaxChars);
+                        break;
+                     }
+                  }
+               }
+               break;
+            }
+            case REPLACE: // HTTP PUT
+            {
+               switch (response.getStatus()) {
+                  case 200: // OK
+                  {
+                     operOutput.setState(STATE.SUCCESS);
+                     operOutput.setStatus("Replaced document");
+                     break;
+                  }
+                  case 201: // CREATED
+                  {
+                     try {
+                        uriCreated = this.getURIFromResponse(response);
+                     } catch (Exception ex) {
+                        error = true;
+                        operOutput.setError(error);
+                        operOutput.setState(STATE.ERROR);
+                        operOutput.setStatus("Could not get Uid from Response: "
+                           + ex.getMessage());
+                     }
+
+                     if (!STR.isEmpty(uriCreated)) {
+                        jsonOutput.put(ConstantsIF.URI, uriCreated);
+                        operOutput.setState(STATE.SUCCESS);
+                        operOutput.setStatus("Created document");
+                     }
+                     break;
+                  }
+                  case 204: // NO CONTENT
+                  {
+                     operOutput.setState(STATE.SUCCESS);
+                     operOutput.setStatus("Replaced document");
+                     break;
+                  }
+                  case 302: // FOUND (REDIRECT)
+                  {
+                     jsonHeaders = new JSONObject();
+
+                     for (String s : response.getHeaders().keySet()) {
+                        if (!STR.isEmpty(s)) {
+                           value = response.getHeaderString(s);
+                           if (!STR.isEmpty(value)) {
+                              jsonHeaders.put(s, value);
+                           }
+                        }
+                     }
+
+                     jsonOutput.put(ConstantsIF.HEADERS, jsonHeaders);
+
+                     operOutput.setState(STATE.WARNING);
+                     operOutput.setResponseStatus("Redirect: ", entity, _statusMaxChars);
+                     break;
+                  }
+                  case 400: // BAD REQUEST
+                  {
+                     error = true;
+                     operOutput.setError(error);
+                     operOutput.setState(STATE.FAILED);
+                     operOutput.setResponseStatus("BAD REQUEST: ", entity, _statusMaxChars);
+                     break;
+                  }
+                  case 401: // UNAUTHORIZED
+                  {
+                     error = true;
+                     operOutput.setError(error);
+                     operOutput.setState(STATE.NOTAUTHORIZED);
+                     operOutput.setResponseStatus("UNAUTHORIZED: ", entity, _statusMaxChars);
+                     break;
+                  }
+                  case 403: // FORBIDDEN
+                  {
+                     error = true;
+                     operOutput.setError(error);
+                     operOutput.setState(STATE.FAILED);
+                     operOutput.setResponseStatus("FORBIDDEN: ", entity, _statusMaxChars);
+                     break;
+                  }
+                  case 404: // NOT FOUND
+                  {
+                     error = true;
+                     operOutput.setError(error);
+                     operOutput.setState(STATE.NOTEXIST);
+                     operOutput.setResponseStatus("NOT FOUND: ", entity, _statusMaxChars);
+                     break;
+                  }
+                  default: {
+                     error = true;
+                     operOutput.setError(error);
+                     operOutput.setState(STATE.ERROR);
+                     operOutput.setResponseStatus("Default Response: ", entity, _statusMaxChars);
+                     break;
+                  }
+               }
+               break;
+            }
+            case DELETE: // HTTP DELETE
+            {
+               switch (response.getStatus()) {
+                  case 200: // OK
+                  case 204: // NO CONTENT
+                  {
+                     operOutput.setError(false);
+                     operOutput.setState(STATE.SUCCESS);
+                     operOutput.setStatus("Deleted document");
+                     break;
+                  }
+                  case 302: // FOUND (REDIRECT)
+                  {
+                     jsonHeaders = new JSONObject();
+
+                     for (String s : response.getHeaders().keySet()) {
+                        if (!STR.isEmpty(s)) {
+                           value = response.getHeaderString(s);
+                           if (!STR.isEmpty(value)) {
+                              jsonHeaders.put(s, value);
+                           }
+                        }
                      }
+
+                     jsonOutput.put(ConstantsIF.HEADERS, jsonHeaders);
+
+                     operOutput.setState(STATE.WARNING);
+                     operOutput.setResponseStatus("Redirect: ", entity, _statusMaxChars);
+                     break;
+                  }
+                  case 400: // BAD REQUEST
+                  {
+                     error = true;
+                     operOutput.setError(error);
+                     operOutput.setState(STATE.FAILED);
+                     operOutput.setResponseStatus("BAD REQUEST: ", entity, _statusMaxChars);
+                     break;
+                  }
+                  case 401: // UNAUTHORIZED
+                  {
+                     error = true;
+                     operOutput.setError(error);
+                     operOutput.setState(STATE.NOTAUTHORIZED);
+                     operOutput.setResponseStatus("UNAUTHORIZED: ", entity, _statusMaxChars);
+                     break;
+                  }
+                  case 403: // FORBIDDEN
+                  {
+                     error = true;
+                     operOutput.setError(error);
+                     operOutput.setState(STATE.FAILED);
+                     operOutput.setResponseStatus("FORBIDDEN: ", entity, _statusMaxChars);
+                     break;
+                  }
+                  case 404: // NOT FOUND
+                  {
+                     error = true;
+                     operOutput.setError(error);
+                     operOutput.setState(STATE.NOTEXIST);
+                     operOutput.setResponseStatus("NOT FOUND: ", entity, _statusMaxChars);
+                     break;
+                  }
+                  default: {
+                     error = true;
+                     operOutput.setError(error);
+                     operOutput.setState(STATE.ERROR);
+                     operOutput.setResponseStatus("Default Response: ", entity, _statusMaxChars);
+                     break;
                   }
                }
                break;
             }
-            case REPLACE: // HTTP PUT
-            {
-               switch (response.getStatus()) {
-                  case 200: // OK
-                  {
-                     operOutput.setState(STATE.SUCCESS);
-                     operOutput.setStatus("Replaced document");
-                     break;
-                  }
-                  case 201: // CREATED
-                  {
-                     try {
-                        uriCreated = this.getURIFromResponse(response);
-                     } catch (Exception ex) {
-                        error = true;
-                        operOutput.setError(error);
-                        operOutput.setState(STATE.ERROR);
-                        operOutput.setStatus("Could not get Uid from Response: "
-                           + ex.getMessage());
-                     }
+            default: {
+               error = true;
+               operOutput.setError(error);
+               operOutput.setState(STATE.FAILED);
+               operOutput.setStatus("Operation type not supported: "
+                  + operInput.getType().toString());
+               break;
+            }
+         }
+
+         if ((response.getStatus() == 400 || response.getStatus() >= 500)
+            && _logger.isLoggable(Level.SEVERE)) {
+            _logger.log(Level.SEVERE, "{0}, {1}, Entity=''{2}''",
+               new Object[]{
+                  operOutput.getHttpStatus(),
+                  operOutput.getHttpReason(),
+                  operOutput.getEntity() == null ? NULL : operOutput.getEntity()});
+         }
+      }
+
+      if (timer != null) {
+         timer.parsed();
+      }
+
+      if (_recorder != null && timer != null && response != null && operInput != null) {
+         _recorder.record(operInput, response, entity, cbor, timer);
+      }
+
+      operOutput.setJSON(jsonOutput);
+
+      if (_logger.isLoggable(DEBUG_LEVEL)) {
+         _logger.log(DEBUG_LEVEL, "output=''{0}'', json=''{1}''",
+            new Object[]{
+               operOutput.toString(),
+               jsonOutput == null ? NULL : jsonOutput.toString()});
+      }
+
+      _logger.exiting(CLASS, METHOD);
+
+      return operOutput;
+   }
+
+   /**
+    * Initialize class instance. Setting redirect to FALSE ClientConfig config =
+    * new ClientConfig();
+    * config.getProperties().put(ClientProperties.FOLLOW_REDIRECTS, true);
+    * com.sun.jersey.api.client.Client client = Client.create(config);
+    * client.setFollowRedirects(true);
+    *
+    * @throws Exception
+    */
+   private void init() throws Exception {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      ClientConfig config = null;
+
+      _logger.entering(CLASS, METHOD);
+
+      try {
+         config = new ClientConfig();
+         config.property(ClientProperties.FOLLOW_REDIRECTS, false);
+         config.register(new RequestTimer.Filter());
+         config.register(new RedirectCache.Filter());
+
+         this.initRecordReplay(config);
+
+         _sharedClient = Boolean.parseBoolean(this.getParamString(PARAM_SHARED_CLIENT, "false"));
+
+         _client = this.getClient(config, null);
+
+         if (!_haveBaseTarget && this.getParamLong(PARAM_TARGET_CACHE_SIZE, 64L) > 0) {
+            final ClientConfig hostConfig = config;
+
+            _targetCache = new TargetCache(_client,
+               this.getParamInt(PARAM_TARGET_CACHE_SIZE, 64),
+               Boolean.parseBoolean(this.getParamString(PARAM_HOST_CLIENTS, "false"))
+               ? host -> this.getClient(hostConfig, host) : null,
+               ClientRegistry.getInstance()::release);
+         }
+
+         _codec = this.getCodec(this.getParamString(PARAM_JSON_CODEC, "simple"));
+         _fieldsParam = this.getParam(PARAM_FIELDS_PARAM);
+
+         try {
+            _updateMode = JsonPatch.MODE.valueOf(this.getParamString(PARAM_UPDATE_MODE,
+               JsonPatch.MODE.PUT.toString()).toUpperCase().replace('-', '_'));
+         } catch (IllegalArgumentException ex) {
+            throw new Exception("Parameter '" + PARAM_UPDATE_MODE
+               + "' is not 'put', 'merge-patch' or 'json-patch': " + this.getParam(PARAM_UPDATE_MODE));
+         }
+
+         _patchOverride = Boolean.parseBoolean(this.getParamString(PARAM_PATCH_OVERRIDE, "false"));
+
+         if (Boolean.parseBoolean(this.getParamString(PARAM_FOLLOW_REDIRECTS, "false"))) {
+            _redirectMaxHops = this.getParamInt(PARAM_REDIRECT_MAX_HOPS, 5);
+            _redirects = new RedirectCache(this.getParamInt(PARAM_REDIRECT_CACHE_SIZE, 256));
+         }
+
+         switch (this.getParamString(PARAM_BINARY_FORMAT, "none").toLowerCase()) {
+            case "none":
+               _binaryFormat = false;
+               break;
+            case "cbor":
+               _binaryFormat = true;
+               break;
+            default:
+               throw new Exception("Parameter '" + PARAM_BINARY_FORMAT
+                  + "' is not 'none' or 'cbor': " + this.getParam(PARAM_BINARY_FORMAT));
+         }
+
+         _timings = Boolean.parseBoolean(this.getParamString(PARAM_TIMINGS, "false"));
+         _traceGenerate = Boolean.parseBoolean(this.getParamString(PARAM_TRACE_GENERATE, "false"));
+         this.initSlowRequests();
+         this.initBulkhead();
+
+         this.initCaches();
+
+         _maxEntitySize = this.getParamLong(PARAM_MAX_ENTITY_SIZE, 0L);
+         _statusMaxChars = this.getParamInt(PARAM_STATUS_MAX_CHARS, 1024);
+         _bufferPool = BufferPool.getInstance(this.getParamInt(PARAM_BUFFER_SIZE,
+            BufferPool.DEFAULT_CHUNK_SIZE));
+
+         if (_haveBaseTarget) {
+            this.initRouter();
+         }
+
+         _search = new PagedSearch(this,
+            SearchPages.MODE.valueOf(this.getParamString(PARAM_PAGE_MODE,
+               SearchPages.MODE.NONE.toString()).toUpperCase()),
+            this.getParamInt(PARAM_PAGE_SIZE, 100),
+            this.getParamString(PARAM_PAGE_OFFSET, "_offset"),
+            this.getParamString(PARAM_PAGE_LIMIT, "_limit"),
+            this.getParamInt(PARAM_PAGE_PREFETCH, 1),
+            this.getParamLong(PARAM_SCATTER_DEADLINE, 0L),
+            Boolean.parseBoolean(this.getParamString(PARAM_SCATTER_PARTIAL, "false")));
+
+         _readBatchMode = ReadBatcher.MODE.valueOf(this.getParamString(PARAM_READ_BATCH,
+            ReadBatcher.MODE.NONE.toString()).toUpperCase());
+         _readBatchParam = this.getParamString(PARAM_READ_BATCH_PARAM, "_ids");
+         _readBatchPath = this.getParamString(PARAM_READ_BATCH_PATH, "_mget");
+         _readBatchKey = this.getParamString(PARAM_READ_BATCH_KEY, ConstantsIF.UID);
+
+         if (_haveBaseTarget && _readBatchMode != ReadBatcher.MODE.NONE) {
+            _readBatcher = new ReadBatcher(
+               this.getParamInt(PARAM_READ_BATCH_SIZE, 50),
+               this.getParamLong(PARAM_READ_BATCH_WINDOW, 2L),
+               this::readBatch, this.getExecutor());
+         }
+
+         if (Boolean.parseBoolean(this.getParamString(PARAM_WRITE_BEHIND, "false"))) {
+            _writeBehind = new WriteBehindQueue(
+               this.getParamInt(PARAM_WRITE_BEHIND_CAPACITY, 10000),
+               this.getParamInt(PARAM_WRITE_BEHIND_THREADS, 4),
+               this.getParamLong(PARAM_WRITE_BEHIND_WINDOW, 50L),
+               this::submitRequest);
+         }
+      } catch (Exception ex) {
+         this.release(); // the next initialize() starts again
+         throw ex;
+      }
+
+      this.setState(STATE.READY);
+      this.setStatus("Initialization complete");
+
+      _logger.exiting(CLASS, METHOD);
+
+      return;
+   }
+
+   /**
+    * Release the resources of a failed initialization: the clients, the
+    * threads, the MBean and the files are closed, the fields are cleared.
+    */
+   private void release() {
+      this.close();
+
+      _writeBehind = null;
+      _readBatcher = null;
+      _router = null;
+      _search = null;
+      _target = null;
+      _targetCache = null;
+      _caches = null;
+      _recorder = null;
+      _replay = null;
+
+      return;
+   }
+
+   /**
+    * Initialize the object, once. Called by the constructor, or on first use
+    * if "lazyInit" is true.
+    *
+    * @throws Exception initialization failed
+    */
+   private void initialize() throws Exception {
+      if (!_initialized) {
+         synchronized (this) {
+            if (!_initialized) {
+               this.init();
+               _initialized = true;
+            }
+         }
+      }
+
+      return;
+   }
+
+   /**
+    * Get the host targets of the static base target: the "hosts", "shards",
+    * primary and "replicas", or the base target
+    *
+    * @return List of WebTarget objects, empty for dynamic URI operations
+    */
+   private List<WebTarget> getWarmUpTargets() {
+      List<WebTarget> targets = new ArrayList<>();
+
+      if (_router != null) {
+         for (Endpoint endpoint : _router.getEndpoints()) {
+            targets.add(endpoint.getTarget());
+         }
+      } else if (_target != null) {
+         targets.add(_target);
+      }
+
+      return targets;
+   }
+
+   /**
+    * Send a warm-up HEAD request, the response is closed and the connection
+    * is kept alive
+    *
+    * @param target WebTarget target
+    * @param timeoutMillis int connect and read timeout
+    * @return boolean true if a HTTP response was received
+    */
+   private boolean warmUp(final WebTarget target, final int timeoutMillis) {
+      boolean opened = false;
+      Response response = null;
+
+      try {
+         response = target.request()
+            .property(ClientProperties.CONNECT_TIMEOUT, timeoutMillis)
+            .property(ClientProperties.READ_TIMEOUT, timeoutMillis)
+            .head();
+         response.close();
+         opened = true;
+      } catch (RuntimeException ex) {
+         _logger.log(Level.FINE, "warmUp: {0}: {1}",
+            new Object[]{target.getUri(), ex.getMessage()});
+      }
+
+      return opened;
+   }
+
+   /**
+    * Initialize the exchange recorder and the replay, the replay filter is
+    * registered with the configuration. A replay client is not shared with
+    * other objects.
+    *
+    * @param config ClientConfig client configuration
+    * @throws Exception could not open the files, or invalid parameters
+    */
+   private void initRecordReplay(final ClientConfig config) throws Exception {
+      String file = null;
+      String timing = null;
+
+      file = this.getParam(PARAM_REPLAY_FILE);
+
+      if (!STR.isEmpty(file)) {
+         timing = this.getParamString(PARAM_REPLAY_TIMING, "fast");
+
+         if (!"fast".equalsIgnoreCase(timing) && !"original".equalsIgnoreCase(timing)) {
+            throw new Exception("Parameter '" + PARAM_REPLAY_TIMING
+               + "' must be 'fast' or 'original': " + timing);
+         }
+
+         try {
+            _replay = new ExchangeReplay(file, "original".equalsIgnoreCase(timing));
+         } catch (IOException ex) {
+            throw new Exception("Could not read '" + PARAM_REPLAY_FILE + "': " + ex.getMessage());
+         }
+
+         config.register(_replay);
+         config.property(ExchangeReplay.PROPERTY, _replay);
+      }
+
+      file = this.getParam(PARAM_RECORD_FILE);
+
+      if (!STR.isEmpty(file)) {
+         try {
+            _recorder = new ExchangeRecorder(file);
+         } catch (IOException ex) {
+            throw new Exception("Could not open '" + PARAM_RECORD_FILE + "': " + ex.getMessage());
+         }
+      }
+
+      return;
+   }
+
+   /**
+    * Initialize the bulkheads, if there are limits of the types or the
+    * tenants
+    *
+    * @throws Exception invalid parameters
+    */
+   private void initBulkhead() throws Exception {
+      int tenantLimit = 0;
+      Map<OperationIF.TYPE, Integer> typeLimits = new HashMap<>();
+      Map<String, Integer> tenantLimits = null;
+
+      for (Map.Entry<String, Integer> entry : this.getLimits(PARAM_BULKHEADS).entrySet()) {
+         try {
+            typeLimits.put(OperationIF.TYPE.valueOf(entry.getKey().toUpperCase()), entry.getValue());
+         } catch (IllegalArgumentException ex) {
+            throw new Exception("Parameter '" + PARAM_BULKHEADS
+               + "' has an invalid operation type: " + entry.getKey());
+         }
+      }
+
+      tenantLimit = this.getParamInt(PARAM_BULKHEAD_TENANT_LIMIT, 0);
+      tenantLimits = this.getLimits(PARAM_BULKHEAD_TENANTS);
+
+      if (!typeLimits.isEmpty() || tenantLimit > 0 || !tenantLimits.isEmpty()) {
+         _bulkhead = new Bulkhead(typeLimits, tenantLimit, tenantLimits,
+            this.getParamLong(PARAM_BULKHEAD_WAIT, 0L));
+      }
+
+      return;
+   }
+
+   /**
+    * Get the limits of a parameter: comma separated "name:limit"
+    *
+    * @param name String parameter name
+    * @return Map limits, empty if the parameter is not set
+    * @throws Exception invalid limit
+    */
+   private Map<String, Integer> getLimits(final String name) throws Exception {
+      int colon = 0;
+      String value = null;
+      Map<String, Integer> limits = new HashMap<>();
+
+      value = this.getParam(name);
+
+      if (!STR.isEmpty(value)) {
+         for (String item : value.split(",")) {
+            colon = item.lastIndexOf(':');
+
+            try {
+               limits.put(item.substring(0, Math.max(colon, 0)).trim(),
+                  Integer.parseInt(item.substring(colon + 1).trim()));
+            } catch (NumberFormatException ex) {
+               colon = -1;
+            }
 
-                     if (!STR.isEmpty(uriCreated)) {
-                        jsonOutput.put(ConstantsIF.URI, uriCreated);
-                        operOutput.setState(STATE.SUCCESS);
-                        operOutput.setStatus("Created document");
-                     }
-                     break;
-                  }
-                  case 204: // NO CONTENT
-                  {
-                     operOutput.setState(STATE.SUCCESS);
-                     operOutput.setStatus("Replaced document");
-                     break;
-                  }
-                  case 302: // FOUND (REDIRECT)
-                  {
-                     jsonHeaders = new JSONObject();
+            if (colon <= 0) {
+               throw new Exception("Parameter '" + name + "' is not 'name:limit': " + item);
+            }
+         }
+      }
 
-                     for (String s : response.getHeaders().keySet()) {
-                        if (!STR.isEmpty(s)) {
-                           value = response.getHeaderString(s);
-                           if (!STR.isEmpty(value)) {
-                              jsonHeaders.put(s, value);
-                           }
-                        }
-                     }
+      return limits;
+   }
 
-                     jsonOutput.put(ConstantsIF.HEADERS, jsonHeaders);
+   /**
+    * Initialize the slow request recorder, if there is a threshold or a
+    * sample rate. Registers the JMX MBean if "slowJmxName" is set.
+    *
+    * @throws Exception invalid parameters
+    */
+   private void initSlowRequests() throws Exception {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      String name = null;
+      long threshold = 0L;
+      double sampleRate = 0.0;
 
-                     operOutput.setState(STATE.WARNING);
-                     operOutput.setStatus("Redirect: "
-                        + bldrStatus.toString());
-                     break;
-                  }
-                  case 400: // BAD REQUEST
-                  {
-                     error = true;
-                     operOutput.setError(error);
-                     operOutput.setState(STATE.FAILED);
-                     operOutput.setStatus("BAD REQUEST: "
-                        + bldrStatus.toString());
-                     break;
-                  }
-                  case 401: // UNAUTHORIZED
-                  {
-                     error = true;
-                     operOutput.setError(error);
-                     operOutput.setState(STATE.NOTAUTHORIZED);
-                     operOutput.setStatus("UNAUTHORIZED: "
-                        + bldrStatus.toString());
-                     break;
-                  }
-                  case 403: // FORBIDDEN
-                  {
-                     error = true;
-                     operOutput.setError(error);
-                     operOutput.setState(STATE.FAILED);
-                     operOutput.setStatus("FORBIDDEN: "
-                        + bldrStatus.toString());
-                     break;
-                  }
-                  case 404: // NOT FOUND
-                  {
-                     error = true;
-                     operOutput.setError(error);
-                     operOutput.setState(STATE.NOTEXIST);
-                     operOutput.setStatus("NOT FOUND: "
-                        + bldrStatus.toString()
-                     );
-                     break;
-                  }
-                  default: {
-                     error = true;
-                     operOutput.setError(error);
-                     operOutput.setState(STATE.ERROR);
-                     operOutput.setStatus("Default Response: "
-                        + bldrStatus.toString());
-                     break;
-                  }
-               }
-               break;
+      threshold = this.getParamLong(PARAM_SLOW_THRESHOLD, 0L);
+
+      try {
+         sampleRate = Double.parseDouble(this.getParamString(PARAM_SLOW_SAMPLE_RATE, "0"));
+      } catch (NumberFormatException ex) {
+         throw new Exception("Parameter '" + PARAM_SLOW_SAMPLE_RATE + "' is not a number: "
+            + this.getParam(PARAM_SLOW_SAMPLE_RATE));
+      }
+
+      if (threshold > 0L || sampleRate > 0.0) {
+         _slowRequests = new SlowRequestRecorder(threshold, sampleRate,
+            this.getParamInt(PARAM_SLOW_CAPACITY, 100),
+            this.getParamInt(PARAM_SLOW_MAX_CHARS, 512));
+
+         name = this.getParam(PARAM_SLOW_JMX_NAME);
+
+         if (!STR.isEmpty(name)) {
+            try {
+               _slowRequestsName = new ObjectName("com.forgerock.frdp.dao.rest:type=SlowRequests,name="
+                  + ObjectName.quote(name.trim()));
+               ManagementFactory.getPlatformMBeanServer().registerMBean(_slowRequests, _slowRequestsName);
+            } catch (JMException ex) {
+               _slowRequestsName = null;
+               _logger.log(Level.WARNING, "{0}: could not register MBean ''{1}'': {2}",
+                  new Object[]{METHOD, name, ex.getMessage()});
             }
-            case DELETE: // HTTP DELETE
-            {
-               switch (response.getStatus()) {
-                  case 200: // OK
-                  case 204: // NO CONTENT
-                  {
-                     operOutput.setError(false);
-                     operOutput.setState(STATE.SUCCESS);
-                     operOutput.setStatus("Deleted document");
-                     break;
-                  }
-                  case 302: // FOUND (REDIRECT)
-                  {
-                     jsonHeaders = new JSONObject();
+         }
+      }
 
-                     for (String s : response.getHeaders().keySet()) {
-                        if (!STR.isEmpty(s)) {
-                           value = response.getHeaderString(s);
-                           if (!STR.isEmpty(value)) {
-                              jsonHeaders.put(s, value);
-                           }
-                        }
-                     }
+      return;
+   }
+
+   /**
+    * Get a client for the configuration, from the client registry if the
+    * client is shared. Release the client with the registry.
+    *
+    * @param config ClientConfig client configuration
+    * @param host String host, "protocol://host:port", null for a client that
+    * is used for all the hosts
+    * @return Client client
+    */
+   private Client getClient(final ClientConfig config, final String host) {
+      return _sharedClient
+         ? ClientRegistry.getInstance().acquire(ClientRegistry.getKey(config, host), config)
+         : ClientBuilder.newClient(config);
+   }
+
+   /**
+    * Initialize the document cache and the persistent response cache, if
+    * "docCacheSize" or "diskCacheDir" is set. The persistent cache is
+    * disabled if its directory can not be used.
+    *
+    * @throws Exception invalid parameters
+    */
+   private void initCaches() throws Exception {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      long maxAge = 60000L;
+      boolean credentials = false;
+      OffHeapCache docCache = null;
+      DiskCache diskCache = null;
+
+      _logger.entering(CLASS, METHOD);
+
+      if (this.getParamBytes(PARAM_DOC_CACHE_SIZE, 0L) > 0L) {
+         docCache = new OffHeapCache(this.getParamBytes(PARAM_DOC_CACHE_SIZE, 0L),
+            this.getParamInt(PARAM_DOC_CACHE_BLOCK_SIZE, 1024),
+            this.getParamInt(PARAM_DOC_CACHE_SEGMENTS, 16),
+            this.getParamLong(PARAM_DOC_CACHE_TTL, 0L));
+      }
+
+      if (!STR.isEmpty(this.getParam(PARAM_DISK_CACHE_DIR))) {
+         maxAge = this.getParamLong(PARAM_DISK_CACHE_MAX_AGE, 60000L);
+         credentials = Boolean.parseBoolean(
+            this.getParamString(PARAM_DISK_CACHE_CREDENTIALS, "false"));
+
+         try {
+            diskCache = new DiskCache(new File(this.getParamString(PARAM_DISK_CACHE_DIR, null)),
+               this.getParamBytes(PARAM_DISK_CACHE_SIZE, 1024L * 1024L * 1024L),
+               this.toInt(PARAM_DISK_CACHE_SEGMENT_SIZE,
+                  this.getParamBytes(PARAM_DISK_CACHE_SEGMENT_SIZE, 64L * 1024L * 1024L)),
+               Double.parseDouble(this.getParamString(PARAM_DISK_CACHE_COMPACT, "0.5")));
+         } catch (NumberFormatException ex) {
+            throw new Exception("Parameter '" + PARAM_DISK_CACHE_COMPACT + "' is not a number: "
+               + this.getParam(PARAM_DISK_CACHE_COMPACT));
+         } catch (IOException ex) {
+            diskCache = null;
+            _logger.log(Level.WARNING, "{0}: persistent cache is disabled: {1}",
+               new Object[]{METHOD, ex.getMessage()});
+         }
+      }
+
+      if (docCache != null || diskCache != null) {
+         _caches = new DocumentCaches(this, docCache, diskCache, maxAge, credentials);
+      }
+
+      _logger.exiting(CLASS, METHOD);
+
+      return;
+   }
+
+   /**
+    * Create a load balancer, an endpoint is created for each of the hosts.
+    * The health checks are started.
+    *
+    * @param name String parameter name, comma separated list of "host:port"
+    * @return LoadBalancer load balancer
+    * @throws Exception invalid parameters
+    */
+   private LoadBalancer getBalancer(final String name) throws Exception {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      String healthPath = null;
+      List<Endpoint> endpoints = null;
+      LoadBalancer.STRATEGY strategy = null;
+      LoadBalancer balancer = null;
+
+      _logger.entering(CLASS, METHOD);
+
+      endpoints = this.getEndpoints(name);
+
+      try {
+         strategy = LoadBalancer.STRATEGY.valueOf(this.getParamString(PARAM_LB_STRATEGY,
+            LoadBalancer.STRATEGY.ROUND_ROBIN.toString()).toUpperCase());
+      } catch (IllegalArgumentException ex) {
+         throw new Exception("Parameter '" + PARAM_LB_STRATEGY
+            + "' is not supported: " + this.getParam(PARAM_LB_STRATEGY));
+      }
+
+      balancer = new LoadBalancer(endpoints, strategy,
+         this.getParamInt(PARAM_EJECT_FAILURES, 5),
+         this.getParamLong(PARAM_EJECT_LATENCY, 0L),
+         this.getParamLong(PARAM_EJECT_TIME, 30000L));
+
+      healthPath = this.getParam(PARAM_HEALTH_PATH);
+
+      if (!STR.isEmpty(healthPath)) {
+         balancer.startHealthChecks(healthPath,
+            this.getParamLong(PARAM_HEALTH_INTERVAL, 5000L),
+            this.getParamInt(PARAM_HEALTH_TIMEOUT, 2000));
+      }
+
+      _logger.exiting(CLASS, METHOD);
+
+      return balancer;
+   }
+
+   /**
+    * Initialize the router of the static base target, if "hosts", "shards"
+    * or "replicas" is set: an endpoint is created for each host. The first
+    * endpoint, or the primary, is used as the base target.
+    *
+    * @throws Exception invalid parameters
+    */
+   private void initRouter() throws Exception {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      StringBuilder base = new StringBuilder();
+      List<Endpoint> endpoints = null;
+      WriteWindow writeWindow = null;
+
+      _logger.entering(CLASS, METHOD);
+
+      if ((STR.isEmpty(this.getParam(PARAM_HOSTS)) ? 0 : 1)
+         + (STR.isEmpty(this.getParam(PARAM_SHARDS)) ? 0 : 1)
+         + (STR.isEmpty(this.getParam(PARAM_REPLICAS)) ? 0 : 1) > 1) {
+         throw new Exception("Parameters '" + PARAM_HOSTS + "', '" + PARAM_SHARDS
+            + "' and '" + PARAM_REPLICAS + "' can not be used together");
+      } else if (!STR.isEmpty(this.getParam(PARAM_SHARDS))) {
+         endpoints = this.getEndpoints(PARAM_SHARDS);
+         _router = Router.sharded(new ShardRing(endpoints,
+            this.getParamInt(PARAM_SHARD_VNODES, 160)));
+         _target = endpoints.get(0).getTarget();
+      } else if (!STR.isEmpty(this.getParam(PARAM_HOSTS))) {
+         _router = Router.balanced(this.getBalancer(PARAM_HOSTS));
+         _target = _router.getEndpoints().get(0).getTarget();
+      } else {
+         base.append(this.getParamNotEmpty(PARAM_PROTOCOL))
+            .append("://")
+            .append(this.getParamNotEmpty(PARAM_HOST))
+            .append(":")
+            .append(this.getParamNotEmpty(PARAM_PORT));
+
+         _target = _client.target(base.toString()).path(this.getParamNotEmpty(PARAM_PATH));
+
+         if (!STR.isEmpty(this.getParam(PARAM_REPLICAS))) {
+            if (this.getParamLong(PARAM_READ_YOUR_WRITES, 1000L) > 0) {
+               writeWindow = new WriteWindow(this.getParamLong(PARAM_READ_YOUR_WRITES, 1000L));
+            }
+
+            _router = Router.replicated(new Endpoint(this.getParamNotEmpty(PARAM_HOST) + ":"
+               + this.getParamNotEmpty(PARAM_PORT), _target),
+               this.getBalancer(PARAM_REPLICAS), writeWindow);
+         }
+      }
+
+      _logger.exiting(CLASS, METHOD);
+
+      return;
+   }
+
+   /**
+    * Get the endpoints for a list of hosts, names must be unique
+    *
+    * @param name String parameter name, comma separated list of "host:port"
+    * @return List of Endpoint objects, not empty
+    * @throws Exception invalid parameters
+    */
+   private List<Endpoint> getEndpoints(final String name) throws Exception {
+      Set<String> names = new HashSet<>();
+      List<Endpoint> endpoints = new ArrayList<>();
+      Endpoint endpoint = null;
+
+      for (String host : this.getParam(name).split(",")) {
+         if (!STR.isEmpty(host) && !STR.isEmpty(host.trim())) {
+            endpoint = this.getEndpoint(host);
+
+            if (!names.add(endpoint.getName())) {
+               throw new Exception("Parameter '" + name + "' has a duplicate host: "
+                  + endpoint.getName());
+            }
+
+            endpoints.add(endpoint);
+         }
+      }
+
+      if (endpoints.isEmpty()) {
+         throw new Exception("Parameter '" + name + "' has no hosts");
+      }
+
+      return endpoints;
+   }
+
+   /**
+    * Get the endpoint for a host: "protocol://host:port/path"
+    *
+    * @param host String "host:port" (or "host", uses "port")
+    * @return Endpoint endpoint
+    * @throws Exception invalid parameters
+    */
+   private Endpoint getEndpoint(final String host) throws Exception {
+      String name = host == null ? "" : host.trim();
+
+      if (STR.isEmpty(name)) {
+         throw new Exception("Host is empty");
+      }
+
+      if (name.indexOf(':') < 0) {
+         name = name + ":" + this.getParamNotEmpty(PARAM_PORT);
+      }
+
+      return new Endpoint(name, _client.target(this.getParamNotEmpty(PARAM_PROTOCOL)
+         + "://" + name).path(this.getParamNotEmpty(PARAM_PATH)));
+   }
+
+   /**
+    * Get an optional numeric parameter
+    *
+    * @param name String parameter name
+    * @param value long default value, if the parameter is not set
+    * @return long parameter value
+    * @throws Exception parameter is not a number
+    */
+   private long getParamLong(final String name, final long value) throws Exception {
+      long num = value;
+      String str = null;
+
+      str = this.getParam(name);
+
+      if (!STR.isEmpty(str)) {
+         try {
+            num = Long.parseLong(str.trim());
+         } catch (NumberFormatException ex) {
+            throw new Exception("Parameter '" + name + "' is not a number: " + str);
+         }
+      }
+
+      return num;
+   }
+
+   /**
+    * Get an optional int parameter, from 0 to Integer.MAX_VALUE
+    *
+    * @param name String parameter name
+    * @param value int default value, if the parameter is not set
+    * @return int parameter value
+    * @throws Exception parameter is not a number, or is out of range
+    */
+   private int getParamInt(final String name, final int value) throws Exception {
+      return this.toInt(name, this.getParamLong(name, value));
+   }
+
+   /**
+    * Check the range of an int parameter, the value must not wrap
+    *
+    * @param name String parameter name
+    * @param value long parameter value
+    * @return int parameter value
+    * @throws Exception value is not from 0 to Integer.MAX_VALUE
+    */
+   private int toInt(final String name, final long value) throws Exception {
+      if (value < 0L || value > Integer.MAX_VALUE) {
+         throw new Exception("Parameter '" + name + "' is not between 0 and "
+            + Integer.MAX_VALUE + ": " + this.getParam(name));
+      }
 
-                     jsonOutput.put(ConstantsIF.HEADERS, jsonHeaders);
+      return (int) value;
+   }
 
-                     operOutput.setState(STATE.WARNING);
-                     operOutput.setStatus("Redirect: "
-                        + bldrStatus.toString());
-                     break;
-                  }
-                  case 400: // BAD REQUEST
-                  {
-                     error = true;
-                     operOutput.setError(error);
-                     operOutput.setState(STATE.FAILED);
-                     operOutput.setStatus("BAD REQUEST: "
-                        + bldrStatus.toString());
-                     break;
-                  }
-                  case 401: // UNAUTHORIZED
-                  {
-                     error = true;
-                     operOutput.setError(error);
-                     operOutput.setState(STATE.NOTAUTHORIZED);
-                     operOutput.setStatus("UNAUTHORIZED: "
-                        + bldrStatus.toString());
-                     break;
-                  }
-                  case 403: // FORBIDDEN
-                  {
-                     error = true;
-                     operOutput.setError(error);
-                     operOutput.setState(STATE.FAILED);
-                     operOutput.setStatus("FORBIDDEN: "
-                        + bldrStatus.toString());
-                     break;
-                  }
-                  case 404: // NOT FOUND
-                  {
-                     error = true;
-                     operOutput.setError(error);
-                     operOutput.setState(STATE.NOTEXIST);
-                     operOutput.setStatus("NOT FOUND: "
-                        + bldrStatus.toString());
-                     break;
-                  }
-                  default: {
-                     error = true;
-                     operOutput.setError(error);
-                     operOutput.setState(STATE.ERROR);
-                     operOutput.setStatus("Default Response: "
-                        + bldrStatus.toString());
-                     break;
-                  }
-               }
+   /**
+    * Get an optional size parameter, in bytes, with an optional "k", "m" or
+    * "g" suffix
+    *
+    * @param name String parameter name
+    * @param value long default value, if the parameter is not set
+    * @return long parameter value, in bytes
+    * @throws Exception the parameter is not a size
+    */
+   private long getParamBytes(final String name, final long value) throws Exception {
+      long num = value;
+      long unit = 1L;
+      String str = null;
+
+      str = this.getParamString(name, null);
+
+      if (!STR.isEmpty(str)) {
+         switch (Character.toLowerCase(str.charAt(str.length() - 1))) {
+            case 'k': {
+               unit = 1024L;
+               break;
+            }
+            case 'm': {
+               unit = 1024L * 1024L;
+               break;
+            }
+            case 'g': {
+               unit = 1024L * 1024L * 1024L;
                break;
             }
             default: {
-               error = true;
-               operOutput.setError(error);
-               operOutput.setState(STATE.FAILED);
-               operOutput.setStatus("Operation type not supported: "
-                  + operInput.getType().toString());
                break;
             }
          }
 
-         if (response.getStatus() == 400 || response.getStatus() >= 500) {
-            _logger.log(Level.SEVERE, "{0}, {1}, Entity=''{2}''",
-               new Object[]{
-                  response.getStatus(),
-                  response.getStatusInfo().toString(),
-                  entity == null ? NULL : entity});
+         try {
+            num = Math.multiplyExact(Long.parseLong(unit == 1L ? str
+               : str.substring(0, str.length() - 1).trim()), unit);
+         } catch (NumberFormatException | ArithmeticException ex) {
+            throw new Exception("Parameter '" + name + "' is not a size: " + str);
          }
       }
 
-      operOutput.setJSON(jsonOutput);
-
-      if (_logger.isLoggable(DEBUG_LEVEL)) {
-         _logger.log(DEBUG_LEVEL, "output=''{0}'', json=''{1}''",
-            new Object[]{
-               operOutput.toString(),
-               jsonOutput == null ? NULL : jsonOutput.toString()});
-      }
+      return num;
+   }
 
-      _logger.exiting(CLASS, METHOD);
+   /**
+    * Get an optional String parameter
+    *
+    * @param name String parameter name
+    * @param value String default value, if the parameter is not set
+    * @return String parameter value
+    */
+   private String getParamString(final String name, final String value) {
+      String str = this.getParam(name);
 
-      return operOutput;
+      return STR.isEmpty(str) ? value : str.trim();
    }
 
    /**
-    * Initialize class instance. Setting redirect to FALSE ClientConfig config =
-    * new ClientConfig();
-    * config.getProperties().put(ClientProperties.FOLLOW_REDIRECTS, true);
-    * com.sun.jersey.api.client.Client client = Client.create(config);
-    * client.setFollowRedirects(true);
+    * Read the response entity into pooled buffers, the entity stream is closed.
+    * The caller must close the returned buffer.
     *
-    * @throws Exception
+    * @param response HTTP Response
+    * @return EntityBuffer buffer, empty if the response has no entity
+    * @throws IOException could not read the entity
     */
-   private void init() throws Exception {
-      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
-      ClientConfig config = null;
-      StringBuilder base = new StringBuilder();
+   private EntityBuffer readEntity(final Response response) throws IOException {
+      EntityBuffer buffer = null;
 
-      _logger.entering(CLASS, METHOD);
+      if (response.hasEntity()) {
+         try (InputStream input = response.readEntity(InputStream.class)) {
+            buffer = EntityBuffer.read(input, _bufferPool, _maxEntitySize);
+         }
+      } else {
+         buffer = EntityBuffer.read(null, _bufferPool, _maxEntitySize);
+      }
 
-      config = new ClientConfig();
-      config.property(ClientProperties.FOLLOW_REDIRECTS, false);
+      return buffer;
+   }
 
-      _client = ClientBuilder.newClient(config);
+   /**
+    * Get the character set of the response entity, defaults to UTF-8
+    *
+    * @param response HTTP Response
+    * @return Charset character set
+    */
+   private Charset getCharset(final Response response) {
+      String name = null;
+      Charset charset = StandardCharsets.UTF_8;
+      MediaType mediaType = response.getMediaType();
 
-      if (_haveBaseTarget) {
-         base.append(this.getParamNotEmpty(PARAM_PROTOCOL))
-            .append("://")
-            .append(this.getParamNotEmpty(PARAM_HOST))
-            .append(":")
-            .append(this.getParamNotEmpty(PARAM_PORT));
+      if (mediaType != null) {
+         name = mediaType.getParameters().get(MediaType.CHARSET_PARAMETER);
 
-         _target = _client.target(base.toString()).path(this.getParamNotEmpty(PARAM_PATH));
+         if (!STR.isEmpty(name)) {
+            try {
+               charset = Charset.forName(name);
+            } catch (IllegalArgumentException ex) {
+               charset = StandardCharsets.UTF_8;
+            }
+         }
       }
 
-      _parser = new JSONParser();
-
-      this.setState(STATE.READY);
-      this.setStatus("Initialization complete");
-
-      _logger.exiting(CLASS, METHOD);
-
-      return;
+      return charset;
    }
 
    /**
@@ -1154,10 +3859,11 @@ public class RestDataAccess extends DataAccess {
     * Convert JSON formatted string to a JSON object
     *
     * @param entity string representing JSON data
+    * @param fields FieldProjection projection, null for the whole entity
     * @return JSONObject
     * @throws Exception
     */
-   private JSONObject parseEntity(final String entity) throws Exception {
+   JSONObject parseEntity(final String entity, final FieldProjection fields) throws Exception {
       Object obj = null;
       String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
       JSONObject jsonOutput = null;
@@ -1165,20 +3871,15 @@ public class RestDataAccess extends DataAccess {
       _logger.entering(CLASS, METHOD);
 
       if (!STR.isEmpty(entity)) {
-         obj = _parser.parse(entity);
-         if (obj != null) {
-            if (obj instanceof JSONObject) {
-               jsonOutput = (JSONObject) obj;
-            } else if (obj instanceof JSONArray) {
-               jsonOutput = new JSONObject();
-               jsonOutput.put(ConstantsIF.RESULTS, (JSONArray) obj);
-            } else {
-               throw new Exception("Parsed entity has an undefined class: "
-                  + obj.getClass().getName());
-            }
+         if (fields == null) {
+            obj = _codec.parse(entity);
+         } else if (_codec instanceof StreamingJsonCodec) {
+            obj = ((StreamingJsonCodec) _codec).parse(entity, fields);
          } else {
-            throw new Exception("Parsed entity is null");
+            obj = fields.apply(_codec.parse(entity));
          }
+
+         jsonOutput = this.toJSONObject(obj);
       } else {
          throw new Exception("Entity string is empty");
       }
@@ -1187,4 +3888,328 @@ public class RestDataAccess extends DataAccess {
 
       return jsonOutput;
    }
+
+   /**
+    * Get the JSON object of a parsed entity, an array is the "results"
+    *
+    * @param obj Object parsed entity
+    * @return JSONObject
+    * @throws Exception the entity is null or not an object / array
+    */
+   private JSONObject toJSONObject(final Object obj) throws Exception {
+      JSONObject jsonOutput = null;
+
+      if (obj != null) {
+         if (obj instanceof JSONObject) {
+            jsonOutput = (JSONObject) obj;
+         } else if (obj instanceof JSONArray) {
+            jsonOutput = new JSONObject();
+            jsonOutput.put(ConstantsIF.RESULTS, (JSONArray) obj);
+         } else {
+            throw new Exception("Parsed entity has an undefined class: "
+               + obj.getClass().getName());
+         }
+      } else {
+         throw new Exception("Parsed entity is null");
+      }
+
+      return jsonOutput;
+   }
+
+   /**
+    * Serialize a value with the JSON codec. Each thread reuses its buffer, a
+    * buffer that grew over 64k is released.
+    *
+    * @param value Object JSON value
+    * @return String JSON text
+    */
+   String toJSONString(final Object value) {
+      String text = null;
+      StringBuilder buf = _jsonBuffer.get();
+
+      buf.setLength(0);
+
+      try {
+         _codec.write(value, buf);
+      } catch (IOException ex) {
+         throw new IllegalStateException("Could not serialize JSON: " + ex.getMessage(), ex);
+      }
+
+      text = buf.toString();
+
+      if (buf.capacity() > 64 * 1024) {
+         _jsonBuffer.remove();
+      }
+
+      return text;
+   }
+
+   /**
+    * Check if a REPLACE is sent as a patch: a patch "updateMode", the
+    * server supports PATCH and the input has the "previous" data. A merge
+    * patch that would set a member to null is not sent, see
+    * JsonPatch.isMergeable().
+    *
+    * @param jsonInput JSONObject operation input
+    * @return boolean true to send a patch
+    */
+   private boolean isPatch(final JSONObject jsonInput) {
+      return _updateMode != JsonPatch.MODE.PUT && _patchSupported
+         && jsonInput.get(ATTR_PREVIOUS) instanceof JSONObject
+         && (_updateMode != JsonPatch.MODE.MERGE_PATCH
+         || JsonPatch.isMergeable((JSONObject) jsonInput.get(ATTR_PREVIOUS),
+            JSON.getObject(jsonInput, ConstantsIF.DATA)));
+   }
+
+   /**
+    * Get the patch from the previous to the current data
+    *
+    * @param previous JSONObject previous data
+    * @param current JSONObject current data
+    * @return Object JSONObject merge patch or JSONArray JSON patch, null if
+    * nothing changed
+    */
+   private Object getPatch(final JSONObject previous, final JSONObject current) {
+      Object patch = null;
+      JSONObject merge = null;
+      JSONArray operations = null;
+
+      if (_updateMode == JsonPatch.MODE.MERGE_PATCH) {
+         merge = JsonPatch.mergePatch(previous, current);
+         patch = merge.isEmpty() ? null : merge;
+      } else {
+         operations = JsonPatch.jsonPatch(previous, current);
+         patch = operations.isEmpty() ? null : operations;
+      }
+
+      return patch;
+   }
+
+   /**
+    * Send a PATCH, or a POST with the method override header
+    *
+    * @param builder Builder request builder
+    * @param patch Object merge patch or JSON patch
+    * @return Response response, null if the connector can not send a PATCH
+    */
+   private Response patch(final Builder builder, final Object patch) {
+      String METHOD = Thread.currentThread().getStackTrace()[1].getMethodName();
+      Response response = null;
+      Entity<String> entity = null;
+
+      entity = Entity.entity(this.toJSONString(patch), _updateMode == JsonPatch.MODE.MERGE_PATCH
+         ? JsonPatch.TYPE_MERGE_PATCH : JsonPatch.TYPE_JSON_PATCH);
+
+      if (_patchOverride) {
+         response = builder.header(HDR_METHOD_OVERRIDE, "PATCH").post(entity);
+      } else {
+         try {
+            response = builder.property(HttpUrlConnectorProvider.SET_METHOD_WORKAROUND, true)
+               .method("PATCH", entity);
+         } catch (ProcessingException ex) {
+            for (Throwable cause = ex.getCause(); cause != null && _patchSupported; cause = cause.getCause()) {
+               if (cause instanceof ProtocolException || cause instanceof InaccessibleObjectException) {
+                  _patchSupported = false;
+
+                  _logger.log(Level.WARNING, "{0}: the connector can not send a PATCH, using PUT: {1}",
+                     new Object[]{METHOD, cause.getMessage()});
+               }
+            }
+
+            if (_patchSupported) {
+               throw ex;
+            }
+         }
+      }
+
+      if (response != null) {
+         _patches.incrementAndGet();
+      }
+
+      return response;
+   }
+
+   /**
+    * Get the statistics of the patches
+    *
+    * @return JSONObject statistics
+    */
+   private JSONObject getPatchStats() {
+      JSONObject json = new JSONObject();
+
+      json.put("mode", _updateMode.toString());
+      json.put("supported", _patchSupported);
+      json.put("sent", _patches.get());
+      json.put("unchanged", _patchesUnchanged.get());
+
+      return json;
+   }
+
+   /**
+    * Check the "fields" attribute of an operation
+    *
+    * @param json JSONObject operation JSON, may be null
+    * @throws Exception the "fields" are not a String or an array of Strings
+    */
+   private void checkFields(final JSONObject json) throws Exception {
+      if (json != null && json.containsKey(ATTR_FIELDS)) {
+         try {
+            FieldProjection.getInstance(json.get(ATTR_FIELDS), false);
+         } catch (IllegalArgumentException ex) {
+            throw new Exception(ex.getMessage());
+         }
+      }
+
+      return;
+   }
+
+   /**
+    * Get the projection of the "fields" attribute
+    *
+    * @param jsonInput JSONObject operation input
+    * @param search boolean true for a SEARCH
+    * @return FieldProjection projection, null if there are no (valid) fields
+    */
+   private FieldProjection getFields(final JSONObject jsonInput, final boolean search) {
+      FieldProjection fields = null;
+
+      if (jsonInput.containsKey(ATTR_FIELDS)) {
+         try {
+            fields = FieldProjection.getInstance(jsonInput.get(ATTR_FIELDS), search);
+         } catch (IllegalArgumentException ex) {
+            _logger.log(Level.WARNING, ex.getMessage());
+         }
+      }
+
+      return fields;
+   }
+
+   /**
+    * Get the body of a "data" object: JSON text, or CBOR
+    *
+    * @param jsonData JSONObject data
+    * @param bodyType MediaType JSON or CBOR
+    * @return Entity request entity
+    */
+   private Entity<?> getEntity(final JSONObject jsonData, final MediaType bodyType) {
+      Entity<?> entity = null;
+
+      if (bodyType == CborCodec.MEDIA_TYPE) {
+         entity = Entity.entity(CborCodec.encode(jsonData), CborCodec.MEDIA_TYPE);
+      } else {
+         entity = Entity.entity(this.toJSONString(jsonData), MediaType.APPLICATION_JSON_TYPE);
+      }
+
+      return entity;
+   }
+
+   /**
+    * Get the media types that are accepted by default: JSON, CBOR first if
+    * "binaryFormat" is "cbor"
+    *
+    * @return MediaType[] accepted types
+    */
+   MediaType[] getAcceptTypes() {
+      return _binaryFormat ? ACCEPT_CBOR : ACCEPT_JSON;
+   }
+
+   /**
+    * Get the type of a negotiated "data" body: CBOR after the server returned
+    * CBOR (and did not reject a CBOR body), else JSON
+    *
+    * @return MediaType body type
+    */
+   private MediaType getBodyType() {
+      return _binaryFormat && _cborBodies > 0 ? CborCodec.MEDIA_TYPE : MediaType.APPLICATION_JSON_TYPE;
+   }
+
+   /**
+    * Check if a body type is sent from the "data" object
+    *
+    * @param type MediaType body type
+    * @return boolean true for JSON and CBOR
+    */
+   private static boolean isDocumentType(final MediaType type) {
+      return type == MediaType.APPLICATION_JSON_TYPE || type == CborCodec.MEDIA_TYPE;
+   }
+
+   /**
+    * Get the media type of an "accept" or "content-type" header. Any valid
+    * type can be accepted, a body is JSON, CBOR or a URL encoded form. An
+    * unsupported content type is replaced by JSON: the body is only sent as
+    * CBOR if it is requested, or negotiated with "binaryFormat".
+    *
+    * @param value String header value
+    * @param accept boolean true for the "accept" header
+    * @return MediaType media type, null if the accept type is not valid
+    */
+   MediaType getMediaType(final String value, final boolean accept) {
+      MediaType type = null;
+
+      switch (value) {
+         case ConstantsIF.TYPE_JSON: {
+            type = MediaType.APPLICATION_JSON_TYPE;
+            break;
+         }
+         case ConstantsIF.TYPE_URLENCODED: {
+            type = MediaType.APPLICATION_FORM_URLENCODED_TYPE;
+            break;
+         }
+         case CborCodec.TYPE_CBOR: {
+            type = CborCodec.MEDIA_TYPE;
+            break;
+         }
+         case ConstantsIF.TYPE_WILDCARD: {
+            if (accept) {
+               type = MediaType.WILDCARD_TYPE;
+            }
+            break;
+         }
+         default: {
+            if (accept) {
+               try {
+                  type = MediaType.valueOf(value);
+               } catch (IllegalArgumentException ex) {
+                  _logger.log(Level.WARNING, "Invalid accept type: {0}", value);
+               }
+            }
+            break;
+         }
+      }
+
+      if (type == null && !accept) {
+         type = MediaType.APPLICATION_JSON_TYPE;
+
+         _logger.log(Level.WARNING, "Unsupported content type: {0}, using JSON", value);
+      }
+
+      return type;
+   }
+
+   /**
+    * Get the JSON codec: "simple" (json-simple), "streaming" or the name of
+    * a class that implements JsonCodecIF
+    *
+    * @param name String codec name
+    * @return JsonCodecIF codec
+    * @throws Exception unknown codec
+    */
+   private JsonCodecIF getCodec(final String name) throws Exception {
+      JsonCodecIF codec = null;
+
+      if ("simple".equalsIgnoreCase(name)) {
+         codec = new SimpleJsonCodec();
+      } else if ("streaming".equalsIgnoreCase(name)) {
+         codec = new StreamingJsonCodec();
+      } else {
+         try {
+            codec = (JsonCodecIF) Class.forName(name).getDeclaredConstructor().newInstance();
+         } catch (ReflectiveOperationException | ClassCastException ex) {
+            throw new Exception("Parameter '" + PARAM_JSON_CODEC
+               + "' is not 'simple', 'streaming' or a JsonCodecIF class: " + name);
+         }
+      }
+
+      return codec;
+   }
 }
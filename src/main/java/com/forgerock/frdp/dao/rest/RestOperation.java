@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.dao.Operation;
+import org.json.simple.JSONObject;
+
+/**
+ * Operation returned by the REST Data Access Object. Adds the structured HTTP
+ * response fields (status code and reason phrase) to the Operation.
+ *
+ * Status messages that include the HTTP response are built lazily, the
+ * message is only formatted when the status is read. The response entity is
+ * only kept for these messages, truncated to a maximum number of characters.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class RestOperation extends Operation {
+
+   private int _httpStatus = 0;
+   private String _httpReason = null;
+   private String _entity = null;
+   private String _statusPrefix = null;
+   private String _nextLink = null;
+   private String _etag = null;
+   private String _lastModified = null;
+   private String _traceParent = null;
+   private JSONObject _timings = null;
+
+   /**
+    * Constructor
+    *
+    * @param type OperationIF.TYPE operation type
+    */
+   public RestOperation(final TYPE type) {
+      super(type);
+
+      return;
+   }
+
+   /**
+    * Get the HTTP status code of the response
+    *
+    * @return int status code, zero if there was no response
+    */
+   public int getHttpStatus() {
+      return _httpStatus;
+   }
+
+   /**
+    * Get the HTTP reason phrase of the response
+    *
+    * @return String reason phrase, null if there was no response
+    */
+   public String getHttpReason() {
+      return _httpReason;
+   }
+
+   /**
+    * Get the "next" link of a paged SEARCH response
+    *
+    * @return String URI of the next page, null if this is the last page
+    */
+   public String getNextLink() {
+      return _nextLink;
+   }
+
+   /**
+    * Get the phases of the HTTP request ("timings" parameter), see
+    * RequestTimer
+    *
+    * @return JSONObject timings, in milliseconds, null if not enabled
+    */
+   public JSONObject getTimings() {
+      return _timings;
+   }
+
+   /**
+    * Get the W3C "traceparent" header that was sent with the request
+    *
+    * @return String traceparent, null if the request was not traced
+    */
+   public String getTraceParent() {
+      return _traceParent;
+   }
+
+   /**
+    * Get the status, formats the message if it is pending
+    *
+    * @return String status message
+    */
+   @Override
+   public String getStatus() {
+      if (_statusPrefix != null) {
+         super.setStatus(this.formatStatus());
+         _statusPrefix = null;
+      }
+
+      return super.getStatus();
+   }
+
+   /**
+    * Set the status, replaces any pending message
+    *
+    * @param status String status message
+    */
+   @Override
+   public void setStatus(final String status) {
+      _statusPrefix = null;
+
+      super.setStatus(status);
+
+      return;
+   }
+
+   @Override
+   public String toString() {
+      this.getStatus(); // format pending message
+
+      return super.toString();
+   }
+
+   /*
+    * =============== PACKAGE METHODS ===============
+    */
+   /**
+    * Set the HTTP response fields
+    *
+    * @param status int HTTP status code
+    * @param reason String HTTP reason phrase
+    */
+   void setResponse(final int status, final String reason) {
+      _httpStatus = status;
+      _httpReason = reason;
+
+      return;
+   }
+
+   /**
+    * Set the "next" link of a paged SEARCH response
+    *
+    * @param nextLink String URI of the next page
+    */
+   void setNextLink(final String nextLink) {
+      _nextLink = nextLink;
+
+      return;
+   }
+
+   /**
+    * Set the phases of the HTTP request
+    *
+    * @param timings JSONObject timings, in milliseconds
+    */
+   void setTimings(final JSONObject timings) {
+      _timings = timings;
+
+      return;
+   }
+
+   /**
+    * Set the "traceparent" header that was sent with the request
+    *
+    * @param traceParent String traceparent
+    */
+   void setTraceParent(final String traceParent) {
+      _traceParent = traceParent;
+
+      return;
+   }
+
+   /**
+    * Set the validators of the response, used to revalidate a cached
+    * response
+    *
+    * @param etag String "ETag" header, may be null
+    * @param lastModified String "Last-Modified" header, may be null
+    */
+   void setValidators(final String etag, final String lastModified) {
+      _etag = etag;
+      _lastModified = lastModified;
+
+      return;
+   }
+
+   /**
+    * Get the "ETag" header of the response
+    *
+    * @return String etag, null if the response does not have one
+    */
+   String getEtag() {
+      return _etag;
+   }
+
+   /**
+    * Get the "Last-Modified" header of the response
+    *
+    * @return String last modified, null if the response does not have one
+    */
+   String getLastModified() {
+      return _lastModified;
+   }
+
+   /**
+    * Get the truncated response entity of the status message
+    *
+    * @return String entity, null if the status does not include it
+    */
+   String getEntity() {
+      return _entity;
+   }
+
+   /**
+    * Set a status message that will be built from the HTTP response, when it
+    * is read: "prefix" + "code, reason, Entity='...'". The entity is kept,
+    * truncated to the maximum number of characters.
+    *
+    * @param prefix String message prefix
+    * @param entity String response entity, may be null
+    * @param maxChars int maximum characters of the entity to keep
+    */
+   void setResponseStatus(final String prefix, final String entity, final int maxChars) {
+      _statusPrefix = prefix;
+
+      if (entity != null && maxChars >= 0 && entity.length() > maxChars) {
+         _entity = entity.substring(0, maxChars) + "...";
+      } else {
+         _entity = entity;
+      }
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Format the status message from the HTTP response fields
+    *
+    * @return String status message
+    */
+   private String formatStatus() {
+      String entity = this.getEntity();
+      StringBuilder buf = new StringBuilder(_statusPrefix.length() + 32
+         + (entity == null ? 6 : entity.length()));
+
+      buf.append(_statusPrefix)
+         .append(_httpStatus)
+         .append(", ")
+         .append(_httpReason)
+         .append(", Entity='")
+         .append(entity == null ? NULL : entity)
+         .append("'");
+
+      return buf.toString();
+   }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.dao.OperationIF;
+import com.forgerock.frdp.utils.JSON;
+import com.forgerock.frdp.utils.STR;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Routes the operations of a static base target to an endpoint. There are
+ * three modes, one of them is used:
+ *
+ * <pre>
+ * hosts    | the load balancer selects an endpoint
+ * shards   | the shard that owns the "uid" on the consistent hash ring, the
+ *          | operations without a "uid" go to the shards in turn
+ * replicas | READ / SEARCH go to a replica, unless the document was written
+ *          | within the read-your-writes window; the others go to the primary
+ * </pre>
+ *
+ * The latency and the result of each request are recorded for its endpoint.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class Router {
+
+   private final LoadBalancer _balancer;
+   private final LoadBalancer _replicas;
+   private final Endpoint _primary;
+   private final WriteWindow _writeWindow;
+   private final AtomicInteger _shardNext = new AtomicInteger(0);
+   private volatile ShardRing _shards;
+
+   /**
+    * Constructor, use the static methods
+    *
+    * @param balancer LoadBalancer hosts, may be null
+    * @param shards ShardRing shards, may be null
+    * @param primary Endpoint primary, may be null
+    * @param replicas LoadBalancer replicas, may be null
+    * @param writeWindow WriteWindow read-your-writes window, may be null
+    */
+   private Router(final LoadBalancer balancer, final ShardRing shards,
+      final Endpoint primary, final LoadBalancer replicas, final WriteWindow writeWindow) {
+      _balancer = balancer;
+      _shards = shards;
+      _primary = primary;
+      _replicas = replicas;
+      _writeWindow = writeWindow;
+
+      return;
+   }
+
+   /**
+    * Get a router that uses a load balancer
+    *
+    * @param balancer LoadBalancer load balancer of the "hosts"
+    * @return Router router
+    */
+   static Router balanced(final LoadBalancer balancer) {
+      return new Router(balancer, null, null, null, null);
+   }
+
+   /**
+    * Get a router that uses a consistent hash ring
+    *
+    * @param shards ShardRing ring of the "shards"
+    * @return Router router
+    */
+   static Router sharded(final ShardRing shards) {
+      return new Router(null, shards, null, null, null);
+   }
+
+   /**
+    * Get a router that uses a primary and replicas
+    *
+    * @param primary Endpoint primary, the base target
+    * @param replicas LoadBalancer load balancer of the "replicas"
+    * @param writeWindow WriteWindow read-your-writes window, null if disabled
+    * @return Router router
+    */
+   static Router replicated(final Endpoint primary, final LoadBalancer replicas,
+      final WriteWindow writeWindow) {
+      return new Router(null, null, primary, replicas, writeWindow);
+   }
+
+   /**
+    * Get the endpoint for the operation: selected by the load balancer, the
+    * shard that owns the "uid", or the primary / a replica. A CREATE that is
+    * sharded has a "uid", see RestDataAccess.assignUid().
+    *
+    * @param operInput OperationIF operation input
+    * @return Endpoint endpoint
+    */
+   Endpoint select(final OperationIF operInput) {
+      String uid = null;
+      ShardRing ring = _shards;
+      Endpoint endpoint = null;
+      List<Endpoint> endpoints = null;
+
+      if (_balancer != null) {
+         endpoint = _balancer.select();
+      } else if (ring != null) {
+         uid = JSON.getString(operInput.getJSON(), ConstantsIF.UID);
+
+         if (!STR.isEmpty(uid)) {
+            endpoint = ring.get(uid);
+         } else {
+            endpoints = ring.getEndpoints();
+            endpoint = endpoints.get(Math.floorMod(_shardNext.getAndIncrement(),
+               endpoints.size()));
+         }
+      } else {
+         if ((operInput.getType() == OperationIF.TYPE.READ
+            || operInput.getType() == OperationIF.TYPE.SEARCH)
+            && !this.isRecentWrite(RestDataAccess.getDocumentKey(operInput.getJSON(),
+               JSON.getString(operInput.getJSON(), ConstantsIF.UID)))) {
+            endpoint = _replicas.select();
+         } else {
+            endpoint = _primary;
+         }
+      }
+
+      return endpoint;
+   }
+
+   /**
+    * Record the end of a request for its endpoint. A request that was not
+    * sent (invalid input) is not a failure of the endpoint.
+    *
+    * @param endpoint Endpoint endpoint used by the request
+    * @param start long start time, from Endpoint.start()
+    * @param operOutput OperationIF output, null if the request threw
+    */
+   void finish(final Endpoint endpoint, final long start, final OperationIF operOutput) {
+      boolean failed = true;
+
+      if (operOutput instanceof RestOperation) {
+         failed = ((RestOperation) operOutput).getHttpStatus() >= 500
+            || ((RestOperation) operOutput).getHttpStatus() == 0;
+      } else if (operOutput != null) {
+         failed = false; // invalid input, not sent
+      }
+
+      if (_balancer != null) {
+         _balancer.finish(endpoint, start, failed);
+      } else if (_replicas != null && endpoint != _primary) {
+         _replicas.finish(endpoint, start, failed);
+      } else {
+         endpoint.finish(start, failed);
+      }
+
+      return;
+   }
+
+   /**
+    * Record a CREATE, REPLACE or DELETE in the read-your-writes window. For
+    * a CREATE without a "uid", the uid is the last segment of the created
+    * "uri".
+    *
+    * @param operInput OperationIF input
+    * @param operOutput OperationIF output
+    */
+   void recordWrite(final OperationIF operInput, final OperationIF operOutput) {
+      String uid = null;
+      String uri = null;
+
+      if (_writeWindow != null) {
+         switch (operInput.getType()) {
+            case CREATE:
+            case REPLACE:
+            case DELETE: {
+               uid = JSON.getString(operInput.getJSON(), ConstantsIF.UID);
+
+               if (STR.isEmpty(uid) && operOutput != null && operOutput.getJSON() != null) {
+                  uri = JSON.getString(operOutput.getJSON(), ConstantsIF.URI);
+
+                  if (!STR.isEmpty(uri)) {
+                     uid = uri.substring(uri.lastIndexOf('/') + 1);
+                  }
+               }
+
+               _writeWindow.record(RestDataAccess.getDocumentKey(operInput.getJSON(), uid));
+               break;
+            }
+            default: {
+               break;
+            }
+         }
+      }
+
+      return;
+   }
+
+   /**
+    * Check if a document was written within the read-your-writes window
+    *
+    * @param key String document key, may be null
+    * @return boolean true if the document was written recently
+    */
+   boolean isRecentWrite(final String key) {
+      return _writeWindow != null && _writeWindow.contains(key);
+   }
+
+   /**
+    * Get the shard ring
+    *
+    * @return ShardRing ring, null if the operations are not sharded
+    */
+   ShardRing getShards() {
+      return _shards;
+   }
+
+   /**
+    * Add a shard, the uid values it owns on the consistent hash ring are
+    * moved to the new shard. Documents are not moved.
+    *
+    * @param endpoint Endpoint new shard
+    * @throws Exception sharding is not enabled or the shard exists
+    */
+   synchronized void addShard(final Endpoint endpoint) throws Exception {
+      if (_shards == null) {
+         throw new Exception("Sharding is not enabled, parameter '"
+            + RestDataAccess.PARAM_SHARDS + "' is not set");
+      }
+
+      for (Endpoint e : _shards.getEndpoints()) {
+         if (e.getName().equals(endpoint.getName())) {
+            throw new Exception("Shard exists: " + endpoint.getName());
+         }
+      }
+
+      _shards = _shards.with(endpoint);
+
+      return;
+   }
+
+   /**
+    * Remove a shard, the uid values it owns are moved to the other shards.
+    * Documents are not moved. The last shard can not be removed.
+    *
+    * @param name String "host:port" of the shard
+    * @throws Exception sharding is not enabled or the shard can not be removed
+    */
+   synchronized void removeShard(final String name) throws Exception {
+      ShardRing ring = null;
+
+      if (_shards == null) {
+         throw new Exception("Sharding is not enabled, parameter '"
+            + RestDataAccess.PARAM_SHARDS + "' is not set");
+      }
+
+      ring = _shards.without(name);
+
+      if (ring == _shards) {
+         throw new Exception("Shard not found, or is the last shard: " + name);
+      }
+
+      _shards = ring;
+
+      return;
+   }
+
+   /**
+    * Get all the endpoints: the hosts, the shards, or the primary and the
+    * replicas
+    *
+    * @return List of Endpoint objects
+    */
+   List<Endpoint> getEndpoints() {
+      List<Endpoint> endpoints = new ArrayList<>();
+
+      if (_balancer != null) {
+         endpoints.addAll(_balancer.getEndpoints());
+      } else if (_shards != null) {
+         endpoints.addAll(_shards.getEndpoints());
+      } else {
+         endpoints.add(_primary);
+         endpoints.addAll(_replicas.getEndpoints());
+      }
+
+      return endpoints;
+   }
+
+   /**
+    * Get the router statistics, the members of the data access statistics:
+    * "loadBalancer", "shards", or "primary", "replicas" and "readYourWrites"
+    *
+    * @return JSONObject statistics
+    */
+   JSONObject getStats() {
+      JSONObject json = new JSONObject();
+      JSONArray array = null;
+
+      if (_balancer != null) {
+         json.put("loadBalancer", _balancer.getStats());
+      }
+
+      if (_shards != null) {
+         array = new JSONArray();
+
+         for (Endpoint e : _shards.getEndpoints()) {
+            array.add(e.getStats());
+         }
+
+         json.put("shards", array);
+      }
+
+      if (_replicas != null) {
+         json.put("primary", _primary.getStats());
+         json.put("replicas", _replicas.getStats());
+      }
+
+      if (_writeWindow != null) {
+         json.put("readYourWrites", _writeWindow.size());
+      }
+
+      return json;
+   }
+
+   /**
+    * Stop the health checks of the load balancers
+    */
+   void close() {
+      if (_balancer != null) {
+         _balancer.close();
+      }
+
+      if (_replicas != null) {
+         _replicas.close();
+      }
+
+      return;
+   }
+}
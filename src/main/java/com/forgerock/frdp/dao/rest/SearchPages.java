@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.client.WebTarget;
+import org.glassfish.jersey.client.ClientProperties;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Iterates the pages of a paged SEARCH operation. Each page is returned as the
+ * OperationIF output of the HTTP GET for that page.
+ *
+ * While the caller consumes a page, the next page(s) are requested in the
+ * background. The number of pages requested ahead is bounded by the prefetch
+ * depth.
+ *
+ * Pagination modes:
+ *
+ * <pre>
+ * NONE   | only the first page is requested
+ * OFFSET | offset / limit query parameters, pages are requested in parallel,
+ *        | the last page is empty, or reaches the "totalPagedResults" of
+ *        | the response
+ * LINK   | "Link: &lt;uri&gt;; rel=next" response header, each page is
+ *        | requested when the previous page is received, a relative uri
+ *        | is resolved against the URI of the previous page
+ * </pre>
+ *
+ * In OFFSET mode, a page with fewer results than the page size is not the
+ * last page: the server may cap the page size. The pages requested ahead
+ * are dropped, the next pages are requested after the short page with its
+ * size.
+ *
+ * The iterator must be closed if it is not fully consumed. The requests that
+ * are not sent are cancelled, a request in progress can not be interrupted:
+ * it completes and its page is dropped. The iterator can be closed by
+ * another thread, a caller waiting for a page gets a failed page.
+ *
+ * With a deadline, the connect and read timeouts of each page request are
+ * the time left. Once the deadline has passed no page is requested, the
+ * next page is a failed page and the iteration ends.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class SearchPages implements Iterator<OperationIF>, AutoCloseable {
+
+   /**
+    * Pagination modes
+    */
+   public static enum MODE {
+      NONE, OFFSET, LINK
+   }
+
+   /**
+    * Attribute of a page with the total number of results, if the server
+    * returns it
+    */
+   static final String TOTAL = "totalPagedResults";
+
+   private final RestDataAccess _dao;
+   private final OperationIF _operInput;
+   private final WebTarget _target;
+   private final Endpoint _endpoint;
+   private final MODE _mode;
+   private final int _depth;
+   private final String _offsetParam;
+   private final String _limitParam;
+   private final long _deadline;
+   private final ExecutorService _executor;
+   private final Deque<Request> _pending = new ArrayDeque<>();
+   private volatile Request _active = null;
+   private CompletableFuture<OperationIF> _tail = null;
+   private int _pageSize = 1;
+   private long _offset = 0L;
+   private int _count = 0;
+   private volatile boolean _finished = false;
+   private OperationIF _current = null;
+
+   /**
+    * Constructor, the first page(s) are requested.
+    *
+    * @param dao RestDataAccess data access object that submits the requests
+    * @param operInput OperationIF SEARCH operation
+    * @param target WebTarget target of the first page
+    * @param endpoint Endpoint endpoint of the target, the page requests are
+    * recorded for the endpoint, null if there is no endpoint
+    * @param mode MODE pagination mode
+    * @param pageSize int number of results per page (OFFSET mode)
+    * @param offsetParam String name of the offset query parameter
+    * @param limitParam String name of the limit query parameter
+    * @param depth int number of pages requested ahead of the caller
+    * @param deadline long deadline of the iteration, System.nanoTime(), 0 for
+    * no deadline
+    * @param executor ExecutorService runs the page requests
+    */
+   SearchPages(final RestDataAccess dao, final OperationIF operInput,
+      final WebTarget target, final Endpoint endpoint, final MODE mode, final int pageSize,
+      final String offsetParam, final String limitParam, final int depth,
+      final long deadline, final ExecutorService executor) {
+      _dao = dao;
+      _operInput = operInput;
+      _target = target;
+      _endpoint = endpoint;
+      _mode = mode;
+      _pageSize = pageSize > 0 ? pageSize : 1;
+      _offsetParam = offsetParam;
+      _limitParam = limitParam;
+      _depth = depth > 0 ? depth : 1;
+      _deadline = deadline;
+      _executor = executor;
+
+      if (_mode != MODE.OFFSET) {
+         _tail = CompletableFuture.supplyAsync(() -> this.send(_target), _executor);
+         _pending.add(new Request(0L, _tail));
+      }
+
+      this.fill();
+
+      return;
+   }
+
+   /**
+    * Check if there is another page, blocks until the page is received.
+    *
+    * @return boolean true if there is another page
+    */
+   @Override
+   public boolean hasNext() {
+      if (_current == null && !_finished) {
+         _current = this.advance();
+      }
+
+      return _current != null;
+   }
+
+   /**
+    * Get the next page, blocks until the page is received.
+    *
+    * @return OperationIF output of the page request
+    */
+   @Override
+   public OperationIF next() {
+      OperationIF page = null;
+
+      if (!this.hasNext()) {
+         throw new NoSuchElementException("No more pages");
+      }
+
+      page = _current;
+      _current = null;
+
+      return page;
+   }
+
+   /**
+    * Cancel the pending page requests, a request in progress completes and
+    * its page is dropped. A caller waiting for a page gets a failed page.
+    */
+   @Override
+   public void close() {
+      Request active = _active;
+
+      _finished = true;
+      _current = null;
+
+      this.cancel();
+
+      if (active != null) {
+         active._future.cancel(false);
+      }
+
+      return;
+   }
+
+   /**
+    * Get the number of results in a page
+    *
+    * @param page OperationIF page output
+    * @return int number of results
+    */
+   static int getResultCount(final OperationIF page) {
+      Object obj = null;
+      JSONObject json = page.getJSON();
+
+      if (json != null) {
+         obj = json.get(ConstantsIF.RESULTS);
+      }
+
+      return obj instanceof JSONArray ? ((JSONArray) obj).size() : 0;
+   }
+
+   /**
+    * Get the total number of results of the search, from a page
+    *
+    * @param page OperationIF page output
+    * @return long total, -1 if the page does not have it
+    */
+   static long getTotal(final OperationIF page) {
+      Object obj = page.getJSON() == null ? null : page.getJSON().get(TOTAL);
+
+      return obj instanceof Number && ((Number) obj).longValue() >= 0L
+         ? ((Number) obj).longValue() : -1L;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Wait for the next page and request more pages, up to the depth.
+    *
+    * @return OperationIF page output, null if there are no more pages
+    */
+   private OperationIF advance() {
+      boolean last = false;
+      int results = 0;
+      long total = 0L;
+      OperationIF page = null;
+      Request request = null;
+
+      synchronized (_pending) {
+         request = _pending.poll();
+         _active = request;
+      }
+
+      if (request != null) {
+         try {
+            page = request._future.join();
+         } catch (CompletionException | CancellationException ex) {
+            page = new RestOperation(OperationIF.TYPE.SEARCH);
+            page.setError(true);
+            page.setState(STATE.ERROR);
+            page.setStatus("Page request failed: "
+               + (ex.getCause() != null ? ex.getCause().getMessage() : ex.getMessage()));
+            page.setJSON(new JSONObject());
+         } finally {
+            _active = null;
+         }
+      }
+
+      if (page != null) {
+         results = getResultCount(page);
+
+         if (page.isError() || _mode == MODE.NONE) {
+            last = true;
+         } else if (_mode == MODE.LINK) {
+            last = !(page instanceof RestOperation)
+               || ((RestOperation) page).getNextLink() == null;
+         } else {
+            total = getTotal(page);
+
+            if (results == 0 || (total >= 0L && request._offset + results >= total)) {
+               last = true;
+            } else if (results < _pageSize) {
+               /*
+                * The server capped the page size, or this is the last page:
+                * the next pages are requested after this one, with its size
+                */
+               this.cancel();
+               _pageSize = results;
+               _offset = request._offset + results;
+            }
+         }
+
+         if (!page.isError() && results == 0 && _count > 0) {
+            page = null; // trailing empty page
+         } else {
+            _count++;
+         }
+      }
+
+      if (page == null || last) {
+         this.close();
+      } else {
+         this.fill();
+      }
+
+      return page;
+   }
+
+   /**
+    * Send a page request, unless the iterator is closed. With a deadline, the
+    * timeouts of the request are the time left, a failed page is returned
+    * if the deadline has passed.
+    *
+    * @param target WebTarget page target
+    * @return OperationIF page output, null if the iterator is closed
+    */
+   private OperationIF send(final WebTarget target) {
+      long timeout = 0L;
+      OperationIF page = null;
+
+      if (!_finished) {
+         if (_deadline != 0L) {
+            timeout = Math.min(TimeUnit.NANOSECONDS.toMillis(_deadline - System.nanoTime()),
+               Integer.MAX_VALUE);
+         }
+
+         if (_deadline == 0L) {
+            page = _dao.submitRequest(_operInput, target, _endpoint);
+         } else if (timeout > 0L) {
+            page = _dao.submitRequest(_operInput, target.path("") // a copy, for the timeouts
+               .property(ClientProperties.CONNECT_TIMEOUT, (int) timeout)
+               .property(ClientProperties.READ_TIMEOUT, (int) timeout), _endpoint);
+         } else {
+            page = new RestOperation(OperationIF.TYPE.SEARCH);
+            page.setError(true);
+            page.setState(STATE.ERROR);
+            page.setStatus("Page request not sent, the deadline has passed");
+            page.setJSON(new JSONObject());
+         }
+      }
+
+      return page;
+   }
+
+   /**
+    * Cancel the pending page requests
+    */
+   private void cancel() {
+      synchronized (_pending) {
+         for (Request request : _pending) {
+            request._future.cancel(false);
+         }
+
+         _pending.clear();
+      }
+
+      return;
+   }
+
+   /**
+    * Request pages until "depth" pages are pending, in addition to the page
+    * being consumed. In LINK mode, each request waits for the previous page.
+    */
+   private void fill() {
+      synchronized (_pending) {
+         while (!_finished && _mode != MODE.NONE
+            && _pending.size() < _depth + (_count == 0 ? 1 : 0)) {
+            if (_mode == MODE.LINK) {
+               _tail = _tail.thenApplyAsync(page -> {
+                  String link = null;
+
+                  if (page != null && !page.isError() && page instanceof RestOperation) {
+                     link = ((RestOperation) page).getNextLink();
+                  }
+
+                  return link == null ? null : this.send(_dao.getTarget(link));
+               }, _executor);
+               _pending.add(new Request(0L, _tail));
+            } else {
+               final long offset = _offset;
+               final int limit = _pageSize;
+
+               _offset += _pageSize;
+
+               _pending.add(new Request(offset, CompletableFuture.supplyAsync(
+                  () -> this.send(_target.queryParam(_offsetParam, offset)
+                     .queryParam(_limitParam, limit)), _executor)));
+            }
+         }
+      }
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE CLASSES ===============
+    */
+   /**
+    * A page request, with its offset (OFFSET mode)
+    */
+   private static final class Request {
+
+      private final long _offset;
+      private final CompletableFuture<OperationIF> _future;
+
+      private Request(final long offset, final CompletableFuture<OperationIF> future) {
+         _offset = offset;
+         _future = future;
+      }
+   }
+}
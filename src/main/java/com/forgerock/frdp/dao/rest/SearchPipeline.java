@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Search-then-fan-out pipeline. The "results" (uid values) of a SEARCH
+ * operation are expanded into READ, REPLACE or DELETE operations which are
+ * executed in parallel, with a bounded concurrency.
+ *
+ * The uid values are streamed from the SEARCH pages, see SearchPages, into the
+ * worker stage. With a static base target, the "uid" is set in the template
+ * JSON. With dynamic URIs, the uid is appended to the template "uri". The
+ * outputs are returned by the iterator as the operations complete (not in the
+ * order of the uid values). The JSON of each output contains the "uid" of the
+ * document.
+ *
+ * Note: with OFFSET paging, a DELETE template shifts the offsets of the
+ * remaining SEARCH results while the pages are read, some documents are
+ * skipped. Use LINK paging or repeat the pipeline until the SEARCH is empty.
+ *
+ * Backpressure: at most "concurrency" operations are in progress or waiting
+ * to be consumed. If the caller stops consuming, the workers and the SEARCH
+ * paging stop. The pipeline must be closed if it is not fully consumed.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class SearchPipeline implements Iterator<OperationIF>, AutoCloseable {
+
+   private static final OperationIF END = new Operation(OperationIF.TYPE.NULL);
+   private final String CLASS = this.getClass().getName();
+   private final Logger _logger = Logger.getLogger(CLASS);
+   private final RestDataAccess _dao;
+   private final OperationIF _operTemplate;
+   private final String _uriTemplate;
+   private final int _concurrency;
+   private final Semaphore _permits;
+   private final BlockingQueue<OperationIF> _outputs;
+   private final ExecutorService _executor;
+   private Future<?> _producer = null;
+   private OperationIF _current = null;
+   private volatile boolean _closed = false;
+   private boolean _finished = false;
+
+   /**
+    * Constructor, starts the pipeline
+    *
+    * @param dao RestDataAccess data access object
+    * @param pages SearchPages pages of the SEARCH operation
+    * @param operTemplate OperationIF template for each uid: READ, REPLACE or
+    * DELETE
+    * @param concurrency int maximum number of operations in progress
+    * @param executor ExecutorService runs the producer and the workers
+    */
+   SearchPipeline(final RestDataAccess dao, final SearchPages pages,
+      final OperationIF operTemplate, final int concurrency,
+      final ExecutorService executor) {
+      JSONObject jsonTemplate = operTemplate.getJSON();
+      String uri = jsonTemplate == null || dao.hasBaseTarget() ? null
+         : (String) jsonTemplate.get(ConstantsIF.URI);
+
+      _dao = dao;
+      _operTemplate = operTemplate;
+      _uriTemplate = uri == null ? null
+         : (uri.endsWith("/") ? uri : uri + "/");
+      _concurrency = concurrency > 0 ? concurrency : 1;
+      _permits = new Semaphore(_concurrency);
+      _outputs = new ArrayBlockingQueue<>(_concurrency + 1);
+      _executor = executor;
+
+      _producer = _executor.submit(() -> this.produce(pages));
+
+      return;
+   }
+
+   /**
+    * Check if there is another output, blocks until an operation completes
+    *
+    * @return boolean true if there is another output
+    */
+   @Override
+   public boolean hasNext() {
+      if (_current == null && !_finished) {
+         try {
+            _current = _outputs.take();
+         } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            _current = END;
+         }
+
+         if (_current == END) {
+            _current = null;
+            _finished = true;
+         }
+      }
+
+      return _current != null;
+   }
+
+   /**
+    * Get the next output, blocks until an operation completes
+    *
+    * @return OperationIF output of the operation
+    */
+   @Override
+   public OperationIF next() {
+      OperationIF output = null;
+
+      if (!this.hasNext()) {
+         throw new NoSuchElementException("No more outputs");
+      }
+
+      output = _current;
+      _current = null;
+
+      return output;
+   }
+
+   /**
+    * Stop the pipeline, operations in progress are completed, remaining uid
+    * values are not processed.
+    */
+   @Override
+   public void close() {
+      _closed = true;
+      _finished = true;
+      _current = null;
+
+      if (_producer != null) {
+         _producer.cancel(true);
+      }
+
+      _outputs.clear(); // release blocked workers
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Read the uid values from the SEARCH pages and start an operation for
+    * each uid. When all operations have completed, the END marker is added to
+    * the outputs.
+    *
+    * @param pages SearchPages pages of the SEARCH operation
+    */
+   private void produce(final SearchPages pages) {
+      final String METHOD = "produce";
+      OperationIF page = null;
+      Object results = null;
+
+      _logger.entering(CLASS, METHOD);
+
+      try (SearchPages iter = pages) {
+         while (!_closed && iter.hasNext()) {
+            page = iter.next();
+
+            if (page.isError()) {
+               this.emit(page);
+               break;
+            }
+
+            results = page.getJSON() == null ? null
+               : page.getJSON().get(ConstantsIF.RESULTS);
+
+            if (results instanceof JSONArray) {
+               for (Object uid : (JSONArray) results) {
+                  if (_closed) {
+                     break;
+                  }
+
+                  if (uid != null) {
+                     _permits.acquire();
+                     this.submit(uid.toString());
+                  }
+               }
+            }
+         }
+
+         _permits.acquire(_concurrency); // wait for the workers
+         _permits.release(_concurrency);
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+      } catch (Exception ex) {
+         _logger.log(Level.WARNING, "{0}: {1}", new Object[]{METHOD, ex.getMessage()});
+         this.emit(this.getFailure(null, ex.getMessage()));
+      } finally {
+         this.emit(END);
+      }
+
+      _logger.exiting(CLASS, METHOD);
+
+      return;
+   }
+
+   /**
+    * Start the operation for the uid, the permit is released when the output
+    * has been consumed by the queue
+    *
+    * @param uid String document identifier
+    */
+   private void submit(final String uid) {
+      try {
+         _executor.execute(() -> {
+            OperationIF output = null;
+
+            try {
+               output = _dao.execute(this.getOperation(uid));
+            } catch (Exception ex) {
+               output = this.getFailure(uid, ex.getMessage());
+            }
+
+            if (output.getJSON() == null) {
+               output.setJSON(new JSONObject());
+            }
+
+            if (!output.getJSON().containsKey(ConstantsIF.UID)) {
+               output.getJSON().put(ConstantsIF.UID, uid);
+            }
+
+            this.emit(output);
+            _permits.release();
+         });
+      } catch (RuntimeException ex) {
+         _permits.release();
+         throw ex;
+      }
+
+      return;
+   }
+
+   /**
+    * Add an output to the queue, blocks while the queue is full
+    *
+    * @param output OperationIF output
+    */
+   private void emit(final OperationIF output) {
+      try {
+         if (_closed) {
+            _outputs.offer(output);
+         } else {
+            _outputs.put(output);
+         }
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+      }
+
+      return;
+   }
+
+   /**
+    * Create the operation for the uid from the template
+    *
+    * @param uid String document identifier
+    * @return OperationIF operation
+    */
+   private OperationIF getOperation(final String uid) {
+      OperationIF oper = new Operation(_operTemplate.getType());
+      JSONObject json = new JSONObject();
+
+      if (_operTemplate.getJSON() != null) {
+         json.putAll(_operTemplate.getJSON());
+      }
+
+      if (_uriTemplate != null) {
+         json.put(ConstantsIF.URI, _uriTemplate + uid);
+      } else {
+         json.put(ConstantsIF.UID, uid);
+      }
+
+      oper.setJSON(json);
+
+      return oper;
+   }
+
+   /**
+    * Create a failed output
+    *
+    * @param uid String document identifier, may be null
+    * @param msg String failure message
+    * @return OperationIF output
+    */
+   private OperationIF getFailure(final String uid, final String msg) {
+      OperationIF output = new RestOperation(_operTemplate.getType());
+      JSONObject json = new JSONObject();
+
+      if (uid != null) {
+         json.put(ConstantsIF.UID, uid);
+      }
+
+      output.setError(true);
+      output.setState(STATE.FAILED);
+      output.setStatus(msg);
+      output.setJSON(json);
+
+      return output;
+   }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring of shard endpoints. Each endpoint is placed on the ring
+ * at a number of virtual nodes, a key is owned by the first virtual node at
+ * or after the hash of the key. Adding or removing an endpoint only moves the
+ * keys of its virtual nodes, about 1/N of the keys.
+ *
+ * The ring is immutable, use with() and without() to get a new ring.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class ShardRing {
+
+   private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+   private static final long FNV_PRIME = 0x100000001b3L;
+
+   private final List<Endpoint> _endpoints;
+   private final int _virtualNodes;
+   private final long[] _hashes;
+   private final Endpoint[] _owners;
+
+   /**
+    * Constructor
+    *
+    * @param endpoints List of Endpoint objects, at least one, unique names
+    * @param virtualNodes int number of virtual nodes for each endpoint
+    */
+   ShardRing(final List<Endpoint> endpoints, final int virtualNodes) {
+      int index = 0;
+      Map<Long, Endpoint> ring = new TreeMap<>(Long::compareUnsigned);
+
+      _endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+      _virtualNodes = virtualNodes > 0 ? virtualNodes : 1;
+
+      for (Endpoint endpoint : _endpoints) {
+         for (int i = 0; i < _virtualNodes; i++) {
+            ring.putIfAbsent(hash(endpoint.getName() + "#" + i), endpoint);
+         }
+      }
+
+      _hashes = new long[ring.size()];
+      _owners = new Endpoint[ring.size()];
+
+      for (Map.Entry<Long, Endpoint> entry : ring.entrySet()) {
+         _hashes[index] = entry.getKey();
+         _owners[index] = entry.getValue();
+         index++;
+      }
+
+      return;
+   }
+
+   /**
+    * Get the endpoints
+    *
+    * @return List of Endpoint objects
+    */
+   List<Endpoint> getEndpoints() {
+      return _endpoints;
+   }
+
+   /**
+    * Get the endpoint that owns the key
+    *
+    * @param key String key, the document uid
+    * @return Endpoint owner
+    */
+   Endpoint get(final String key) {
+      int index = 0;
+      int low = 0;
+      int high = _hashes.length - 1;
+      long hash = hash(key);
+
+      /*
+       * Binary search for the first virtual node >= hash, wrap around to the
+       * first node at the end of the ring. Hashes are compared unsigned.
+       */
+      if (Long.compareUnsigned(hash, _hashes[high]) > 0) {
+         index = 0;
+      } else {
+         while (low < high) {
+            index = (low + high) >>> 1;
+
+            if (Long.compareUnsigned(_hashes[index], hash) < 0) {
+               low = index + 1;
+            } else {
+               high = index;
+            }
+         }
+         index = low;
+      }
+
+      return _owners[index];
+   }
+
+   /**
+    * Get a new ring that includes the endpoint
+    *
+    * @param endpoint Endpoint endpoint to add
+    * @return ShardRing new ring
+    */
+   ShardRing with(final Endpoint endpoint) {
+      List<Endpoint> endpoints = new ArrayList<>(_endpoints);
+
+      endpoints.add(endpoint);
+
+      return new ShardRing(endpoints, _virtualNodes);
+   }
+
+   /**
+    * Get a new ring without the named endpoint
+    *
+    * @param name String endpoint name
+    * @return ShardRing new ring, this ring if the name is not found or is the
+    * last endpoint
+    */
+   ShardRing without(final String name) {
+      ShardRing ring = this;
+      List<Endpoint> endpoints = new ArrayList<>(_endpoints);
+
+      if (endpoints.removeIf(e -> e.getName().equals(name)) && !endpoints.isEmpty()) {
+         ring = new ShardRing(endpoints, _virtualNodes);
+      }
+
+      return ring;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * 64 bit hash of the key: FNV-1a, then a finalizer (MurmurHash3 fmix64)
+    * to spread the bits of similar keys around the ring
+    *
+    * @param key String key
+    * @return long hash
+    */
+   private static long hash(final String key) {
+      long hash = FNV_OFFSET;
+
+      for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+         hash ^= (b & 0xff);
+         hash *= FNV_PRIME;
+      }
+
+      hash ^= hash >>> 33;
+      hash *= 0xff51afd7ed558ccdL;
+      hash ^= hash >>> 33;
+      hash *= 0xc4ceb9fe1a85ec53L;
+      hash ^= hash >>> 33;
+
+      return hash;
+   }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.io.IOException;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+
+/**
+ * JSON codec of the json-simple library, the default codec. The parsers are
+ * not thread safe, each thread has its own parser.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class SimpleJsonCodec implements JsonCodecIF {
+
+   private final ThreadLocal<JSONParser> _parser = ThreadLocal.withInitial(JSONParser::new);
+
+   @Override
+   public Object parse(final String text) throws Exception {
+      return _parser.get().parse(text);
+   }
+
+   @Override
+   public void write(final Object value, final Appendable out) throws IOException {
+      out.append(JSONValue.toJSONString(value));
+
+      return;
+   }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.dao.OperationIF;
+import com.forgerock.frdp.utils.JSON;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Bounded ring buffer of requests that were over a latency threshold, and of
+ * a sample of the other requests. Each entry has the operation type, the
+ * method and URI, the status, the timings and the (truncated) headers and
+ * bodies. The values of the credential headers are not recorded. When the
+ * buffer is full, the oldest entry is replaced.
+ *
+ * A request that is not recorded only costs the threshold check and, with a
+ * sample rate, a random number.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class SlowRequestRecorder implements SlowRequestsMXBean {
+
+   static final String MASK = "****";
+
+   private final long _thresholdNanos;
+   private final double _sampleRate;
+   private final int _maxChars;
+   private final JSONObject[] _entries;
+   private final AtomicLong _slow = new AtomicLong(0L);
+   private final AtomicLong _sampled = new AtomicLong(0L);
+   private int _next = 0;
+   private int _size = 0;
+
+   /**
+    * Constructor
+    *
+    * @param thresholdMillis long latency threshold, in milliseconds
+    * @param sampleRate double sample rate of the other requests, 0.0 to 1.0
+    * @param capacity int maximum number of entries
+    * @param maxChars int maximum characters of the headers and bodies
+    */
+   SlowRequestRecorder(final long thresholdMillis, final double sampleRate,
+      final int capacity, final int maxChars) {
+      _thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis > 0 ? thresholdMillis : 0L);
+      _sampleRate = sampleRate < 0.0 ? 0.0 : (sampleRate > 1.0 ? 1.0 : sampleRate);
+      _entries = new JSONObject[capacity > 0 ? capacity : 1];
+      _maxChars = maxChars > 0 ? maxChars : 0;
+
+      return;
+   }
+
+   /**
+    * Record the request if it is over the threshold, or if it is sampled
+    *
+    * @param operInput OperationIF input
+    * @param operOutput OperationIF output
+    * @param timer RequestTimer timer of the request
+    */
+   void record(final OperationIF operInput, final OperationIF operOutput,
+      final RequestTimer timer) {
+      boolean slow = false;
+      JSONObject entry = null;
+      JSONObject jsonData = null;
+
+      slow = _thresholdNanos > 0L && timer.getElapsed() >= _thresholdNanos;
+
+      if (slow || (_sampleRate > 0.0 && ThreadLocalRandom.current().nextDouble() < _sampleRate)) {
+         (slow ? _slow : _sampled).incrementAndGet();
+
+         entry = new JSONObject();
+         entry.put("time", Instant.now().toString());
+         entry.put("slow", slow);
+         entry.put("type", operInput.getType().toString());
+         entry.put("method", timer.getMethod());
+         entry.put("uri", timer.getUri() == null ? null : timer.getUri().toString());
+         entry.put("state", operOutput.getState() == null ? null : operOutput.getState().toString());
+
+         if (operOutput instanceof RestOperation) {
+            entry.put("httpStatus", ((RestOperation) operOutput).getHttpStatus());
+            entry.put("responseBody", this.truncate(((RestOperation) operOutput).getEntity()));
+         }
+
+         entry.put("timings", timer.toJSON());
+         entry.put("requestHeaders", this.getHeaders(timer.getRequestHeaders()));
+         entry.put("responseHeaders", this.getHeaders(timer.getResponseHeaders()));
+
+         jsonData = JSON.getObject(operInput.getJSON(), ConstantsIF.DATA);
+
+         if (jsonData != null) {
+            entry.put("requestBody", this.truncate(jsonData.toString()));
+         }
+
+         synchronized (this) {
+            _entries[_next] = entry;
+            _next = (_next + 1) % _entries.length;
+            _size = Math.min(_size + 1, _entries.length);
+         }
+      }
+
+      return;
+   }
+
+   /**
+    * Get the recorder statistics and entries
+    *
+    * @return JSONObject statistics, with the "entries", oldest first
+    */
+   JSONObject getStats() {
+      JSONObject json = new JSONObject();
+      JSONArray array = new JSONArray();
+
+      synchronized (this) {
+         for (int i = 0; i < _size; i++) {
+            array.add(_entries[(_next - _size + i + _entries.length) % _entries.length]);
+         }
+      }
+
+      json.put("threshold", this.getThreshold());
+      json.put("sampleRate", _sampleRate);
+      json.put("capacity", _entries.length);
+      json.put("slow", _slow.get());
+      json.put("sampled", _sampled.get());
+      json.put("entries", array);
+
+      return json;
+   }
+
+   @Override
+   public long getThreshold() {
+      return TimeUnit.NANOSECONDS.toMillis(_thresholdNanos);
+   }
+
+   @Override
+   public double getSampleRate() {
+      return _sampleRate;
+   }
+
+   @Override
+   public int getCapacity() {
+      return _entries.length;
+   }
+
+   @Override
+   public long getSlowCount() {
+      return _slow.get();
+   }
+
+   @Override
+   public long getSampledCount() {
+      return _sampled.get();
+   }
+
+   @Override
+   public String[] getEntries() {
+      JSONArray array = (JSONArray) this.getStats().get("entries");
+      String[] entries = new String[array.size()];
+
+      for (int i = 0; i < entries.length; i++) {
+         entries[i] = ((JSONObject) array.get(i)).toJSONString();
+      }
+
+      return entries;
+   }
+
+   @Override
+   public synchronized void clear() {
+      for (int i = 0; i < _entries.length; i++) {
+         _entries[i] = null;
+      }
+
+      _next = 0;
+      _size = 0;
+      _slow.set(0L);
+      _sampled.set(0L);
+
+      return;
+   }
+
+   /**
+    * Check if the header has credentials: its values are not recorded
+    *
+    * @param name String header name
+    * @return boolean true for a credential header
+    */
+   static boolean isCredential(final String name) {
+      return HttpHeaders.AUTHORIZATION.equalsIgnoreCase(name)
+         || HttpHeaders.COOKIE.equalsIgnoreCase(name)
+         || HttpHeaders.SET_COOKIE.equalsIgnoreCase(name)
+         || "Proxy-Authorization".equalsIgnoreCase(name);
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Get the headers as text, the values of credential headers are masked
+    *
+    * @param headers MultivaluedMap headers, may be null
+    * @return String truncated headers, null if there are no headers
+    */
+   private String getHeaders(final MultivaluedMap<String, String> headers) {
+      String name = null;
+      StringBuilder buf = null;
+
+      if (headers != null) {
+         buf = new StringBuilder();
+
+         for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            name = header.getKey();
+
+            buf.append(buf.length() > 0 ? ", " : "").append(name).append("=")
+               .append(isCredential(name) ? MASK : String.valueOf(header.getValue()));
+
+            if (buf.length() > _maxChars) {
+               break;
+            }
+         }
+      }
+
+      return buf == null ? null : this.truncate(buf.toString());
+   }
+
+   /**
+    * Truncate the value to the maximum characters
+    *
+    * @param value String value, may be null
+    * @return String truncated value
+    */
+   private String truncate(final String value) {
+      return value == null || value.length() <= _maxChars
+         ? value : value.substring(0, _maxChars) + "...";
+   }
+}
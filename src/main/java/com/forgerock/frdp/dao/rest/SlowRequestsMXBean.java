@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+/**
+ * JMX management interface of the slow request recorder. The object name is
+ * "com.forgerock.frdp.dao.rest:type=SlowRequests,name=" and the quoted value of
+ * the "slowJmxName" parameter, see ObjectName.quote().
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public interface SlowRequestsMXBean {
+
+   /**
+    * Get the latency threshold
+    *
+    * @return long threshold, in milliseconds
+    */
+   long getThreshold();
+
+   /**
+    * Get the sample rate of requests under the threshold
+    *
+    * @return double rate, 0.0 to 1.0
+    */
+   double getSampleRate();
+
+   /**
+    * Get the maximum number of entries
+    *
+    * @return int capacity
+    */
+   int getCapacity();
+
+   /**
+    * Get the number of requests over the threshold, since the last clear
+    *
+    * @return long number of slow requests
+    */
+   long getSlowCount();
+
+   /**
+    * Get the number of sampled requests, since the last clear
+    *
+    * @return long number of sampled requests
+    */
+   long getSampledCount();
+
+   /**
+    * Get the entries, oldest first, as JSON text
+    *
+    * @return String[] entries
+    */
+   String[] getEntries();
+
+   /**
+    * Remove the entries and reset the counts
+    */
+   void clear();
+}
@@ -0,0 +1,723 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONAware;
+import org.json.simple.JSONObject;
+
+/**
+ * Single pass JSON codec. The parser reads the text directly, without a
+ * tokenizer or intermediate token objects: strings without escapes are a
+ * substring of the text, integers are accumulated without a substring, and
+ * the object keys are shared through a small per-thread key table, most
+ * documents repeat the same keys. The writer appends to the output, nested
+ * values are not converted to intermediate strings.
+ *
+ * The parsed values have the json-simple types: JSONObject, JSONArray,
+ * String, Long (Double if the integer overflows), Double, Boolean and null.
+ *
+ * The texts that are accepted are the texts accepted by json-simple, with
+ * these differences, where json-simple does not check the syntax:
+ * <pre>
+ * - the commas are read as json-simple reads them: leading, repeated and
+ *   trailing commas are ignored, {"a":1,} and [1,] are accepted. A missing
+ *   comma or colon is an error, json-simple accepts [1 2] and {"a" 1}.
+ * - an invalid escape is an error, json-simple keeps "\x" as it is
+ * - an integer that overflows a long is a Double, json-simple fails
+ * </pre>
+ * Numbers have the JSON (and json-simple) syntax: "1.", ".5" and "1.e5"
+ * are errors, leading zeros are accepted.
+ *
+ * With a field projection, the members that are not kept are checked and
+ * skipped, no value is built for them.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class StreamingJsonCodec implements JsonCodecIF {
+
+   private static final int MAX_DEPTH = 512;
+   private static final int KEY_TABLE_SIZE = 1024;
+   private static final int KEY_MAX_LENGTH = 32;
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   private final ThreadLocal<String[]> _keys = ThreadLocal.withInitial(() -> new String[KEY_TABLE_SIZE]);
+
+   @Override
+   public Object parse(final String text) throws Exception {
+      return this.parse(text, null);
+   }
+
+   /**
+    * Parse JSON text, only the projected members are built
+    *
+    * @param text String JSON text
+    * @param fields FieldProjection projection, null to parse everything
+    * @return Object parsed value
+    * @throws Exception invalid JSON text
+    */
+   Object parse(final String text, final FieldProjection fields) throws Exception {
+      Object value = null;
+      Parser parser = new Parser(text, _keys.get());
+
+      parser.skip();
+      value = parser.value(0, fields == null || fields.isAll() ? null : fields);
+      parser.skip();
+
+      if (parser._pos < text.length()) {
+         throw parser.error("Unexpected character after the value");
+      }
+
+      return value;
+   }
+
+   @Override
+   public void write(final Object value, final Appendable out) throws IOException {
+      Iterator<?> iter = null;
+      Map.Entry<?, ?> entry = null;
+
+      if (value == null) {
+         out.append("null");
+      } else if (value instanceof String) {
+         this.quote((String) value, out);
+      } else if (value instanceof Map) {
+         out.append('{');
+         iter = ((Map<?, ?>) value).entrySet().iterator();
+
+         while (iter.hasNext()) {
+            entry = (Map.Entry<?, ?>) iter.next();
+            this.quote(String.valueOf(entry.getKey()), out);
+            out.append(':');
+            this.write(entry.getValue(), out);
+
+            if (iter.hasNext()) {
+               out.append(',');
+            }
+         }
+
+         out.append('}');
+      } else if (value instanceof Collection) {
+         out.append('[');
+         iter = ((Collection<?>) value).iterator();
+
+         while (iter.hasNext()) {
+            this.write(iter.next(), out);
+
+            if (iter.hasNext()) {
+               out.append(',');
+            }
+         }
+
+         out.append(']');
+      } else if (value instanceof Double || value instanceof Float) {
+         if (Double.isNaN(((Number) value).doubleValue())
+            || Double.isInfinite(((Number) value).doubleValue())) {
+            out.append("null");
+         } else {
+            out.append(value.toString());
+         }
+      } else if (value instanceof Number || value instanceof Boolean) {
+         if (value instanceof Long && out instanceof StringBuilder) {
+            ((StringBuilder) out).append(((Long) value).longValue());
+         } else {
+            out.append(value.toString());
+         }
+      } else if (value instanceof JSONAware) {
+         out.append(((JSONAware) value).toJSONString());
+      } else {
+         this.quote(value.toString(), out);
+      }
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Write a quoted string, the quote, the backslash and the control
+    * characters are escaped. Runs of characters that are not escaped are
+    * appended at once.
+    *
+    * @param value String value
+    * @param out Appendable output
+    * @throws IOException could not write to the output
+    */
+   private void quote(final String value, final Appendable out) throws IOException {
+      int start = 0;
+      char c = 0;
+      int length = value.length();
+
+      out.append('"');
+
+      for (int i = 0; i < length; i++) {
+         c = value.charAt(i);
+
+         if (c < 0x20 || c == '"' || c == '\\') {
+            out.append(value, start, i);
+            start = i + 1;
+
+            switch (c) {
+               case '"':
+                  out.append("\\\"");
+                  break;
+               case '\\':
+                  out.append("\\\\");
+                  break;
+               case '\n':
+                  out.append("\\n");
+                  break;
+               case '\r':
+                  out.append("\\r");
+                  break;
+               case '\t':
+                  out.append("\\t");
+                  break;
+               case '\b':
+                  out.append("\\b");
+                  break;
+               case '\f':
+                  out.append("\\f");
+                  break;
+               default:
+                  out.append("\\u").append(HEX[(c >> 12) & 0xF]).append(HEX[(c >> 8) & 0xF])
+                     .append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+                  break;
+            }
+         }
+      }
+
+      out.append(value, start, length).append('"');
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE CLASSES ===============
+    */
+   /**
+    * Recursive descent parser of one text
+    */
+   private static final class Parser {
+
+      private final String _text;
+      private final String[] _keys;
+      private final int _length;
+      private int _pos = 0;
+      private StringBuilder _buf = null;
+
+      private Parser(final String text, final String[] keys) {
+         _text = text;
+         _keys = keys;
+         _length = text.length();
+      }
+
+      /**
+       * Parse a value at the current position
+       *
+       * @param depth int nesting depth
+       * @param fields FieldProjection projection of the value, null for all
+       * @return Object value
+       * @throws Exception invalid JSON
+       */
+      private Object value(final int depth, final FieldProjection fields) throws Exception {
+         Object value = null;
+         char c = 0;
+
+         if (depth > MAX_DEPTH) {
+            throw this.error("Nesting is deeper than " + MAX_DEPTH);
+         }
+
+         if (_pos >= _length) {
+            throw this.error("Unexpected end of text");
+         }
+
+         c = _text.charAt(_pos);
+
+         switch (c) {
+            case '{':
+               value = this.object(depth, fields);
+               break;
+            case '[':
+               value = this.array(depth, fields);
+               break;
+            case '"':
+               value = this.string(false);
+               break;
+            case 't':
+               value = this.literal("true", Boolean.TRUE);
+               break;
+            case 'f':
+               value = this.literal("false", Boolean.FALSE);
+               break;
+            case 'n':
+               value = this.literal("null", null);
+               break;
+            default:
+               if (c == '-' || (c >= '0' && c <= '9')) {
+                  value = this.number();
+               } else {
+                  throw this.error("Unexpected character '" + c + "'");
+               }
+               break;
+         }
+
+         return value;
+      }
+
+      private JSONObject object(final int depth, final FieldProjection fields) throws Exception {
+         String key = null;
+         FieldProjection member = null;
+         JSONObject json = new JSONObject();
+
+         _pos++; // {
+         this.commas();
+
+         while (this.peek() != '}') {
+            if (this.peek() != '"') {
+               throw this.error("Expected a key");
+            }
+
+            key = this.string(true);
+            this.skip();
+            this.expect(':');
+            this.skip();
+            member = fields == null ? null : fields.get(key);
+
+            if (fields == null) {
+               json.put(key, this.value(depth + 1, null));
+            } else if (member == null) {
+               this.skipValue(depth + 1);
+            } else {
+               json.put(key, this.value(depth + 1, member.isAll() ? null : member));
+            }
+
+            this.separator('}');
+         }
+
+         _pos++; // }
+
+         return json;
+      }
+
+      private JSONArray array(final int depth, final FieldProjection fields) throws Exception {
+         JSONArray json = new JSONArray();
+
+         _pos++; // [
+         this.commas();
+
+         while (this.peek() != ']') {
+            json.add(this.value(depth + 1, fields));
+            this.separator(']');
+         }
+
+         _pos++; // ]
+
+         return json;
+      }
+
+      /**
+       * Skip a value at the current position, the syntax is checked but no
+       * value is built
+       *
+       * @param depth int nesting depth
+       * @throws Exception invalid JSON
+       */
+      private void skipValue(final int depth) throws Exception {
+         char c = 0;
+         char close = 0;
+
+         if (depth > MAX_DEPTH) {
+            throw this.error("Nesting is deeper than " + MAX_DEPTH);
+         }
+
+         c = this.peek();
+
+         if (c == '{' || c == '[') {
+            close = c == '{' ? '}' : ']';
+            _pos++;
+            this.commas();
+
+            while (this.peek() != close) {
+               if (close == '}') {
+                  if (this.peek() != '"') {
+                     throw this.error("Expected a key");
+                  }
+
+                  this.skipString();
+                  this.skip();
+                  this.expect(':');
+                  this.skip();
+               }
+
+               this.skipValue(depth + 1);
+               this.separator(close);
+            }
+
+            _pos++;
+         } else if (c == '"') {
+            this.skipString();
+         } else if (c == '-' || (c >= '0' && c <= '9')) {
+            this.skipNumber();
+         } else {
+            this.value(depth, null); // literal, or an error
+         }
+
+         return;
+      }
+
+      /**
+       * Skip a string, the position is at the opening quote
+       *
+       * @throws Exception unterminated string
+       */
+      private void skipString() throws Exception {
+         boolean closed = false;
+         char c = 0;
+
+         _pos++;
+
+         while (!closed && _pos < _length) {
+            c = _text.charAt(_pos++);
+
+            if (c == '"') {
+               closed = true;
+            } else if (c == '\\') {
+               _pos++;
+            }
+         }
+
+         if (!closed) {
+            throw this.error("Unterminated string");
+         }
+
+         return;
+      }
+
+      /**
+       * Skip a number: digits, an optional fraction and exponent. No value is
+       * built.
+       *
+       * @throws Exception invalid number
+       */
+      private void skipNumber() throws Exception {
+         if (this.peek() == '-') {
+            _pos++;
+         }
+
+         this.skipDigits();
+
+         if (this.peek() == '.') {
+            _pos++;
+            this.skipDigits();
+         }
+
+         if (this.peek() == 'e' || this.peek() == 'E') {
+            _pos++;
+
+            if (this.peek() == '+' || this.peek() == '-') {
+               _pos++;
+            }
+
+            this.skipDigits();
+         }
+
+         return;
+      }
+
+      private void skipDigits() throws Exception {
+         int start = _pos;
+         char c = 0;
+
+         while (_pos < _length && (c = _text.charAt(_pos)) >= '0' && c <= '9') {
+            _pos++;
+         }
+
+         if (_pos == start) {
+            throw this.error("Invalid number");
+         }
+
+         return;
+      }
+
+      /**
+       * Parse a string, the position is at the opening quote
+       *
+       * @param key boolean true for an object key, short keys are shared
+       * @return String value
+       * @throws Exception invalid string
+       */
+      private String string(final boolean key) throws Exception {
+         int start = ++_pos;
+         char c = 0;
+         String value = null;
+
+         while (_pos < _length && (c = _text.charAt(_pos)) != '"' && c != '\\') {
+            _pos++;
+         }
+
+         if (_pos >= _length) {
+            throw this.error("Unterminated string");
+         } else if (c == '\\') {
+            value = this.escaped(start);
+         } else {
+            value = key ? this.key(start, _pos) : _text.substring(start, _pos);
+            _pos++;
+         }
+
+         return value;
+      }
+
+      /**
+       * Parse the rest of a string that has escapes
+       *
+       * @param start int start of the string content
+       * @return String value
+       * @throws Exception invalid escape or unterminated string
+       */
+      private String escaped(final int start) throws Exception {
+         boolean closed = false;
+         char c = 0;
+
+         if (_buf == null) {
+            _buf = new StringBuilder();
+         }
+
+         _buf.setLength(0);
+         _buf.append(_text, start, _pos);
+
+         while (!closed && _pos < _length) {
+            c = _text.charAt(_pos++);
+
+            if (c == '"') {
+               closed = true;
+            } else if (c != '\\') {
+               _buf.append(c);
+            } else if (_pos < _length) {
+               c = _text.charAt(_pos++);
+
+               switch (c) {
+                  case '"':
+                  case '\\':
+                  case '/':
+                     _buf.append(c);
+                     break;
+                  case 'n':
+                     _buf.append('\n');
+                     break;
+                  case 'r':
+                     _buf.append('\r');
+                     break;
+                  case 't':
+                     _buf.append('\t');
+                     break;
+                  case 'b':
+                     _buf.append('\b');
+                     break;
+                  case 'f':
+                     _buf.append('\f');
+                     break;
+                  case 'u':
+                     if (_pos + 4 > _length) {
+                        throw this.error("Invalid unicode escape");
+                     }
+                     try {
+                        _buf.append((char) Integer.parseInt(_text.substring(_pos, _pos + 4), 16));
+                     } catch (NumberFormatException ex) {
+                        throw this.error("Invalid unicode escape");
+                     }
+                     _pos += 4;
+                     break;
+                  default:
+                     throw this.error("Invalid escape '\\" + c + "'");
+               }
+            }
+         }
+
+         if (!closed) {
+            throw this.error("Unterminated string");
+         }
+
+         return _buf.toString();
+      }
+
+      /**
+       * Get a shared key for the text range, from the key table
+       *
+       * @param start int start of the key
+       * @param end int end of the key, exclusive
+       * @return String key
+       */
+      private String key(final int start, final int end) {
+         int hash = 0;
+         int slot = 0;
+         String key = null;
+
+         if (end - start > KEY_MAX_LENGTH) {
+            key = _text.substring(start, end);
+         } else {
+            for (int i = start; i < end; i++) {
+               hash = 31 * hash + _text.charAt(i);
+            }
+
+            slot = (hash ^ (hash >>> 16)) & (KEY_TABLE_SIZE - 1);
+            key = _keys[slot];
+
+            if (key == null || key.length() != end - start
+               || !_text.regionMatches(start, key, 0, end - start)) {
+               key = _text.substring(start, end);
+               _keys[slot] = key;
+            }
+         }
+
+         return key;
+      }
+
+      /**
+       * Parse a number: a Long, or a Double for a decimal, an exponent or an
+       * integer that overflows
+       *
+       * @return Number value
+       * @throws Exception invalid number
+       */
+      private Number number() throws Exception {
+         int start = _pos;
+         int digits = 0;
+         boolean negative = false;
+         boolean decimal = false;
+         long value = 0L;
+         char c = 0;
+         Number number = null;
+
+         if (_text.charAt(_pos) == '-') {
+            negative = true;
+            _pos++;
+         }
+
+         while (_pos < _length && (c = _text.charAt(_pos)) >= '0' && c <= '9') {
+            value = value * 10 - (c - '0'); // negative, Long.MIN_VALUE fits
+            digits++;
+            _pos++;
+         }
+
+         if (digits == 0) {
+            throw this.error("Invalid number");
+         }
+
+         if (this.peek() == '.' || this.peek() == 'e' || this.peek() == 'E') {
+            decimal = true;
+            _pos = start;
+            this.skipNumber(); // checks the fraction and the exponent
+         }
+
+         if (decimal || digits > 18) {
+            try {
+               number = decimal ? Double.valueOf(_text.substring(start, _pos))
+                  : this.integer(_text.substring(start, _pos));
+            } catch (NumberFormatException ex) {
+               throw this.error("Invalid number");
+            }
+         } else {
+            number = negative ? value : -value;
+         }
+
+         return number;
+      }
+
+      /**
+       * Parse a long integer, a Double if it overflows
+       *
+       * @param text String integer
+       * @return Number value
+       */
+      private Number integer(final String text) {
+         Number number = null;
+
+         try {
+            number = Long.valueOf(text);
+         } catch (NumberFormatException ex) {
+            number = Double.valueOf(text);
+         }
+
+         return number;
+      }
+
+      private Object literal(final String literal, final Object value) throws Exception {
+         if (!_text.startsWith(literal, _pos)) {
+            throw this.error("Invalid literal");
+         }
+
+         _pos += literal.length();
+
+         return value;
+      }
+
+      /**
+       * Skip the separator after a member or an element: commas, or the
+       * closing character (not consumed)
+       *
+       * @param close char closing character of the object or the array
+       * @throws Exception no comma and no closing character
+       */
+      private void separator(final char close) throws Exception {
+         this.skip();
+
+         if (!this.commas() && this.peek() != close) {
+            throw this.error("Expected ',' or '" + close + "'");
+         }
+
+         return;
+      }
+
+      /**
+       * Skip the commas and the white space, json-simple ignores the
+       * leading, repeated and trailing commas
+       *
+       * @return boolean true if there was a comma
+       */
+      private boolean commas() {
+         boolean comma = false;
+
+         this.skip();
+
+         while (this.peek() == ',') {
+            comma = true;
+            _pos++;
+            this.skip();
+         }
+
+         return comma;
+      }
+
+      private void skip() {
+         char c = 0;
+
+         while (_pos < _length
+            && ((c = _text.charAt(_pos)) == ' ' || c == '\n' || c == '\r' || c == '\t')) {
+            _pos++;
+         }
+      }
+
+      private char peek() {
+         return _pos < _length ? _text.charAt(_pos) : 0;
+      }
+
+      private void expect(final char c) throws Exception {
+         if (this.peek() != c) {
+            throw this.error("Expected '" + c + "'");
+         }
+
+         _pos++;
+      }
+
+      private Exception error(final String msg) {
+         return new Exception(msg + " at position " + _pos);
+      }
+   }
+}
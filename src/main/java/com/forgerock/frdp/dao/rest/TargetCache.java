@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.WebTarget;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Cache of host level targets for dynamic URI operations. A URI is split into
+ * the host part, "protocol://host:port", and the path. The target of the host
+ * is created once, the path is appended for each operation, the host part is
+ * not parsed again.
+ *
+ * The cache is bounded, the least recently used host is evicted. With a
+ * client factory, each host has its own client (and connection pool). The
+ * client of an evicted host is released later, after a grace period, requests
+ * in progress may still use it.
+ *
+ * URIs with a query, a fragment or a template are not cached.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class TargetCache {
+
+   private static final long RETIRE_NANOS = TimeUnit.SECONDS.toNanos(60L);
+
+   private final Client _client;
+   private final int _capacity;
+   private final Function<String, Client> _factory;
+   private final Consumer<Client> _release;
+   private final Map<String, Host> _hosts;
+   private final List<Host> _retired = new ArrayList<>();
+   private final AtomicLong _hits = new AtomicLong(0L);
+   private final AtomicLong _misses = new AtomicLong(0L);
+   private final AtomicLong _evictions = new AtomicLong(0L);
+
+   /**
+    * Constructor
+    *
+    * @param client Client shared client, used for hosts without a client and
+    * for URIs that are not cached
+    * @param capacity int maximum number of hosts
+    * @param factory Function gets the client of a host, "protocol://host:port",
+    * null to use the shared client
+    * @param release Consumer releases a client from the factory
+    */
+   TargetCache(final Client client, final int capacity,
+      final Function<String, Client> factory, final Consumer<Client> release) {
+      _client = client;
+      _capacity = capacity > 0 ? capacity : 1;
+      _factory = factory;
+      _release = release;
+      _hosts = new LinkedHashMap<String, Host>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(final Map.Entry<String, Host> eldest) {
+            boolean remove = this.size() > _capacity;
+
+            if (remove) {
+               _evictions.incrementAndGet();
+               retire(eldest.getValue());
+            }
+
+            return remove;
+         }
+      };
+
+      return;
+   }
+
+   /**
+    * Get the target for a full URI
+    *
+    * @param uri String full URI
+    * @return WebTarget target
+    */
+   WebTarget get(final String uri) {
+      int start = 0;
+      int slash = 0;
+      String key = null;
+      String path = null;
+      Host host = null;
+      WebTarget target = null;
+
+      start = uri == null ? -1 : uri.indexOf("://");
+
+      if (start > 0 && uri.indexOf('?') < 0 && uri.indexOf('#') < 0 && uri.indexOf('{') < 0) {
+         slash = uri.indexOf('/', start + 3);
+         key = slash < 0 ? uri : uri.substring(0, slash);
+         path = slash < 0 ? null : uri.substring(slash);
+
+         synchronized (_hosts) {
+            host = _hosts.get(key);
+
+            if (host == null) {
+               host = new Host(key, _factory == null ? null : _factory.apply(key));
+               _hosts.put(key, host);
+               _misses.incrementAndGet();
+            } else {
+               _hits.incrementAndGet();
+            }
+         }
+
+         host._requests.incrementAndGet();
+         host._lastUsed = System.nanoTime();
+
+         target = path == null ? host._target : host._target.path(path);
+      } else {
+         target = _client.target(uri);
+      }
+
+      return target;
+   }
+
+   /**
+    * Release the clients of the hosts
+    */
+   void close() {
+      synchronized (_hosts) {
+         for (Host host : _hosts.values()) {
+            host.close();
+         }
+         _hosts.clear();
+
+         for (Host host : _retired) {
+            host.close();
+         }
+         _retired.clear();
+      }
+
+      return;
+   }
+
+   /**
+    * Get the cache statistics
+    *
+    * @return JSONObject statistics
+    */
+   JSONObject getStats() {
+      long now = System.nanoTime();
+      JSONObject json = new JSONObject();
+      JSONObject jsonHost = null;
+      JSONArray array = new JSONArray();
+
+      synchronized (_hosts) {
+         for (Host host : _hosts.values()) {
+            jsonHost = new JSONObject();
+            jsonHost.put("host", host._key);
+            jsonHost.put("requests", host._requests.get());
+            jsonHost.put("idle", TimeUnit.NANOSECONDS.toMillis(now - host._lastUsed));
+            array.add(jsonHost);
+         }
+      }
+
+      json.put("capacity", _capacity);
+      json.put("hits", _hits.get());
+      json.put("misses", _misses.get());
+      json.put("evictions", _evictions.get());
+      json.put("hosts", array);
+
+      return json;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Retire an evicted host, release the clients of hosts retired before the
+    * grace period. Called with the lock held.
+    *
+    * @param host Host evicted host
+    */
+   private void retire(final Host host) {
+      long now = System.nanoTime();
+      Iterator<Host> iter = null;
+      Host retired = null;
+
+      if (host._client != null) {
+         host._lastUsed = now;
+         _retired.add(host);
+      }
+
+      iter = _retired.iterator();
+
+      while (iter.hasNext()) {
+         retired = iter.next();
+
+         if (now - retired._lastUsed > RETIRE_NANOS) {
+            retired.close();
+            iter.remove();
+         }
+      }
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE CLASSES ===============
+    */
+   /**
+    * Host target, with its own client or the shared client
+    */
+   private final class Host {
+
+      private final String _key;
+      private final Client _client;
+      private final WebTarget _target;
+      private final AtomicLong _requests = new AtomicLong(0L);
+      private volatile long _lastUsed = System.nanoTime();
+
+      private Host(final String key, final Client client) {
+         _key = key;
+         _client = client;
+         _target = (client != null ? client : TargetCache.this._client).target(key);
+      }
+
+      private void close() {
+         if (_client != null) {
+            _release.accept(_client);
+         }
+      }
+   }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the bulkheads: the limits of the types and the tenants, the wait for
+ * a permit, a rejected request is not sent and is not counted by the load
+ * balancer, invalid parameters. Prints a line for each test, throws an
+ * exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestBulkhead
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestBulkhead {
+
+   public static void main(String[] args) throws Exception {
+      testBulkhead();
+
+      try (TestServer server1 = new TestServer(); TestServer server2 = new TestServer()) {
+         for (TestServer server : new TestServer[]{server1, server2}) {
+            server.getDocuments().put("doc1", "{}");
+            server.setDelay(300L);
+         }
+
+         testRejected(server1, server2);
+         testWait(server1, server2);
+         testTenants(server1);
+         testInvalid(server1);
+      }
+
+      return;
+   }
+
+   /**
+    * Bulkhead: the limits of a type, of the tenants, of a specific tenant,
+    * the wait for a permit
+    *
+    * @throws Exception a test failed
+    */
+   private static void testBulkhead() throws Exception {
+      Map<OperationIF.TYPE, Integer> typeLimits = new EnumMap<>(OperationIF.TYPE.class);
+      Map<String, Integer> tenantLimits = new HashMap<>();
+      Bulkhead bulkhead = null;
+      final Bulkhead waiting;
+
+      typeLimits.put(OperationIF.TYPE.READ, 1);
+      tenantLimits.put("big", 2);
+      bulkhead = new Bulkhead(typeLimits, 1, tenantLimits, 0L);
+
+      check(bulkhead.acquire(OperationIF.TYPE.READ, null) == null
+         && bulkhead.acquire(OperationIF.TYPE.READ, null) != null
+         && bulkhead.acquire(OperationIF.TYPE.SEARCH, null) == null,
+         "the limit of a type, the other types are not limited");
+
+      bulkhead.release(OperationIF.TYPE.READ, null);
+
+      check(bulkhead.acquire(OperationIF.TYPE.READ, null) == null, "the released permit is acquired");
+
+      check(bulkhead.acquire(OperationIF.TYPE.SEARCH, "a") == null
+         && bulkhead.acquire(OperationIF.TYPE.SEARCH, "a") != null
+         && bulkhead.acquire(OperationIF.TYPE.SEARCH, "b") == null,
+         "the limit of each tenant");
+
+      check(bulkhead.acquire(OperationIF.TYPE.SEARCH, "big") == null
+         && bulkhead.acquire(OperationIF.TYPE.SEARCH, "big") == null
+         && bulkhead.acquire(OperationIF.TYPE.SEARCH, "big") != null,
+         "the limit of a specific tenant");
+
+      check(bulkhead.acquire(OperationIF.TYPE.READ, "c") != null
+         && ((Number) ((JSONObject) ((JSONObject) bulkhead.getStats().get("tenants")).get("c"))
+            .get("active")).intValue() == 0,
+         "a request rejected by its type releases the tenant permit");
+
+      waiting = new Bulkhead(typeLimits, 0, new HashMap<>(), 1000L);
+      waiting.acquire(OperationIF.TYPE.READ, null);
+      CompletableFuture.runAsync(() -> {
+         sleep(100L);
+         waiting.release(OperationIF.TYPE.READ, null);
+      });
+
+      check(waiting.acquire(OperationIF.TYPE.READ, null) == null,
+         "bulkheadWait, the permit is acquired when it is released");
+
+      return;
+   }
+
+   /**
+    * Rejected: a READ over the limit is not sent, the load balancer does not
+    * count it, the SEARCH is not limited
+    *
+    * @param server1 TestServer first host
+    * @param server2 TestServer second host
+    * @throws Exception a test failed
+    */
+   private static void testRejected(final TestServer server1, final TestServer server2)
+      throws Exception {
+      OperationIF operOutput = null;
+      CompletableFuture<OperationIF> first = null;
+      Map<String, String> params = params(server1, server2);
+      RestDataAccess dao = null;
+
+      params.put(RestDataAccess.PARAM_BULKHEADS, "read:1");
+      dao = new RestDataAccess(params);
+      first = execute(dao, read("doc1", null));
+      sleep(100L);
+      operOutput = dao.execute(read("doc1", null));
+
+      check(operOutput.isError() && operOutput.getState() == STATE.ERROR
+         && operOutput.getStatus().startsWith(RestDataAccess.STATUS_BULKHEAD_FULL)
+         && outstanding(dao) == 1,
+         "the READ over the limit is rejected, not started: " + operOutput.getStatus());
+
+      check(first.get().getState() == STATE.SUCCESS
+         && server1.getRequests().size() + server2.getRequests().size() == 1,
+         "the rejected READ is not sent");
+
+      operOutput = dao.execute(search());
+
+      check(operOutput.getState() == STATE.SUCCESS, "the SEARCH is not limited");
+
+      dao.close();
+      server1.getRequests().clear();
+      server2.getRequests().clear();
+
+      return;
+   }
+
+   /**
+    * Wait: a READ over the limit waits for the permit, it is not started
+    * while it waits
+    *
+    * @param server1 TestServer first host
+    * @param server2 TestServer second host
+    * @throws Exception a test failed
+    */
+   private static void testWait(final TestServer server1, final TestServer server2)
+      throws Exception {
+      CompletableFuture<OperationIF> first = null;
+      CompletableFuture<OperationIF> second = null;
+      Map<String, String> params = params(server1, server2);
+      RestDataAccess dao = null;
+
+      params.put(RestDataAccess.PARAM_BULKHEADS, "read:1");
+      params.put(RestDataAccess.PARAM_BULKHEAD_WAIT, "2000");
+      dao = new RestDataAccess(params);
+      first = execute(dao, read("doc1", null));
+      second = execute(dao, read("doc1", null));
+      sleep(100L);
+
+      check(outstanding(dao) == 1, "the waiting READ is not started");
+
+      check(first.get().getState() == STATE.SUCCESS && second.get().getState() == STATE.SUCCESS,
+         "bulkheadWait, both READs succeed");
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Tenants: the limit of each tenant, the limit of a specific tenant
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testTenants(final TestServer server) throws Exception {
+      OperationIF operOutput = null;
+      CompletableFuture<OperationIF> first = null;
+      Map<String, String> params = server.getParams();
+      RestDataAccess dao = null;
+
+      params.put(RestDataAccess.PARAM_BULKHEAD_TENANT_LIMIT, "1");
+      params.put(RestDataAccess.PARAM_BULKHEAD_TENANTS, "big:2");
+      dao = new RestDataAccess(params);
+
+      first = execute(dao, read("doc1", "a"));
+      sleep(100L);
+      operOutput = dao.execute(read("doc1", "a"));
+
+      check(operOutput.isError() && operOutput.getStatus().contains("tenant 'a'"),
+         "the second request of a tenant is rejected: " + operOutput.getStatus());
+      check(dao.execute(read("doc1", "b")).getState() == STATE.SUCCESS,
+         "another tenant is not limited by it");
+
+      first.get();
+      first = execute(dao, read("doc1", "big"));
+      sleep(100L);
+
+      check(dao.execute(read("doc1", "big")).getState() == STATE.SUCCESS
+         && first.get().getState() == STATE.SUCCESS,
+         "a specific tenant limit: " + dao.getStatistics().get("bulkheads"));
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Invalid: an unknown operation type, a limit that is not a number
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testInvalid(final TestServer server) throws Exception {
+      boolean rejected = false;
+      Map<String, String> params = null;
+
+      for (String[] param : new String[][]{{RestDataAccess.PARAM_BULKHEADS, "nope:1"},
+         {RestDataAccess.PARAM_BULKHEADS, "read"}, {RestDataAccess.PARAM_BULKHEAD_TENANTS, "a:x"}}) {
+         rejected = false;
+         params = server.getParams();
+         params.put(param[0], param[1]);
+
+         try {
+            new RestDataAccess(params).close();
+         } catch (Exception ex) {
+            rejected = true;
+         }
+
+         check(rejected, "invalid '" + param[0] + "' is rejected: " + param[1]);
+      }
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get the parameters of a data access object that balances two servers
+    *
+    * @param server1 TestServer first host
+    * @param server2 TestServer second host
+    * @return Map of parameters
+    */
+   private static Map<String, String> params(final TestServer server1, final TestServer server2) {
+      Map<String, String> params = server1.getParams();
+
+      params.remove(RestDataAccess.PARAM_HOST);
+      params.put(RestDataAccess.PARAM_HOSTS, server1.getHost() + ", " + server2.getHost());
+
+      return params;
+   }
+
+   /**
+    * Get the requests in progress of the load balancer endpoints
+    *
+    * @param dao RestDataAccess data access object
+    * @return int outstanding requests
+    */
+   private static int outstanding(final RestDataAccess dao) {
+      int total = 0;
+      JSONArray endpoints = (JSONArray) ((JSONObject) dao.getStatistics().get("loadBalancer"))
+         .get("endpoints");
+
+      for (Object endpoint : endpoints) {
+         total += ((Number) ((JSONObject) endpoint).get("outstanding")).intValue();
+      }
+
+      return total;
+   }
+
+   /**
+    * Execute an operation in another thread
+    *
+    * @param dao RestDataAccess data access object
+    * @param operInput OperationIF input
+    * @return CompletableFuture output
+    */
+   private static CompletableFuture<OperationIF> execute(final RestDataAccess dao,
+      final OperationIF operInput) {
+      return CompletableFuture.supplyAsync(() -> dao.execute(operInput));
+   }
+
+   /**
+    * Sleep, the interrupt is ignored
+    *
+    * @param millis long milliseconds
+    */
+   private static void sleep(final long millis) {
+      try {
+         Thread.sleep(millis);
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+      }
+
+      return;
+   }
+
+   /**
+    * Get a READ operation
+    *
+    * @param uid String document uid
+    * @param tenant String tenant, may be null
+    * @return OperationIF operation
+    */
+   private static OperationIF read(final String uid, final String tenant) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.READ);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.UID, uid);
+
+      if (tenant != null) {
+         json.put(RestDataAccess.ATTR_TENANT, tenant);
+      }
+
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+
+   /**
+    * Get a SEARCH operation
+    *
+    * @return OperationIF operation
+    */
+   private static OperationIF search() {
+      OperationIF operInput = new Operation(OperationIF.TYPE.SEARCH);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.QUERY_PARAMS, new JSONObject());
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+/**
+ * Test the CBOR format: the encoding and decoding of CborCodec, the
+ * negotiation of CBOR responses and request bodies, a 415 response with and
+ * without a CBOR body, an unsupported content type. Prints a line for each
+ * test, throws an exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestCbor
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestCbor {
+
+   private static volatile boolean _rejectRead = false;
+   private static volatile boolean _rejectCbor = false;
+
+   public static void main(String[] args) throws Exception {
+      testCbor();
+
+      try (TestServer server = new TestServer()) {
+         server.getDocuments().put("doc1", "{\"n\":5,\"f\":2.5,\"s\":\"text\"}");
+         server.setHandler(exchange -> handle(server, exchange));
+
+         testNegotiation(server);
+         testRejected(server);
+         testContentType(server);
+      }
+
+      return;
+   }
+
+   /**
+    * CBOR round trips, and decoding of the examples of RFC 8949
+    *
+    * @throws Exception a test failed
+    */
+   private static void testCbor() throws Exception {
+      boolean rejected = false;
+      Object value = null;
+      String[] texts = {
+         "{}", "[]", "0", "-1", "23", "24", "255", "256", "65536", "4294967296",
+         "9223372036854775807", "-9223372036854775808", "1.5", "0.1", "-4.1", "1.0E300",
+         "\"\"", "\"text\"", "\"\\u00fc\\u6c34\\ud800\\udd51\"", "true", "false", "null",
+         "{\"uid\":\"u1\",\"data\":{\"n\":5,\"f\":2.5,\"tags\":[\"a\",null,true],\"o\":{}}}"
+      };
+
+      for (String text : texts) {
+         value = new JSONParser().parse(text);
+         check(equal(value, decode(CborCodec.encode(value))), "cbor round trip: " + text);
+      }
+
+      check(Arrays.equals(CborCodec.encode(1000L), bytes("1903e8")), "encode 1000 as 1903e8");
+      check(Arrays.equals(CborCodec.encode(1.5), bytes("fa3fc00000")),
+         "encode an exact float in 4 bytes");
+      check(Arrays.equals(CborCodec.encode(0.1), bytes("fb3fb999999999999a")),
+         "encode an inexact float in 8 bytes");
+
+      check(equal(decode(bytes("a26161016162820203")), parse("{\"a\":1,\"b\":[2,3]}")),
+         "decode a map");
+      check(equal(decode(bytes("9f018202039f0405ffff")), new JSONParser().parse("[1,[2,3],[4,5]]")),
+         "decode indefinite length arrays");
+      check(equal(decode(bytes("7f657374726561646d696e67ff")), "streaming"),
+         "decode an indefinite length string");
+      check(equal(decode(bytes("f93e00")), 1.5), "decode a half float");
+      check(equal(decode(bytes("c11a514b67b0")), 1363896240L), "decode a tagged value");
+
+      try {
+         decode(bytes("8301"));
+      } catch (IOException ex) {
+         rejected = true;
+      }
+
+      check(rejected, "truncated cbor is rejected");
+
+      return;
+   }
+
+   /**
+    * Negotiation: CBOR is accepted first, the response is decoded, then the
+    * bodies are sent as CBOR
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testNegotiation(final TestServer server) throws Exception {
+      OperationIF operOutput = null;
+      RestDataAccess dao = dao(server);
+
+      server.getRequests().clear();
+      operOutput = dao.execute(read("doc1"));
+
+      check(operOutput.getState() == STATE.SUCCESS
+         && operOutput.getJSON().get(ConstantsIF.DATA).equals(parse(server.getDocuments().get("doc1")))
+         && header(server, 0, "accept").startsWith(CborCodec.TYPE_CBOR),
+         "a CBOR response is decoded: " + operOutput.getJSON());
+
+      operOutput = dao.execute(replace("doc1"));
+
+      check(!operOutput.isError() && CborCodec.TYPE_CBOR.equals(header(server, 1, "content-type")),
+         "after a CBOR response, the body is sent as CBOR");
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Rejected: a 415 to a request without a body does not disable CBOR, a
+    * 415 to a CBOR body does, the request is sent again as JSON
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testRejected(final TestServer server) throws Exception {
+      OperationIF operOutput = null;
+      RestDataAccess dao = dao(server);
+
+      dao.execute(read("doc1"));
+
+      _rejectRead = true;
+      dao.execute(read("doc1"));
+      _rejectRead = false;
+
+      server.getRequests().clear();
+      dao.execute(replace("doc1"));
+
+      check(CborCodec.TYPE_CBOR.equals(header(server, 0, "content-type")),
+         "a 415 to a READ does not disable the CBOR bodies");
+
+      _rejectCbor = true;
+      server.getRequests().clear();
+      operOutput = dao.execute(replace("doc1"));
+
+      check(!operOutput.isError() && server.getRequests().size() == 2
+         && ConstantsIF.TYPE_JSON.equals(header(server, 1, "content-type")),
+         "a 415 to a CBOR body, the request is sent again as JSON: " + operOutput.getStatus());
+
+      server.getRequests().clear();
+      dao.execute(replace("doc1"));
+
+      check(ConstantsIF.TYPE_JSON.equals(header(server, 0, "content-type")),
+         "then the bodies are sent as JSON");
+
+      _rejectCbor = false;
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Content type: an unsupported "content-type" header is replaced by JSON,
+    * not by the negotiated CBOR
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testContentType(final TestServer server) throws Exception {
+      OperationIF operInput = replace("doc1");
+      OperationIF operOutput = null;
+      JSONObject jsonHeaders = new JSONObject();
+      RestDataAccess dao = dao(server);
+
+      jsonHeaders.put(ConstantsIF.HDR_CONTENT_TYPE, "text/plain");
+      operInput.getJSON().put(ConstantsIF.HEADERS, jsonHeaders);
+      dao.execute(read("doc1")); // CBOR bodies are negotiated
+      server.getRequests().clear();
+      operOutput = dao.execute(operInput);
+
+      check(!operOutput.isError() && ConstantsIF.TYPE_JSON.equals(header(server, 0, "content-type")),
+         "an unsupported content type is sent as JSON: " + header(server, 0, "content-type"));
+
+      dao.close();
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Handler of a server that supports CBOR: a GET that accepts CBOR gets a
+    * CBOR document, a CBOR body is accepted. Rejects a READ, or a CBOR body,
+    * with a 415 if requested by the test.
+    *
+    * @param server TestServer server
+    * @param exchange HttpExchange request and response
+    * @throws IOException could not send the response
+    */
+   private static void handle(final TestServer server, final HttpExchange exchange)
+      throws IOException {
+      String accept = exchange.getRequestHeaders().getFirst("Accept");
+      String type = exchange.getRequestHeaders().getFirst("Content-Type");
+      String path = exchange.getRequestURI().getPath();
+      String data = server.getDocuments().get(path.substring(path.lastIndexOf('/') + 1));
+      boolean get = "GET".equals(exchange.getRequestMethod());
+      byte[] bytes = null;
+      JSONObject json = new JSONObject();
+
+      if ((get && _rejectRead) || (_rejectCbor && CborCodec.TYPE_CBOR.equals(type))) {
+         TestServer.send(exchange, 415, "{\"error\":\"unsupported media type\"}");
+      } else if (CborCodec.TYPE_CBOR.equals(type)) {
+         TestServer.send(exchange, 204, null);
+      } else if (get && data != null && accept != null && accept.startsWith(CborCodec.TYPE_CBOR)) {
+         try {
+            json.put(ConstantsIF.DATA, parse(data));
+         } catch (Exception ex) {
+            throw new IOException(ex);
+         }
+
+         bytes = CborCodec.encode(json);
+         exchange.getResponseHeaders().add("Content-Type", CborCodec.TYPE_CBOR);
+         exchange.sendResponseHeaders(200, bytes.length);
+
+         try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+         }
+
+         exchange.close();
+      } else {
+         server.handleDocument(exchange, (String) exchange.getAttribute("body"));
+      }
+
+      return;
+   }
+
+   /**
+    * Get a data access object that negotiates CBOR
+    *
+    * @param server TestServer server
+    * @return RestDataAccess data access object
+    * @throws Exception could not create the object
+    */
+   private static RestDataAccess dao(final TestServer server) throws Exception {
+      Map<String, String> params = server.getParams();
+
+      params.put(RestDataAccess.PARAM_BINARY_FORMAT, "cbor");
+
+      return new RestDataAccess(params);
+   }
+
+   /**
+    * Get a header of a recorded request
+    *
+    * @param server TestServer server
+    * @param index int request index
+    * @param name String lower case header name
+    * @return String header value, "" if the request or header does not exist
+    */
+   private static String header(final TestServer server, final int index, final String name) {
+      List<JSONObject> requests = server.getRequests();
+      Object value = requests.size() > index
+         ? ((JSONObject) requests.get(index).get("headers")).get(name) : null;
+
+      return value == null ? "" : value.toString();
+   }
+
+   /**
+    * Get a READ operation
+    *
+    * @param uid String document uid
+    * @return OperationIF operation
+    */
+   private static OperationIF read(final String uid) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.READ);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.UID, uid);
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+
+   /**
+    * Get a REPLACE operation
+    *
+    * @param uid String document uid
+    * @return OperationIF operation
+    */
+   private static OperationIF replace(final String uid) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.REPLACE);
+      JSONObject json = new JSONObject();
+      JSONObject jsonData = new JSONObject();
+
+      jsonData.put("n", 6L);
+      json.put(ConstantsIF.UID, uid);
+      json.put(ConstantsIF.DATA, jsonData);
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+
+   /**
+    * Parse a JSON object with json-simple
+    *
+    * @param text String JSON text
+    * @return JSONObject object
+    * @throws Exception invalid JSON
+    */
+   private static JSONObject parse(final String text) throws Exception {
+      return (JSONObject) new JSONParser().parse(text);
+   }
+
+   /**
+    * Decode CBOR bytes
+    *
+    * @param bytes byte[] encoded value
+    * @return Object decoded value
+    * @throws Exception invalid CBOR
+    */
+   private static Object decode(final byte[] bytes) throws Exception {
+      return CborCodec.decode(new ByteArrayInputStream(bytes));
+   }
+
+   /**
+    * Compare decoded values, numbers are compared by value: a float that
+    * is decoded from 4 bytes is a Double
+    *
+    * @param expected Object expected value
+    * @param actual Object decoded value
+    * @return boolean true if equal
+    */
+   private static boolean equal(final Object expected, final Object actual) {
+      return expected instanceof Number && actual instanceof Number
+         ? ((Number) expected).doubleValue() == ((Number) actual).doubleValue()
+         && (expected instanceof Double) == (actual instanceof Double)
+         : String.valueOf(expected).equals(String.valueOf(actual));
+   }
+
+   /**
+    * Get the bytes of a hex string
+    *
+    * @param hex String hex
+    * @return byte[] bytes
+    */
+   private static byte[] bytes(final String hex) {
+      byte[] bytes = new byte[hex.length() / 2];
+
+      for (int i = 0; i < bytes.length; i++) {
+         bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+      }
+
+      return bytes;
+   }
+}
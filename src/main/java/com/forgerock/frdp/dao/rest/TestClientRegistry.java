@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.Map;
+import javax.ws.rs.client.Client;
+import org.glassfish.jersey.client.ClientConfig;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the shared, reference counted, Jersey clients: the registry, the
+ * default (not shared), DAO instances that share a client, the client is
+ * closed with the last instance. Prints a line for each test, throws an
+ * exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestClientRegistry
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestClientRegistry {
+
+   public static void main(String[] args) throws Exception {
+      testRegistry();
+
+      try (TestServer server = new TestServer()) {
+         server.getDocuments().put("doc1", "{}");
+
+         testDefault(server);
+         testShared(server);
+      }
+
+      return;
+   }
+
+   /**
+    * Registry: the same key gets the same client, the client is closed by
+    * the last release
+    *
+    * @throws Exception a test failed
+    */
+   private static void testRegistry() throws Exception {
+      boolean closed = false;
+      ClientConfig config = new ClientConfig();
+      ClientRegistry registry = ClientRegistry.getInstance();
+      String key = ClientRegistry.getKey(config, "http://h:1");
+      Client client1 = registry.acquire(key, config);
+      Client client2 = registry.acquire(key, config);
+
+      check(client1 == client2, "the same key gets the same client");
+
+      registry.release(client1);
+      client2.target("http://h:1"); // not closed
+
+      registry.release(client2);
+
+      try {
+         client2.target("http://h:1");
+      } catch (IllegalStateException ex) {
+         closed = true;
+      }
+
+      check(closed, "the client is closed by the last release");
+
+      return;
+   }
+
+   /**
+    * Default: the client is not shared
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testDefault(final TestServer server) throws Exception {
+      RestDataAccess dao = new RestDataAccess(server.getParams());
+
+      check(dao.execute(read("doc1")).getState() == STATE.SUCCESS
+         && dao.getStatistics().get("clients") == null, "by default, the client is not shared");
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Shared: two objects with the same configuration share a client, it is
+    * released by each close()
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testShared(final TestServer server) throws Exception {
+      Map<String, String> params = server.getParams();
+      RestDataAccess dao1 = null;
+      RestDataAccess dao2 = null;
+
+      params.put(RestDataAccess.PARAM_SHARED_CLIENT, "true");
+      dao1 = new RestDataAccess(params);
+      dao2 = new RestDataAccess(params);
+
+      check(references(dao1) == 2, "two objects share the client: " + references(dao1));
+
+      dao1.close();
+
+      check(references(dao2) == 1 && dao2.execute(read("doc1")).getState() == STATE.SUCCESS,
+         "after the close() of one object, the other uses the client");
+
+      dao2.close();
+
+      check(clients() == 0, "the client is released by the last close()");
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get the reference count of the shared client
+    *
+    * @param dao RestDataAccess data access object
+    * @return long references, -1 if the client is not shared
+    */
+   private static long references(final RestDataAccess dao) {
+      JSONObject json = (JSONObject) dao.getStatistics().get("clients");
+      JSONArray array = json == null ? null : (JSONArray) json.get("clients");
+
+      return array == null || array.size() != 1 ? -1L
+         : ((Number) ((JSONObject) array.get(0)).get("references")).longValue();
+   }
+
+   /**
+    * Get the number of clients in the registry
+    *
+    * @return int clients
+    */
+   private static int clients() {
+      return ((JSONArray) ClientRegistry.getInstance().getStats().get("clients")).size();
+   }
+
+   /**
+    * Get a READ operation
+    *
+    * @param uid String document uid
+    * @return OperationIF operation
+    */
+   private static OperationIF read(final String uid) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.READ);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.UID, uid);
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+}
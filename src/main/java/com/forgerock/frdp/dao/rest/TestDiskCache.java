@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the persistent response cache: put, remove, reopen with the index,
+ * scan without the index, torn records, the READ operations of the data
+ * access object, a restarted object, the revalidation of an older response.
+ * Prints a line for each test, throws an exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestDiskCache
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestDiskCache {
+
+   public static void main(String[] args) throws Exception {
+      File dir = Files.createTempDirectory("TestDiskCache").toFile();
+      File daoDir = Files.createTempDirectory("TestDiskCache").toFile();
+
+      try (TestServer server = new TestServer()) {
+         testCache(dir);
+         testRead(server, daoDir);
+         testRevalidate(server, daoDir);
+      } finally {
+         delete(dir);
+         delete(daoDir);
+      }
+
+      return;
+   }
+
+   /**
+    * Persistent cache: put, remove, reopen with the index, scan without the
+    * index, torn records
+    *
+    * @param dir File empty directory
+    * @throws Exception a test failed
+    */
+   private static void testCache(final File dir) throws Exception {
+      boolean locked = false;
+      long stamp = 0L;
+      DiskCache cache = null;
+      DiskCache.Entry entry = null;
+
+      cache = open(dir);
+
+      for (int i = 0; i < 10; i++) {
+         cache.put("k" + i, "\"e" + i + "\"", null, bytes("value-" + i), cache.stamp());
+      }
+
+      cache.put("k1" + DiskCache.VARIANT + "alice", "\"a\"", null, bytes("alice"), cache.stamp());
+      entry = cache.get("k3");
+      check(entry != null && "\"e3\"".equals(entry.getEtag())
+         && Arrays.equals(entry.getValue(), bytes("value-3")), "put and get, with the validators");
+
+      cache.remove("k1");
+      check(cache.get("k1") == null && cache.get("k1" + DiskCache.VARIANT + "alice") == null,
+         "remove removes the key and its variants");
+
+      stamp = cache.stamp();
+      cache.remove("k2");
+      cache.put("k2", null, null, bytes("stale"), stamp);
+      check(cache.get("k2") == null, "a value loaded before a removal is not stored");
+
+      try {
+         open(dir);
+      } catch (IOException ex) {
+         locked = true;
+      }
+
+      check(locked, "the directory of an open cache can not be opened again");
+
+      cache.close();
+
+      cache = open(dir);
+      check(Arrays.equals(cache.get("k9").getValue(), bytes("value-9")) && cache.get("k1") == null
+         && cache.get("k2") == null, "reopen, the index is loaded");
+      cache.close();
+
+      check(new File(dir, "index.dat").delete(), "delete the index");
+      cache = open(dir);
+      check(Arrays.equals(cache.get("k9").getValue(), bytes("value-9")) && cache.get("k1") == null
+         && ((Number) cache.getStats().get("entries")).longValue() == 8L,
+         "reopen without the index, the segments are scanned: " + cache.getStats());
+      cache.put("k10", null, null, bytes("torn-record"), cache.stamp());
+      cache.close();
+
+      check(new File(dir, "index.dat").delete() && tear(dir, bytes("torn-record")),
+         "tear the last record");
+      cache = open(dir);
+      check(cache.get("k10") == null && Arrays.equals(cache.get("k9").getValue(), bytes("value-9")),
+         "a torn record is dropped, the records before it are kept");
+
+      cache.put("k11", null, null, bytes("after"), cache.stamp());
+      check(Arrays.equals(cache.get("k11").getValue(), bytes("after")),
+         "a record is written after a torn record");
+      cache.close();
+
+      cache = open(dir);
+      check(cache.get("k11") != null && cache.get("k10") == null, "reopen after a torn record");
+      cache.close();
+
+      return;
+   }
+
+   /**
+    * READ: a cached response is not requested again, also by a restarted
+    * object, a REPLACE removes it
+    *
+    * @param server TestServer server
+    * @param dir File empty directory
+    * @throws Exception a test failed
+    */
+   private static void testRead(final TestServer server, final File dir) throws Exception {
+      OperationIF operOutput = null;
+      RestDataAccess dao = dao(server, dir, "60000");
+
+      server.getDocuments().put("doc1", "{\"v\":1}");
+      server.getRequests().clear();
+      dao.execute(read("doc1"));
+      operOutput = dao.execute(read("doc1"));
+
+      check(operOutput.getState() == STATE.SUCCESS && server.getRequests().size() == 1,
+         "the second READ is cached: " + server.getRequestLines());
+
+      dao.close();
+      dao = dao(server, dir, "60000");
+      operOutput = dao.execute(read("doc1"));
+
+      check(operOutput.getState() == STATE.SUCCESS && server.getRequests().size() == 1
+         && operOutput.getJSON().get(ConstantsIF.DATA) != null,
+         "a restarted object reads the cached response: " + server.getRequestLines());
+
+      dao.execute(replace("doc1"));
+      dao.execute(read("doc1"));
+
+      check(server.getRequests().size() == 3, "a REPLACE removes the cached READ: "
+         + server.getRequestLines());
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Revalidate: an older response is revalidated, a 304 renews it
+    *
+    * @param server TestServer server
+    * @param dir File cache directory
+    * @throws Exception a test failed
+    */
+   private static void testRevalidate(final TestServer server, final File dir) throws Exception {
+      JSONObject headers = null;
+      OperationIF operOutput = null;
+      RestDataAccess dao = dao(server, dir, "0");
+
+      server.getDocuments().put("doc2", "{\"v\":2}");
+      dao.execute(read("doc2"));
+      server.getRequests().clear();
+      operOutput = dao.execute(read("doc2"));
+      headers = (JSONObject) server.getRequests().get(0).get("headers");
+
+      check(operOutput.getState() == STATE.SUCCESS && operOutput.getJSON().get(ConstantsIF.DATA)
+         != null && headers.get("if-none-match") != null,
+         "an older response is revalidated with its ETag: " + headers.get("if-none-match"));
+
+      dao.close();
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Open a persistent cache of 1 MB, with segments of 64 KB
+    *
+    * @param dir File cache directory
+    * @return DiskCache cache
+    * @throws IOException could not open the cache
+    */
+   private static DiskCache open(final File dir) throws IOException {
+      return new DiskCache(dir, 1024L * 1024L, 64 * 1024, 0.5);
+   }
+
+   /**
+    * Get a data access object with a persistent cache
+    *
+    * @param server TestServer server
+    * @param dir File cache directory
+    * @param maxAge String milliseconds a response is used without revalidation
+    * @return RestDataAccess data access object
+    * @throws Exception could not create the object
+    */
+   private static RestDataAccess dao(final TestServer server, final File dir,
+      final String maxAge) throws Exception {
+      Map<String, String> params = server.getParams();
+
+      params.put(RestDataAccess.PARAM_DISK_CACHE_DIR, dir.getPath());
+      params.put(RestDataAccess.PARAM_DISK_CACHE_SIZE, "1m");
+      params.put(RestDataAccess.PARAM_DISK_CACHE_SEGMENT_SIZE, "64k");
+      params.put(RestDataAccess.PARAM_DISK_CACHE_MAX_AGE, maxAge);
+
+      return new RestDataAccess(params);
+   }
+
+   /**
+    * Get the UTF-8 bytes of a value
+    *
+    * @param value String value
+    * @return byte[] bytes
+    */
+   private static byte[] bytes(final String value) {
+      return value.getBytes(StandardCharsets.UTF_8);
+   }
+
+   /**
+    * Change a byte of a value in the segment files, as if the write of its
+    * record was not complete
+    *
+    * @param dir File cache directory
+    * @param value byte[] value of the record
+    * @return boolean true if the value was found
+    * @throws IOException could not change the file
+    */
+   private static boolean tear(final File dir, final byte[] value) throws IOException {
+      boolean found = false;
+      byte[] content = null;
+
+      for (File file : dir.listFiles()) {
+         if (!found && file.getName().startsWith("segment-")) {
+            content = Files.readAllBytes(file.toPath());
+
+            for (int i = 0; !found && i + value.length <= content.length; i++) {
+               if (Arrays.equals(content, i, i + value.length, value, 0, value.length)) {
+                  try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                     raf.seek(i + value.length - 1);
+                     raf.write(content[i + value.length - 1] ^ 0xff);
+                  }
+                  found = true;
+               }
+            }
+         }
+      }
+
+      return found;
+   }
+
+   /**
+    * Delete a directory and its files
+    *
+    * @param dir File directory
+    */
+   private static void delete(final File dir) {
+      File[] files = dir.listFiles();
+
+      if (files != null) {
+         for (File file : files) {
+            file.delete();
+         }
+      }
+
+      dir.delete();
+
+      return;
+   }
+
+   /**
+    * Get a READ operation
+    *
+    * @param uid String document uid
+    * @return OperationIF operation
+    */
+   private static OperationIF read(final String uid) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.READ);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.UID, uid);
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+
+   /**
+    * Get a REPLACE operation
+    *
+    * @param uid String document uid
+    * @return OperationIF operation
+    */
+   private static OperationIF replace(final String uid) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.REPLACE);
+      JSONObject json = new JSONObject();
+      JSONObject jsonData = new JSONObject();
+
+      jsonData.put("v", 0L);
+      json.put(ConstantsIF.UID, uid);
+      json.put(ConstantsIF.DATA, jsonData);
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the response entity buffers: the entity is read into pooled chunks,
+ * the maximum size is enforced, an entity is at most MAX_LENGTH bytes even
+ * without a limit. Prints a line for each test, throws an exception on the
+ * first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestEntityBuffer
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestEntityBuffer {
+
+   public static void main(String[] args) throws Exception {
+      testBuffer();
+      testLimit();
+      testDataAccess();
+
+      return;
+   }
+
+   /**
+    * Buffer: an entity larger than a chunk is read into several chunks, an
+    * entity over the maximum size is an overflow
+    *
+    * @throws Exception a test failed
+    */
+   private static void testBuffer() throws Exception {
+      StringBuilder buf = new StringBuilder();
+      String text = null;
+      BufferPool pool = BufferPool.getInstance(1024);
+
+      for (int i = 0; i < 5000; i++) {
+         buf.append("abé");
+      }
+
+      text = buf.toString();
+
+      try (EntityBuffer buffer = EntityBuffer.read(
+         new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), pool, 0L)) {
+         check(!buffer.isOverflow() && buffer.length() == 20000
+            && buffer.toString(StandardCharsets.UTF_8).equals(text),
+            "an entity of 20000 bytes is read into 1 KB chunks: " + buffer.length());
+      }
+
+      try (EntityBuffer buffer = EntityBuffer.read(
+         new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), pool, 20000L)) {
+         check(!buffer.isOverflow(), "an entity of exactly the maximum size is read");
+      }
+
+      try (EntityBuffer buffer = EntityBuffer.read(
+         new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), pool, 1000L)) {
+         check(buffer.isOverflow() && buffer.length() <= 1000,
+            "an entity over the maximum size is an overflow: " + buffer.length());
+      }
+
+      try (EntityBuffer buffer = EntityBuffer.read(null, pool, 0L)) {
+         check(buffer.length() == 0 && buffer.toString(StandardCharsets.UTF_8).isEmpty(),
+            "no entity is an empty buffer");
+      }
+
+      return;
+   }
+
+   /**
+    * Limit: the length of a buffer is an int, no limit or a larger limit is
+    * MAX_LENGTH
+    *
+    * @throws Exception a test failed
+    */
+   private static void testLimit() throws Exception {
+      check(EntityBuffer.getLimit(0L) == EntityBuffer.MAX_LENGTH
+         && EntityBuffer.getLimit(-1L) == EntityBuffer.MAX_LENGTH,
+         "no maximum size is limited to MAX_LENGTH");
+
+      check(EntityBuffer.getLimit(Long.MAX_VALUE) == EntityBuffer.MAX_LENGTH
+         && EntityBuffer.getLimit(1L << 32) == EntityBuffer.MAX_LENGTH,
+         "a maximum size over MAX_LENGTH is limited to MAX_LENGTH");
+
+      check(EntityBuffer.getLimit(1000L) == 1000L, "a maximum size under MAX_LENGTH is used");
+
+      return;
+   }
+
+   /**
+    * Data access: a large READ entity, a READ entity over "maxEntitySize",
+    * an int parameter that would wrap
+    *
+    * @throws Exception a test failed
+    */
+   private static void testDataAccess() throws Exception {
+      StringBuilder buf = new StringBuilder();
+      String error = null;
+      Map<String, String> params = null;
+      OperationIF operOutput = null;
+      RestDataAccess dao = null;
+
+      try (TestServer server = new TestServer()) {
+         for (int i = 0; i < 50000; i++) {
+            buf.append("abé");
+         }
+
+         server.getDocuments().put("big", "{\"x\":\"" + buf + "\"}");
+         params = server.getParams();
+
+         dao = new RestDataAccess(params);
+         operOutput = dao.execute(read("big"));
+         check(operOutput.getState() == STATE.SUCCESS
+            && ((String) ((JSONObject) operOutput.getJSON().get(ConstantsIF.DATA)).get("x"))
+               .length() == 150000, "read a document of 200 KB");
+         dao.close();
+
+         params.put(RestDataAccess.PARAM_MAX_ENTITY_SIZE, "1000");
+         dao = new RestDataAccess(params);
+         operOutput = dao.execute(read("big"));
+         check(operOutput.getState() == STATE.FAILED
+            && operOutput.getStatus().startsWith(RestDataAccess.STATUS_ENTITY_TOO_LARGE),
+            "a document over 'maxEntitySize' fails: " + operOutput.getStatus());
+         dao.close();
+
+         params.remove(RestDataAccess.PARAM_MAX_ENTITY_SIZE);
+         params.put(RestDataAccess.PARAM_BUFFER_SIZE, "4294967297");
+
+         try {
+            new RestDataAccess(params).close();
+         } catch (Exception ex) {
+            error = ex.getMessage();
+         }
+
+         check(error != null && error.contains(RestDataAccess.PARAM_BUFFER_SIZE),
+            "an int parameter that would wrap is an error: " + error);
+      }
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get a READ operation
+    *
+    * @param uid String document uid
+    * @return OperationIF operation
+    */
+   private static OperationIF read(final String uid) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.READ);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.UID, uid);
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+}
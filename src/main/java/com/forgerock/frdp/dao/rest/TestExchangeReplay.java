@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import com.forgerock.frdp.utils.JSON;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * End to end test of the REST Data Access implementation, without a server:
+ * a recording of the exchanges is written and replayed (see ExchangeReplay),
+ * the operations go through the whole request and response processing.
+ * The operations of the recording are then read back and executed again.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestExchangeReplay
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestExchangeReplay {
+
+   private static final String BASE = "http://replay.example.com:8080/app/content";
+
+   public static void main(String[] args) throws Exception {
+      File file = null;
+      RestDataAccess dao = null;
+      OperationIF operOutput = null;
+      JSONObject jsonStats = null;
+      List<OperationIF> operations = null;
+
+      file = File.createTempFile("TestExchangeReplay", ".jsonl");
+      file.deleteOnExit();
+
+      try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+         writer.write(exchange(OperationIF.TYPE.CREATE, "POST", "", input(null, 1L),
+            201, "Created", "Location", BASE + "/u1", "").toJSONString() + "\n");
+         writer.write(exchange(OperationIF.TYPE.REPLACE, "PUT", "/u1", input("u1", 2L),
+            204, "No Content", null, null, "").toJSONString() + "\n");
+         writer.write(exchange(OperationIF.TYPE.READ, "GET", "/u1", input("u1", null),
+            200, "OK", "ETag", "\"v1\"", "{\"uid\":\"u1\",\"data\":{\"v\":1}}").toJSONString() + "\n");
+         writer.write(exchange(OperationIF.TYPE.READ, "GET", "/u1", input("u1", null),
+            200, "OK", "ETag", "\"v2\"", "{\"uid\":\"u1\",\"data\":{\"v\":2}}").toJSONString() + "\n");
+         writer.write(exchange(OperationIF.TYPE.SEARCH, "GET", "?_queryFilter=true", search(),
+            200, "OK", null, null, "{\"quantity\":1,\"results\":[\"u1\"]}").toJSONString() + "\n");
+         writer.write(exchange(OperationIF.TYPE.DELETE, "DELETE", "/u1", input("u1", null),
+            204, "No Content", null, null, "").toJSONString() + "\n");
+         writer.write(exchange(OperationIF.TYPE.READ, "GET", "/u1", input("u1", null),
+            404, "Not Found", null, null, "{\"error\":\"not found\"}").toJSONString() + "\n");
+      }
+
+      dao = new RestDataAccess(params(file));
+
+      operOutput = dao.execute(operation(OperationIF.TYPE.CREATE, input(null, 1L)));
+      check(operOutput.getState() == STATE.SUCCESS
+         && (BASE + "/u1").equals(JSON.getString(operOutput.getJSON(), ConstantsIF.URI)),
+         "create, the location of the recorded response: " + operOutput.getJSON());
+
+      operOutput = dao.execute(operation(OperationIF.TYPE.REPLACE, input("u1", 2L)));
+      check(operOutput.getState() == STATE.SUCCESS, "replace: " + operOutput.getStatus());
+
+      operOutput = dao.execute(operation(OperationIF.TYPE.READ, input("u1", null)));
+      check(operOutput.getState() == STATE.SUCCESS && value(operOutput) == 1L,
+         "first read, the first recorded exchange: " + operOutput.getJSON());
+
+      operOutput = dao.execute(operation(OperationIF.TYPE.READ, input("u1", null)));
+      check(value(operOutput) == 2L, "second read, the next recorded exchange: "
+         + operOutput.getJSON());
+
+      operOutput = dao.execute(operation(OperationIF.TYPE.SEARCH, search()));
+      check(operOutput.getState() == STATE.SUCCESS
+         && ((JSONArray) operOutput.getJSON().get(ConstantsIF.RESULTS)).contains("u1"),
+         "search: " + operOutput.getJSON());
+
+      operOutput = dao.execute(operation(OperationIF.TYPE.DELETE, input("u1", null)));
+      check(operOutput.getState() == STATE.SUCCESS, "delete: " + operOutput.getStatus());
+
+      operOutput = dao.execute(operation(OperationIF.TYPE.READ, input("u1", null)));
+      check(operOutput.getState() == STATE.NOTEXIST, "read after delete, 404: "
+         + operOutput.getState());
+
+      operOutput = dao.execute(operation(OperationIF.TYPE.READ, input("u9", null)));
+      check(operOutput.isError(), "read that was not recorded, 501: " + operOutput.getStatus());
+
+      jsonStats = (JSONObject) dao.getStatistics().get("replay");
+      check(((Number) jsonStats.get("replayed")).longValue() == 7L
+         && ((Number) jsonStats.get("missed")).longValue() == 1L,
+         "replay statistics: " + jsonStats);
+
+      dao.close();
+
+      /*
+       * Execute the recorded operations again, in the recorded order
+       */
+      operations = ExchangeReplay.readOperations(file.getPath());
+      check(operations.size() == 7 && operations.get(0).getType() == OperationIF.TYPE.CREATE,
+         "read the recorded operations: " + operations.size());
+
+      dao = new RestDataAccess(params(file));
+
+      for (int i = 0; i < operations.size(); i++) {
+         operOutput = dao.execute(operations.get(i));
+         check(operOutput.getState()
+            == (i == operations.size() - 1 ? STATE.NOTEXIST : STATE.SUCCESS),
+            "recorded " + operations.get(i).getType() + ": " + operOutput.getState());
+      }
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get the parameters of a data access object that replays the recording
+    *
+    * @param file File recording
+    * @return Map of parameters
+    */
+   private static Map<String, String> params(final File file) {
+      Map<String, String> params = new HashMap<>();
+
+      params.put(RestDataAccess.PARAM_PROTOCOL, "http");
+      params.put(RestDataAccess.PARAM_HOST, "replay.example.com");
+      params.put(RestDataAccess.PARAM_PORT, "8080");
+      params.put(RestDataAccess.PARAM_PATH, "app/content");
+      params.put(RestDataAccess.PARAM_REPLAY_FILE, file.getPath());
+
+      return params;
+   }
+
+   /**
+    * Get a recorded exchange
+    *
+    * @param type OperationIF.TYPE operation type
+    * @param method String HTTP method
+    * @param path String path and query, after the base URI
+    * @param input JSONObject operation input
+    * @param status int response status
+    * @param reason String response reason
+    * @param header String response header name, may be null
+    * @param value String response header value
+    * @param entity String response entity
+    * @return JSONObject exchange
+    */
+   private static JSONObject exchange(final OperationIF.TYPE type, final String method,
+      final String path, final JSONObject input, final int status, final String reason,
+      final String header, final String value, final String entity) {
+      JSONObject json = new JSONObject();
+      JSONObject jsonHeaders = new JSONObject();
+      JSONArray values = new JSONArray();
+
+      values.add("application/json");
+      jsonHeaders.put("Content-Type", values);
+
+      if (header != null) {
+         values = new JSONArray();
+         values.add(value);
+         jsonHeaders.put(header, values);
+      }
+
+      json.put(ExchangeRecorder.TYPE, type.toString());
+      json.put(ExchangeRecorder.INPUT, input);
+      json.put(ExchangeRecorder.METHOD, method);
+      json.put(ExchangeRecorder.URI, BASE + path);
+      json.put(ExchangeRecorder.STATUS, (long) status);
+      json.put(ExchangeRecorder.REASON, reason);
+      json.put(ExchangeRecorder.RESPONSE_HEADERS, jsonHeaders);
+      json.put(ExchangeRecorder.ENTITY, entity);
+
+      return json;
+   }
+
+   /**
+    * Get the input of a document operation
+    *
+    * @param uid String document uid, may be null
+    * @param value Long value of the "v" data member, null for no data
+    * @return JSONObject input
+    */
+   private static JSONObject input(final String uid, final Long value) {
+      JSONObject json = new JSONObject();
+      JSONObject jsonData = null;
+
+      if (uid != null) {
+         json.put(ConstantsIF.UID, uid);
+      }
+
+      if (value != null) {
+         jsonData = new JSONObject();
+         jsonData.put("v", value);
+         json.put(ConstantsIF.DATA, jsonData);
+      }
+
+      return json;
+   }
+
+   /**
+    * Get the input of a search
+    *
+    * @return JSONObject input
+    */
+   private static JSONObject search() {
+      JSONObject json = new JSONObject();
+      JSONObject jsonQuery = new JSONObject();
+
+      jsonQuery.put("_queryFilter", "true");
+      json.put(ConstantsIF.QUERY_PARAMS, jsonQuery);
+
+      return json;
+   }
+
+   /**
+    * Get an operation
+    *
+    * @param type OperationIF.TYPE operation type
+    * @param json JSONObject input
+    * @return OperationIF operation
+    */
+   private static OperationIF operation(final OperationIF.TYPE type, final JSONObject json) {
+      OperationIF operInput = new Operation(type);
+
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+
+   /**
+    * Get the "v" data member of a READ output
+    *
+    * @param operOutput OperationIF output
+    * @return long value, -1 if there is no value
+    */
+   private static long value(final OperationIF operOutput) {
+      JSONObject jsonData = JSON.getObject(operOutput.getJSON(), ConstantsIF.DATA);
+
+      return jsonData != null && jsonData.get("v") instanceof Number
+         ? ((Number) jsonData.get("v")).longValue() : -1L;
+   }
+}
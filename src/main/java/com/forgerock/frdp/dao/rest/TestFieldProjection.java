@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.Map;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+/**
+ * Test the "fields" projection: applied to a parsed value, and while parsing
+ * with the streaming codec, the READ and SEARCH operations of the data
+ * access object with each codec, the "fieldsParam" query parameter, invalid
+ * fields. Prints a line for each test, throws an exception on the first
+ * failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestFieldProjection
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestFieldProjection {
+
+   private static final String RESULTS = "{\"quantity\":2,\"results\":["
+      + "{\"uid\":\"u1\",\"data\":{\"name\":\"a\",\"x\":1}},"
+      + "{\"uid\":\"u2\",\"data\":{\"name\":\"b\",\"x\":2}}]}";
+
+   public static void main(String[] args) throws Exception {
+      testProjection();
+
+      try (TestServer server = new TestServer()) {
+         server.getDocuments().put("doc1", "{\"name\":\"n\",\"addr\":{\"city\":\"c\",\"zip\":\"z\"}}");
+         server.setHandler(exchange -> {
+            if ("GET".equals(exchange.getRequestMethod())
+               && exchange.getRequestURI().getPath().endsWith("/" + TestServer.PATH)) {
+               TestServer.send(exchange, 200, RESULTS);
+            } else {
+               server.handleDocument(exchange, (String) exchange.getAttribute("body"));
+            }
+         });
+
+         testOperations(server, "simple");
+         testOperations(server, "streaming");
+         testFieldsParam(server);
+      }
+
+      return;
+   }
+
+   /**
+    * Field projection: applied to a parsed value, and while parsing with the
+    * streaming codec, the results are the same
+    *
+    * @throws Exception a test failed
+    */
+   private static void testProjection() throws Exception {
+      boolean rejected = false;
+      String text = null;
+      Object applied = null;
+      Object streamed = null;
+      FieldProjection fields = null;
+      StreamingJsonCodec codec = new StreamingJsonCodec();
+
+      text = "{\"uid\":\"u1\",\"data\":{\"name\":\"n\",\"addr\":{\"city\":\"c\",\"zip\":\"z\"},"
+         + "\"bulk\":[1,2,3],\"list\":[{\"a\":1,\"b\":2},{\"a\":3,\"b\":4}]}}";
+
+      fields = FieldProjection.getInstance("data.name, data.addr.city, data.list.a", false);
+      applied = fields.apply(new JSONParser().parse(text));
+      streamed = codec.parse(text, fields);
+      check(streamed.equals(parse("{\"uid\":\"u1\",\"data\":{\"name\":\"n\",\"addr\":{\"city\":\"c\"},"
+         + "\"list\":[{\"a\":1},{\"a\":3}]}}")), "projection while parsing: " + streamed);
+      check(streamed.equals(applied), "projection while parsing, same as applied: " + applied);
+
+      fields = FieldProjection.getInstance("data.addr", false);
+      check(codec.parse(text, fields).equals(
+         parse("{\"uid\":\"u1\",\"data\":{\"addr\":{\"city\":\"c\",\"zip\":\"z\"}}}")),
+         "a path that ends at an object keeps the whole object");
+
+      fields = FieldProjection.getInstance("data.name", true);
+      check(codec.parse(RESULTS, fields).equals(parse("{\"quantity\":2,\"results\":["
+         + "{\"uid\":\"u1\",\"data\":{\"name\":\"a\"}},{\"uid\":\"u2\",\"data\":{\"name\":\"b\"}}]}")),
+         "search projection applies to the results");
+
+      check(codec.parse("{\"a\":{\"x\":[1,],},\"data\":2,}", FieldProjection.getInstance("data", false))
+         .equals(parse("{\"data\":2}")), "skipped members accept the json-simple commas");
+
+      for (String bad : new String[]{"{\"a\":[1 2],\"data\":1}", "{\"a\":1.,\"data\":1}",
+         "{\"a\":\"x,\"data\":1}"}) {
+         rejected = false;
+
+         try {
+            codec.parse(bad, FieldProjection.getInstance("data", false));
+         } catch (Exception ex) {
+            rejected = true;
+         }
+
+         check(rejected, "skipped members are checked: " + bad);
+      }
+
+      return;
+   }
+
+   /**
+    * Operations: a projected READ and SEARCH, with a codec
+    *
+    * @param server TestServer server
+    * @param codec String value of "jsonCodec"
+    * @throws Exception a test failed
+    */
+   private static void testOperations(final TestServer server, final String codec)
+      throws Exception {
+      OperationIF operOutput = null;
+      Map<String, String> params = server.getParams();
+      RestDataAccess dao = null;
+
+      params.put(RestDataAccess.PARAM_JSON_CODEC, codec);
+      dao = new RestDataAccess(params);
+
+      operOutput = dao.execute(fields(OperationIF.TYPE.READ, "doc1", "data.addr.city"));
+
+      check(operOutput.getState() == STATE.SUCCESS && operOutput.getJSON().equals(
+         parse("{\"uid\":\"doc1\",\"data\":{\"addr\":{\"city\":\"c\"}}}")),
+         codec + ", projected READ: " + operOutput.getJSON());
+
+      operOutput = dao.execute(fields(OperationIF.TYPE.SEARCH, null, "data.name"));
+
+      check(operOutput.getState() == STATE.SUCCESS
+         && ((Number) operOutput.getJSON().get(RestDataAccess.QUANTITY)).intValue() == 2
+         && ((JSONArray) operOutput.getJSON().get(ConstantsIF.RESULTS)).get(1).equals(
+            parse("{\"uid\":\"u2\",\"data\":{\"name\":\"b\"}}")),
+         codec + ", projected SEARCH: " + operOutput.getJSON());
+
+      server.getRequests().clear();
+      dao.execute(fields(OperationIF.TYPE.READ, "doc1", "data.name"));
+
+      check(server.getRequestLines().get(0).equals("GET /" + TestServer.PATH + "/doc1"),
+         codec + ", without 'fieldsParam' the fields are not sent");
+
+      operOutput = dao.execute(fields(OperationIF.TYPE.READ, "doc1", 5L));
+
+      check(operOutput.isError(), codec + ", invalid fields: " + operOutput.getStatus());
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Fields parameter: the fields are sent as a query parameter
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testFieldsParam(final TestServer server) throws Exception {
+      Map<String, String> params = server.getParams();
+      RestDataAccess dao = null;
+
+      params.put(RestDataAccess.PARAM_FIELDS_PARAM, "_fields");
+      dao = new RestDataAccess(params);
+      server.getRequests().clear();
+      dao.execute(fields(OperationIF.TYPE.READ, "doc1", "data.name,data.addr"));
+
+      check(server.getRequestLines().get(0).startsWith("GET /" + TestServer.PATH + "/doc1?_fields="),
+         "the fields are sent with 'fieldsParam': " + server.getRequestLines().get(0));
+
+      dao.close();
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get an operation with "fields"
+    *
+    * @param type OperationIF.TYPE READ or SEARCH
+    * @param uid String document uid, null for a SEARCH
+    * @param fields Object comma separated paths, or an invalid value
+    * @return OperationIF operation
+    */
+   private static OperationIF fields(final OperationIF.TYPE type, final String uid,
+      final Object fields) {
+      OperationIF operInput = new Operation(type);
+      JSONObject json = new JSONObject();
+
+      if (uid == null) {
+         json.put(ConstantsIF.QUERY_PARAMS, new JSONObject());
+      } else {
+         json.put(ConstantsIF.UID, uid);
+      }
+
+      json.put(RestDataAccess.ATTR_FIELDS, fields);
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+
+   /**
+    * Parse a JSON object with json-simple
+    *
+    * @param text String JSON text
+    * @return JSONObject object
+    * @throws Exception invalid JSON
+    */
+   private static JSONObject parse(final String text) throws Exception {
+      return (JSONObject) new JSONParser().parse(text);
+   }
+}
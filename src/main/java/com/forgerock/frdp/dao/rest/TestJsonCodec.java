@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Benchmark of the JSON codecs: parse and serialize documents of several
+ * sizes, with each codec. Prints the time and the allocated bytes (if the
+ * JVM reports it) of an operation. The codecs are first checked to be
+ * equivalent: the same values for escapes, surrogates, numbers and nesting,
+ * the same invalid input rejected. Prints a line for each check, throws an
+ * exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestJsonCodec [iterations]
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestJsonCodec {
+
+   private static final int[] SIZES = {10, 100, 1000, 10000};
+   private static final String[] VALID = {
+      // escapes
+      "\"a\\nb\\tc\\rd\\be\\ff\"", "\"q\\\"b\\\\s\\/\"", "\"\\u00e9\\u0041\\u20AC\"",
+      "{\"k\\u0041\":\"v\\\"\"}", "\"caf\u00e9 \u20ac\"",
+      // surrogates
+      "\"\\ud83d\\ude00\"", "\"\ud83d\ude00\"", "[\"\\uD834\\uDD1E\",\"x\"]",
+      // numbers
+      "0", "-0", "1", "-1", "01", "-01", "9223372036854775807", "-9223372036854775808", "1.0",
+      "1.5e3", "1.5E+3", "-1.5e-3", "1e5", "1e400", "0.1", "[1,2.5,-3]", "{\"n\":12345678901}",
+      // literals and structure
+      "true", "false", "null", "[]", "{}", "  [ 1 , 2 ]  ", "{\"a\":1,}", "[1,]", "[1,,2]",
+      "{\"a\":[1,],}", "{\"x\":[,,],\"y\":[3,]}",
+      // nesting
+      "{\"a\":{\"b\":{\"c\":[{\"d\":[[[]]]},null,true]}}}", nested(200)};
+   private static final String[] INVALID = {
+      "", "tru", "truex", "\"abc", "[", "-", "1.", ".5", "1e", "1E+", "+1", "1.5.3", "[1.]",
+      "{\"a\":1.}", "{\"a\":}", "{\"a\":1}}", "[1]]", "[1]x", "1 2", "{\"a\":1,", "[1,",
+      "{\"x\":1.,\"y\":2}"};
+   private static final String[] STRICT = { // json-simple accepts them, see StreamingJsonCodec
+      "{\"a\" 1}", "{\"a\":1 \"b\":2}", "[1 2]", "{\"x\":{\"y\":[1 2]},\"y\":2}",
+      "\"\\x\"", "\"\\u12\""};
+   private static volatile long _sink = 0L; // results are used, not optimized away
+
+   public static void main(String[] args) throws Exception {
+      int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+      String text = null;
+      JSONObject json = null;
+      JsonCodecIF[] codecs = {new SimpleJsonCodec(), new StreamingJsonCodec()};
+
+      testEquivalence(codecs[0], codecs[1]);
+
+      System.out.println(String.format("%-10s %8s %-10s %12s %12s %14s %14s",
+         "codec", "items", "bytes", "parse us", "write us", "parse alloc", "write alloc"));
+
+      for (int size : SIZES) {
+         json = document(size);
+         text = json.toJSONString();
+
+         if (!codecs[0].parse(text).equals(codecs[1].parse(text))) {
+            throw new Exception("Codecs parsed different values, size=" + size);
+         }
+
+         for (JsonCodecIF codec : codecs) {
+            run(codec, json, text, Math.max(10, iterations * 10 / size)); // warm up
+            run(codec, json, text, Math.max(10, iterations * 100 / size));
+         }
+      }
+
+      return;
+   }
+
+   /**
+    * Equivalence: the codecs parse the same values, reject the same invalid
+    * input, the serialized values are parsed back to the same values
+    *
+    * @param simple JsonCodecIF reference codec
+    * @param codec JsonCodecIF codec that is checked
+    * @throws Exception a check failed
+    */
+   private static void testEquivalence(final JsonCodecIF simple, final JsonCodecIF codec)
+      throws Exception {
+      Object value = null;
+      StringBuilder buf = new StringBuilder();
+
+      for (String text : VALID) {
+         value = simple.parse(text);
+
+         check(same(value, codec.parse(text)), "same value: " + abbreviate(text));
+
+         if (!(value instanceof Double && ((Double) value).isInfinite())) { // not JSON
+            buf.setLength(0);
+            codec.write(value, buf);
+
+            check(same(value, simple.parse(buf.toString()))
+               && same(value, codec.parse(buf.toString())),
+               "written and parsed again: " + abbreviate(text));
+         }
+      }
+
+      for (String text : INVALID) {
+         check(!parses(simple, text) && !parses(codec, text), "both reject: " + text);
+      }
+
+      for (String text : STRICT) {
+         check(!parses(codec, text), "rejected, json-simple accepts it: " + text);
+      }
+
+      check(Double.valueOf(1e20).equals(codec.parse("100000000000000000000"))
+         && !parses(simple, "100000000000000000000"),
+         "an integer that overflows a long is a Double, json-simple fails");
+
+      return;
+   }
+
+   /**
+    * Parse and serialize the document, print the averages
+    *
+    * @param codec JsonCodecIF codec
+    * @param json JSONObject document
+    * @param text String document text
+    * @param count int number of operations
+    * @throws Exception invalid JSON
+    */
+   private static void run(final JsonCodecIF codec, final JSONObject json, final String text,
+      final int count) throws Exception {
+      long start = 0L;
+      long parseNanos = 0L;
+      long writeNanos = 0L;
+      long parseBytes = 0L;
+      long writeBytes = 0L;
+      long check = 0L;
+      StringBuilder buf = new StringBuilder();
+
+      parseBytes = allocated();
+      start = System.nanoTime();
+
+      for (int i = 0; i < count; i++) {
+         check += ((JSONObject) codec.parse(text)).size();
+      }
+
+      parseNanos = System.nanoTime() - start;
+      parseBytes = allocated() - parseBytes;
+
+      writeBytes = allocated();
+      start = System.nanoTime();
+
+      for (int i = 0; i < count; i++) {
+         buf.setLength(0);
+         codec.write(json, buf);
+         check += buf.length();
+      }
+
+      writeNanos = System.nanoTime() - start;
+      writeBytes = allocated() - writeBytes;
+
+      System.out.println(String.format("%-10s %8d %-10d %12.1f %12.1f %14d %14d",
+         codec.getClass().getSimpleName().replace("JsonCodec", ""),
+         ((JSONArray) json.get("results")).size(), text.length(),
+         parseNanos / 1000.0 / count, writeNanos / 1000.0 / count,
+         parseBytes < 0 ? -1 : parseBytes / count, writeBytes < 0 ? -1 : writeBytes / count));
+
+      _sink += check;
+
+      return;
+   }
+
+   /**
+    * Print the result of a check, throw an exception if it failed
+    *
+    * @param passed boolean check result
+    * @param test String check description
+    * @throws Exception the check failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Check if two parsed values are the same, also the number classes (Long
+    * or Double)
+    *
+    * @param value1 Object first value
+    * @param value2 Object second value
+    * @return boolean true if they are the same
+    */
+   private static boolean same(final Object value1, final Object value2) {
+      return value1 == null ? value2 == null
+         : value1.equals(value2) && value1.getClass() == value2.getClass()
+         && String.valueOf(value1).equals(String.valueOf(value2));
+   }
+
+   /**
+    * Check if the codec parses the text
+    *
+    * @param codec JsonCodecIF codec
+    * @param text String text
+    * @return boolean true if the text was parsed
+    */
+   private static boolean parses(final JsonCodecIF codec, final String text) {
+      boolean parsed = false;
+
+      try {
+         codec.parse(text);
+         parsed = true;
+      } catch (Exception ex) {
+         parsed = false;
+      }
+
+      return parsed;
+   }
+
+   /**
+    * Get the text of nested arrays and objects
+    *
+    * @param depth int number of levels
+    * @return String JSON text
+    */
+   private static String nested(final int depth) {
+      StringBuilder buf = new StringBuilder();
+
+      for (int i = 0; i < depth; i++) {
+         buf.append(i % 2 == 0 ? "[" : "{\"k\":");
+      }
+
+      buf.append("1");
+
+      for (int i = depth - 1; i >= 0; i--) {
+         buf.append(i % 2 == 0 ? "]" : "}");
+      }
+
+      return buf.toString();
+   }
+
+   /**
+    * Abbreviate a text for the output
+    *
+    * @param text String text
+    * @return String text, at most 40 characters
+    */
+   private static String abbreviate(final String text) {
+      return text.length() <= 40 ? text : text.substring(0, 40) + "...";
+   }
+
+   /**
+    * Get a search result document with "results" objects
+    *
+    * @param size int number of results
+    * @return JSONObject document
+    */
+   private static JSONObject document(final int size) {
+      Random random = new Random(size);
+      JSONObject json = new JSONObject();
+      JSONObject jsonItem = null;
+      JSONObject jsonData = null;
+      JSONArray results = new JSONArray();
+
+      for (int i = 0; i < size; i++) {
+         jsonData = new JSONObject();
+         jsonData.put("firstname", "John" + i);
+         jsonData.put("lastname", "Doe \"" + random.nextInt(1000) + "\"");
+         jsonData.put("title", "Engineer\tII");
+         jsonData.put("age", (long) random.nextInt(100));
+         jsonData.put("score", random.nextDouble());
+         jsonData.put("active", random.nextBoolean());
+         jsonData.put("manager", null);
+
+         jsonItem = new JSONObject();
+         jsonItem.put("uid", Long.toHexString(random.nextLong()));
+         jsonItem.put("data", jsonData);
+         results.add(jsonItem);
+      }
+
+      json.put("quantity", (long) size);
+      json.put("results", results);
+
+      return json;
+   }
+
+   /**
+    * Get the bytes allocated by the thread, if the JVM reports it
+    *
+    * @return long allocated bytes, -1 if not supported
+    */
+   private static long allocated() {
+      long bytes = -1L;
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+      if (bean instanceof com.sun.management.ThreadMXBean
+         && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled()) {
+         bytes = ((com.sun.management.ThreadMXBean) bean)
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+
+      return bytes;
+   }
+}
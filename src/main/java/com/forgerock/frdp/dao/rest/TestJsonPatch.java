@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+/**
+ * Test the partial updates: the patches of JsonPatch, the "previous" data of
+ * merged write-behind operations, a REPLACE sent as a PATCH (with the method
+ * override), an unchanged document, a rejected PATCH. Prints a line for each
+ * test, throws an exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestJsonPatch
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestJsonPatch {
+
+   private static final String OVERRIDE = "x-http-method-override";
+   private static volatile boolean _rejectPatch = false;
+
+   public static void main(String[] args) throws Exception {
+      testJsonPatch();
+      testWriteBehind();
+
+      try (TestServer server = new TestServer()) {
+         server.setHandler(exchange -> {
+            if (exchange.getRequestHeaders().getFirst(OVERRIDE) != null) {
+               TestServer.send(exchange, _rejectPatch ? 405 : 204, null);
+            } else {
+               server.handleDocument(exchange, (String) exchange.getAttribute("body"));
+            }
+         });
+
+         testMergePatch(server);
+         testRejected(server);
+      }
+
+      return;
+   }
+
+   /**
+    * JSON Merge Patch and JSON Patch of two versions of a document
+    *
+    * @throws Exception a test failed
+    */
+   private static void testJsonPatch() throws Exception {
+      JSONObject previous = null;
+      JSONObject current = null;
+      JSONObject merge = null;
+      JSONArray patch = null;
+
+      previous = parse("{\"status\":\"new\",\"size\":10,\"tags\":[\"a\"],"
+         + "\"addr\":{\"city\":\"x\",\"zip\":\"1\"},\"a/b\":1}");
+      current = parse("{\"status\":\"done\",\"size\":10,"
+         + "\"addr\":{\"city\":\"y\",\"zip\":\"1\"},\"a/b\":2,\"new\":true}");
+
+      merge = JsonPatch.mergePatch(previous, current);
+      check(merge.equals(parse("{\"status\":\"done\",\"tags\":null,\"addr\":{\"city\":\"y\"},"
+         + "\"a/b\":2,\"new\":true}")), "merge patch, changed members only: " + merge);
+
+      patch = JsonPatch.jsonPatch(previous, current);
+      check(patch.size() == 5
+         && patch.contains(parse("{\"op\":\"remove\",\"path\":\"/tags\"}"))
+         && patch.contains(parse("{\"op\":\"replace\",\"path\":\"/status\",\"value\":\"done\"}"))
+         && patch.contains(parse("{\"op\":\"replace\",\"path\":\"/addr/city\",\"value\":\"y\"}"))
+         && patch.contains(parse("{\"op\":\"replace\",\"path\":\"/a~1b\",\"value\":2}"))
+         && patch.contains(parse("{\"op\":\"add\",\"path\":\"/new\",\"value\":true}")),
+         "json patch, nested and escaped paths: " + patch);
+
+      check(JsonPatch.mergePatch(previous, previous).isEmpty()
+         && JsonPatch.jsonPatch(previous, previous).isEmpty(), "no change, empty patches");
+
+      previous = parse("{\"a\":[1,2],\"b\":1}");
+      current = parse("{\"a\":[1,3],\"b\":1}");
+      check(JsonPatch.mergePatch(previous, current).equals(parse("{\"a\":[1,3]}")),
+         "a changed array is replaced as a whole");
+
+      check(JsonPatch.isMergeable(parse("{\"a\":1,\"b\":2}"), parse("{\"a\":2}")),
+         "a removed member is mergeable");
+      check(!JsonPatch.isMergeable(parse("{\"a\":1}"), parse("{\"a\":null}")),
+         "a member set to null is not mergeable");
+      check(!JsonPatch.isMergeable(parse("{\"a\":{\"b\":1}}"), parse("{\"a\":{\"b\":null}}")),
+         "a nested member set to null is not mergeable");
+
+      return;
+   }
+
+   /**
+    * Write-behind: merged REPLACE operations are sent with the last data and
+    * the "previous" data of the first
+    *
+    * @throws Exception a test failed
+    */
+   private static void testWriteBehind() throws Exception {
+      final List<OperationIF> sent = new ArrayList<>();
+      JSONObject jsonInput = null;
+      WriteBehindQueue queue = new WriteBehindQueue(100, 2, 200L, operInput -> {
+         OperationIF operOutput = new Operation(operInput.getType());
+
+         synchronized (sent) {
+            sent.add(operInput);
+         }
+
+         operOutput.setState(STATE.SUCCESS);
+         operOutput.setJSON(new JSONObject());
+
+         return operOutput;
+      });
+
+      for (long v = 1L; v <= 10L; v++) {
+         queue.enqueue(replace("u1", v, v - 1L), "u1", null);
+      }
+
+      queue.flush();
+      jsonInput = sent.get(0).getJSON();
+
+      check(sent.size() == 1 && ((JSONObject) jsonInput.get(ConstantsIF.DATA)).get("v").equals(10L)
+         && ((JSONObject) jsonInput.get(RestDataAccess.ATTR_PREVIOUS)).get("v").equals(0L),
+         "the last replace is sent, with the previous data of the first: " + jsonInput);
+
+      queue.close();
+
+      return;
+   }
+
+   /**
+    * Merge patch: a REPLACE with the previous data is sent as a PATCH (method
+    * override) of the changes, an unchanged document is not sent, a member
+    * set to null is sent as a PUT
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testMergePatch(final TestServer server) throws Exception {
+      JSONObject request = null;
+      OperationIF operOutput = null;
+      RestDataAccess dao = dao(server, "merge-patch");
+
+      server.getRequests().clear();
+      operOutput = dao.execute(replace("doc1", 2L, 1L));
+      request = server.getRequests().get(0);
+
+      check(!operOutput.isError() && "POST".equals(request.get("method"))
+         && "PATCH".equals(((JSONObject) request.get("headers")).get(OVERRIDE))
+         && parse((String) request.get("body")).equals(parse("{\"v\":2}")),
+         "the REPLACE is sent as a merge patch: " + request.get("body"));
+
+      server.getRequests().clear();
+      operOutput = dao.execute(replace("doc1", 2L, 2L));
+
+      check(!operOutput.isError() && server.getRequests().isEmpty(),
+         "an unchanged document is not sent: " + operOutput.getStatus());
+
+      operOutput = dao.execute(replace("doc1", null, 2L));
+
+      check(!operOutput.isError() && server.getRequestLines().get(0).startsWith("PUT "),
+         "a member set to null is sent as a PUT: " + server.getRequestLines());
+
+      dao.close();
+
+      dao = dao(server, "json-patch");
+      server.getRequests().clear();
+      dao.execute(replace("doc1", 3L, 2L));
+      request = server.getRequests().get(0);
+
+      check(new JSONParser().parse((String) request.get("body")) instanceof JSONArray,
+         "the REPLACE is sent as a json patch: " + request.get("body"));
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Rejected: a rejected PATCH is sent again as a PUT, the later updates use
+    * PUT
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testRejected(final TestServer server) throws Exception {
+      OperationIF operOutput = null;
+      RestDataAccess dao = dao(server, "merge-patch");
+
+      _rejectPatch = true;
+      server.getRequests().clear();
+      operOutput = dao.execute(replace("doc1", 4L, 3L));
+
+      check(!operOutput.isError() && server.getRequests().size() == 2
+         && server.getRequestLines().get(1).startsWith("PUT ")
+         && server.getDocuments().get("doc1").contains("4"),
+         "a rejected PATCH is sent again as a PUT: " + server.getRequestLines());
+
+      server.getRequests().clear();
+      dao.execute(replace("doc1", 5L, 4L));
+
+      check(server.getRequests().size() == 1 && server.getRequestLines().get(0).startsWith("PUT "),
+         "then the updates use PUT: " + server.getRequestLines());
+
+      _rejectPatch = false;
+      dao.close();
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get a data access object that sends the PATCH with the method override
+    *
+    * @param server TestServer server
+    * @param mode String value of "updateMode"
+    * @return RestDataAccess data access object
+    * @throws Exception could not create the object
+    */
+   private static RestDataAccess dao(final TestServer server, final String mode) throws Exception {
+      Map<String, String> params = server.getParams();
+
+      params.put(RestDataAccess.PARAM_UPDATE_MODE, mode);
+      params.put(RestDataAccess.PARAM_PATCH_OVERRIDE, "true");
+
+      return new RestDataAccess(params);
+   }
+
+   /**
+    * Get a REPLACE operation with the previous data
+    *
+    * @param uid String document uid
+    * @param value Long value of the "v" data member, may be null
+    * @param previous long previous value
+    * @return OperationIF operation
+    */
+   private static OperationIF replace(final String uid, final Long value, final long previous) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.REPLACE);
+      JSONObject json = new JSONObject();
+      JSONObject jsonData = new JSONObject();
+      JSONObject jsonPrevious = new JSONObject();
+
+      jsonData.put("v", value);
+      jsonData.put("k", "x");
+      jsonPrevious.put("v", previous);
+      jsonPrevious.put("k", "x");
+      json.put(ConstantsIF.UID, uid);
+      json.put(ConstantsIF.DATA, jsonData);
+      json.put(RestDataAccess.ATTR_PREVIOUS, jsonPrevious);
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+
+   /**
+    * Parse a JSON object with json-simple
+    *
+    * @param text String JSON text
+    * @return JSONObject object
+    * @throws Exception invalid JSON
+    */
+   private static JSONObject parse(final String text) throws Exception {
+      return (JSONObject) new JSONParser().parse(text);
+   }
+}
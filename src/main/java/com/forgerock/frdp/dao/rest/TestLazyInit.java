@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.Map;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the lazy initialization and the connection warm-up: the object is
+ * initialized on first use, an initialization error is the output of the
+ * operation, a failed initialization does not keep a shared client, warmUp()
+ * sends HEAD requests to each host. Prints a line for each test, throws an
+ * exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestLazyInit
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestLazyInit {
+
+   public static void main(String[] args) throws Exception {
+      try (TestServer server1 = new TestServer(); TestServer server2 = new TestServer()) {
+         server1.getDocuments().put("doc1", "{}");
+
+         testLazy(server1);
+         testLazyError(server1);
+         testInitError(server1);
+         testWarmUp(server1, server2);
+      }
+
+      return;
+   }
+
+   /**
+    * Lazy: the object is initialized by the first operation
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testLazy(final TestServer server) throws Exception {
+      OperationIF operOutput = null;
+      Map<String, String> params = server.getParams();
+      RestDataAccess dao = null;
+
+      params.put(RestDataAccess.PARAM_LAZY_INIT, "true");
+      dao = new RestDataAccess(params);
+
+      check(dao.getState() == STATE.NEW, "lazyInit, the constructor does not initialize: "
+         + dao.getStatus());
+
+      operOutput = dao.execute(read("doc1"));
+
+      check(operOutput.getState() == STATE.SUCCESS && dao.getState() == STATE.READY,
+         "the first operation initializes the object: " + dao.getStatus());
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Lazy error: an invalid parameter is the output of the first operation
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testLazyError(final TestServer server) throws Exception {
+      OperationIF operOutput = null;
+      Map<String, String> params = server.getParams();
+      RestDataAccess dao = null;
+
+      params.put(RestDataAccess.PARAM_LAZY_INIT, "true");
+      params.put(RestDataAccess.PARAM_BUFFER_SIZE, "abc");
+      dao = new RestDataAccess(params);
+      operOutput = dao.execute(read("doc1"));
+
+      check(operOutput.isError() && operOutput.getState() == STATE.FAILED,
+         "an initialization error is the output of the operation: " + operOutput.getStatus());
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Initialization error: a shared client is released when the
+    * initialization fails
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testInitError(final TestServer server) throws Exception {
+      String error = null;
+      Map<String, String> params = server.getParams();
+
+      params.put(RestDataAccess.PARAM_SHARED_CLIENT, "true");
+      params.put(RestDataAccess.PARAM_HEALTH_INTERVAL, "100");
+      params.put(RestDataAccess.PARAM_HOSTS, server.getHost() + ",");
+      params.put(RestDataAccess.PARAM_REPLICAS, server.getHost());
+
+      try {
+         new RestDataAccess(params).close();
+      } catch (Exception ex) {
+         error = ex.getMessage();
+      }
+
+      check(error != null && ((JSONArray) ClientRegistry.getInstance().getStats()
+         .get("clients")).isEmpty(), "a failed initialization releases the shared client: "
+         + error);
+
+      return;
+   }
+
+   /**
+    * Warm-up: HEAD requests are sent to each host
+    *
+    * @param server1 TestServer first host
+    * @param server2 TestServer second host
+    * @throws Exception a test failed
+    */
+   private static void testWarmUp(final TestServer server1, final TestServer server2)
+      throws Exception {
+      int opened = 0;
+      Map<String, String> params = server1.getParams();
+      RestDataAccess dao = null;
+
+      params.remove(RestDataAccess.PARAM_HOST);
+      params.put(RestDataAccess.PARAM_HOSTS, server1.getHost() + "," + server2.getHost());
+      params.put(RestDataAccess.PARAM_LAZY_INIT, "true");
+      params.put(RestDataAccess.PARAM_WARM_UP_CONNECTIONS, "3");
+      params.put(RestDataAccess.PARAM_WARM_UP_PATH, "doc1");
+      dao = new RestDataAccess(params);
+      server1.getRequests().clear();
+      server2.getRequests().clear();
+
+      opened = dao.warmUp();
+
+      check(opened == 6 && dao.getState() == STATE.READY,
+         "warmUp() initializes the object and opens 3 connections to each host: " + opened);
+      check(server1.getRequestLines().get(0).equals("HEAD /" + TestServer.PATH + "/doc1")
+         && server2.getRequests().size() == 3, "HEAD requests to the 'warmUpPath': "
+         + server1.getRequestLines());
+
+      dao.close();
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get a READ operation
+    *
+    * @param uid String document uid
+    * @return OperationIF operation
+    */
+   private static OperationIF read(final String uid) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.READ);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.UID, uid);
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+}
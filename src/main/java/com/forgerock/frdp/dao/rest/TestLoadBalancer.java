@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.Map;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the load balancing of the static base target over several hosts:
+ * round robin, the ejection of a failing host, the health checks, the
+ * latency samples of an endpoint. Prints a line for each test, throws an
+ * exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestLoadBalancer
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestLoadBalancer {
+
+   public static void main(String[] args) throws Exception {
+      testEndpoint();
+      testRoundRobin();
+      testEjection();
+      testHealthCheck();
+
+      return;
+   }
+
+   /**
+    * Endpoint: the concurrent latency samples are not lost
+    *
+    * @throws Exception a test failed
+    */
+   private static void testEndpoint() throws Exception {
+      final Endpoint endpoint = new Endpoint("host:80", null);
+      Thread[] threads = new Thread[8];
+
+      for (int t = 0; t < threads.length; t++) {
+         threads[t] = new Thread(() -> {
+            for (int i = 0; i < 100000; i++) {
+               endpoint.record(10.0, false);
+            }
+         });
+         threads[t].start();
+      }
+
+      for (Thread thread : threads) {
+         thread.join();
+      }
+
+      check(endpoint.getSamples() == 800000L && Math.abs(endpoint.getLatency() - 10.0) < 0.001,
+         "800000 concurrent samples are recorded: " + endpoint.getSamples());
+
+      return;
+   }
+
+   /**
+    * Round robin: the requests are spread evenly, a paged SEARCH is counted
+    * on the endpoints
+    *
+    * @throws Exception a test failed
+    */
+   private static void testRoundRobin() throws Exception {
+      int errors = 0;
+      Map<String, String> params = null;
+      RestDataAccess dao = null;
+
+      try (TestServer server1 = new TestServer(); TestServer server2 = new TestServer()) {
+         server1.getDocuments().put("doc1", "{}");
+         server2.getDocuments().put("doc1", "{}");
+         params = params(server1, server2);
+         params.put(RestDataAccess.PARAM_PAGE_MODE, "offset");
+         params.put(RestDataAccess.PARAM_PAGE_SIZE, "1");
+         dao = new RestDataAccess(params);
+
+         for (int i = 0; i < 10; i++) {
+            if (dao.execute(read("doc1")).isError()) {
+               errors++;
+            }
+         }
+
+         check(errors == 0 && server1.getRequests().size() == 5
+            && server2.getRequests().size() == 5, "round robin, 5 requests for each host");
+
+         check(!dao.execute(search()).isError(), "paged SEARCH");
+         Thread.sleep(200L);
+
+         for (Object obj : endpoints(dao)) {
+            check(((Number) ((JSONObject) obj).get("outstanding")).intValue() == 0,
+               "the page requests are finished on the endpoint: " + obj);
+         }
+
+         dao.close();
+      }
+
+      return;
+   }
+
+   /**
+    * Ejection: a host that fails is ejected, the requests go to the other
+    * host
+    *
+    * @throws Exception a test failed
+    */
+   private static void testEjection() throws Exception {
+      int errors = 0;
+      Map<String, String> params = null;
+      RestDataAccess dao = null;
+
+      try (TestServer server1 = new TestServer(); TestServer server2 = new TestServer()) {
+         server1.getDocuments().put("doc1", "{}");
+         params = params(server1, server2);
+         params.put(RestDataAccess.PARAM_EJECT_FAILURES, "2");
+         params.put(RestDataAccess.PARAM_EJECT_TIME, "60000");
+         dao = new RestDataAccess(params);
+
+         server2.close();
+
+         for (int i = 0; i < 20; i++) {
+            try {
+               if (dao.execute(read("doc1")).isError()) {
+                  errors++;
+               }
+            } catch (RuntimeException ex) { // connection refused
+               errors++;
+            }
+         }
+
+         check(errors == 2 && server1.getRequests().size() == 18,
+            "a host is ejected after 2 failures: " + errors + " errors");
+         check(!((Boolean) ((JSONObject) endpoints(dao).get(1)).get("available")),
+            "the statistics show the ejected host");
+
+         dao.close();
+      }
+
+      return;
+   }
+
+   /**
+    * Health check: a host that does not respond to the health check is not
+    * used
+    *
+    * @throws Exception a test failed
+    */
+   private static void testHealthCheck() throws Exception {
+      int errors = 0;
+      Map<String, String> params = null;
+      RestDataAccess dao = null;
+
+      try (TestServer server1 = new TestServer(); TestServer server2 = new TestServer()) {
+         server1.getDocuments().put("doc1", "{}");
+         params = params(server1, server2);
+         params.put(RestDataAccess.PARAM_HEALTH_PATH, "doc1");
+         params.put(RestDataAccess.PARAM_HEALTH_INTERVAL, "100");
+         dao = new RestDataAccess(params);
+
+         server2.close();
+         Thread.sleep(500L);
+         server1.getRequests().clear();
+
+         for (int i = 0; i < 6; i++) {
+            if (dao.execute(read("doc1")).isError()) {
+               errors++;
+            }
+         }
+
+         check(errors == 0, "the host that failed the health check is not used");
+
+         dao.close();
+      }
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get the parameters of a data access object that balances two servers
+    *
+    * @param server1 TestServer first host
+    * @param server2 TestServer second host
+    * @return Map of parameters
+    */
+   private static Map<String, String> params(final TestServer server1, final TestServer server2) {
+      Map<String, String> params = server1.getParams();
+
+      params.remove(RestDataAccess.PARAM_HOST);
+      params.put(RestDataAccess.PARAM_HOSTS, server1.getHost() + ", " + server2.getHost());
+
+      return params;
+   }
+
+   /**
+    * Get the endpoint statistics of the load balancer
+    *
+    * @param dao RestDataAccess data access object
+    * @return JSONArray endpoints
+    */
+   private static JSONArray endpoints(final RestDataAccess dao) {
+      return (JSONArray) ((JSONObject) dao.getStatistics().get("loadBalancer")).get("endpoints");
+   }
+
+   /**
+    * Get a READ operation
+    *
+    * @param uid String document uid
+    * @return OperationIF operation
+    */
+   private static OperationIF read(final String uid) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.READ);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.UID, uid);
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+
+   /**
+    * Get a SEARCH operation
+    *
+    * @return OperationIF operation
+    */
+   private static OperationIF search() {
+      OperationIF operInput = new Operation(OperationIF.TYPE.SEARCH);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.QUERY_PARAMS, new JSONObject());
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the off-heap document cache: put, invalidate, stale loads,
+ * expiration, eviction, the READ operations of the data access object, the
+ * invalidation by a direct or a write-behind REPLACE. Prints a line for each
+ * test, throws an exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestOffHeapCache
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestOffHeapCache {
+
+   public static void main(String[] args) throws Exception {
+      testCache();
+
+      try (TestServer server = new TestServer()) {
+         testRead(server);
+         testWriteBehind(server);
+      }
+
+      return;
+   }
+
+   /**
+    * Off-heap cache: put, invalidate, stale loads, eviction, expiration
+    *
+    * @throws Exception a test failed
+    */
+   private static void testCache() throws Exception {
+      long stamp = 0L;
+      JSONObject json = null;
+      OffHeapCache cache = null;
+
+      cache = new OffHeapCache(64L * 1024L, 100, 1, 0L);
+
+      cache.put("k1", bytes("value-1"), cache.stamp("k1"));
+      cache.put("k2", bytes("x".repeat(1000)), cache.stamp("k2"));
+      check(Arrays.equals(cache.get("k1"), bytes("value-1"))
+         && Arrays.equals(cache.get("k2"), bytes("x".repeat(1000))),
+         "put and get, a value larger than a block");
+
+      cache.put("k1", bytes("value-2"), cache.stamp("k1"));
+      check(Arrays.equals(cache.get("k1"), bytes("value-2")), "put replaces the value");
+
+      cache.invalidate("k1");
+      check(cache.get("k1") == null, "invalidate removes the value");
+
+      stamp = cache.stamp("k3"); // the value is loaded ...
+      cache.invalidate("k3"); // ... and changed while it is loaded
+      cache.put("k3", bytes("stale"), stamp);
+      check(cache.get("k3") == null, "a value loaded before an invalidation is not stored");
+
+      cache.put("big", new byte[128 * 1024], cache.stamp("big"));
+      check(cache.get("big") == null, "a value larger than the segment is not stored");
+
+      for (int i = 0; i < 200; i++) {
+         cache.put("e" + i, new byte[1000], cache.stamp("e" + i));
+         cache.get("k2"); // recently used, not evicted
+      }
+
+      json = cache.getStats();
+      check(((Number) json.get("evictions")).longValue() > 0L && cache.get("e0") == null
+         && cache.get("e199") != null && cache.get("k2") != null,
+         "the least recently used values are evicted: " + json);
+
+      cache.clear();
+      check(cache.get("k2") == null, "clear removes all the values");
+
+      cache = new OffHeapCache(64L * 1024L, 100, 1, 50L);
+      cache.put("t1", bytes("ttl"), cache.stamp("t1"));
+      check(cache.get("t1") != null, "a value is read before its expiration");
+      Thread.sleep(100L);
+      check(cache.get("t1") == null, "an expired value is not read");
+
+      return;
+   }
+
+   /**
+    * READ: a cached document is not requested again, a REPLACE invalidates it
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testRead(final TestServer server) throws Exception {
+      OperationIF operOutput = null;
+      RestDataAccess dao = dao(server, false);
+
+      server.getDocuments().put("doc1", "{\"v\":1}");
+      server.getRequests().clear();
+      dao.execute(read("doc1"));
+      operOutput = dao.execute(read("doc1"));
+
+      check(operOutput.getState() == STATE.SUCCESS && value(operOutput) == 1L
+         && server.getRequests().size() == 1, "the second READ is cached: "
+         + server.getRequestLines());
+
+      dao.execute(replace("doc1", 2L));
+      operOutput = dao.execute(read("doc1"));
+
+      check(value(operOutput) == 2L && server.getRequests().size() == 3,
+         "a REPLACE invalidates the document: " + server.getRequestLines());
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Write-behind: the document is invalidated when the queued REPLACE is
+    * sent, a READ of the document waits for it
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testWriteBehind(final TestServer server) throws Exception {
+      OperationIF operOutput = null;
+      RestDataAccess dao = dao(server, true);
+
+      server.getDocuments().put("doc1", "{\"v\":1}");
+      server.getDocuments().put("doc2", "{\"v\":1}");
+      dao.execute(read("doc1"));
+      dao.execute(read("doc2"));
+
+      dao.execute(replace("doc1", 2L));
+      operOutput = dao.execute(read("doc1"));
+
+      check(value(operOutput) == 2L, "a READ after a queued REPLACE: " + value(operOutput));
+
+      dao.execute(replace("doc2", 2L));
+      Thread.sleep(500L);
+      operOutput = dao.execute(read("doc2"));
+
+      check(value(operOutput) == 2L,
+         "the queued REPLACE invalidates the document when it is sent: " + value(operOutput));
+
+      dao.close();
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get a data access object with a document cache of 1 MB
+    *
+    * @param server TestServer server
+    * @param writeBehind boolean queue the REPLACE operations
+    * @return RestDataAccess data access object
+    * @throws Exception could not create the object
+    */
+   private static RestDataAccess dao(final TestServer server, final boolean writeBehind)
+      throws Exception {
+      Map<String, String> params = server.getParams();
+
+      params.put(RestDataAccess.PARAM_DOC_CACHE_SIZE, "1m");
+
+      if (writeBehind) {
+         params.put(RestDataAccess.PARAM_WRITE_BEHIND, "true");
+         params.put(RestDataAccess.PARAM_WRITE_BEHIND_WINDOW, "200");
+      }
+
+      return new RestDataAccess(params);
+   }
+
+   /**
+    * Get the "v" value of a READ output
+    *
+    * @param operOutput OperationIF output
+    * @return long value, -1 if there is none
+    */
+   private static long value(final OperationIF operOutput) {
+      JSONObject jsonData = operOutput.getJSON() == null ? null
+         : (JSONObject) operOutput.getJSON().get(ConstantsIF.DATA);
+      Object obj = jsonData == null ? null : jsonData.get("v");
+
+      return obj instanceof Number ? ((Number) obj).longValue() : -1L;
+   }
+
+   /**
+    * Get the UTF-8 bytes of a value
+    *
+    * @param value String value
+    * @return byte[] bytes
+    */
+   private static byte[] bytes(final String value) {
+      return value.getBytes(StandardCharsets.UTF_8);
+   }
+
+   /**
+    * Get a READ operation
+    *
+    * @param uid String document uid
+    * @return OperationIF operation
+    */
+   private static OperationIF read(final String uid) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.READ);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.UID, uid);
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+
+   /**
+    * Get a REPLACE operation
+    *
+    * @param uid String document uid
+    * @param value long value of "v"
+    * @return OperationIF operation
+    */
+   private static OperationIF replace(final String uid, final long value) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.REPLACE);
+      JSONObject json = new JSONObject();
+      JSONObject jsonData = new JSONObject();
+
+      jsonData.put("v", value);
+      json.put(ConstantsIF.UID, uid);
+      json.put(ConstantsIF.DATA, jsonData);
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+}
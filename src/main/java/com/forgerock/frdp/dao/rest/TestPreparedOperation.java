@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the prepared operations: the headers, cookies, query parameters and
+ * path of the template are sent with each execution, static and dynamic
+ * targets, concurrent executions, invalid templates. Prints a line for each
+ * test, throws an exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestPreparedOperation
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestPreparedOperation {
+
+   public static void main(String[] args) throws Exception {
+      try (TestServer server = new TestServer()) {
+         server.getDocuments().put("doc1", "{\"a\":1}");
+
+         testStatic(server);
+         testDynamic(server);
+         testConcurrent(server);
+         testInvalid(server);
+      }
+
+      return;
+   }
+
+   /**
+    * Static base target: READ, REPLACE and SEARCH with the template parts
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testStatic(final TestServer server) throws Exception {
+      OperationIF operOutput = null;
+      JSONObject jsonData = new JSONObject();
+      JSONObject headers = null;
+      RestDataAccess dao = new RestDataAccess(server.getParams());
+      PreparedOperation read = dao.prepare(template(OperationIF.TYPE.READ, null));
+      PreparedOperation replace = dao.prepare(template(OperationIF.TYPE.REPLACE, null));
+
+      server.getRequests().clear();
+      operOutput = read.execute("doc1");
+      headers = (JSONObject) server.getRequests().get(0).get("headers");
+
+      check(operOutput.getState() == STATE.SUCCESS
+         && "doc1".equals(operOutput.getJSON().get(ConstantsIF.UID)), "prepared READ");
+      check("value1".equals(headers.get("x-test")) && "c1=v1".equals(headers.get("cookie")),
+         "the template header and cookie are sent: " + headers);
+      check(server.getRequestLines().get(0).equals("GET /" + TestServer.PATH + "/doc1?q=1"),
+         "the template query parameter is sent: " + server.getRequestLines().get(0));
+
+      jsonData.put("a", 2L);
+      operOutput = replace.execute("doc1", jsonData);
+
+      check(!operOutput.isError() && server.getDocuments().get("doc1").contains("2"),
+         "prepared REPLACE with data: " + server.getDocuments().get("doc1"));
+
+      check(read.getType() == OperationIF.TYPE.READ, "the type of the template");
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Dynamic full target: the uid is appended to the template "uri"
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testDynamic(final TestServer server) throws Exception {
+      OperationIF operOutput = null;
+      RestDataAccess dao = new RestDataAccess();
+      PreparedOperation read = dao.prepare(template(OperationIF.TYPE.READ,
+         "http://" + server.getHost() + "/" + TestServer.PATH));
+
+      operOutput = read.execute("doc1");
+
+      check(operOutput.getState() == STATE.SUCCESS, "prepared READ, dynamic full target");
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Concurrent: a prepared operation is used by several threads
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testConcurrent(final TestServer server) throws Exception {
+      final AtomicInteger success = new AtomicInteger(0);
+      Thread[] threads = new Thread[8];
+      RestDataAccess dao = new RestDataAccess(server.getParams());
+      final PreparedOperation read = dao.prepare(template(OperationIF.TYPE.READ, null));
+
+      for (int t = 0; t < threads.length; t++) {
+         threads[t] = new Thread(() -> {
+            for (int i = 0; i < 25; i++) {
+               if (read.execute("doc1").getState() == STATE.SUCCESS) {
+                  success.incrementAndGet();
+               }
+            }
+         });
+         threads[t].start();
+      }
+
+      for (Thread thread : threads) {
+         thread.join();
+      }
+
+      check(success.get() == 200, "200 concurrent executions: " + success.get());
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Invalid: a null template, a template without a target
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testInvalid(final TestServer server) throws Exception {
+      String error = null;
+      RestDataAccess dao = new RestDataAccess(server.getParams());
+
+      try {
+         dao.prepare(null);
+      } catch (Exception ex) {
+         error = ex.getMessage();
+      }
+
+      check(error != null, "a null template is rejected: " + error);
+      dao.close();
+
+      error = null;
+      dao = new RestDataAccess(new HashMap<>());
+
+      try {
+         dao.prepare(template(OperationIF.TYPE.READ, null));
+      } catch (Exception ex) {
+         error = ex.getMessage();
+      }
+
+      check(error != null, "without a base target, the template needs a 'uri': " + error);
+      dao.close();
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get a template with a header, a cookie and a query parameter
+    *
+    * @param type OperationIF.TYPE operation type
+    * @param uri String full target, null for the base target
+    * @return OperationIF template
+    */
+   private static OperationIF template(final OperationIF.TYPE type, final String uri) {
+      OperationIF operTemplate = new Operation(type);
+      JSONObject json = new JSONObject();
+      JSONObject jsonHeaders = new JSONObject();
+      JSONObject jsonCookies = new JSONObject();
+      JSONObject jsonParams = new JSONObject();
+
+      jsonHeaders.put("X-Test", "value1");
+      jsonCookies.put("c1", "v1");
+      json.put(ConstantsIF.HEADERS, jsonHeaders);
+      json.put(ConstantsIF.COOKIES, jsonCookies);
+
+      if (type == OperationIF.TYPE.READ) {
+         jsonParams.put("q", "1");
+         json.put(ConstantsIF.QUERY_PARAMS, jsonParams);
+      }
+
+      if (uri != null) {
+         json.put(ConstantsIF.URI, uri);
+      }
+
+      operTemplate.setJSON(json);
+
+      return operTemplate;
+   }
+}
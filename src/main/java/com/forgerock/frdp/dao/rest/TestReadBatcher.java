@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+/**
+ * Test the batching of concurrent READ operations into multi-get requests:
+ * "query", "body" and "parallel" modes, the uid values without a result, a
+ * server without multi-get support, a server error. Prints a line for each
+ * test, throws an exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestReadBatcher
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestReadBatcher {
+
+   private static final int READS = 40;
+   private static volatile int _mgetStatus = 200;
+
+   public static void main(String[] args) throws Exception {
+      try (TestServer server = new TestServer()) {
+         for (int i = 0; i < 20; i++) {
+            server.getDocuments().put("d" + i, "{\"i\":" + i + "}");
+         }
+
+         server.setHandler(exchange -> mget(server, exchange));
+
+         testModes(server);
+         testUnsupported(server);
+         testServerError(server);
+      }
+
+      return;
+   }
+
+   /**
+    * Modes: 40 READ operations of 25 uid values, 5 do not exist
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testModes(final TestServer server) throws Exception {
+      String result = null;
+
+      for (String mode : new String[]{"query", "body", "parallel"}) {
+         result = batch(server, mode);
+         check(result.startsWith("found=35 notexist=5 errors=0"), mode + " mode: " + result);
+      }
+
+      return;
+   }
+
+   /**
+    * Unsupported: a server that rejects the multi-get request, the READ
+    * operations are sent as GET requests, from then on
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testUnsupported(final TestServer server) throws Exception {
+      String result = null;
+
+      _mgetStatus = 405;
+      result = batch(server, "body");
+      check(result.startsWith("found=35 notexist=5 errors=0"),
+         "body mode, the server rejects the multi-get: " + result);
+      _mgetStatus = 200;
+
+      return;
+   }
+
+   /**
+    * Server error: the error is the output of all the READ operations of the
+    * batch
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testServerError(final TestServer server) throws Exception {
+      String result = null;
+
+      _mgetStatus = 503;
+      result = batch(server, "body");
+      check(result.startsWith("found=0 notexist=0 errors=40"),
+         "body mode, a server error fails the batch: " + result);
+      _mgetStatus = 200;
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Execute concurrent READ operations with a batch mode
+    *
+    * @param server TestServer server
+    * @param mode String batch mode
+    * @return String "found=n notexist=n errors=n requests=n"
+    * @throws Exception could not execute the operations
+    */
+   private static String batch(final TestServer server, final String mode) throws Exception {
+      int found = 0;
+      int notExist = 0;
+      int errors = 0;
+      OperationIF operOutput = null;
+      List<Future<OperationIF>> futures = new ArrayList<>();
+      ExecutorService executor = Executors.newFixedThreadPool(READS);
+      Map<String, String> params = server.getParams();
+      RestDataAccess dao = null;
+
+      params.put(RestDataAccess.PARAM_READ_BATCH, mode);
+      params.put(RestDataAccess.PARAM_READ_BATCH_WINDOW, "50");
+      params.put(RestDataAccess.PARAM_READ_BATCH_SIZE, "50");
+      dao = new RestDataAccess(params);
+      server.getRequests().clear();
+
+      for (int i = 0; i < READS; i++) {
+         final String uid = "d" + (i % 25);
+         final RestDataAccess batcher = dao;
+
+         futures.add(executor.submit(() -> batcher.execute(read(uid))));
+      }
+
+      for (int i = 0; i < READS; i++) {
+         operOutput = futures.get(i).get();
+
+         if (operOutput.getState() == STATE.SUCCESS
+            && ("d" + (i % 25)).equals(operOutput.getJSON().get(ConstantsIF.UID))) {
+            found++;
+         } else if (operOutput.getState() == STATE.NOTEXIST) {
+            notExist++;
+         } else {
+            errors++;
+         }
+      }
+
+      executor.shutdown();
+      dao.close();
+
+      return "found=" + found + " notexist=" + notExist + " errors=" + errors
+         + " requests=" + server.getRequests().size();
+   }
+
+   /**
+    * Handler of the multi-get requests, "?_ids=" or "POST .../_mget", the
+    * other requests are handled by the server
+    *
+    * @param server TestServer server
+    * @param exchange HttpExchange request and response
+    * @throws IOException could not send the response
+    */
+   private static void mget(final TestServer server, final HttpExchange exchange)
+      throws IOException {
+      String query = exchange.getRequestURI().getQuery();
+      String body = (String) exchange.getAttribute("body");
+      String data = null;
+      List<String> uids = null;
+      JSONObject json = null;
+      JSONArray results = new JSONArray();
+
+      if (query != null && query.startsWith("_ids=")) {
+         uids = new ArrayList<>(List.of(query.substring(5).split(",")));
+      } else if (exchange.getRequestURI().getPath().endsWith("/_mget")) {
+         try {
+            uids = new ArrayList<>();
+
+            for (Object uid : (JSONArray) ((JSONObject) new JSONParser().parse(body)).get("_ids")) {
+               uids.add((String) uid);
+            }
+         } catch (Exception ex) {
+            throw new IOException(ex);
+         }
+      }
+
+      if (uids == null) {
+         server.handleDocument(exchange, body);
+      } else if (_mgetStatus != 200) {
+         TestServer.send(exchange, _mgetStatus, "{\"error\":\"mget\"}");
+      } else {
+         for (String uid : uids) {
+            data = server.getDocuments().get(uid);
+
+            if (data != null) {
+               json = new JSONObject();
+               json.put(ConstantsIF.UID, uid);
+               results.add(json);
+            }
+         }
+
+         json = new JSONObject();
+         json.put(ConstantsIF.RESULTS, results);
+         TestServer.send(exchange, 200, json.toJSONString());
+      }
+
+      return;
+   }
+
+   /**
+    * Get a READ operation
+    *
+    * @param uid String document uid
+    * @return OperationIF operation
+    */
+   private static OperationIF read(final String uid) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.READ);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.UID, uid);
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.net.URI;
+import java.util.Map;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the redirects: the cache of the permanent redirects, a redirect that
+ * is not followed, a permanent redirect to another origin, a temporary
+ * redirect, the maximum hops, a cached location that is gone, a CREATE.
+ * Prints a line for each test, throws an exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestRedirects
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestRedirects {
+
+   private static volatile boolean _moved = true;
+
+   public static void main(String[] args) throws Exception {
+      testCache();
+
+      try (TestServer origin = new TestServer(); TestServer other = new TestServer()) {
+         origin.getDocuments().put("doc1", "{\"from\":\"origin\"}");
+         origin.getDocuments().put("moved", "{\"from\":\"origin\"}");
+         other.getDocuments().put("moved", "{\"from\":\"other\"}");
+         origin.setHandler(exchange -> {
+            String path = exchange.getRequestURI().getPath();
+
+            if (path.endsWith("/moved") && _moved) {
+               exchange.getResponseHeaders().add("Location", other.getUri("moved"));
+               TestServer.send(exchange, 308, null);
+            } else if (path.endsWith("/temp")) {
+               exchange.getResponseHeaders().add("Location", "doc1");
+               TestServer.send(exchange, 307, null);
+            } else if (path.endsWith("/loop") || path.endsWith("/new")) {
+               exchange.getResponseHeaders().add("Location", "/" + TestServer.PATH + "/loop");
+               TestServer.send(exchange, 302, null);
+            } else {
+               origin.handleDocument(exchange, (String) exchange.getAttribute("body"));
+            }
+         });
+
+         testNotFollowed(origin);
+         testPermanent(origin, other);
+         testTemporary(origin);
+         testGone(origin, other);
+      }
+
+      return;
+   }
+
+   /**
+    * Cache: the permanent redirects, the least recently used is evicted
+    *
+    * @throws Exception a test failed
+    */
+   private static void testCache() throws Exception {
+      URI a = URI.create("http://h/a");
+      URI b = URI.create("http://h/b");
+      URI c = URI.create("http://h/c");
+      URI location = URI.create("http://other/x");
+      RedirectCache cache = new RedirectCache(2);
+
+      cache.put(a, location);
+      cache.put(b, location);
+      cache.get(a);
+      cache.put(c, location);
+
+      check(location.equals(cache.get(a)) && cache.get(b) == null && location.equals(cache.get(c)),
+         "the least recently used URI is evicted");
+
+      cache.put(a, a);
+      cache.remove(c);
+
+      check(location.equals(cache.get(a)) && cache.get(c) == null,
+         "a redirect to itself is not cached, a URI is removed");
+      check(((Number) cache.getStats().get("evictions")).longValue() == 1L
+         && ((Number) cache.getStats().get("hits")).longValue() == 4L,
+         "statistics: " + cache.getStats());
+
+      cache = new RedirectCache(0);
+      cache.put(a, location);
+
+      check(cache.get(a) == null, "capacity 0, the redirects are not cached");
+
+      return;
+   }
+
+   /**
+    * Not followed: by default, the redirect is returned
+    *
+    * @param origin TestServer server that sends the redirects
+    * @throws Exception a test failed
+    */
+   private static void testNotFollowed(final TestServer origin) throws Exception {
+      OperationIF operOutput = null;
+      RestDataAccess dao = new RestDataAccess(origin.getParams());
+
+      origin.getRequests().clear();
+      operOutput = dao.execute(read("loop", false));
+
+      check(operOutput.getState() == STATE.WARNING && origin.getRequests().size() == 1,
+         "by default, the redirect is returned: " + operOutput.getStatus());
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Permanent: the 308 is followed to another origin without the credential
+    * headers, the location is cached
+    *
+    * @param origin TestServer server that sends the redirects
+    * @param other TestServer server of the location
+    * @throws Exception a test failed
+    */
+   private static void testPermanent(final TestServer origin, final TestServer other)
+      throws Exception {
+      OperationIF operOutput = null;
+      JSONObject headers = null;
+      RestDataAccess dao = dao(origin, 5);
+
+      origin.getRequests().clear();
+      other.getRequests().clear();
+      operOutput = dao.execute(read("moved", true));
+      headers = (JSONObject) other.getRequests().get(0).get("headers");
+
+      check(operOutput.getState() == STATE.SUCCESS && "other".equals(data(operOutput).get("from")),
+         "the permanent redirect is followed: " + operOutput.getJSON());
+      check(!headers.containsKey("authorization") && !headers.containsKey("cookie")
+         && "1".equals(headers.get("x-test")),
+         "the credential headers are not sent to another origin: " + headers.keySet());
+
+      origin.getRequests().clear();
+      other.getRequests().clear();
+      operOutput = dao.execute(read("moved", true));
+
+      check(operOutput.getState() == STATE.SUCCESS && origin.getRequests().isEmpty()
+         && other.getRequests().size() == 1,
+         "the location is cached, the next request is sent to it");
+      check(((Number) ((JSONObject) dao.getStatistics().get("redirects")).get("hits")).longValue() >= 1L,
+         "statistics: " + dao.getStatistics().get("redirects"));
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Temporary: the 307 is followed to the relative location and not cached,
+    * the maximum hops, a CREATE does not follow a 302
+    *
+    * @param origin TestServer server that sends the redirects
+    * @throws Exception a test failed
+    */
+   private static void testTemporary(final TestServer origin) throws Exception {
+      OperationIF operInput = null;
+      OperationIF operOutput = null;
+      JSONObject json = new JSONObject();
+      JSONObject jsonData = new JSONObject();
+      RestDataAccess dao = dao(origin, 2);
+
+      for (int i = 0; i < 2; i++) {
+         origin.getRequests().clear();
+         operOutput = dao.execute(read("temp", false));
+
+         check(operOutput.getState() == STATE.SUCCESS && origin.getRequests().size() == 2
+            && origin.getRequestLines().get(1).equals("GET /" + TestServer.PATH + "/doc1"),
+            "the temporary redirect is followed, not cached: " + origin.getRequestLines());
+      }
+
+      origin.getRequests().clear();
+      operOutput = dao.execute(read("loop", false));
+
+      check(operOutput.getState() == STATE.WARNING && origin.getRequests().size() == 3,
+         "redirectMaxHops 2, then the redirect is returned: " + origin.getRequestLines());
+
+      operInput = new Operation(OperationIF.TYPE.CREATE);
+      jsonData.put("a", 1L);
+      json.put(ConstantsIF.UID, "new");
+      json.put(ConstantsIF.DATA, jsonData);
+      operInput.setJSON(json);
+      origin.getRequests().clear();
+      operOutput = dao.execute(operInput);
+
+      check(operOutput.getState() == STATE.WARNING && origin.getRequests().size() == 1,
+         "a CREATE does not follow a 302: " + operOutput.getStatus());
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Gone: a cached location that returns 404 is removed, the request is sent
+    * to the URI
+    *
+    * @param origin TestServer server that sends the redirects
+    * @param other TestServer server of the location
+    * @throws Exception a test failed
+    */
+   private static void testGone(final TestServer origin, final TestServer other)
+      throws Exception {
+      OperationIF operOutput = null;
+      RestDataAccess dao = dao(origin, 5);
+
+      dao.execute(read("moved", false));
+      _moved = false;
+      other.getDocuments().remove("moved");
+      origin.getRequests().clear();
+      operOutput = dao.execute(read("moved", false));
+
+      check(operOutput.getState() == STATE.SUCCESS && "origin".equals(data(operOutput).get("from"))
+         && origin.getRequests().size() == 1
+         && ((Number) ((JSONObject) dao.getStatistics().get("redirects")).get("size")).intValue() == 0,
+         "the cached location is gone, the request is sent to the URI: " + operOutput.getJSON());
+
+      _moved = true;
+      dao.close();
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get a data access object that follows the redirects
+    *
+    * @param server TestServer server
+    * @param hops int value of "redirectMaxHops"
+    * @return RestDataAccess data access object
+    * @throws Exception could not create the object
+    */
+   private static RestDataAccess dao(final TestServer server, final int hops) throws Exception {
+      Map<String, String> params = server.getParams();
+
+      params.put(RestDataAccess.PARAM_FOLLOW_REDIRECTS, "true");
+      params.put(RestDataAccess.PARAM_REDIRECT_MAX_HOPS, Integer.toString(hops));
+
+      return new RestDataAccess(params);
+   }
+
+   /**
+    * Get a READ operation
+    *
+    * @param uid String document uid
+    * @param credentials boolean add an Authorization header and a cookie
+    * @return OperationIF operation
+    */
+   private static OperationIF read(final String uid, final boolean credentials) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.READ);
+      JSONObject json = new JSONObject();
+      JSONObject jsonHeaders = new JSONObject();
+      JSONObject jsonCookies = new JSONObject();
+
+      json.put(ConstantsIF.UID, uid);
+
+      if (credentials) {
+         jsonHeaders.put("Authorization", "Bearer secret");
+         jsonHeaders.put("X-Test", "1");
+         jsonCookies.put("session", "secret");
+         json.put(ConstantsIF.HEADERS, jsonHeaders);
+         json.put(ConstantsIF.COOKIES, jsonCookies);
+      }
+
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+
+   /**
+    * Get the "data" of a READ output
+    *
+    * @param operOutput OperationIF output
+    * @return JSONObject data
+    */
+   private static JSONObject data(final OperationIF operOutput) {
+      return (JSONObject) operOutput.getJSON().get(ConstantsIF.DATA);
+   }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.Map;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the read / write splitting: the writes go to the primary, the reads
+ * to the replicas, a document written within the read-your-writes window is
+ * read from the primary. Prints a line for each test, throws an exception on
+ * the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestReplicas
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestReplicas {
+
+   public static void main(String[] args) throws Exception {
+      String uri = null;
+      String uid = null;
+      String error = null;
+      String counts = null;
+      OperationIF operOutput = null;
+      Map<String, String> params = null;
+      RestDataAccess dao = null;
+
+      try (TestServer primary = new TestServer(); TestServer replica1 = new TestServer();
+         TestServer replica2 = new TestServer()) {
+         TestServer[] servers = {primary, replica1, replica2};
+
+         for (TestServer server : servers) {
+            server.getDocuments().put("u1", "{}");
+            server.getDocuments().put("u2", "{}");
+         }
+
+         params = primary.getParams();
+         params.put(RestDataAccess.PARAM_REPLICAS, replica1.getHost() + "," + replica2.getHost());
+         params.put(RestDataAccess.PARAM_READ_YOUR_WRITES, "300");
+         dao = new RestDataAccess(params);
+
+         dao.execute(operation(OperationIF.TYPE.REPLACE, "u1"));
+         counts = requests(servers);
+         check(counts.equals("1 0 0"), "a REPLACE is sent to the primary: " + counts);
+
+         dao.execute(operation(OperationIF.TYPE.READ, "u1"));
+         counts = requests(servers);
+         check(counts.equals("1 0 0"),
+            "a READ of the document within the window is sent to the primary: " + counts);
+
+         dao.execute(operation(OperationIF.TYPE.READ, "u2"));
+         dao.execute(operation(OperationIF.TYPE.READ, "u2"));
+         counts = requests(servers);
+         check(counts.equals("0 1 1"), "the other READ operations use the replicas: " + counts);
+
+         operOutput = dao.execute(operation(OperationIF.TYPE.CREATE, null));
+         uri = (String) operOutput.getJSON().get(ConstantsIF.URI);
+         uid = uri.substring(uri.lastIndexOf('/') + 1);
+         requests(servers);
+
+         operOutput = dao.execute(operation(OperationIF.TYPE.READ, uid));
+         counts = requests(servers);
+         check(operOutput.getState() == STATE.SUCCESS && counts.equals("1 0 0"),
+            "a READ of a created document, uid of the location, is sent to the primary: "
+            + counts);
+
+         Thread.sleep(400L);
+         dao.execute(operation(OperationIF.TYPE.READ, "u1"));
+         counts = requests(servers);
+         check(counts.startsWith("0 "), "after the window, a replica is used: " + counts);
+
+         dao.close();
+
+         params.put(RestDataAccess.PARAM_HOSTS, primary.getHost());
+
+         try {
+            new RestDataAccess(params).close();
+         } catch (Exception ex) {
+            error = ex.getMessage();
+         }
+
+         check(error != null, "'hosts' and 'replicas' can not be used together: " + error);
+      }
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get the number of requests of each server, the requests are cleared
+    *
+    * @param servers TestServer[] servers
+    * @return String numbers of requests "primary replica1 replica2"
+    */
+   private static String requests(final TestServer[] servers) {
+      StringBuilder buf = new StringBuilder();
+
+      for (TestServer server : servers) {
+         buf.append(buf.length() > 0 ? " " : "").append(server.getRequests().size());
+         server.getRequests().clear();
+      }
+
+      return buf.toString();
+   }
+
+   /**
+    * Get an operation with data
+    *
+    * @param type OperationIF.TYPE operation type
+    * @param uid String document uid, may be null
+    * @return OperationIF operation
+    */
+   private static OperationIF operation(final OperationIF.TYPE type, final String uid) {
+      OperationIF operInput = new Operation(type);
+      JSONObject json = new JSONObject();
+      JSONObject jsonData = new JSONObject();
+
+      jsonData.put("x", 1L);
+      json.put(ConstantsIF.DATA, jsonData);
+
+      if (uid != null) {
+         json.put(ConstantsIF.UID, uid);
+      }
+
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.Map;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the status messages of the operations: the message is built when it
+ * is read, the response entity is truncated when it is stored and is only
+ * stored for the messages that include it. Prints a line for each test,
+ * throws an exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestResponseStatus
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestResponseStatus {
+
+   public static void main(String[] args) throws Exception {
+      testOperation();
+      testDataAccess();
+
+      return;
+   }
+
+   /**
+    * Operation: the pending message, the truncated entity, a status that
+    * replaces the pending message
+    *
+    * @throws Exception a test failed
+    */
+   private static void testOperation() throws Exception {
+      RestOperation operOutput = new RestOperation(OperationIF.TYPE.READ);
+
+      operOutput.setResponse(404, "Not Found");
+      operOutput.setResponseStatus("NOT FOUND: ", "{\"error\":\"not found\"}", 10);
+      check("{\"error\":\"...".equals(operOutput.getEntity()),
+         "the entity is truncated when it is stored: " + operOutput.getEntity());
+      check("NOT FOUND: 404, Not Found, Entity='{\"error\":\"...'".equals(operOutput.getStatus()),
+         "the message is built when it is read: " + operOutput.getStatus());
+
+      operOutput = new RestOperation(OperationIF.TYPE.READ);
+      operOutput.setResponse(500, "Server Error");
+      operOutput.setResponseStatus("Default: ", "short", 10);
+      check("short".equals(operOutput.getEntity()), "a short entity is not truncated");
+
+      operOutput.setStatus("replaced");
+      check("replaced".equals(operOutput.getStatus()), "a status replaces the pending message");
+
+      operOutput = new RestOperation(OperationIF.TYPE.CREATE);
+      operOutput.setResponse(201, "Created");
+      operOutput.setResponseStatus("Response: ", null, 10);
+      check(operOutput.getEntity() == null && operOutput.getStatus().startsWith(
+         "Response: 201, Created, Entity='"), "no entity: " + operOutput.getStatus());
+
+      return;
+   }
+
+   /**
+    * Data access: an error keeps the truncated entity, a READ that succeeds
+    * does not keep the entity
+    *
+    * @throws Exception a test failed
+    */
+   private static void testDataAccess() throws Exception {
+      Map<String, String> params = null;
+      RestOperation operOutput = null;
+      RestDataAccess dao = null;
+
+      try (TestServer server = new TestServer()) {
+         server.getDocuments().put("doc1", "{\"a\":\"b\"}");
+         params = server.getParams();
+         params.put(RestDataAccess.PARAM_STATUS_MAX_CHARS, "10");
+         dao = new RestDataAccess(params);
+
+         operOutput = (RestOperation) dao.execute(read("nope"));
+         check(operOutput.getState() == STATE.NOTEXIST && operOutput.getHttpStatus() == 404
+            && "Not Found".equals(operOutput.getHttpReason())
+            && operOutput.getStatus().endsWith("Entity='{\"error\":\"...'"),
+            "READ not found, the entity is cut at 'statusMaxChars': " + operOutput.getStatus());
+
+         operOutput = (RestOperation) dao.execute(read("doc1"));
+         check(operOutput.getState() == STATE.SUCCESS && operOutput.getHttpStatus() == 200
+            && operOutput.getEntity() == null,
+            "READ success, the entity is not kept: " + operOutput.getStatus());
+
+         dao.close();
+      }
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get a READ operation
+    *
+    * @param uid String document uid
+    * @return OperationIF operation
+    */
+   private static OperationIF read(final String uid) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.READ);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.UID, uid);
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+}
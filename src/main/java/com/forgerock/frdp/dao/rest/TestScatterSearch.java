@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.Map;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the scatter-gather SEARCH over the shards: the merged results, with
+ * and without paging, the deadline, partial results, a shard that is down.
+ * With paging, a shard that misses the deadline is not left running. Prints
+ * a line for each test, throws an exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestScatterSearch
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestScatterSearch {
+
+   public static void main(String[] args) throws Exception {
+      try (TestServer server1 = new TestServer(); TestServer server2 = new TestServer();
+         TestServer server3 = new TestServer()) {
+         TestServer[] servers = {server1, server2, server3};
+
+         for (int i = 0; i < servers.length; i++) {
+            for (int k = 0; k < 5 + i; k++) {
+               servers[i].getDocuments().put("s" + i + "d" + k, "{}");
+            }
+         }
+
+         testMerge(servers);
+         testDeadline(servers);
+         testPagedDeadline(servers);
+         testShardDown(servers);
+      }
+
+      return;
+   }
+
+   /**
+    * Merge: the results of the shards are merged, with and without paging
+    *
+    * @param servers TestServer[] shards
+    * @throws Exception a test failed
+    */
+   private static void testMerge(final TestServer[] servers) throws Exception {
+      OperationIF operOutput = null;
+      RestDataAccess dao = dao(servers);
+
+      operOutput = dao.execute(search());
+      check(operOutput.getState() == STATE.SUCCESS && quantity(operOutput) == 18
+         && ((JSONArray) operOutput.getJSON().get(ConstantsIF.RESULTS)).size() == 18,
+         "the results of 3 shards are merged: " + quantity(operOutput));
+      dao.close();
+
+      dao = dao(servers, RestDataAccess.PARAM_PAGE_MODE, "offset",
+         RestDataAccess.PARAM_PAGE_SIZE, "2");
+      operOutput = dao.execute(search());
+      check(operOutput.getState() == STATE.SUCCESS && quantity(operOutput) == 18,
+         "all the pages of each shard are read: " + quantity(operOutput));
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Deadline: a slow shard is a partial result, or fails the SEARCH
+    *
+    * @param servers TestServer[] shards
+    * @throws Exception a test failed
+    */
+   private static void testDeadline(final TestServer[] servers) throws Exception {
+      long start = 0L;
+      OperationIF operOutput = null;
+      RestDataAccess dao = null;
+
+      servers[2].setDelay(800L);
+
+      dao = dao(servers, RestDataAccess.PARAM_SCATTER_DEADLINE, "300",
+         RestDataAccess.PARAM_SCATTER_PARTIAL, "true");
+      start = System.currentTimeMillis();
+      operOutput = dao.execute(search());
+      check(operOutput.getState() == STATE.WARNING
+         && operOutput.getStatus().startsWith(RestDataAccess.STATUS_PARTIAL_RESULTS)
+         && quantity(operOutput) == 11 && System.currentTimeMillis() - start < 700L,
+         "partial results at the deadline: " + operOutput.getStatus());
+      dao.close();
+
+      dao = dao(servers, RestDataAccess.PARAM_SCATTER_DEADLINE, "300");
+      operOutput = dao.execute(search());
+      check(operOutput.isError(), "without partial results, the SEARCH fails: "
+         + operOutput.getStatus());
+      dao.close();
+
+      servers[2].setDelay(0L);
+
+      return;
+   }
+
+   /**
+    * Paged deadline: the page requests of a slow shard use the time left,
+    * the shard request ends at the deadline
+    *
+    * @param servers TestServer[] shards
+    * @throws Exception a test failed
+    */
+   private static void testPagedDeadline(final TestServer[] servers) throws Exception {
+      long start = 0L;
+      OperationIF operOutput = null;
+      RestDataAccess dao = dao(servers, RestDataAccess.PARAM_SCATTER_DEADLINE, "1000",
+         RestDataAccess.PARAM_SCATTER_PARTIAL, "true",
+         RestDataAccess.PARAM_PAGE_MODE, "offset", RestDataAccess.PARAM_PAGE_SIZE, "2");
+
+      dao.execute(search()); // connections
+      servers[2].setDelay(4000L);
+
+      start = System.currentTimeMillis();
+      operOutput = dao.execute(search());
+      check(operOutput.getState() == STATE.WARNING && System.currentTimeMillis() - start < 2000L,
+         "paged SEARCH, partial results at the deadline: " + operOutput.getStatus());
+
+      while (isOutstanding(dao) && System.currentTimeMillis() - start < 3500L) {
+         Thread.sleep(20L);
+      }
+
+      check(!isOutstanding(dao), "the page request of the slow shard ends at the deadline, "
+         + (System.currentTimeMillis() - start) + " ms");
+
+      servers[2].setDelay(0L);
+      operOutput = dao.execute(search());
+      check(operOutput.getState() == STATE.SUCCESS && quantity(operOutput) == 18,
+         "the shard is used again");
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Shard down: a partial result without the shard
+    *
+    * @param servers TestServer[] shards
+    * @throws Exception a test failed
+    */
+   private static void testShardDown(final TestServer[] servers) throws Exception {
+      OperationIF operOutput = null;
+      RestDataAccess dao = dao(servers, RestDataAccess.PARAM_SCATTER_PARTIAL, "true");
+
+      servers[1].close();
+      operOutput = dao.execute(search());
+      check(operOutput.getState() == STATE.WARNING && quantity(operOutput) == 12,
+         "a shard that is down is not in the partial results: " + operOutput.getStatus());
+      dao.close();
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get a data access object that uses the servers as shards
+    *
+    * @param servers TestServer[] shards
+    * @param names String[] names and values of more parameters
+    * @return RestDataAccess data access object
+    * @throws Exception could not create the object
+    */
+   private static RestDataAccess dao(final TestServer[] servers, final String... names)
+      throws Exception {
+      StringBuilder buf = new StringBuilder();
+      Map<String, String> params = servers[0].getParams();
+
+      for (TestServer server : servers) {
+         buf.append(buf.length() > 0 ? "," : "").append(server.getHost());
+      }
+
+      params.remove(RestDataAccess.PARAM_HOST);
+      params.put(RestDataAccess.PARAM_SHARDS, buf.toString());
+
+      for (int i = 0; i < names.length; i += 2) {
+         params.put(names[i], names[i + 1]);
+      }
+
+      return new RestDataAccess(params);
+   }
+
+   /**
+    * Get a SEARCH operation
+    *
+    * @return OperationIF operation
+    */
+   private static OperationIF search() {
+      OperationIF operInput = new Operation(OperationIF.TYPE.SEARCH);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.QUERY_PARAMS, new JSONObject());
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+
+   /**
+    * Get the quantity of a SEARCH output
+    *
+    * @param operOutput OperationIF output
+    * @return int quantity, -1 if there is none
+    */
+   private static int quantity(final OperationIF operOutput) {
+      Object obj = operOutput.getJSON() == null ? null
+         : operOutput.getJSON().get(RestDataAccess.QUANTITY);
+
+      return obj instanceof Number ? ((Number) obj).intValue() : -1;
+   }
+
+   /**
+    * Check if a shard has a request in progress
+    *
+    * @param dao RestDataAccess data access object
+    * @return boolean true if a request is in progress
+    */
+   private static boolean isOutstanding(final RestDataAccess dao) {
+      boolean outstanding = false;
+
+      for (Object obj : (JSONArray) dao.getStatistics().get("shards")) {
+         if (((Number) ((JSONObject) obj).get("outstanding")).intValue() > 0) {
+            outstanding = true;
+         }
+      }
+
+      return outstanding;
+   }
+}
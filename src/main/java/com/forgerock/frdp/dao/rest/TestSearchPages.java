@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the paged SEARCH: "offset" and "link" modes, a relative "next" link,
+ * the total of the last page, the page iterator and its close(). Prints a
+ * line for each test, throws an exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestSearchPages
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestSearchPages {
+
+   private static final int DOCUMENTS = 23;
+
+   public static void main(String[] args) throws Exception {
+      try (TestServer server = new TestServer()) {
+         for (int i = 0; i < DOCUMENTS; i++) {
+            server.getDocuments().put(String.format("id%02d", i), "{}");
+         }
+
+         testOffset(server);
+         testLink(server);
+         testClose(server);
+      }
+
+      return;
+   }
+
+   /**
+    * Offset mode: all the pages are merged, with or without the total, when
+    * the server caps the page size
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testOffset(final TestServer server) throws Exception {
+      int count = 0;
+      OperationIF operOutput = null;
+      RestDataAccess dao = dao(server, "offset", "5");
+
+      operOutput = dao.execute(search());
+      check(isComplete(operOutput), "offset mode, 23 results in pages of 5: "
+         + operOutput.getJSON().get(RestDataAccess.QUANTITY));
+
+      try (SearchPages pages = dao.search(search())) {
+         while (pages.hasNext()) {
+            if (!pages.next().isError()) {
+               count++;
+            }
+         }
+      }
+
+      check(count == 5, "offset mode, the iterator returns 5 pages: " + count);
+
+      Thread.sleep(200L); // a page request in progress when the iterator closed completes
+      server.setTotal(true);
+      server.getRequests().clear();
+      operOutput = dao.execute(search());
+      Thread.sleep(200L);
+      check(isComplete(operOutput) && server.getRequests().size() <= 6
+         && !server.getRequestLines().contains("GET /" + TestServer.PATH + "?_offset=30&_limit=5"),
+         "offset mode with the total, only the prefetched page after the last page: "
+         + server.getRequests().size());
+      server.setTotal(false);
+
+      server.setPageLimit(4);
+      operOutput = dao.execute(search());
+      check(isComplete(operOutput), "offset mode, the server caps the pages at 4");
+      server.setPageLimit(0);
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Link mode: the relative "next" link is resolved against the page URI,
+    * the quantity is the total of the last page
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testLink(final TestServer server) throws Exception {
+      OperationIF operOutput = null;
+      RestDataAccess dao = dao(server, "link", "5");
+
+      server.setHandler(exchange -> link(server, exchange));
+      server.getRequests().clear();
+
+      operOutput = dao.execute(search());
+      check(isComplete(operOutput) && server.getRequests().size() == 5,
+         "link mode, the relative next links are followed: " + server.getRequestLines());
+
+      check(server.getRequestLines().get(4).equals("GET /" + TestServer.PATH + "?_offset=20"),
+         "the relative link keeps the path of the page");
+
+      server.setHandler(null);
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Close: the iterator is closed after the first page, the prefetch stops
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testClose(final TestServer server) throws Exception {
+      int requests = 0;
+      RestDataAccess dao = dao(server, "offset", "2");
+
+      server.setDelay(200L);
+      server.getRequests().clear();
+
+      try (SearchPages pages = dao.search(search())) {
+         pages.next();
+      }
+
+      requests = server.getRequests().size();
+      Thread.sleep(1000L);
+
+      check(requests < 12 && server.getRequests().size() == requests,
+         "no page is requested after close(): " + requests);
+
+      server.setDelay(0L);
+      dao.close();
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get a data access object with paged SEARCH
+    *
+    * @param server TestServer server
+    * @param mode String page mode
+    * @param size String page size
+    * @return RestDataAccess data access object
+    * @throws Exception could not create the object
+    */
+   private static RestDataAccess dao(final TestServer server, final String mode,
+      final String size) throws Exception {
+      Map<String, String> params = server.getParams();
+
+      params.put(RestDataAccess.PARAM_PAGE_MODE, mode);
+      params.put(RestDataAccess.PARAM_PAGE_SIZE, size);
+      params.put(RestDataAccess.PARAM_PAGE_PREFETCH, "2");
+
+      return new RestDataAccess(params);
+   }
+
+   /**
+    * Get a SEARCH operation
+    *
+    * @return OperationIF operation
+    */
+   private static OperationIF search() {
+      OperationIF operInput = new Operation(OperationIF.TYPE.SEARCH);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.QUERY_PARAMS, new JSONObject());
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+
+   /**
+    * Check that the output has all the documents, once, and their quantity
+    *
+    * @param operOutput OperationIF SEARCH output
+    * @return boolean true if the output is complete
+    */
+   private static boolean isComplete(final OperationIF operOutput) {
+      boolean complete = false;
+      JSONArray results = null;
+
+      if (operOutput.getState() == STATE.SUCCESS && operOutput.getJSON() != null) {
+         results = (JSONArray) operOutput.getJSON().get(ConstantsIF.RESULTS);
+         complete = results.size() == DOCUMENTS && new HashSet<>(results).size() == DOCUMENTS
+            && ((Number) operOutput.getJSON().get(RestDataAccess.QUANTITY)).intValue()
+            == DOCUMENTS;
+      }
+
+      return complete;
+   }
+
+   /**
+    * Search handler of "link" mode: a page of 5 and a relative "next" link
+    * with only a query. Each page has the total as "quantity" and
+    * "totalPagedResults", adding the quantities would be wrong.
+    *
+    * @param server TestServer server
+    * @param exchange HttpExchange request and response
+    * @throws IOException could not send the response
+    */
+   private static void link(final TestServer server, final HttpExchange exchange)
+      throws IOException {
+      int offset = 0;
+      String query = exchange.getRequestURI().getQuery();
+      List<String> uids = new ArrayList<>(new TreeSet<>(server.getDocuments().keySet()));
+      JSONArray results = new JSONArray();
+      JSONObject json = new JSONObject();
+
+      if (query != null && query.startsWith("_offset=")) {
+         offset = Integer.parseInt(query.substring(8));
+      }
+
+      for (int i = offset; i < uids.size() && i < offset + 5; i++) {
+         results.add(uids.get(i));
+      }
+
+      if (offset + 5 < uids.size()) {
+         exchange.getResponseHeaders().add("Link",
+            "<?_offset=" + (offset + 5) + ">; rel=\"next\"");
+      }
+
+      json.put(RestDataAccess.QUANTITY, uids.size());
+      json.put(SearchPages.TOTAL, uids.size());
+      json.put(ConstantsIF.RESULTS, results);
+
+      TestServer.send(exchange, 200, json.toJSONString());
+
+      return;
+   }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the search-then-fan-out pipeline: the uid values of the SEARCH pages
+ * are read in parallel with a bounded concurrency, a DELETE template, a
+ * dynamic "uri" template, a pipeline closed before the end. Prints a line
+ * for each test, throws an exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestSearchPipeline
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestSearchPipeline {
+
+   private static final int DOCUMENTS = 40;
+
+   public static void main(String[] args) throws Exception {
+      try (TestServer server = new TestServer()) {
+         testRead(server);
+         testDynamic(server);
+         testClose(server);
+         testDelete(server);
+      }
+
+      return;
+   }
+
+   /**
+    * READ template: every uid of the pages is read once, at most
+    * "concurrency" requests are in progress
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testRead(final TestServer server) throws Exception {
+      final AtomicInteger active = new AtomicInteger(0);
+      final AtomicInteger peak = new AtomicInteger(0);
+      int errors = 0;
+      OperationIF operOutput = null;
+      Set<String> uids = new HashSet<>();
+      RestDataAccess dao = dao(server);
+
+      fill(server);
+      server.setHandler(exchange -> {
+         peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+
+         try {
+            Thread.sleep(20L);
+            server.handleDocument(exchange, (String) exchange.getAttribute("body"));
+         } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+         } finally {
+            active.decrementAndGet();
+         }
+      });
+
+      try (SearchPipeline pipeline = dao.pipeline(search(null), read(null), 10)) {
+         while (pipeline.hasNext()) {
+            operOutput = pipeline.next();
+
+            if (operOutput.getState() == STATE.SUCCESS) {
+               uids.add((String) operOutput.getJSON().get(ConstantsIF.UID));
+            } else {
+               errors++;
+            }
+         }
+      }
+
+      server.setHandler(null);
+
+      check(uids.size() == DOCUMENTS && errors == 0, "40 documents read from pages of 7: "
+         + uids.size());
+      check(peak.get() <= 12, "at most 10 reads, and the pages, in progress: " + peak.get());
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Dynamic mode: the uid is appended to the "uri" of the template
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testDynamic(final TestServer server) throws Exception {
+      int count = 0;
+      String uri = "http://" + server.getHost() + "/" + TestServer.PATH;
+      OperationIF operOutput = null;
+      RestDataAccess dao = new RestDataAccess();
+
+      try (SearchPipeline pipeline = dao.pipeline(search(uri), read(uri), 4)) {
+         while (pipeline.hasNext()) {
+            operOutput = pipeline.next();
+
+            if (operOutput.getState() == STATE.SUCCESS
+               && operOutput.getJSON().get(ConstantsIF.DATA) != null) {
+               count++;
+            }
+         }
+      }
+
+      check(count == DOCUMENTS, "dynamic mode, the uid is appended to the uri: " + count);
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Close: a pipeline that is closed after a few outputs stops the reads
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testClose(final TestServer server) throws Exception {
+      int requests = 0;
+      RestDataAccess dao = dao(server);
+
+      server.setDelay(50L);
+      server.getRequests().clear();
+
+      try (SearchPipeline pipeline = dao.pipeline(search(null), read(null), 2)) {
+         for (int i = 0; i < 3 && pipeline.hasNext(); i++) {
+            pipeline.next();
+         }
+      }
+
+      Thread.sleep(200L);
+      requests = server.getRequests().size();
+      Thread.sleep(500L);
+
+      check(requests < DOCUMENTS && server.getRequests().size() == requests,
+         "no request after close(): " + requests);
+
+      server.setDelay(0L);
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * DELETE template: without paging, all the documents are deleted
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testDelete(final TestServer server) throws Exception {
+      int count = 0;
+      OperationIF operTemplate = new Operation(OperationIF.TYPE.DELETE);
+      RestDataAccess dao = new RestDataAccess(server.getParams());
+
+      operTemplate.setJSON(new JSONObject());
+
+      try (SearchPipeline pipeline = dao.pipeline(search(null), operTemplate, 8)) {
+         while (pipeline.hasNext()) {
+            if (!pipeline.next().isError()) {
+               count++;
+            }
+         }
+      }
+
+      check(count == DOCUMENTS && server.getDocuments().isEmpty(),
+         "DELETE template, all the documents are deleted: " + count);
+
+      dao.close();
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Add the documents to the server
+    *
+    * @param server TestServer server
+    */
+   private static void fill(final TestServer server) {
+      for (int i = 0; i < DOCUMENTS; i++) {
+         server.getDocuments().put(String.format("id%02d", i), "{\"n\":" + i + "}");
+      }
+
+      return;
+   }
+
+   /**
+    * Get a data access object with pages of 7 results
+    *
+    * @param server TestServer server
+    * @return RestDataAccess data access object
+    * @throws Exception could not create the object
+    */
+   private static RestDataAccess dao(final TestServer server) throws Exception {
+      Map<String, String> params = server.getParams();
+
+      params.put(RestDataAccess.PARAM_PAGE_MODE, "offset");
+      params.put(RestDataAccess.PARAM_PAGE_SIZE, "7");
+
+      return new RestDataAccess(params);
+   }
+
+   /**
+    * Get a SEARCH operation
+    *
+    * @param uri String full target, null for the base target
+    * @return OperationIF operation
+    */
+   private static OperationIF search(final String uri) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.SEARCH);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.QUERY_PARAMS, new JSONObject());
+
+      if (uri != null) {
+         json.put(ConstantsIF.URI, uri);
+      }
+
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+
+   /**
+    * Get a READ template
+    *
+    * @param uri String full target, null for the base target
+    * @return OperationIF operation
+    */
+   private static OperationIF read(final String uri) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.READ);
+      JSONObject json = new JSONObject();
+
+      if (uri != null) {
+         json.put(ConstantsIF.URI, uri);
+      }
+
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+}
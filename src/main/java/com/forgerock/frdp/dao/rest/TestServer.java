@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * In-memory REST / JSON document server, used by the test programs. Listens
+ * on 127.0.0.1 (ephemeral port), the documents are under the path
+ * "/app/content":
+ *
+ * <pre>
+ * POST   /app/content[/uid] | create, 201 with the "Location" of the document
+ * GET    /app/content/uid   | read, 200 { "uid": "...", "data": {...} } or 404
+ * GET    /app/content       | search, { "quantity": n, "results": [uid, ...] },
+ *        | "_offset" / "_limit" query parameters, "totalPagedResults" if set
+ * PUT    /app/content/uid   | replace, 204
+ * DELETE /app/content/uid   | delete, 204 or 404
+ * HEAD   any path           | 200
+ * </pre>
+ *
+ * A GET response has an "ETag", a matching "If-None-Match" gets a 304. The
+ * requests are recorded. A test can set a handler that replaces, or wraps,
+ * the document handler.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class TestServer implements AutoCloseable {
+
+   static final String PATH = "app/content";
+
+   private final HttpServer _server;
+   private final ExecutorService _executor;
+   private final Map<String, String> _documents = new ConcurrentHashMap<>();
+   private final List<JSONObject> _requests = Collections.synchronizedList(new ArrayList<>());
+   private volatile HttpHandler _handler = null;
+   private volatile long _delay = 0L;
+   private volatile boolean _total = false;
+   private volatile int _pageLimit = 0;
+
+   /**
+    * Constructor, starts the server
+    *
+    * @throws IOException could not start the server
+    */
+   TestServer() throws IOException {
+      _executor = Executors.newFixedThreadPool(32, runnable -> {
+         Thread thread = new Thread(runnable, "TestServer");
+         thread.setDaemon(true);
+         return thread;
+      });
+
+      _server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      _server.setExecutor(_executor);
+      _server.createContext("/", this::dispatch);
+      _server.start();
+
+      return;
+   }
+
+   /**
+    * Get the port of the server
+    *
+    * @return int port
+    */
+   int getPort() {
+      return _server.getAddress().getPort();
+   }
+
+   /**
+    * Get the "host:port" of the server
+    *
+    * @return String host and port
+    */
+   String getHost() {
+      return "127.0.0.1:" + this.getPort();
+   }
+
+   /**
+    * Get the parameters of a data access object that uses the documents as
+    * the static base target
+    *
+    * @return Map of parameters, can be changed
+    */
+   Map<String, String> getParams() {
+      Map<String, String> params = new HashMap<>();
+
+      params.put(RestDataAccess.PARAM_PROTOCOL, "http");
+      params.put(RestDataAccess.PARAM_HOST, "127.0.0.1");
+      params.put(RestDataAccess.PARAM_PORT, Integer.toString(this.getPort()));
+      params.put(RestDataAccess.PARAM_PATH, PATH);
+
+      return params;
+   }
+
+   /**
+    * Get the URI of a document
+    *
+    * @param uid String uid of the document
+    * @return String URI
+    */
+   String getUri(final String uid) {
+      return "http://" + this.getHost() + "/" + PATH + "/" + uid;
+   }
+
+   /**
+    * Get the documents, the JSON text of the "data" by uid
+    *
+    * @return Map of documents, can be changed
+    */
+   Map<String, String> getDocuments() {
+      return _documents;
+   }
+
+   /**
+    * Get the recorded requests: "method", "uri" (path and query), "headers"
+    * (first value, lower case names) and "body"
+    *
+    * @return List of JSONObject requests, can be cleared
+    */
+   List<JSONObject> getRequests() {
+      return _requests;
+   }
+
+   /**
+    * Get the recorded requests, as "method uri"
+    *
+    * @return List of String requests
+    */
+   List<String> getRequestLines() {
+      List<String> lines = new ArrayList<>();
+
+      synchronized (_requests) {
+         for (JSONObject request : _requests) {
+            lines.add(request.get("method") + " " + request.get("uri"));
+         }
+      }
+
+      return lines;
+   }
+
+   /**
+    * Set the handler of the requests
+    *
+    * @param handler HttpHandler handler, null for the document handler
+    */
+   void setHandler(final HttpHandler handler) {
+      _handler = handler;
+
+      return;
+   }
+
+   /**
+    * Set a delay before each response
+    *
+    * @param millis long delay in milliseconds
+    */
+   void setDelay(final long millis) {
+      _delay = millis;
+
+      return;
+   }
+
+   /**
+    * Add "totalPagedResults" to the search responses
+    *
+    * @param total boolean true to add the total
+    */
+   void setTotal(final boolean total) {
+      _total = total;
+
+      return;
+   }
+
+   /**
+    * Set the maximum number of search results in a response, the "_limit"
+    * of the request is capped
+    *
+    * @param limit int maximum results, zero for no maximum
+    */
+   void setPageLimit(final int limit) {
+      _pageLimit = limit;
+
+      return;
+   }
+
+   /**
+    * Stop the server, the connections are closed
+    */
+   @Override
+   public void close() {
+      _server.stop(0);
+      _executor.shutdownNow();
+
+      return;
+   }
+
+   /**
+    * Handle a request with the documents
+    *
+    * @param exchange HttpExchange request and response
+    * @param body String request body
+    * @throws IOException could not send the response
+    */
+   void handleDocument(final HttpExchange exchange, final String body) throws IOException {
+      int status = 200;
+      String method = exchange.getRequestMethod();
+      String path = exchange.getRequestURI().getPath();
+      String uid = null;
+      String data = null;
+      String output = null;
+      JSONObject json = null;
+
+      if (path.startsWith("/" + PATH + "/")) {
+         uid = path.substring(PATH.length() + 2);
+      } else if (!path.equals("/" + PATH)) {
+         method = "NONE";
+      }
+
+      switch (method) {
+         case "HEAD": {
+            break;
+         }
+         case "POST": {
+            if (uid == null) {
+               uid = UUID.randomUUID().toString();
+            }
+
+            _documents.put(uid, body);
+            exchange.getResponseHeaders().add("Location", this.getUri(uid));
+            status = 201;
+            break;
+         }
+         case "GET": {
+            if (uid == null) {
+               output = this.search(exchange.getRequestURI().getQuery());
+            } else {
+               data = _documents.get(uid);
+
+               if (data == null) {
+                  status = 404;
+                  output = "{\"error\":\"not found\"}";
+               } else {
+                  json = new JSONObject();
+                  json.put("uid", uid);
+                  output = json.toJSONString();
+                  output = output.substring(0, output.length() - 1) + ",\"data\":" + data + "}";
+               }
+            }
+            break;
+         }
+         case "PUT": {
+            if (uid == null) {
+               status = 405;
+            } else {
+               _documents.put(uid, body);
+               status = 204;
+            }
+            break;
+         }
+         case "DELETE": {
+            status = uid != null && _documents.remove(uid) != null ? 204 : 404;
+            break;
+         }
+         default: {
+            status = 404;
+            output = "{\"error\":\"not found\"}";
+            break;
+         }
+      }
+
+      if (status == 200 && output != null) {
+         data = "\"" + Integer.toHexString(output.hashCode()) + "\"";
+         exchange.getResponseHeaders().add("ETag", data);
+
+         if (data.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            status = 304;
+            output = null;
+         }
+      }
+
+      send(exchange, status, output);
+
+      return;
+   }
+
+   /**
+    * Send a response, JSON if there is a body
+    *
+    * @param exchange HttpExchange request and response
+    * @param status int HTTP status
+    * @param output String JSON body, may be null
+    * @throws IOException could not send the response
+    */
+   static void send(final HttpExchange exchange, final int status, final String output)
+      throws IOException {
+      byte[] bytes = output == null ? new byte[0] : output.getBytes(StandardCharsets.UTF_8);
+
+      if (bytes.length > 0) {
+         exchange.getResponseHeaders().add("Content-Type", "application/json");
+      }
+
+      exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+
+      if (bytes.length > 0) {
+         try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+         }
+      }
+
+      exchange.close();
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Record the request, wait for the delay, then call the handler
+    *
+    * @param exchange HttpExchange request and response
+    * @throws IOException could not send the response
+    */
+   private void dispatch(final HttpExchange exchange) throws IOException {
+      String body = null;
+      JSONObject request = new JSONObject();
+      JSONObject headers = new JSONObject();
+      HttpHandler handler = _handler;
+
+      body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+
+      for (String name : exchange.getRequestHeaders().keySet()) {
+         headers.put(name.toLowerCase(), exchange.getRequestHeaders().getFirst(name));
+      }
+
+      request.put("method", exchange.getRequestMethod());
+      request.put("uri", exchange.getRequestURI().toString());
+      request.put("headers", headers);
+      request.put("body", body);
+      _requests.add(request);
+
+      if (_delay > 0L) {
+         try {
+            Thread.sleep(_delay);
+         } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+         }
+      }
+
+      exchange.setAttribute("body", body);
+
+      if (handler == null) {
+         this.handleDocument(exchange, body);
+      } else {
+         handler.handle(exchange);
+      }
+
+      return;
+   }
+
+   /**
+    * Search the documents, sorted by uid
+    *
+    * @param query String query of the request, may be null
+    * @return String JSON output
+    */
+   private String search(final String query) {
+      int offset = 0;
+      int limit = Integer.MAX_VALUE;
+      String[] pair = null;
+      List<String> uids = new ArrayList<>(new TreeSet<>(_documents.keySet()));
+      JSONArray results = new JSONArray();
+      JSONObject json = new JSONObject();
+
+      if (query != null) {
+         for (String param : query.split("&")) {
+            pair = param.split("=", 2);
+
+            if (pair.length == 2 && pair[0].equals("_offset")) {
+               offset = Integer.parseInt(pair[1]);
+            } else if (pair.length == 2 && pair[0].equals("_limit")) {
+               limit = Integer.parseInt(pair[1]);
+            }
+         }
+      }
+
+      if (_pageLimit > 0) {
+         limit = Math.min(limit, _pageLimit);
+      }
+
+      for (int i = offset; i < uids.size() && i - offset < limit; i++) {
+         results.add(uids.get(i));
+      }
+
+      json.put("quantity", results.size());
+      json.put("results", results);
+
+      if (_total) {
+         json.put("totalPagedResults", uids.size());
+      }
+
+      return json.toJSONString();
+   }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the sharding by uid: the consistent hash ring, the routing of the
+ * operations to the shards, a CREATE without a uid that is read back, adding
+ * and removing shards. Prints a line for each test, throws an exception on
+ * the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestShardRing
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestShardRing {
+
+   private static final int KEYS = 20000;
+
+   public static void main(String[] args) throws Exception {
+      testShardRing();
+      testDataAccess();
+
+      return;
+   }
+
+   /**
+    * Shard ring: keys are spread over the shards, adding or removing a shard
+    * of N moves about 1/N of the keys, only to or from that shard
+    *
+    * @throws Exception a test failed
+    */
+   private static void testShardRing() throws Exception {
+      int moved = 0;
+      int wrong = 0;
+      String key = null;
+      List<Endpoint> endpoints = new ArrayList<>();
+      Map<String, Integer> counts = new HashMap<>();
+      ShardRing ring = null;
+      ShardRing larger = null;
+      ShardRing smaller = null;
+
+      for (int i = 0; i < 4; i++) {
+         endpoints.add(new Endpoint("shard" + i + ".example.com:8080", null));
+      }
+
+      ring = new ShardRing(endpoints, 160);
+
+      for (int i = 0; i < KEYS; i++) {
+         counts.merge(ring.get("uid-" + i).getName(), 1, Integer::sum);
+      }
+
+      check(counts.size() == 4 && Collections.min(counts.values()) > KEYS / 4 * 0.7
+         && Collections.max(counts.values()) < KEYS / 4 * 1.3,
+         "keys are spread over the shards: " + counts);
+
+      check(ring.get("uid-1") == new ShardRing(endpoints, 160).get("uid-1"),
+         "the owner of a key does not change");
+
+      larger = ring.with(new Endpoint("shard4.example.com:8080", null));
+
+      for (int i = 0; i < KEYS; i++) {
+         key = "uid-" + i;
+
+         if (ring.get(key) != larger.get(key)) {
+            moved++;
+
+            if (!larger.get(key).getName().startsWith("shard4")) {
+               wrong++;
+            }
+         }
+      }
+
+      check(moved > KEYS / 5 * 0.7 && moved < KEYS / 5 * 1.3 && wrong == 0,
+         "add a fifth shard, about 1/5 of the keys move to it: " + moved);
+
+      moved = 0;
+      smaller = ring.without("shard2.example.com:8080");
+
+      for (int i = 0; i < KEYS; i++) {
+         key = "uid-" + i;
+
+         if (ring.get(key) != smaller.get(key)) {
+            moved++;
+
+            if (!ring.get(key).getName().startsWith("shard2")) {
+               wrong++;
+            }
+         }
+      }
+
+      check(moved > KEYS / 4 * 0.7 && moved < KEYS / 4 * 1.3 && wrong == 0,
+         "remove a shard, only its keys (about 1/4) move: " + moved);
+
+      check(ring.without("unknown:1") == ring && new ShardRing(endpoints.subList(0, 1), 160)
+         .without("shard0.example.com:8080").getEndpoints().size() == 1,
+         "an unknown or the last shard is not removed");
+
+      return;
+   }
+
+   /**
+    * Data access: the documents are spread over 2 shards and read back, a
+    * CREATE without a uid gets one and is read back, the shards can be
+    * changed
+    *
+    * @throws Exception a test failed
+    */
+   private static void testDataAccess() throws Exception {
+      int found = 0;
+      String uid = null;
+      String error = null;
+      OperationIF operInput = null;
+      OperationIF operOutput = null;
+      Map<String, String> params = null;
+      RestDataAccess dao = null;
+
+      try (TestServer server1 = new TestServer(); TestServer server2 = new TestServer()) {
+         params = server1.getParams();
+         params.remove(RestDataAccess.PARAM_HOST);
+         params.put(RestDataAccess.PARAM_SHARDS, server1.getHost() + "," + server2.getHost());
+         dao = new RestDataAccess(params);
+
+         for (int i = 0; i < 20; i++) {
+            dao.execute(operation(OperationIF.TYPE.REPLACE, "u" + i));
+         }
+
+         for (int i = 0; i < 20; i++) {
+            if (dao.execute(operation(OperationIF.TYPE.READ, "u" + i)).getState()
+               == STATE.SUCCESS) {
+               found++;
+            }
+         }
+
+         check(found == 20 && server1.getDocuments().size() > 0
+            && server2.getDocuments().size() > 0,
+            "20 documents on 2 shards are read back: " + server1.getDocuments().size()
+            + " / " + server2.getDocuments().size());
+
+         for (int i = 0; i < 10; i++) {
+            operInput = operation(OperationIF.TYPE.CREATE, null);
+            operOutput = dao.execute(operInput);
+            uid = (String) operInput.getJSON().get(ConstantsIF.UID);
+
+            check(operOutput.getState() == STATE.SUCCESS && uid != null
+               && ((String) operOutput.getJSON().get(ConstantsIF.URI)).endsWith("/" + uid)
+               && dao.execute(operation(OperationIF.TYPE.READ, uid)).getState()
+               == STATE.SUCCESS, "CREATE without a uid, then READ: " + uid);
+         }
+
+         try {
+            dao.addShard(server1.getHost());
+         } catch (Exception ex) {
+            error = ex.getMessage();
+         }
+
+         check(error != null, "a shard can not be added twice: " + error);
+
+         dao.removeShard(server2.getHost());
+         error = null;
+
+         try {
+            dao.removeShard(server1.getHost());
+         } catch (Exception ex) {
+            error = ex.getMessage();
+         }
+
+         check(error != null, "the last shard can not be removed: " + error);
+
+         dao.close();
+      }
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get an operation with data
+    *
+    * @param type OperationIF.TYPE operation type
+    * @param uid String document uid, may be null
+    * @return OperationIF operation
+    */
+   private static OperationIF operation(final OperationIF.TYPE type, final String uid) {
+      OperationIF operInput = new Operation(type);
+      JSONObject json = new JSONObject();
+      JSONObject jsonData = new JSONObject();
+
+      jsonData.put("x", 1L);
+      json.put(ConstantsIF.DATA, jsonData);
+
+      if (uid != null) {
+         json.put(ConstantsIF.UID, uid);
+      }
+
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+}
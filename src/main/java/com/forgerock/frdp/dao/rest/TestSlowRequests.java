@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the slow request recorder: the requests over the threshold, the
+ * sampled requests, the capacity, the masked credentials, the JMX MBean.
+ * Prints a line for each test, throws an exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestSlowRequests
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestSlowRequests {
+
+   public static void main(String[] args) throws Exception {
+      try (TestServer server = new TestServer()) {
+         server.getDocuments().put("doc1", "{}");
+
+         warmUp(server);
+         testThreshold(server);
+         testSampled(server);
+         testJmx(server);
+      }
+
+      return;
+   }
+
+   /**
+    * Threshold: only the slow requests are recorded, the oldest is replaced,
+    * the cookie is masked
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testThreshold(final TestServer server) throws Exception {
+      JSONObject stats = null;
+      JSONObject entry = null;
+      JSONArray entries = null;
+      OperationIF operInput = null;
+      Map<String, String> params = server.getParams();
+      RestDataAccess dao = null;
+
+      params.put(RestDataAccess.PARAM_SLOW_THRESHOLD, "200");
+      params.put(RestDataAccess.PARAM_SLOW_CAPACITY, "2");
+      dao = new RestDataAccess(params);
+
+      dao.execute(read("doc1"));
+      check(((JSONArray) dao.getSlowRequests().get("entries")).isEmpty(),
+         "a fast request is not recorded");
+
+      server.setDelay(300L);
+
+      for (int i = 0; i < 3; i++) {
+         operInput = read(i == 2 ? "doc1" : "nodoc" + i);
+         operInput.getJSON().put(ConstantsIF.COOKIES, cookies());
+         dao.execute(operInput);
+      }
+
+      server.setDelay(0L);
+      stats = dao.getSlowRequests();
+      entries = (JSONArray) stats.get("entries");
+      entry = (JSONObject) entries.get(0);
+
+      check(((Number) stats.get("slow")).longValue() == 3L && entries.size() == 2,
+         "3 slow requests, the capacity is 2: " + stats.get("slow"));
+      check(((String) entry.get("uri")).endsWith("/nodoc1")
+         && ((Number) entry.get("httpStatus")).intValue() == 404
+         && ((String) entry.get("responseBody")).contains("not found"),
+         "the oldest entry is replaced, the entry has the error response: " + entry.get("uri"));
+      check(((String) entry.get("requestHeaders")).contains("Cookie=")
+         && !((String) entry.get("requestHeaders")).contains("secret"),
+         "the cookie is masked: " + entry.get("requestHeaders"));
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Sampled: the fast requests are recorded at the sample rate
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testSampled(final TestServer server) throws Exception {
+      JSONObject stats = null;
+      Map<String, String> params = server.getParams();
+      RestDataAccess dao = null;
+
+      params.put(RestDataAccess.PARAM_SLOW_THRESHOLD, "10000");
+      params.put(RestDataAccess.PARAM_SLOW_SAMPLE_RATE, "1.0");
+      dao = new RestDataAccess(params);
+
+      for (int i = 0; i < 5; i++) {
+         dao.execute(read("doc1"));
+      }
+
+      stats = dao.getSlowRequests();
+
+      check(((Number) stats.get("sampled")).longValue() == 5L
+         && ((Number) stats.get("slow")).longValue() == 0L,
+         "sample rate 1.0, all the requests are sampled: " + stats.get("sampled"));
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * JMX: the recorder is registered as an MBean, unregistered by close()
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testJmx(final TestServer server) throws Exception {
+      MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(
+         "com.forgerock.frdp.dao.rest:type=SlowRequests,name=" + ObjectName.quote("test"));
+      Map<String, String> params = server.getParams();
+      RestDataAccess dao = null;
+
+      params.put(RestDataAccess.PARAM_SLOW_THRESHOLD, "200");
+      params.put(RestDataAccess.PARAM_SLOW_JMX_NAME, "test");
+      dao = new RestDataAccess(params);
+
+      server.setDelay(300L);
+      dao.execute(read("doc1"));
+      server.setDelay(0L);
+
+      check(((Number) mbeans.getAttribute(name, "SlowCount")).longValue() == 1L
+         && ((String[]) mbeans.getAttribute(name, "Entries")).length == 1,
+         "the MBean has the slow request");
+
+      mbeans.invoke(name, "clear", null, null);
+
+      check(((JSONArray) dao.getSlowRequests().get("entries")).isEmpty(),
+         "the MBean clears the recorder");
+
+      dao.close();
+
+      check(!mbeans.isRegistered(name), "close() unregisters the MBean");
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Send a first request, the client classes are loaded, the next requests
+    * are fast
+    *
+    * @param server TestServer server
+    * @throws Exception could not send the request
+    */
+   private static void warmUp(final TestServer server) throws Exception {
+      RestDataAccess dao = new RestDataAccess(server.getParams());
+
+      dao.execute(read("doc1"));
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Get the cookies of an operation
+    *
+    * @return JSONObject cookies
+    */
+   private static JSONObject cookies() {
+      JSONObject json = new JSONObject();
+
+      json.put("session", "secret");
+
+      return json;
+   }
+
+   /**
+    * Get a READ operation
+    *
+    * @param uid String document uid
+    * @return OperationIF operation
+    */
+   private static OperationIF read(final String uid) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.READ);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.UID, uid);
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.HashMap;
+import java.util.Map;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the cache of host level targets in dynamic URI mode: the target of a
+ * host is reused, the least recently used host is evicted, a client for each
+ * host, URIs that are not cached. Prints a line for each test, throws an
+ * exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestTargetCache
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestTargetCache {
+
+   public static void main(String[] args) throws Exception {
+      testTargetCache();
+      testDynamic("false");
+      testDynamic("true");
+
+      return;
+   }
+
+   /**
+    * TargetCache: the path is appended to the host target, URIs with a query
+    * are not cached
+    *
+    * @throws Exception a test failed
+    */
+   private static void testTargetCache() throws Exception {
+      Client client = ClientBuilder.newClient();
+      TargetCache cache = new TargetCache(client, 2, null, null);
+      JSONObject stats = null;
+
+      check(cache.get("http://h:1/a/b").getUri().toString().equals("http://h:1/a/b"),
+         "the path is appended to the host target");
+      check(cache.get("http://h:1").getUri().toString().equals("http://h:1"),
+         "a URI without a path is the host target");
+      check(cache.get("http://h:1/a?x=1").getUri().toString().equals("http://h:1/a?x=1"),
+         "a URI with a query is not changed");
+
+      stats = cache.getStats();
+      check(((Number) stats.get("misses")).longValue() == 1L
+         && ((Number) stats.get("hits")).longValue() == 1L, "one host, one miss: " + stats);
+
+      cache.close();
+      client.close();
+
+      return;
+   }
+
+   /**
+    * Dynamic mode: 3 hosts, a cache of 2 hosts, with and without a client for
+    * each host
+    *
+    * @param hostClients String value of "hostClients"
+    * @throws Exception a test failed
+    */
+   private static void testDynamic(final String hostClients) throws Exception {
+      int errors = 0;
+      JSONObject stats = null;
+      Map<String, String> params = new HashMap<>();
+      RestDataAccess dao = null;
+
+      params.put(RestDataAccess.PARAM_TARGET_CACHE_SIZE, "2");
+      params.put(RestDataAccess.PARAM_HOST_CLIENTS, hostClients);
+
+      try (TestServer server1 = new TestServer(); TestServer server2 = new TestServer();
+         TestServer server3 = new TestServer()) {
+         TestServer[] servers = {server1, server2, server3};
+
+         for (TestServer server : servers) {
+            server.getDocuments().put("doc1", "{}");
+            server.getDocuments().put("d 1", "{}");
+         }
+
+         dao = new RestDataAccess(params);
+
+         for (int i = 0; i < 3; i++) {
+            for (TestServer server : servers) {
+               if (dao.execute(read(server.getUri("doc1"))).getState() != STATE.SUCCESS) {
+                  errors++;
+               }
+            }
+         }
+
+         stats = (JSONObject) dao.getStatistics().get("targets");
+         check(errors == 0 && server3.getRequests().size() == 3,
+            "hostClients=" + hostClients + ", READ operations of 3 hosts");
+         check(((Number) stats.get("evictions")).longValue() > 0L,
+            "hostClients=" + hostClients + ", the least recently used host is evicted: " + stats);
+
+         for (int i = 0; i < 4; i++) {
+            dao.execute(read(server1.getUri("doc1")));
+         }
+
+         stats = (JSONObject) dao.getStatistics().get("targets");
+         check(((Number) stats.get("hits")).longValue() >= 3L,
+            "hostClients=" + hostClients + ", the host target is reused: " + stats);
+
+         check(dao.execute(read(server1.getUri("d%201"))).getState() == STATE.SUCCESS,
+            "hostClients=" + hostClients + ", an encoded path is sent as is");
+
+         dao.close();
+      }
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get a READ operation with a full target
+    *
+    * @param uri String full target
+    * @return OperationIF operation
+    */
+   private static OperationIF read(final String uri) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.READ);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.URI, uri);
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.Map;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the W3C trace context and the request timings: the child of a valid
+ * traceparent, invalid values, the headers that are sent, a generated trace,
+ * the timing phases. Prints a line for each test, throws an exception on the
+ * first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestTraceContext
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestTraceContext {
+
+   private static final String PARENT = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+
+   public static void main(String[] args) throws Exception {
+      testTraceContext();
+
+      try (TestServer server = new TestServer()) {
+         server.getDocuments().put("doc1", "{}");
+
+         testHeaders(server);
+         testTimings(server);
+      }
+
+      return;
+   }
+
+   /**
+    * Trace context: child of a valid traceparent, invalid values
+    *
+    * @throws Exception a test failed
+    */
+   private static void testTraceContext() throws Exception {
+      String child = null;
+      String generated = null;
+
+      child = TraceContext.child(PARENT);
+      check(child != null && child.length() == 55
+         && child.startsWith("00-4bf92f3577b34da6a3ce929d0e0e4736-") && child.endsWith("-01")
+         && !child.substring(36, 52).equals("00f067aa0ba902b7"),
+         "child, same trace and flags, new parent id: " + child);
+
+      check(TraceContext.child("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-00")
+         .endsWith("-00"), "child, the flags are kept");
+
+      check(TraceContext.child("01-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01-extra")
+         != null, "a future version may have more fields");
+
+      for (String invalid : new String[]{null, "", "garbage",
+         "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01-extra",
+         "ff-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01",
+         "00-00000000000000000000000000000000-00f067aa0ba902b7-01",
+         "00-4bf92f3577b34da6a3ce929d0e0e4736-0000000000000000-01",
+         "00-4BF92F3577B34DA6A3CE929D0E0E4736-00f067aa0ba902b7-01",
+         "00-4bf92f3577b34da6a3ce929d0e0e4736_00f067aa0ba902b7-01"}) {
+         check(TraceContext.child(invalid) == null, "invalid traceparent: " + invalid);
+      }
+
+      generated = TraceContext.generate();
+      check(TraceContext.child(generated) != null && generated.endsWith("-01")
+         && !generated.equals(TraceContext.generate()), "generate a sampled trace: " + generated);
+
+      return;
+   }
+
+   /**
+    * Headers: the child traceparent and the tracestate are sent, an operation
+    * without a traceparent gets a new trace with "traceGenerate"
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testHeaders(final TestServer server) throws Exception {
+      OperationIF operOutput = null;
+      OperationIF operInput = read("doc1");
+      JSONObject headers = null;
+      Map<String, String> params = server.getParams();
+      RestDataAccess dao = new RestDataAccess(params);
+
+      operInput.getJSON().put(RestDataAccess.ATTR_TRACE_PARENT, PARENT);
+      operInput.getJSON().put(RestDataAccess.ATTR_TRACE_STATE, "vendor=1");
+      server.getRequests().clear();
+      operOutput = dao.execute(operInput);
+      headers = (JSONObject) server.getRequests().get(0).get("headers");
+
+      check(operOutput instanceof RestOperation
+         && ((RestOperation) operOutput).getTraceParent().equals(headers.get("traceparent"))
+         && ((String) headers.get("traceparent")).contains("-4bf92f3577b34da6a3ce929d0e0e4736-")
+         && "vendor=1".equals(headers.get("tracestate")),
+         "the child traceparent and the tracestate are sent: " + headers.get("traceparent"));
+      check(!operOutput.getJSON().containsKey(RestDataAccess.ATTR_TRACE_PARENT),
+         "the trace context is not added to the output JSON");
+
+      server.getRequests().clear();
+      dao.execute(read("doc1"));
+      headers = (JSONObject) server.getRequests().get(0).get("headers");
+
+      check(!headers.containsKey("traceparent"), "by default, no trace is generated");
+      dao.close();
+
+      params.put(RestDataAccess.PARAM_TRACE_GENERATE, "true");
+      dao = new RestDataAccess(params);
+      server.getRequests().clear();
+      dao.execute(read("doc1"));
+      headers = (JSONObject) server.getRequests().get(0).get("headers");
+
+      check(TraceContext.child((String) headers.get("traceparent")) != null,
+         "traceGenerate, a new trace is sent: " + headers.get("traceparent"));
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * Timings: the phases of the request, with "timings" only
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testTimings(final TestServer server) throws Exception {
+      OperationIF operOutput = null;
+      JSONObject timings = null;
+      Map<String, String> params = server.getParams();
+      RestDataAccess dao = new RestDataAccess(params);
+
+      operOutput = dao.execute(read("doc1"));
+
+      check(((RestOperation) operOutput).getTimings() == null, "by default, no timings");
+      dao.close();
+
+      params.put(RestDataAccess.PARAM_TIMINGS, "true");
+      dao = new RestDataAccess(params);
+      server.setDelay(50L);
+      operOutput = dao.execute(read("doc1"));
+      server.setDelay(0L);
+      timings = ((RestOperation) operOutput).getTimings();
+
+      check(timings != null && timings.containsKey("request") && timings.containsKey("parse")
+         && ((Number) timings.get("firstByte")).doubleValue() >= 50.0
+         && ((Number) timings.get("total")).doubleValue()
+         >= ((Number) timings.get("firstByte")).doubleValue(),
+         "the phases of the request: " + timings);
+      dao.close();
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get a READ operation
+    *
+    * @param uid String document uid
+    * @return OperationIF operation
+    */
+   private static OperationIF read(final String uid) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.READ);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.UID, uid);
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+}
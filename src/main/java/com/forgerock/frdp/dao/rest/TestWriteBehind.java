@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.ConstantsIF;
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.simple.JSONObject;
+
+/**
+ * Test the write-behind queue: the queued REPLACE operations of a document
+ * are merged, the listeners get the output, a READ or DELETE of a document
+ * waits for its queued writes. Prints a line for each test, throws an
+ * exception on the first failure.
+ *
+ * <pre>
+ * java ... com.forgerock.frdp.dao.rest.TestWriteBehind
+ * </pre>
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+public class TestWriteBehind {
+
+   public static void main(String[] args) throws Exception {
+      testQueue();
+
+      try (TestServer server = new TestServer()) {
+         testDataAccess(server);
+         testReadAfterWrite(server);
+         testDeleteAfterWrite(server);
+      }
+
+      return;
+   }
+
+   /**
+    * Write-behind queue: the REPLACE operations of a document within the
+    * window are merged, the last one is sent, all the listeners get the
+    * output. CREATE operations are not merged.
+    *
+    * @throws Exception a test failed
+    */
+   private static void testQueue() throws Exception {
+      final List<OperationIF> sent = new ArrayList<>();
+      final AtomicInteger completed = new AtomicInteger(0);
+      JSONObject json = null;
+      WriteBehindQueue queue = null;
+      CompletionListenerIF listener = (operInput, operOutput) -> {
+         if (operOutput.getState() == STATE.SUCCESS) {
+            completed.incrementAndGet();
+         }
+      };
+
+      queue = new WriteBehindQueue(100, 2, 200L, operInput -> {
+         OperationIF operOutput = new Operation(operInput.getType());
+
+         synchronized (sent) {
+            sent.add(operInput);
+         }
+
+         operOutput.setState(STATE.SUCCESS);
+         operOutput.setJSON(new JSONObject());
+
+         return operOutput;
+      });
+
+      for (long v = 1L; v <= 10L; v++) {
+         check(queue.enqueue(replace("u1", v), "u1", listener),
+            "enqueue replace " + v);
+      }
+
+      queue.enqueue(replace("u2", 1L), "u2", listener);
+      queue.enqueue(create(), null, listener);
+      queue.enqueue(create(), null, listener);
+      queue.flush();
+
+      json = queue.getStats();
+      check(sent.size() == 4 && completed.get() == 13
+         && ((Number) json.get("coalesced")).intValue() == 9,
+         "10 replaces of a document are sent once, 13 listeners: " + json);
+
+      for (OperationIF operInput : sent) {
+         if ("u1".equals(operInput.getJSON().get(ConstantsIF.UID))) {
+            check(((JSONObject) operInput.getJSON().get(ConstantsIF.DATA)).get("v").equals(10L),
+               "the last replace is sent: " + operInput.getJSON());
+         }
+      }
+
+      sent.clear();
+      queue.enqueue(replace("u1", 11L), "u1", listener);
+      queue.flush();
+      check(sent.size() == 1, "a replace after the flush is sent again");
+
+      queue.close();
+      check(!queue.enqueue(create(), null, listener), "a closed queue does not accept operations");
+
+      return;
+   }
+
+   /**
+    * Data access: 20 REPLACE operations of a document and 5 CREATE
+    * operations are queued, the REPLACE operations are merged
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testDataAccess(final TestServer server) throws Exception {
+      final AtomicInteger completed = new AtomicInteger(0);
+      OperationIF operOutput = null;
+      RestDataAccess dao = dao(server, "200");
+
+      server.getDocuments().put("doc1", "{}");
+      server.getRequests().clear();
+
+      for (long v = 0L; v < 20L; v++) {
+         operOutput = dao.execute(replace("doc1", v),
+            (operInput, output) -> completed.incrementAndGet());
+      }
+
+      check(operOutput.getState() == STATE.SUCCESS && server.getRequests().isEmpty(),
+         "execute() returns when the REPLACE is queued: " + operOutput.getStatus());
+
+      for (int i = 0; i < 5; i++) {
+         dao.execute(create(), (operInput, output) -> completed.incrementAndGet());
+      }
+
+      dao.flush();
+
+      check(completed.get() == 25 && "{\"v\":19}".equals(server.getDocuments().get("doc1"))
+         && server.getRequests().size() < 25 && server.getDocuments().size() == 6,
+         "after flush(), 25 listeners, the last REPLACE is stored, "
+         + server.getRequests().size() + " requests");
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * READ after a queued REPLACE: the REPLACE is sent at once, the READ gets
+    * the new data
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testReadAfterWrite(final TestServer server) throws Exception {
+      long start = 0L;
+      OperationIF operOutput = null;
+      RestDataAccess dao = dao(server, "5000");
+
+      server.getDocuments().put("doc2", "{\"v\":0}");
+      start = System.currentTimeMillis();
+      dao.execute(replace("doc2", 1L));
+      operOutput = dao.execute(read("doc2"));
+
+      check(operOutput.getState() == STATE.SUCCESS
+         && Long.valueOf(1L).equals(((JSONObject) operOutput.getJSON()
+            .get(ConstantsIF.DATA)).get("v"))
+         && System.currentTimeMillis() - start < 4000L,
+         "a READ waits for the queued REPLACE of the document: " + operOutput.getJSON());
+
+      dao.close();
+
+      return;
+   }
+
+   /**
+    * DELETE after a queued REPLACE: the REPLACE is sent first, the document
+    * is not written again after the DELETE
+    *
+    * @param server TestServer server
+    * @throws Exception a test failed
+    */
+   private static void testDeleteAfterWrite(final TestServer server) throws Exception {
+      List<String> lines = null;
+      OperationIF operInput = null;
+      OperationIF operOutput = null;
+      JSONObject json = new JSONObject();
+      RestDataAccess dao = dao(server, "5000");
+
+      server.getDocuments().put("doc3", "{\"v\":0}");
+      server.getRequests().clear();
+
+      dao.execute(replace("doc3", 1L));
+
+      json.put(ConstantsIF.UID, "doc3");
+      operInput = new Operation(OperationIF.TYPE.DELETE);
+      operInput.setJSON(json);
+      operOutput = dao.execute(operInput);
+      dao.flush();
+
+      lines = server.getRequestLines();
+      check(operOutput.getState() == STATE.SUCCESS && lines.size() == 2
+         && lines.get(0).startsWith("PUT ") && lines.get(1).startsWith("DELETE ")
+         && !server.getDocuments().containsKey("doc3"),
+         "a DELETE is sent after the queued REPLACE of the document: " + lines);
+
+      dao.close();
+
+      return;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Print the result of a test, throw an exception if it failed
+    *
+    * @param passed boolean test result
+    * @param test String test description
+    * @throws Exception the test failed
+    */
+   private static void check(final boolean passed, final String test) throws Exception {
+      if (!passed) {
+         throw new Exception("FAIL: " + test);
+      }
+
+      System.out.println("==== PASS : " + test);
+
+      return;
+   }
+
+   /**
+    * Get a data access object with write-behind
+    *
+    * @param server TestServer server
+    * @param window String write-behind window, milliseconds
+    * @return RestDataAccess data access object
+    * @throws Exception could not create the object
+    */
+   private static RestDataAccess dao(final TestServer server, final String window)
+      throws Exception {
+      Map<String, String> params = server.getParams();
+
+      params.put(RestDataAccess.PARAM_WRITE_BEHIND, "true");
+      params.put(RestDataAccess.PARAM_WRITE_BEHIND_WINDOW, window);
+
+      return new RestDataAccess(params);
+   }
+
+   /**
+    * Get a READ operation
+    *
+    * @param uid String document uid
+    * @return OperationIF operation
+    */
+   private static OperationIF read(final String uid) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.READ);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.UID, uid);
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+
+   /**
+    * Get a REPLACE operation
+    *
+    * @param uid String document uid
+    * @param value long value of the "v" data member
+    * @return OperationIF operation
+    */
+   private static OperationIF replace(final String uid, final long value) {
+      OperationIF operInput = new Operation(OperationIF.TYPE.REPLACE);
+      JSONObject json = new JSONObject();
+      JSONObject jsonData = new JSONObject();
+
+      jsonData.put("v", value);
+      json.put(ConstantsIF.UID, uid);
+      json.put(ConstantsIF.DATA, jsonData);
+
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+
+   /**
+    * Get a CREATE operation, without a uid
+    *
+    * @return OperationIF operation
+    */
+   private static OperationIF create() {
+      OperationIF operInput = new Operation(OperationIF.TYPE.CREATE);
+      JSONObject json = new JSONObject();
+
+      json.put(ConstantsIF.DATA, new JSONObject());
+      operInput.setJSON(json);
+
+      return operInput;
+   }
+}
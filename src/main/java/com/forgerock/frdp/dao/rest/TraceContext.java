@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * W3C Trace Context "traceparent" header values:
+ * "version-traceid-parentid-flags", lower case hex.
+ *
+ * Each HTTP request is a child of the caller context: the trace id and the
+ * flags are kept, the parent id is a new span id.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class TraceContext {
+
+   static final String HDR_TRACE_PARENT = "traceparent";
+   static final String HDR_TRACE_STATE = "tracestate";
+
+   private static final String VERSION = "00";
+   private static final String FLAGS_SAMPLED = "01";
+   private static final int LENGTH = 55;
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   /**
+    * Constructor
+    */
+   private TraceContext() {
+      return;
+   }
+
+   /**
+    * Get the traceparent of a child request
+    *
+    * @param traceparent String caller traceparent
+    * @return String child traceparent, null if the caller value is not valid
+    */
+   static String child(final String traceparent) {
+      String child = null;
+
+      if (isValid(traceparent)) {
+         child = VERSION + traceparent.substring(2, 36) + randomHex(8)
+            + traceparent.substring(52, 55);
+      }
+
+      return child;
+   }
+
+   /**
+    * Get the traceparent of a new, sampled, trace
+    *
+    * @return String traceparent
+    */
+   static String generate() {
+      return VERSION + "-" + randomHex(16) + "-" + randomHex(8) + "-" + FLAGS_SAMPLED;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Check the traceparent format: version is not "ff", the trace id and
+    * parent id are not all zero. Only the version 00 fields are used.
+    *
+    * @param value String traceparent
+    * @return boolean true if valid
+    */
+   private static boolean isValid(final String value) {
+      boolean valid = false;
+
+      if (value != null && value.length() >= LENGTH
+         && (value.length() == LENGTH || value.charAt(LENGTH) == '-')
+         && value.charAt(2) == '-' && value.charAt(35) == '-' && value.charAt(52) == '-'
+         && isHex(value, 0, 2) && isHex(value, 3, 35) && isHex(value, 36, 52)
+         && isHex(value, 53, 55) && !value.startsWith("ff")
+         && !isZero(value, 3, 35) && !isZero(value, 36, 52)) {
+         valid = !value.startsWith(VERSION) || value.length() == LENGTH;
+      }
+
+      return valid;
+   }
+
+   /**
+    * Check for lower case hex characters
+    *
+    * @param value String value
+    * @param from int first index
+    * @param to int end index, exclusive
+    * @return boolean true if all characters are hex
+    */
+   private static boolean isHex(final String value, final int from, final int to) {
+      char c = 0;
+
+      for (int i = from; i < to; i++) {
+         c = value.charAt(i);
+
+         if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+            return false;
+         }
+      }
+
+      return true;
+   }
+
+   /**
+    * Check for "0" characters
+    *
+    * @param value String value
+    * @param from int first index
+    * @param to int end index, exclusive
+    * @return boolean true if all characters are "0"
+    */
+   private static boolean isZero(final String value, final int from, final int to) {
+      for (int i = from; i < to; i++) {
+         if (value.charAt(i) != '0') {
+            return false;
+         }
+      }
+
+      return true;
+   }
+
+   /**
+    * Get random, not all zero, lower case hex
+    *
+    * @param bytes int number of bytes
+    * @return String hex, two characters per byte
+    */
+   private static String randomHex(final int bytes) {
+      long value = 0L;
+      char[] chars = new char[bytes * 2];
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+
+      for (int i = 0; i < chars.length; i += 16) {
+         do {
+            value = random.nextLong();
+         } while (value == 0L);
+
+         for (int j = 0; j < 16 && i + j < chars.length; j++) {
+            chars[i + j] = HEX[(int) (value >>> (60 - 4 * j)) & 0xf];
+         }
+      }
+
+      return new String(chars);
+   }
+}
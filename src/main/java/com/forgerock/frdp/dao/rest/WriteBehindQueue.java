@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import com.forgerock.frdp.common.CoreIF.STATE;
+import com.forgerock.frdp.dao.Operation;
+import com.forgerock.frdp.dao.OperationIF;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.simple.JSONObject;
+
+/**
+ * Write-behind queue for CREATE and REPLACE operations. Operations are added
+ * to a bounded queue and sent in the background by a pool of sender threads.
+ *
+ * CREATE operations are sent as soon as a sender is available. REPLACE
+ * operations are held for the flush window: a REPLACE of the same document
+ * that arrives within the window replaces the queued operation (last writer
+ * wins) and only one request is sent. A merged patch keeps the "previous"
+ * data of the queued operation, it covers all the changes. The listeners of
+ * all the merged operations receive the output of the request that was sent.
+ *
+ * The operations of a document are tracked until their request completes:
+ * flush(key) sends them without waiting for the window, a READ or DELETE of
+ * the document waits for them.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class WriteBehindQueue {
+
+   private final String CLASS = this.getClass().getName();
+   private final Logger _logger = Logger.getLogger(CLASS);
+   private final int _capacity;
+   private final long _windowNanos;
+   private final Function<OperationIF, OperationIF> _sender;
+   private final ExecutorService _senders;
+   private final Object _lock = new Object();
+   private final Map<String, Entry> _pending = new HashMap<>();
+   private final Map<String, List<Entry>> _unsent = new HashMap<>();
+   private final DelayQueue<Entry> _queue = new DelayQueue<>();
+   private final AtomicInteger _outstanding = new AtomicInteger(0);
+   private final AtomicInteger _coalesced = new AtomicInteger(0);
+   private volatile int _flushing = 0;
+   private volatile boolean _running = true;
+
+   /**
+    * Constructor, starts the sender threads
+    *
+    * @param capacity int maximum number of queued operations
+    * @param threads int number of sender threads
+    * @param windowMillis long flush window for REPLACE operations
+    * @param sender Function sends an operation, returns the output
+    */
+   WriteBehindQueue(final int capacity, final int threads, final long windowMillis,
+      final Function<OperationIF, OperationIF> sender) {
+      final AtomicInteger count = new AtomicInteger(0);
+      int size = threads > 0 ? threads : 1;
+
+      _capacity = capacity > 0 ? capacity : 1;
+      _windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis > 0 ? windowMillis : 0L);
+      _sender = sender;
+      _senders = Executors.newFixedThreadPool(size, runnable -> {
+         Thread thread = new Thread(runnable,
+            "RestDataAccess-writer-" + count.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      });
+
+      for (int i = 0; i < size; i++) {
+         _senders.execute(this::send);
+      }
+
+      return;
+   }
+
+   /**
+    * Add an operation to the queue
+    *
+    * @param operInput OperationIF CREATE or REPLACE operation
+    * @param key String document key, for merging REPLACE operations and
+    * flush(key), may be null
+    * @param listener CompletionListenerIF receives the output, may be null
+    * @return boolean false if the queue is full or closed
+    */
+   boolean enqueue(final OperationIF operInput, final String key,
+      final CompletionListenerIF listener) {
+      boolean accepted = false;
+      Entry entry = null;
+
+      synchronized (_lock) {
+         if (_running) {
+            if (key != null && operInput.getType() == OperationIF.TYPE.REPLACE) {
+               entry = _pending.get(key);
+            }
+
+            if (entry != null) {
+               entry._operInput = merge(entry._operInput, operInput); // last writer wins
+               entry._listeners.add(new Listener(operInput, listener));
+               _coalesced.incrementAndGet();
+               accepted = true;
+            } else if (_outstanding.get() < _capacity) {
+               entry = new Entry(operInput, key,
+                  operInput.getType() == OperationIF.TYPE.REPLACE ? _windowNanos : 0L);
+               entry._listeners.add(new Listener(operInput, listener));
+
+               if (key != null) {
+                  if (operInput.getType() == OperationIF.TYPE.REPLACE) {
+                     _pending.put(key, entry);
+                  }
+                  _unsent.computeIfAbsent(key, k -> new ArrayList<>(1)).add(entry);
+               }
+
+               _outstanding.incrementAndGet();
+               _queue.offer(entry);
+               accepted = true;
+            }
+         }
+      }
+
+      return accepted;
+   }
+
+   /**
+    * Send all queued operations, ignoring the flush window, and wait until
+    * they have completed.
+    *
+    * @throws InterruptedException interrupted while waiting
+    */
+   void flush() throws InterruptedException {
+      synchronized (_lock) {
+         _flushing++;
+         _queue.offer(new Entry(null, null, 0L)); // wake a waiting sender
+      }
+
+      try {
+         synchronized (_outstanding) {
+            while (_outstanding.get() > 0) {
+               _outstanding.wait(100L);
+            }
+         }
+      } finally {
+         synchronized (_lock) {
+            _flushing--;
+         }
+      }
+
+      return;
+   }
+
+   /**
+    * Send the queued operations of a document, ignoring the flush window, and
+    * wait until all its operations have completed. The cached copies of the
+    * document are invalidated when each request completes.
+    *
+    * @param key String document key
+    * @throws InterruptedException interrupted while waiting
+    */
+   void flush(final String key) throws InterruptedException {
+      List<Entry> entries = null;
+
+      synchronized (_lock) {
+         entries = _unsent.get(key);
+
+         if (entries != null) {
+            for (Entry entry : entries) {
+               if (_queue.remove(entry)) {
+                  entry._due = System.nanoTime();
+                  _queue.offer(entry);
+               }
+            }
+         }
+      }
+
+      if (entries != null) {
+         synchronized (_outstanding) {
+            while (this.isUnsent(key)) {
+               _outstanding.wait(100L);
+            }
+         }
+      }
+
+      return;
+   }
+
+   /**
+    * Flush the queue and stop the sender threads
+    */
+   void close() {
+      final String METHOD = "close";
+
+      try {
+         this.flush();
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+         _logger.log(Level.WARNING, "{0}: interrupted, {1} operations not sent",
+            new Object[]{METHOD, _outstanding.get()});
+      }
+
+      synchronized (_lock) {
+         _running = false;
+      }
+
+      _senders.shutdownNow();
+
+      return;
+   }
+
+   /**
+    * Get the queue statistics
+    *
+    * @return JSONObject statistics
+    */
+   JSONObject getStats() {
+      JSONObject json = new JSONObject();
+
+      json.put("queued", _outstanding.get());
+      json.put("capacity", _capacity);
+      json.put("coalesced", _coalesced.get());
+
+      return json;
+   }
+
+   /*
+    * =============== PRIVATE METHODS ===============
+    */
+   /**
+    * Sender thread, takes operations from the queue and sends them
+    */
+   private void send() {
+      final String METHOD = "send";
+      Entry entry = null;
+      OperationIF operInput = null;
+      OperationIF operOutput = null;
+      List<Listener> listeners = null;
+
+      while (_running && !Thread.currentThread().isInterrupted()) {
+         try {
+            entry = _queue.take();
+         } catch (InterruptedException ex) {
+            break;
+         }
+
+         if (entry._listeners.isEmpty()) {
+            continue; // wake up entry
+         }
+
+         synchronized (_lock) {
+            if (entry._key != null) {
+               _pending.remove(entry._key, entry);
+            }
+            operInput = entry._operInput;
+            listeners = entry._listeners;
+         }
+
+         try {
+            operOutput = _sender.apply(operInput);
+         } catch (RuntimeException ex) {
+            operOutput = new RestOperation(operInput.getType());
+            operOutput.setError(true);
+            operOutput.setState(STATE.ERROR);
+            operOutput.setStatus("Write-behind request failed: " + ex.getMessage());
+            operOutput.setJSON(new JSONObject());
+         }
+
+         if (operOutput.isError()) {
+            _logger.log(Level.WARNING, "{0}: {1}", new Object[]{METHOD, operOutput.getStatus()});
+         }
+
+         this.complete(entry);
+
+         for (Listener listener : listeners) {
+            if (listener._listener != null) {
+               try {
+                  listener._listener.completed(listener._operInput, operOutput);
+               } catch (RuntimeException ex) {
+                  _logger.log(Level.WARNING, "{0}: listener failed: {1}",
+                     new Object[]{METHOD, ex.getMessage()});
+               }
+            }
+         }
+
+         synchronized (_outstanding) {
+            _outstanding.decrementAndGet();
+            _outstanding.notifyAll(); // flush() and flush(key) waiters
+         }
+      }
+
+      return;
+   }
+
+   /**
+    * Stop tracking a sent operation of a document, before its listeners are
+    * called: a listener can read the document
+    *
+    * @param entry Entry sent operation
+    */
+   private void complete(final Entry entry) {
+      List<Entry> entries = null;
+
+      if (entry._key != null) {
+         synchronized (_lock) {
+            entries = _unsent.get(entry._key);
+
+            if (entries != null) {
+               entries.remove(entry);
+
+               if (entries.isEmpty()) {
+                  _unsent.remove(entry._key);
+               }
+            }
+         }
+
+         synchronized (_outstanding) {
+            _outstanding.notifyAll();
+         }
+      }
+
+      return;
+   }
+
+   /**
+    * Check if a document has queued operations, or operations being sent
+    *
+    * @param key String document key
+    * @return boolean true if an operation has not completed
+    */
+   private boolean isUnsent(final String key) {
+      synchronized (_lock) {
+         return _unsent.containsKey(key);
+      }
+   }
+
+   /**
+    * Merge a REPLACE into the queued REPLACE of the same document. A patch
+    * (with the "previous" data) gets the "previous" data of the queued
+    * operation, or becomes a full replace if the queued operation is one.
+    *
+    * @param queued OperationIF queued operation
+    * @param operInput OperationIF new operation
+    * @return OperationIF merged operation
+    */
+   private static OperationIF merge(final OperationIF queued, final OperationIF operInput) {
+      OperationIF merged = operInput;
+      JSONObject json = null;
+      Object previous = null;
+
+      if (operInput.getJSON() != null && operInput.getJSON().containsKey(RestDataAccess.ATTR_PREVIOUS)) {
+         previous = queued.getJSON() == null ? null : queued.getJSON().get(RestDataAccess.ATTR_PREVIOUS);
+         json = new JSONObject(operInput.getJSON());
+
+         if (previous == null) {
+            json.remove(RestDataAccess.ATTR_PREVIOUS);
+         } else {
+            json.put(RestDataAccess.ATTR_PREVIOUS, previous);
+         }
+
+         merged = new Operation(operInput.getType());
+         merged.setJSON(json);
+      }
+
+      return merged;
+   }
+
+   /*
+    * =============== PRIVATE CLASSES ===============
+    */
+   /**
+    * Queued operation, with the listeners of all the merged operations
+    */
+   private final class Entry implements Delayed {
+
+      private final String _key;
+      private long _due;
+      private final List<Listener> _listeners = new ArrayList<>(1);
+      private OperationIF _operInput;
+
+      private Entry(final OperationIF operInput, final String key, final long delayNanos) {
+         _operInput = operInput;
+         _key = key;
+         _due = System.nanoTime() + delayNanos;
+      }
+
+      @Override
+      public long getDelay(final TimeUnit unit) {
+         return _flushing > 0 ? 0L
+            : unit.convert(_due - System.nanoTime(), TimeUnit.NANOSECONDS);
+      }
+
+      @Override
+      public int compareTo(final Delayed other) {
+         return Long.compare(_due, ((Entry) other)._due);
+      }
+   }
+
+   /**
+    * Listener of a queued operation, with the operation that was added
+    */
+   private static final class Listener {
+
+      private final OperationIF _operInput;
+      private final CompletionListenerIF _listener;
+
+      private Listener(final OperationIF operInput, final CompletionListenerIF listener) {
+         _operInput = operInput;
+         _listener = listener;
+      }
+   }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2018-2021, ForgeRock, Inc., All rights reserved
+ * Use subject to license terms.
+ */
+package com.forgerock.frdp.dao.rest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-your-writes window: the documents written by this object, for a period
+ * of time after the write. Reads of these documents are sent to the primary,
+ * a replica may not have the write yet.
+ *
+ * Expired entries are removed when they are looked up, and by a sweep of the
+ * map at most once per window.
+ *
+ * @author Scott Fehrman, ForgeRock, Inc.
+ */
+final class WriteWindow {
+
+   private final long _windowNanos;
+   private final Map<String, Long> _writes = new ConcurrentHashMap<>();
+   private volatile long _nextSweep = 0L;
+
+   /**
+    * Constructor
+    *
+    * @param windowMillis long window, in milliseconds
+    */
+   WriteWindow(final long windowMillis) {
+      _windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+      _nextSweep = System.nanoTime() + _windowNanos;
+
+      return;
+   }
+
+   /**
+    * Record a write of the document
+    *
+    * @param key String document key
+    */
+   void record(final String key) {
+      long now = System.nanoTime();
+
+      if (key != null) {
+         _writes.put(key, now + _windowNanos);
+      }
+
+      if (now - _nextSweep >= 0L) {
+         _nextSweep = now + _windowNanos;
+         _writes.values().removeIf(until -> now - until >= 0L);
+      }
+
+      return;
+   }
+
+   /**
+    * Check if the document was written within the window
+    *
+    * @param key String document key, may be null
+    * @return boolean true if the document was written within the window
+    */
+   boolean contains(final String key) {
+      boolean found = false;
+      Long until = null;
+
+      if (key != null) {
+         until = _writes.get(key);
+
+         if (until != null) {
+            if (System.nanoTime() - until < 0L) {
+               found = true;
+            } else {
+               _writes.remove(key, until);
+            }
+         }
+      }
+
+      return found;
+   }
+
+   /**
+    * Get the number of documents in the window, may include expired entries
+    *
+    * @return int number of documents
+    */
+   int size() {
+      return _writes.size();
+   }
+}